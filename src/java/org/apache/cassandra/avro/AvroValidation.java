@@ -308,6 +308,8 @@ public class AvroValidation
             {
                 if (p instanceof RandomPartitioner)
                     throw newInvalidRequestException("start key's md5 sorts after end key's md5.  this is not allowed; you probably should not specify end key at all, under RandomPartitioner");
+                else if (!p.preservesOrder())
+                    throw newInvalidRequestException("start key's token sorts after end key's token.  this is not allowed; you probably should not specify end key at all, under " + p.getClass().getSimpleName());
                 else
                     throw newInvalidRequestException("start key must sort before (or equal to) finish key in your partitioner!");
             }
@@ -327,10 +329,10 @@ public class AvroValidation
         Set<ByteBuffer> indexedColumns = Table.open(keyspace).getColumnFamilyStore(columnFamily).getIndexedColumns();
         for (IndexExpression expression : index_clause.expressions)
         {
-            if (expression.op.equals(IndexOperator.EQ) && indexedColumns.contains(expression.column_name))
+            if (indexedColumns.contains(expression.column_name))
                 return;
         }
-        throw newInvalidRequestException("No indexed columns present in index clause with operator EQ");
+        throw newInvalidRequestException("No indexed columns present in index clause");
     }
 
 }
@@ -849,6 +849,10 @@ public class CassandraServer implements Cassandra {
                               cf_def.memtable_flush_after_mins == null ? CFMetaData.DEFAULT_MEMTABLE_LIFETIME_IN_MINS : cf_def.memtable_flush_after_mins,
                               cf_def.memtable_throughput_in_mb == null ? CFMetaData.DEFAULT_MEMTABLE_THROUGHPUT_IN_MB : cf_def.memtable_throughput_in_mb,
                               cf_def.memtable_operations_in_millions == null ? CFMetaData.DEFAULT_MEMTABLE_OPERATIONS_IN_MILLIONS : cf_def.memtable_operations_in_millions,
+                              CFMetaData.getMemtableAllocator(cf_def.memtable_allocator == null ? null : cf_def.memtable_allocator.toString()),
+                              CFMetaData.getRowCacheProvider(cf_def.row_cache_provider == null ? null : cf_def.row_cache_provider.toString()),
+                              cf_def.row_cache_size_in_mb == null ? CFMetaData.DEFAULT_ROW_CACHE_SIZE_IN_MB : cf_def.row_cache_size_in_mb,
+                              CFMetaData.getCompactionStrategy(cf_def.compaction_strategy == null ? null : cf_def.compaction_strategy.toString()),
                               ColumnDefinition.fromColumnDefs((Iterable<ColumnDef>) cf_def.column_metadata));
     }
 
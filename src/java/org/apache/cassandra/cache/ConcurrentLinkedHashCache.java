@@ -0,0 +1,107 @@
+package org.apache.cassandra.cache;
+/*
+ * 
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * 
+ */
+
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.reardencommerce.kernel.collections.shared.evictable.ConcurrentLinkedHashMap;
+
+/**
+ * Keeps values on the heap, as they are, holding up to capacity entries.
+ */
+public class ConcurrentLinkedHashCache<K, V> implements ICache<K, V>
+{
+    private final ConcurrentLinkedHashMap<K, V> map;
+    private final AtomicLong evictions = new AtomicLong(0);
+
+    public ConcurrentLinkedHashCache(int capacity)
+    {
+        ConcurrentLinkedHashMap.EvictionListener<K, V> listener = new ConcurrentLinkedHashMap.EvictionListener<K, V>()
+        {
+            public void onEviction(K key, V value)
+            {
+                evictions.incrementAndGet();
+            }
+        };
+        map = ConcurrentLinkedHashMap.create(ConcurrentLinkedHashMap.EvictionPolicy.SECOND_CHANCE, capacity, listener);
+    }
+
+    public int capacity()
+    {
+        return map.capacity();
+    }
+
+    public void setCapacity(int capacity)
+    {
+        map.setCapacity(capacity);
+    }
+
+    public void put(K key, V value)
+    {
+        map.put(key, value);
+    }
+
+    public V get(K key)
+    {
+        return map.get(key);
+    }
+
+    public void remove(K key)
+    {
+        map.remove(key);
+    }
+
+    public void reweigh(K key, V value)
+    {
+        // entries all weigh one
+    }
+
+    public int size()
+    {
+        return map.size();
+    }
+
+    public void clear()
+    {
+        map.clear();
+    }
+
+    public Set<K> keySet()
+    {
+        return map.keySet();
+    }
+
+    public long weightedSize()
+    {
+        return map.size();
+    }
+
+    public long evictions()
+    {
+        return evictions.get();
+    }
+
+    public boolean isPutCopying()
+    {
+        return false;
+    }
+}
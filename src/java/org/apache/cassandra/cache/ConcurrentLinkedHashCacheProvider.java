@@ -0,0 +1,42 @@
+package org.apache.cassandra.cache;
+/*
+ * 
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * 
+ */
+
+import org.apache.cassandra.config.CFMetaData;
+import org.apache.cassandra.db.ColumnFamily;
+import org.apache.cassandra.db.DecoratedKey;
+import org.apache.cassandra.utils.FBUtilities;
+
+/**
+ * Caches rows on the heap, up to rows_cached of them.
+ */
+public class ConcurrentLinkedHashCacheProvider implements IRowCacheProvider
+{
+    public int capacityFor(CFMetaData cfm, long expectedRows)
+    {
+        return (int)Math.min(FBUtilities.absoluteFromFraction(cfm.rowCacheSize, expectedRows), Integer.MAX_VALUE);
+    }
+
+    public ICache<DecoratedKey, ColumnFamily> create(int capacity)
+    {
+        return new ConcurrentLinkedHashCache<DecoratedKey, ColumnFamily>(capacity);
+    }
+}
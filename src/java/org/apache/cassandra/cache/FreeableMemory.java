@@ -0,0 +1,61 @@
+package org.apache.cassandra.cache;
+/*
+ * 
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * 
+ */
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.cassandra.io.util.Memory;
+
+/**
+ * Memory that is freed once every reference to it has been released.  It starts out with the single
+ * reference held by whoever allocated it.
+ */
+public class FreeableMemory extends Memory
+{
+    private final AtomicInteger references = new AtomicInteger(1);
+
+    public FreeableMemory(long size)
+    {
+        super(size);
+    }
+
+    /**
+     * @return true if a reference was taken, false if the memory has already been freed
+     */
+    public boolean reference()
+    {
+        while (true)
+        {
+            int n = references.get();
+            if (n <= 0)
+                return false;
+            if (references.compareAndSet(n, n + 1))
+                return true;
+        }
+    }
+
+    /** releases a reference, freeing the memory if it was the last */
+    public void unreference()
+    {
+        if (references.decrementAndGet() == 0)
+            free();
+    }
+}
@@ -0,0 +1,67 @@
+package org.apache.cassandra.cache;
+/*
+ * 
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * 
+ */
+
+import java.util.Set;
+
+/**
+ * The storage behind an InstrumentedCache.  Capacity is in whatever unit the implementation counts
+ * its contents in: entries, or megabytes for a cache that weighs its values.
+ */
+public interface ICache<K, V>
+{
+    public int capacity();
+
+    public void setCapacity(int capacity);
+
+    public void put(K key, V value);
+
+    public V get(K key);
+
+    public void remove(K key);
+
+    /**
+     * Tells a cache that weighs its values that the value cached for key was changed in place, so it may
+     * weigh something else now.  Does nothing if key is no longer cached with that value.
+     */
+    public void reweigh(K key, V value);
+
+    public int size();
+
+    public void clear();
+
+    public Set<K> keySet();
+
+    /**
+     * @return the total weight of the values held: bytes, say, or the number of entries for a cache that
+     * does not weigh its values
+     */
+    public long weightedSize();
+
+    /** @return the number of entries evicted to make room for others since the cache was created */
+    public long evictions();
+
+    /**
+     * @return true if put stores a copy of the value, so changes made to it afterwards are not seen
+     * by later gets.
+     */
+    public boolean isPutCopying();
+}
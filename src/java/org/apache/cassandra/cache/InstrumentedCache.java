@@ -24,12 +24,9 @@ package org.apache.cassandra.cache;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicLong;
 
-import com.reardencommerce.kernel.collections.shared.evictable.ConcurrentLinkedHashMap;
-
 public class InstrumentedCache<K, V>
 {
-    private int capacity;
-    private final ConcurrentLinkedHashMap<K, V> map;
+    private final ICache<K, V> map;
     private final AtomicLong requests = new AtomicLong(0);
     private final AtomicLong hits = new AtomicLong(0);
     private final AtomicLong lastRequests = new AtomicLong(0);
@@ -38,8 +35,12 @@ public class InstrumentedCache<K, V>
 
     public InstrumentedCache(int capacity)
     {
-        this.capacity = capacity;
-        map = ConcurrentLinkedHashMap.create(ConcurrentLinkedHashMap.EvictionPolicy.SECOND_CHANCE, capacity);
+        this(new SegmentedLruCache<K, V>(capacity));
+    }
+
+    public InstrumentedCache(ICache<K, V> map)
+    {
+        this.map = map;
     }
 
     public void put(K key, V value)
@@ -66,9 +67,14 @@ public class InstrumentedCache<K, V>
         map.remove(key);
     }
 
+    public void reweigh(K key, V value)
+    {
+        map.reweigh(key, value);
+    }
+
     public int getCapacity()
     {
-        return capacity;
+        return map.capacity();
     }
 
     public boolean isCapacitySetManually()
@@ -79,7 +85,6 @@ public class InstrumentedCache<K, V>
     public void updateCapacity(int capacity)
     {
         map.setCapacity(capacity);
-        this.capacity = capacity;
     }
 
     public void setCapacity(int capacity)
@@ -93,6 +98,16 @@ public class InstrumentedCache<K, V>
         return map.size();
     }
 
+    public long getWeightedSize()
+    {
+        return map.weightedSize();
+    }
+
+    public long getEvictions()
+    {
+        return map.evictions();
+    }
+
     public long getHits()
     {
         return hits.get();
@@ -103,6 +118,12 @@ public class InstrumentedCache<K, V>
         return requests.get();
     }
 
+    public double getHitRate()
+    {
+        long r = requests.get();
+        return r == 0 ? Double.NaN : ((double) hits.get()) / r;
+    }
+
     public double getRecentHitRate()
     {
         long r = requests.get();
@@ -129,4 +150,13 @@ public class InstrumentedCache<K, V>
     {
         return map.keySet();
     }
+
+    /**
+     * @return true if put stores a copy of the value, so changes made to it afterwards are not seen
+     * by later gets.
+     */
+    public boolean isPutCopying()
+    {
+        return map.isPutCopying();
+    }
 }
@@ -27,14 +27,26 @@ public interface JMXInstrumentedCacheMBean
     public void setCapacity(int capacity);
     public int getSize();
 
+    /**
+     * total weight of the entries held: bytes, for caches whose capacity is in megabytes, or else the
+     * number of entries
+     */
+    public long getWeightedSize();
+
+    /** total count of entries evicted to make room for others since cache creation */
+    public long getEvictions();
+
     /** total request count since cache creation */
     public long getRequests();
 
     /** total cache hit count since cache creation */
     public long getHits();
 
+    /** hits / requests since cache creation, or since it was last cleared */
+    public double getHitRate();
+
     /**
-     * hits / requests since the last time getHitRate was called.  serious telemetry apps should not use this,
+     * hits / requests since the last time getRecentHitRate was called.  serious telemetry apps should not use this,
      * and should instead track the deltas from getHits / getRequests themselves, since those will not be
      * affected by multiple users calling it.  Provided for convenience only.
      */
@@ -0,0 +1,397 @@
+package org.apache.cassandra.cache;
+/*
+ * 
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * 
+ */
+
+import java.util.Collections;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A cache bounded by the total weight of its values, which evicts with a scan-resistant segmented LRU policy.
+ *
+ * New entries join a probationary segment.  Reading an entry only marks it referenced, without locking.
+ * When eviction reaches a referenced probationary entry, it promotes it to the protected segment instead;
+ * that segment holds up to PROTECTED_SHARE of the capacity, and demotes its least recently promoted
+ * entries back to probation as it fills.  So entries read once, as by a scan, are evicted before any
+ * that were read again, and a scan can only ever flush the probationary segment.
+ *
+ * Writes go straight to the map, and queue the matching change to the segments.  Whichever writer gets
+ * the lock applies the queued changes and evicts; the others carry on without waiting for it, so the
+ * cache may hold a little more than its capacity until the changes are applied.  Capacity is in units
+ * of the given number of weight units: megabytes of bytes, say, or single entries for a cache that does
+ * not weigh its values.
+ */
+public class SegmentedLruCache<K, V> implements ICache<K, V>
+{
+    private static final double PROTECTED_SHARE = 0.8;
+
+    private static final IWeigher<Object> SINGLETON = new IWeigher<Object>()
+    {
+        public long weigh(Object value)
+        {
+            return 1;
+        }
+    };
+
+    public interface RemovalListener<K, V>
+    {
+        /**
+         * Called, under the cache's lock, exactly once for every value that leaves the cache: evicted,
+         * removed, replaced, cleared, or put when it would not fit.
+         */
+        public void onRemoval(K key, V value);
+    }
+
+    private final ConcurrentMap<K, Node<K, V>> map = new ConcurrentHashMap<K, Node<K, V>>();
+    private final long unit;
+    private final IWeigher<? super V> weigher;
+    private final RemovalListener<K, V> listener;
+
+    private volatile int capacity;
+    // written under the lock
+    private volatile long weight;
+    private volatile long evictions;
+
+    // the changes made to the map that are yet to be applied to the segments
+    private final Queue<Update<K, V>> updates = new ConcurrentLinkedQueue<Update<K, V>>();
+    private final ReentrantLock lock = new ReentrantLock();
+
+    // circular lists, ordered from least to most recently added, guarded by the lock
+    private final Node<K, V> probation = new Node<K, V>(null, null, 0);
+    private final Node<K, V> protectedSegment = new Node<K, V>(null, null, 0);
+    private long protectedWeight;
+
+    /**
+     * Creates a cache of up to capacity entries.
+     */
+    public SegmentedLruCache(int capacity)
+    {
+        this(capacity, 1, SINGLETON, null);
+    }
+
+    /**
+     * @param capacity the capacity, in multiples of unit
+     * @param unit the weight of one unit of capacity
+     * @param listener told of every value that leaves the cache; may be null
+     */
+    public SegmentedLruCache(int capacity, long unit, IWeigher<? super V> weigher, RemovalListener<K, V> listener)
+    {
+        assert capacity >= 0 && unit > 0;
+        this.capacity = capacity;
+        this.unit = unit;
+        this.weigher = weigher;
+        this.listener = listener;
+    }
+
+    private static final class Node<K, V>
+    {
+        final K key;
+        final V value;
+        final long weight;
+        volatile boolean referenced;
+        // the rest are guarded by the lock
+        boolean isProtected;
+        boolean isLinked;
+        // set once the node has been handed to the listener
+        boolean isRetired;
+        Node<K, V> prev = this;
+        Node<K, V> next = this;
+
+        Node(K key, V value, long weight)
+        {
+            this.key = key;
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+
+    /** a node that took the place of another in the map; either may be null, not both */
+    private static final class Update<K, V>
+    {
+        final Node<K, V> node;
+        final Node<K, V> old;
+        // whether node holds the value of old, weighed again, that stays in the cache
+        final boolean isReweigh;
+
+        Update(Node<K, V> node, Node<K, V> old, boolean isReweigh)
+        {
+            this.node = node;
+            this.old = old;
+            this.isReweigh = isReweigh;
+        }
+    }
+
+    private void link(Node<K, V> node, boolean isProtected)
+    {
+        Node<K, V> head = isProtected ? protectedSegment : probation;
+        node.isProtected = isProtected;
+        node.isLinked = true;
+        node.prev = head.prev;
+        node.next = head;
+        head.prev.next = node;
+        head.prev = node;
+        weight += node.weight;
+        if (isProtected)
+            protectedWeight += node.weight;
+    }
+
+    private void unlink(Node<K, V> node)
+    {
+        node.prev.next = node.next;
+        node.next.prev = node.prev;
+        node.prev = node.next = node;
+        node.isLinked = false;
+        weight -= node.weight;
+        if (node.isProtected)
+            protectedWeight -= node.weight;
+    }
+
+    private void removed(Node<K, V> node)
+    {
+        node.isRetired = true;
+        if (listener != null)
+            listener.onRemoval(node.key, node.value);
+    }
+
+    private long limit()
+    {
+        return capacity * unit;
+    }
+
+    /**
+     * Queues a change made to the map, and applies the queued changes if no other thread is at it.
+     */
+    private void update(Node<K, V> node, Node<K, V> old, boolean isReweigh)
+    {
+        updates.add(new Update<K, V>(node, old, isReweigh));
+        // a change queued while the thread holding the lock was releasing it would be left waiting
+        // for the next write, so look again once we are done
+        while (!updates.isEmpty() && lock.tryLock())
+        {
+            try
+            {
+                drain();
+                evict();
+            }
+            finally
+            {
+                lock.unlock();
+            }
+        }
+    }
+
+    /** must hold the lock */
+    private void drain()
+    {
+        Update<K, V> update;
+        while ((update = updates.poll()) != null)
+        {
+            // changes to one key may be queued in another order than they were made to the map, so an
+            // old node may be retired before its own insertion is applied, which then does nothing
+            Node<K, V> old = update.old;
+            boolean isProtected = false;
+            if (old != null)
+            {
+                if (old.isLinked)
+                {
+                    isProtected = old.isProtected;
+                    unlink(old);
+                }
+            }
+
+            Node<K, V> node = update.node;
+            if (old != null && !old.isRetired)
+            {
+                // a value weighed again stays in the cache, so the listener must not let go of it
+                if (update.isReweigh)
+                    old.isRetired = true;
+                else
+                    removed(old);
+            }
+            if (node != null && !node.isRetired)
+            {
+                // the new value takes the place of the old
+                if (old != null && old.referenced)
+                    node.referenced = true;
+                link(node, isProtected);
+            }
+        }
+    }
+
+    /** must hold the lock */
+    private void evict()
+    {
+        long limit = limit();
+        long protectedLimit = (long) (limit * PROTECTED_SHARE);
+        demote(protectedLimit);
+        while (weight > limit)
+        {
+            Node<K, V> node = probation.next;
+            // the protected segment holds less than the capacity, so probation cannot be empty
+            assert node != probation;
+            unlink(node);
+            if (node.referenced && node.weight <= protectedLimit)
+            {
+                // it was read again since it joined the segment: give it another round, in protection
+                node.referenced = false;
+                link(node, true);
+                demote(protectedLimit);
+                continue;
+            }
+            // a node that is no longer in the map has a queued update that will retire it
+            if (map.remove(node.key, node))
+            {
+                evictions++;
+                removed(node);
+            }
+        }
+    }
+
+    /** moves the least recently promoted protected entries back to probation until the segment fits in limit */
+    private void demote(long limit)
+    {
+        while (protectedWeight > limit)
+        {
+            Node<K, V> node = protectedSegment.next;
+            unlink(node);
+            link(node, false);
+        }
+    }
+
+    public int capacity()
+    {
+        return capacity;
+    }
+
+    public void setCapacity(int capacity)
+    {
+        assert capacity >= 0;
+        lock.lock();
+        try
+        {
+            this.capacity = capacity;
+            drain();
+            evict();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    public void put(K key, V value)
+    {
+        Node<K, V> node = new Node<K, V>(key, value, weigher.weigh(value));
+        if (capacity == 0 || node.weight > limit())
+        {
+            // it would only push everything else out before being evicted itself
+            remove(key);
+            update(null, node, false);
+            return;
+        }
+        update(node, map.put(key, node), false);
+    }
+
+    /**
+     * Weighs the value again if it is still the one cached for key, for a value that was changed in place.
+     */
+    public void reweigh(K key, V value)
+    {
+        Node<K, V> old = map.get(key);
+        if (old == null || old.value != value)
+            return;
+        Node<K, V> node = new Node<K, V>(key, value, weigher.weigh(value));
+        if (node.weight != old.weight && map.replace(key, old, node))
+            update(node, old, true);
+    }
+
+    public V get(K key)
+    {
+        Node<K, V> node = map.get(key);
+        if (node == null)
+            return null;
+        if (!node.referenced)
+            node.referenced = true;
+        return node.value;
+    }
+
+    public void remove(K key)
+    {
+        Node<K, V> node = map.remove(key);
+        if (node != null)
+            update(null, node, false);
+    }
+
+    public int size()
+    {
+        return map.size();
+    }
+
+    public void clear()
+    {
+        lock.lock();
+        try
+        {
+            drain();
+            clear(probation);
+            clear(protectedSegment);
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    private void clear(Node<K, V> head)
+    {
+        while (head.next != head)
+        {
+            Node<K, V> node = head.next;
+            unlink(node);
+            if (map.remove(node.key, node))
+                removed(node);
+        }
+    }
+
+    public Set<K> keySet()
+    {
+        return Collections.unmodifiableSet(map.keySet());
+    }
+
+    public long weightedSize()
+    {
+        return weight;
+    }
+
+    public long evictions()
+    {
+        return evictions;
+    }
+
+    public boolean isPutCopying()
+    {
+        return false;
+    }
+}
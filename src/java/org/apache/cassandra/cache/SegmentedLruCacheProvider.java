@@ -0,0 +1,53 @@
+package org.apache.cassandra.cache;
+/*
+ * 
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * 
+ */
+
+import org.apache.cassandra.config.CFMetaData;
+import org.apache.cassandra.db.ColumnFamily;
+import org.apache.cassandra.db.DecoratedKey;
+
+/**
+ * Caches rows on the heap, in up to row_cache_size_in_mb megabytes of them, evicting with a segmented LRU
+ * policy that a scan cannot flush the hot rows out of.  Rows are weighed by their serialized size, which
+ * understates what they take on the heap; a row that grows with a write is weighed again.
+ */
+public class SegmentedLruCacheProvider implements IRowCacheProvider
+{
+    private static final long MB = 1024 * 1024;
+
+    private static final IWeigher<ColumnFamily> weigher = new IWeigher<ColumnFamily>()
+    {
+        public long weigh(ColumnFamily cf)
+        {
+            return cf.size();
+        }
+    };
+
+    public int capacityFor(CFMetaData cfm, long expectedRows)
+    {
+        return cfm.rowCacheSizeInMB;
+    }
+
+    public ICache<DecoratedKey, ColumnFamily> create(int capacity)
+    {
+        return new SegmentedLruCache<DecoratedKey, ColumnFamily>(capacity, MB, weigher, null);
+    }
+}
@@ -0,0 +1,165 @@
+package org.apache.cassandra.cache;
+/*
+ * 
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * 
+ */
+
+import java.io.DataInputStream;
+import java.io.IOError;
+import java.io.IOException;
+import java.util.Set;
+
+import org.apache.cassandra.io.ICompactSerializer2;
+import org.apache.cassandra.io.util.DataOutputBuffer;
+import org.apache.cassandra.io.util.MemoryInputStream;
+
+/**
+ * Keeps values serialized in native memory, outside the java heap, and deserializes them on every get.
+ * Capacity is in megabytes of serialized values.
+ */
+public class SerializingCache<K, V> implements ICache<K, V>
+{
+    private static final long MB = 1024 * 1024;
+
+    private static final IWeigher<FreeableMemory> weigher = new IWeigher<FreeableMemory>()
+    {
+        public long weigh(FreeableMemory mem)
+        {
+            return mem.size();
+        }
+    };
+
+    private final SegmentedLruCache<K, FreeableMemory> map;
+    private final ICompactSerializer2<V> serializer;
+
+    public SerializingCache(int capacity, ICompactSerializer2<V> serializer)
+    {
+        this.serializer = serializer;
+        SegmentedLruCache.RemovalListener<K, FreeableMemory> listener = new SegmentedLruCache.RemovalListener<K, FreeableMemory>()
+        {
+            public void onRemoval(K key, FreeableMemory mem)
+            {
+                mem.unreference();
+            }
+        };
+        map = new SegmentedLruCache<K, FreeableMemory>(capacity, MB, weigher, listener);
+    }
+
+    private FreeableMemory serialize(V value)
+    {
+        DataOutputBuffer buffer = new DataOutputBuffer();
+        try
+        {
+            serializer.serialize(value, buffer);
+        }
+        catch (IOException e)
+        {
+            throw new IOError(e);
+        }
+        FreeableMemory mem = new FreeableMemory(buffer.getLength());
+        mem.setBytes(0, buffer.getData(), 0, buffer.getLength());
+        return mem;
+    }
+
+    private V deserialize(FreeableMemory mem)
+    {
+        try
+        {
+            return serializer.deserialize(new DataInputStream(new MemoryInputStream(mem)));
+        }
+        catch (IOException e)
+        {
+            throw new IOError(e);
+        }
+    }
+
+    public int capacity()
+    {
+        return map.capacity();
+    }
+
+    public void setCapacity(int capacity)
+    {
+        map.setCapacity(capacity);
+    }
+
+    public void put(K key, V value)
+    {
+        if (map.capacity() == 0)
+            return;
+        map.put(key, serialize(value));
+    }
+
+    public V get(K key)
+    {
+        FreeableMemory mem = map.get(key);
+        // the value may be evicted and freed while we read it; our reference keeps the memory until we are done
+        if (mem == null || !mem.reference())
+            return null;
+        try
+        {
+            return deserialize(mem);
+        }
+        finally
+        {
+            mem.unreference();
+        }
+    }
+
+    public void remove(K key)
+    {
+        map.remove(key);
+    }
+
+    public void reweigh(K key, V value)
+    {
+        // the cached copy does not change with the value
+    }
+
+    public int size()
+    {
+        return map.size();
+    }
+
+    public void clear()
+    {
+        map.clear();
+    }
+
+    public Set<K> keySet()
+    {
+        return map.keySet();
+    }
+
+    /** @return the bytes of serialized values held */
+    public long weightedSize()
+    {
+        return map.weightedSize();
+    }
+
+    public long evictions()
+    {
+        return map.evictions();
+    }
+
+    public boolean isPutCopying()
+    {
+        return true;
+    }
+}
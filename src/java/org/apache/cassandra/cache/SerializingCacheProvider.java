@@ -0,0 +1,43 @@
+package org.apache.cassandra.cache;
+/*
+ * 
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * 
+ */
+
+import org.apache.cassandra.config.CFMetaData;
+import org.apache.cassandra.db.ColumnFamily;
+import org.apache.cassandra.db.DecoratedKey;
+
+/**
+ * Caches rows serialized, off the heap, in up to row_cache_size_in_mb megabytes.  A row takes a
+ * fraction of the memory it does on the heap, but must be deserialized on every hit, and every write
+ * to it invalidates it.
+ */
+public class SerializingCacheProvider implements IRowCacheProvider
+{
+    public int capacityFor(CFMetaData cfm, long expectedRows)
+    {
+        return cfm.rowCacheSizeInMB;
+    }
+
+    public ICache<DecoratedKey, ColumnFamily> create(int capacity)
+    {
+        return new SerializingCache<DecoratedKey, ColumnFamily>(capacity, ColumnFamily.serializer());
+    }
+}
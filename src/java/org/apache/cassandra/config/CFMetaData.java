@@ -18,6 +18,7 @@
 
 package org.apache.cassandra.config;
 
+import java.lang.reflect.InvocationTargetException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -29,8 +30,13 @@ import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.avro.util.Utf8;
 import org.apache.cassandra.avro.ColumnDef;
+import org.apache.cassandra.cache.ConcurrentLinkedHashCacheProvider;
+import org.apache.cassandra.cache.IRowCacheProvider;
+import org.apache.cassandra.db.AbstractCompactionStrategy;
+import org.apache.cassandra.db.ColumnFamilyStore;
 import org.apache.cassandra.db.ColumnFamilyType;
 import org.apache.cassandra.db.HintedHandOffManager;
+import org.apache.cassandra.db.SizeTieredCompactionStrategy;
 import org.apache.cassandra.db.SystemTable;
 import org.apache.cassandra.db.Table;
 import org.apache.cassandra.db.marshal.AbstractType;
@@ -39,7 +45,9 @@ import org.apache.cassandra.db.marshal.TimeUUIDType;
 import org.apache.cassandra.db.marshal.UTF8Type;
 import org.apache.cassandra.db.migration.Migration;
 import org.apache.cassandra.io.SerDeUtils;
+import org.apache.cassandra.utils.Allocator;
 import org.apache.cassandra.utils.FBUtilities;
+import org.apache.cassandra.utils.HeapAllocator;
 import org.apache.cassandra.utils.Pair;
 import org.apache.commons.lang.builder.EqualsBuilder;
 import org.apache.commons.lang.builder.HashCodeBuilder;
@@ -62,6 +70,10 @@ public final class CFMetaData
     public final static int DEFAULT_MEMTABLE_LIFETIME_IN_MINS = 60;
     public final static int DEFAULT_MEMTABLE_THROUGHPUT_IN_MB = sizeMemtableThroughput();
     public final static double DEFAULT_MEMTABLE_OPERATIONS_IN_MILLIONS = sizeMemtableOperations(DEFAULT_MEMTABLE_THROUGHPUT_IN_MB);
+    public final static Class<? extends Allocator> DEFAULT_MEMTABLE_ALLOCATOR = HeapAllocator.class;
+    public final static Class<? extends IRowCacheProvider> DEFAULT_ROW_CACHE_PROVIDER = ConcurrentLinkedHashCacheProvider.class;
+    public final static int DEFAULT_ROW_CACHE_SIZE_IN_MB = 0;
+    public final static Class<? extends AbstractCompactionStrategy> DEFAULT_COMPACTION_STRATEGY = SizeTieredCompactionStrategy.class;
 
     private static final int MIN_CF_ID = 1000;
 
@@ -95,6 +107,10 @@ public final class CFMetaData
                               DEFAULT_MEMTABLE_LIFETIME_IN_MINS,
                               DEFAULT_MEMTABLE_THROUGHPUT_IN_MB,
                               DEFAULT_MEMTABLE_OPERATIONS_IN_MILLIONS,
+                              DEFAULT_MEMTABLE_ALLOCATOR,
+                              DEFAULT_ROW_CACHE_PROVIDER,
+                              DEFAULT_ROW_CACHE_SIZE_IN_MB,
+                              DEFAULT_COMPACTION_STRATEGY,
                               cfId,
                               Collections.<ByteBuffer, ColumnDefinition>emptyMap());
     }
@@ -160,6 +176,10 @@ public final class CFMetaData
     public final int memtableFlushAfterMins;          // default 60 
     public final int memtableThroughputInMb;          // default based on heap size
     public final double memtableOperationsInMillions; // default based on throughput
+    public final Class<? extends Allocator> memtableAllocator; // default HeapAllocator
+    public final Class<? extends IRowCacheProvider> rowCacheProvider; // default ConcurrentLinkedHashCacheProvider
+    public final int rowCacheSizeInMB;                // default 0; the capacity of providers that weigh rows
+    public final Class<? extends AbstractCompactionStrategy> compactionStrategy; // default SizeTieredCompactionStrategy
     // NOTE: if you find yourself adding members to this class, make sure you keep the convert methods in lockstep.
 
     public final Map<ByteBuffer, ColumnDefinition> column_metadata;
@@ -182,6 +202,10 @@ public final class CFMetaData
                        int memtableFlushAfterMins,
                        Integer memtableThroughputInMb,
                        Double memtableOperationsInMillions,
+                       Class<? extends Allocator> memtableAllocator,
+                       Class<? extends IRowCacheProvider> rowCacheProvider,
+                       int rowCacheSizeInMB,
+                       Class<? extends AbstractCompactionStrategy> compactionStrategy,
                        Integer cfId,
                        Map<ByteBuffer, ColumnDefinition> column_metadata)
 
@@ -213,6 +237,10 @@ public final class CFMetaData
         this.memtableOperationsInMillions = memtableOperationsInMillions == null
                                             ? DEFAULT_MEMTABLE_OPERATIONS_IN_MILLIONS
                                             : memtableOperationsInMillions;
+        this.memtableAllocator = memtableAllocator == null ? DEFAULT_MEMTABLE_ALLOCATOR : memtableAllocator;
+        this.rowCacheProvider = rowCacheProvider == null ? DEFAULT_ROW_CACHE_PROVIDER : rowCacheProvider;
+        this.rowCacheSizeInMB = rowCacheSizeInMB;
+        this.compactionStrategy = compactionStrategy == null ? DEFAULT_COMPACTION_STRATEGY : compactionStrategy;
         this.cfId = cfId;
         this.column_metadata = Collections.unmodifiableMap(column_metadata);
     }
@@ -247,6 +275,10 @@ public final class CFMetaData
                       int memTime,
                       Integer memSize,
                       Double memOps,
+                      Class<? extends Allocator> memtableAllocator,
+                      Class<? extends IRowCacheProvider> rowCacheProvider,
+                      int rowCacheSizeInMB,
+                      Class<? extends AbstractCompactionStrategy> compactionStrategy,
                       //This constructor generates the id!
                       Map<ByteBuffer, ColumnDefinition> column_metadata)
     {
@@ -268,6 +300,10 @@ public final class CFMetaData
              memTime,
              memSize,
              memOps,
+             memtableAllocator,
+             rowCacheProvider,
+             rowCacheSizeInMB,
+             compactionStrategy,
              nextId(),
              column_metadata);
     }
@@ -292,6 +328,10 @@ public final class CFMetaData
                               DEFAULT_MEMTABLE_LIFETIME_IN_MINS,
                               DEFAULT_MEMTABLE_THROUGHPUT_IN_MB,
                               DEFAULT_MEMTABLE_OPERATIONS_IN_MILLIONS,
+                              DEFAULT_MEMTABLE_ALLOCATOR,
+                              DEFAULT_ROW_CACHE_PROVIDER,
+                              DEFAULT_ROW_CACHE_SIZE_IN_MB,
+                              DEFAULT_COMPACTION_STRATEGY,
                               Collections.<ByteBuffer, ColumnDefinition>emptyMap());
     }
 
@@ -316,6 +356,10 @@ public final class CFMetaData
                               cfm.memtableFlushAfterMins,
                               cfm.memtableThroughputInMb,
                               cfm.memtableOperationsInMillions,
+                              cfm.memtableAllocator,
+                              cfm.rowCacheProvider,
+                              cfm.rowCacheSizeInMB,
+                              cfm.compactionStrategy,
                               cfm.cfId,
                               cfm.column_metadata);
     }
@@ -341,6 +385,10 @@ public final class CFMetaData
                               cfm.memtableFlushAfterMins,
                               cfm.memtableThroughputInMb,
                               cfm.memtableOperationsInMillions,
+                              cfm.memtableAllocator,
+                              cfm.rowCacheProvider,
+                              cfm.rowCacheSizeInMB,
+                              cfm.compactionStrategy,
                               cfm.cfId,
                               cfm.column_metadata);
     }
@@ -374,6 +422,10 @@ public final class CFMetaData
         cf.memtable_flush_after_mins = memtableFlushAfterMins;
         cf.memtable_throughput_in_mb = memtableThroughputInMb;
         cf.memtable_operations_in_millions = memtableOperationsInMillions;
+        cf.memtable_allocator = new Utf8(memtableAllocator.getName());
+        cf.row_cache_provider = new Utf8(rowCacheProvider.getName());
+        cf.row_cache_size_in_mb = rowCacheSizeInMB;
+        cf.compaction_strategy = new Utf8(compactionStrategy.getName());
         cf.column_metadata = SerDeUtils.createArray(column_metadata.size(),
                                                     org.apache.cassandra.avro.ColumnDef.SCHEMA$);
         for (ColumnDefinition cd : column_metadata.values())
@@ -414,6 +466,20 @@ public final class CFMetaData
         Integer memtable_flush_after_mins = cf.memtable_flush_after_mins == null ? DEFAULT_MEMTABLE_LIFETIME_IN_MINS : cf.memtable_flush_after_mins;
         Integer memtable_throughput_in_mb = cf.memtable_throughput_in_mb == null ? DEFAULT_MEMTABLE_THROUGHPUT_IN_MB : cf.memtable_throughput_in_mb;
         Double memtable_operations_in_millions = cf.memtable_operations_in_millions == null ? DEFAULT_MEMTABLE_OPERATIONS_IN_MILLIONS : cf.memtable_operations_in_millions;
+        Class<? extends Allocator> memtable_allocator;
+        Class<? extends IRowCacheProvider> row_cache_provider;
+        Class<? extends AbstractCompactionStrategy> compaction_strategy;
+        try
+        {
+            memtable_allocator = getMemtableAllocator(cf.memtable_allocator == null ? null : cf.memtable_allocator.toString());
+            row_cache_provider = getRowCacheProvider(cf.row_cache_provider == null ? null : cf.row_cache_provider.toString());
+            compaction_strategy = getCompactionStrategy(cf.compaction_strategy == null ? null : cf.compaction_strategy.toString());
+        }
+        catch (ConfigurationException ex)
+        {
+            throw new RuntimeException("Could not inflate CFMetaData for " + cf, ex);
+        }
+        int row_cache_size_in_mb = cf.row_cache_size_in_mb == null ? DEFAULT_ROW_CACHE_SIZE_IN_MB : cf.row_cache_size_in_mb;
 
         return new CFMetaData(cf.keyspace.toString(),
                               cf.name.toString(),
@@ -433,6 +499,10 @@ public final class CFMetaData
                               memtable_flush_after_mins,
                               memtable_throughput_in_mb,
                               memtable_operations_in_millions,
+                              memtable_allocator,
+                              row_cache_provider,
+                              row_cache_size_in_mb,
+                              compaction_strategy,
                               cf.id,
                               column_metadata);
     }
@@ -469,6 +539,10 @@ public final class CFMetaData
             .append(memtableFlushAfterMins, rhs.memtableFlushAfterMins)
             .append(memtableThroughputInMb, rhs.memtableThroughputInMb)
             .append(memtableOperationsInMillions, rhs.memtableOperationsInMillions)
+            .append(memtableAllocator, rhs.memtableAllocator)
+            .append(rowCacheProvider, rhs.rowCacheProvider)
+            .append(rowCacheSizeInMB, rhs.rowCacheSizeInMB)
+            .append(compactionStrategy, rhs.compactionStrategy)
             .isEquals();
     }
 
@@ -495,6 +569,10 @@ public final class CFMetaData
             .append(memtableFlushAfterMins)
             .append(memtableThroughputInMb)
             .append(memtableOperationsInMillions)
+            .append(memtableAllocator)
+            .append(rowCacheProvider)
+            .append(rowCacheSizeInMB)
+            .append(compactionStrategy)
             .toHashCode();
     }
 
@@ -503,6 +581,129 @@ public final class CFMetaData
         return idGen.getAndIncrement();
     }
 
+    /**
+     * @return the class named by memtable_allocator, or the default if none was given.
+     * Short names are assumed to live in org.apache.cassandra.utils.
+     */
+    public static Class<? extends Allocator> getMemtableAllocator(String className) throws ConfigurationException
+    {
+        if (className == null || className.length() == 0)
+            return DEFAULT_MEMTABLE_ALLOCATOR;
+        if (!className.contains("."))
+            className = "org.apache.cassandra.utils." + className;
+        Class<? extends Allocator> allocatorClass = FBUtilities.classForName(className, "memtable allocator");
+        if (!Allocator.class.isAssignableFrom(allocatorClass))
+            throw new ConfigurationException(className + " is not a subclass of " + Allocator.class.getName());
+        return allocatorClass;
+    }
+
+    /**
+     * @return the class named by row_cache_provider, or the default if none was given.
+     * Short names are assumed to live in org.apache.cassandra.cache.
+     */
+    public static Class<? extends IRowCacheProvider> getRowCacheProvider(String className) throws ConfigurationException
+    {
+        if (className == null || className.length() == 0)
+            return DEFAULT_ROW_CACHE_PROVIDER;
+        if (!className.contains("."))
+            className = "org.apache.cassandra.cache." + className;
+        Class<? extends IRowCacheProvider> providerClass = FBUtilities.classForName(className, "row cache provider");
+        if (!IRowCacheProvider.class.isAssignableFrom(providerClass))
+            throw new ConfigurationException(className + " does not implement " + IRowCacheProvider.class.getName());
+        return providerClass;
+    }
+
+    /**
+     * @return the class named by compaction_strategy, or the default if none was given.
+     * Short names are assumed to live in org.apache.cassandra.db.
+     */
+    public static Class<? extends AbstractCompactionStrategy> getCompactionStrategy(String className) throws ConfigurationException
+    {
+        if (className == null || className.length() == 0)
+            return DEFAULT_COMPACTION_STRATEGY;
+        if (!className.contains("."))
+            className = "org.apache.cassandra.db." + className;
+        Class<? extends AbstractCompactionStrategy> strategyClass = FBUtilities.classForName(className, "compaction strategy");
+        if (!AbstractCompactionStrategy.class.isAssignableFrom(strategyClass))
+            throw new ConfigurationException(className + " is not a subclass of " + AbstractCompactionStrategy.class.getName());
+        return strategyClass;
+    }
+
+    /** @return a new compaction strategy for the given store of this column family. */
+    public AbstractCompactionStrategy createCompactionStrategy(ColumnFamilyStore cfs)
+    {
+        try
+        {
+            return compactionStrategy.getConstructor(ColumnFamilyStore.class).newInstance(cfs);
+        }
+        catch (NoSuchMethodException e)
+        {
+            throw new RuntimeException(e);
+        }
+        catch (InstantiationException e)
+        {
+            throw new RuntimeException(e);
+        }
+        catch (IllegalAccessException e)
+        {
+            throw new RuntimeException(e);
+        }
+        catch (InvocationTargetException e)
+        {
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /** @return a provider for the row cache of this column family. */
+    public IRowCacheProvider createRowCacheProvider()
+    {
+        try
+        {
+            return rowCacheProvider.getConstructor().newInstance();
+        }
+        catch (NoSuchMethodException e)
+        {
+            throw new RuntimeException(e);
+        }
+        catch (InstantiationException e)
+        {
+            throw new RuntimeException(e);
+        }
+        catch (IllegalAccessException e)
+        {
+            throw new RuntimeException(e);
+        }
+        catch (InvocationTargetException e)
+        {
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /** @return a fresh allocator for a new memtable of this column family. */
+    public Allocator createMemtableAllocator()
+    {
+        try
+        {
+            return memtableAllocator.getConstructor().newInstance();
+        }
+        catch (NoSuchMethodException e)
+        {
+            throw new RuntimeException(e);
+        }
+        catch (InstantiationException e)
+        {
+            throw new RuntimeException(e);
+        }
+        catch (IllegalAccessException e)
+        {
+            throw new RuntimeException(e);
+        }
+        catch (InvocationTargetException e)
+        {
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
     public AbstractType getValueValidator(ByteBuffer column)
     {
         AbstractType validator = defaultValidator;
@@ -555,6 +756,10 @@ public final class CFMetaData
                               cf_def.memtable_flush_after_mins,
                               cf_def.memtable_throughput_in_mb,
                               cf_def.memtable_operations_in_millions,
+                              getMemtableAllocator(cf_def.memtable_allocator == null ? null : cf_def.memtable_allocator.toString()),
+                              getRowCacheProvider(cf_def.row_cache_provider == null ? null : cf_def.row_cache_provider.toString()),
+                              cf_def.row_cache_size_in_mb == null ? DEFAULT_ROW_CACHE_SIZE_IN_MB : cf_def.row_cache_size_in_mb,
+                              getCompactionStrategy(cf_def.compaction_strategy == null ? null : cf_def.compaction_strategy.toString()),
                               cfId,
                               column_metadata);
     }
@@ -617,6 +822,10 @@ public final class CFMetaData
                               cf_def.memtable_flush_after_mins,
                               cf_def.memtable_throughput_in_mb,
                               cf_def.memtable_operations_in_millions,
+                              memtableAllocator, // not exposed over thrift; keep the current setting
+                              rowCacheProvider, // nor are the row cache settings
+                              rowCacheSizeInMB,
+                              compactionStrategy, // nor is the compaction strategy
                               cfId,
                               metadata);
     }
@@ -687,6 +896,10 @@ public final class CFMetaData
         def.memtable_flush_after_mins = cfm.memtableFlushAfterMins;
         def.memtable_throughput_in_mb = cfm.memtableThroughputInMb;
         def.memtable_operations_in_millions = cfm.memtableOperationsInMillions;
+        def.memtable_allocator = cfm.memtableAllocator.getName();
+        def.row_cache_provider = cfm.rowCacheProvider.getName();
+        def.row_cache_size_in_mb = cfm.rowCacheSizeInMB;
+        def.compaction_strategy = cfm.compactionStrategy.getName();
         List<org.apache.cassandra.avro.ColumnDef> column_meta = new ArrayList<org.apache.cassandra.avro.ColumnDef>(cfm.column_metadata.size());
         for (ColumnDefinition cd : cfm.column_metadata.values())
         {
@@ -810,6 +1023,10 @@ public final class CFMetaData
             .append("memtableFlushAfterMins", memtableFlushAfterMins)
             .append("memtableThroughputInMb", memtableThroughputInMb)
             .append("memtableOperationsInMillions", memtableOperationsInMillions)
+            .append("memtableAllocator", memtableAllocator)
+            .append("rowCacheProvider", rowCacheProvider)
+            .append("rowCacheSizeInMB", rowCacheSizeInMB)
+            .append("compactionStrategy", compactionStrategy)
             .append("column_metadata", column_metadata)
             .toString();
     }
@@ -48,17 +48,28 @@ public class Config
     public String initial_token;
     
     public Long rpc_timeout_in_ms = new Long(2000);
+    /* per-verb overrides of rpc_timeout_in_ms, which they default to */
+    public Long read_rpc_timeout_in_ms;
+    public Long write_rpc_timeout_in_ms;
+    public Long truncate_rpc_timeout_in_ms;
 
     public Integer phi_convict_threshold = 8;
     
     public Integer concurrent_reads = 8;
     public Integer concurrent_writes = 32;
+    public Integer range_slice_concurrency = 1;
     
     public Integer memtable_flush_writers = null; // will get set to the length of data dirs in DatabaseDescriptor
+    public Integer memtable_flush_stripes = 1;
     
     public Integer sliced_buffer_size_in_kb = 64;
     
     public Integer storage_port = 7000;
+    public InternodeTransport internode_transport = InternodeTransport.blocking;
+    public Integer internode_selector_threads = Math.min(4, Runtime.getRuntime().availableProcessors());
+    public Integer internode_coalescing_window_in_us = 0;
+    public InternodeCompression internode_compression = InternodeCompression.none;
+    public String[] internode_compression_dc_pairs;
     public String listen_address;
     
     public String rpc_address;
@@ -71,12 +82,19 @@ public class Config
     public Integer thrift_framed_transport_size_in_mb = 15;
     public Boolean snapshot_before_compaction = false;
     public Integer compaction_thread_priority = Thread.MIN_PRIORITY;
+    public Integer concurrent_compactors = Runtime.getRuntime().availableProcessors();
+    public Integer parallel_compaction_threshold_in_mb = 0;
     
     public Integer binary_memtable_throughput_in_mb = 256;
     
     /* if the size of columns or super-columns are more than this, indexing will kick in */
     public Integer column_index_size_in_kb = 64;
     public Integer in_memory_compaction_limit_in_mb = 256;
+
+    public Integer row_cache_warmup_threads = 2;
+    public Integer row_cache_warmup_throughput_mb_per_sec = 16;
+
+    public Integer leveled_compaction_sstable_size_in_mb = 5;
     
     public String[] data_file_directories;
 
@@ -101,6 +119,8 @@ public class Config
 
     public Integer index_interval = 128;
 
+    public IndexMaintenance index_maintenance = IndexMaintenance.synchronous;
+
     public List<RawKeyspace> keyspaces;
     
     public static enum CommitLogSync {
@@ -108,6 +128,11 @@ public class Config
         batch
     }
     
+    public static enum IndexMaintenance {
+        synchronous,
+        lazy
+    }
+    
     public static enum DiskAccessMode {
         auto,
         mmap,
@@ -119,4 +144,17 @@ public class Config
     {
         keyspace
     }
+
+    public static enum InternodeTransport
+    {
+        blocking,
+        nio
+    }
+
+    public static enum InternodeCompression
+    {
+        none,
+        all,
+        dc
+    }
 }
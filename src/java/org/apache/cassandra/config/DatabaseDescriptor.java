@@ -63,6 +63,8 @@ public class    DatabaseDescriptor
     private static InetAddress listenAddress; // leave null so we can fall through to getLocalHost
     private static InetAddress rpcAddress;
     private static Set<InetAddress> seeds = new HashSet<InetAddress>();
+    // "DC1:DC2" for each datacenter pair to compress messages between, in both orders
+    private static Set<String> compressedDcPairs = new HashSet<String>();
     /* Current index into the above list of directories */
     private static int currentIndex = 0;
     private static int consistencyThreads = 4; // not configurable
@@ -223,6 +225,11 @@ public class    DatabaseDescriptor
                 throw new ConfigurationException("concurrent_writes must be at least 2");
             }
 
+            if (conf.range_slice_concurrency == null || conf.range_slice_concurrency < 1)
+            {
+                throw new ConfigurationException("range_slice_concurrency must be at least 1");
+            }
+
             /* Memtable flush writer threads */
             if (conf.memtable_flush_writers != null && conf.memtable_flush_writers < 1)
             {
@@ -233,6 +240,11 @@ public class    DatabaseDescriptor
                 conf.memtable_flush_writers = conf.data_file_directories.length;
             }
 
+            if (conf.memtable_flush_stripes == null || conf.memtable_flush_stripes < 1)
+            {
+                throw new ConfigurationException("memtable_flush_stripes must be at least 1");
+            }
+
             /* Local IP or hostname to bind services to */
             if (conf.listen_address != null)
             {
@@ -265,6 +277,60 @@ public class    DatabaseDescriptor
             {
                 throw new ConfigurationException("compaction_thread_priority must be between 1 and 5");
             }
+
+            if (conf.concurrent_compactors == null || conf.concurrent_compactors <= 0)
+            {
+                throw new ConfigurationException("concurrent_compactors must be a positive integer");
+            }
+
+            if (conf.parallel_compaction_threshold_in_mb == null || conf.parallel_compaction_threshold_in_mb < 0)
+            {
+                throw new ConfigurationException("parallel_compaction_threshold_in_mb must be a non-negative integer");
+            }
+
+            if (conf.internode_transport == null)
+            {
+                throw new ConfigurationException("Missing required directive internode_transport");
+            }
+
+            if (conf.internode_selector_threads == null || conf.internode_selector_threads <= 0)
+            {
+                throw new ConfigurationException("internode_selector_threads must be a positive integer");
+            }
+
+            if (conf.internode_coalescing_window_in_us == null || conf.internode_coalescing_window_in_us < 0)
+            {
+                throw new ConfigurationException("internode_coalescing_window_in_us must be a non-negative integer");
+            }
+
+            if (conf.internode_compression == null)
+            {
+                throw new ConfigurationException("Missing required directive internode_compression");
+            }
+            if (conf.internode_compression_dc_pairs != null)
+            {
+                for (String pair : conf.internode_compression_dc_pairs)
+                {
+                    String[] dcs = pair.split(":");
+                    if (dcs.length != 2 || dcs[0].trim().isEmpty() || dcs[1].trim().isEmpty())
+                        throw new ConfigurationException("internode_compression_dc_pairs entries must look like DC1:DC2, not " + pair);
+                    compressedDcPairs.add(dcs[0].trim() + ":" + dcs[1].trim());
+                    compressedDcPairs.add(dcs[1].trim() + ":" + dcs[0].trim());
+                }
+            }
+
+            if (conf.read_rpc_timeout_in_ms != null && conf.read_rpc_timeout_in_ms <= 0)
+            {
+                throw new ConfigurationException("read_rpc_timeout_in_ms must be a positive integer");
+            }
+            if (conf.write_rpc_timeout_in_ms != null && conf.write_rpc_timeout_in_ms <= 0)
+            {
+                throw new ConfigurationException("write_rpc_timeout_in_ms must be a positive integer");
+            }
+            if (conf.truncate_rpc_timeout_in_ms != null && conf.truncate_rpc_timeout_in_ms <= 0)
+            {
+                throw new ConfigurationException("truncate_rpc_timeout_in_ms must be a positive integer");
+            }
             
             /* end point snitch */
             if (conf.endpoint_snitch == null)
@@ -316,6 +382,21 @@ public class    DatabaseDescriptor
             {
                 throw new ConfigurationException("in_memory_compaction_limit_in_mb must be a positive integer");
             }
+
+            if (conf.row_cache_warmup_threads == null || conf.row_cache_warmup_threads <= 0)
+            {
+                throw new ConfigurationException("row_cache_warmup_threads must be a positive integer");
+            }
+
+            if (conf.row_cache_warmup_throughput_mb_per_sec == null || conf.row_cache_warmup_throughput_mb_per_sec < 0)
+            {
+                throw new ConfigurationException("row_cache_warmup_throughput_mb_per_sec must be a non-negative integer");
+            }
+
+            if (conf.leveled_compaction_sstable_size_in_mb == null || conf.leveled_compaction_sstable_size_in_mb <= 0)
+            {
+                throw new ConfigurationException("leveled_compaction_sstable_size_in_mb must be a positive integer");
+            }
             
             /* data file and commit log directories. they get created later, when they're needed. */
             if (conf.commitlog_directory != null && conf.data_file_directories != null && conf.saved_caches_directory != null)
@@ -581,6 +662,11 @@ public class    DatabaseDescriptor
                     throw new ConfigurationException("memtable_operations_in_millions must be a positive double");
                 }
 
+                if (cf.row_cache_size_in_mb < 0)
+                {
+                    throw new ConfigurationException("row_cache_size_in_mb cannot be negative");
+                }
+
                  Map<ByteBuffer, ColumnDefinition> metadata = new TreeMap<ByteBuffer, ColumnDefinition>();
 
                 for (RawColumnDefinition rcd : cf.column_metadata)
@@ -607,6 +693,10 @@ public class    DatabaseDescriptor
                                              cf.memtable_flush_after_mins,
                                              cf.memtable_throughput_in_mb,
                                              cf.memtable_operations_in_millions,
+                                             CFMetaData.getMemtableAllocator(cf.memtable_allocator),
+                                             CFMetaData.getRowCacheProvider(cf.row_cache_provider),
+                                             cf.row_cache_size_in_mb,
+                                             CFMetaData.getCompactionStrategy(cf.compaction_strategy),
                                              metadata);
             }
             defs.add(new KSMetaData(keyspace.name,
@@ -796,6 +886,35 @@ public class    DatabaseDescriptor
         return conf.storage_port;
     }
 
+    public static Config.InternodeTransport getInternodeTransport()
+    {
+        return conf.internode_transport;
+    }
+
+    public static int getInternodeSelectorThreads()
+    {
+        return conf.internode_selector_threads;
+    }
+
+    public static int getInternodeCoalescingWindowInMicros()
+    {
+        return conf.internode_coalescing_window_in_us;
+    }
+
+    public static Config.InternodeCompression getInternodeCompression()
+    {
+        return conf.internode_compression;
+    }
+
+    /**
+     * @return whether internode_compression: dc compresses the messages between the two datacenters:
+     * any two different ones, unless internode_compression_dc_pairs lists the pairs to compress.
+     */
+    public static boolean isCompressedDcPair(String dc1, String dc2)
+    {
+        return compressedDcPairs.isEmpty() ? !dc1.equals(dc2) : compressedDcPairs.contains(dc1 + ":" + dc2);
+    }
+
     public static int getRpcPort()
     {
         return conf.rpc_port;
@@ -811,6 +930,37 @@ public class    DatabaseDescriptor
         return conf.rpc_timeout_in_ms;
     }
 
+    /**
+     * @return how long to wait for the reply to a message of the given verb: reads (of rows and of
+     * ranges), writes and truncates have timeouts of their own, falling back to rpc_timeout_in_ms
+     * like every other verb.  A reply may answer any of them, so replies get the largest.
+     */
+    public static long getTimeout(StorageService.Verb verb)
+    {
+        Long timeout = null;
+        switch (verb)
+        {
+            case READ:
+            case READ_BATCH:
+            case RANGE_SLICE:
+            case INDEX_SCAN:
+                timeout = conf.read_rpc_timeout_in_ms;
+                break;
+            case MUTATION:
+            case BINARY:
+            case READ_REPAIR:
+                timeout = conf.write_rpc_timeout_in_ms;
+                break;
+            case TRUNCATE:
+                timeout = conf.truncate_rpc_timeout_in_ms;
+                break;
+            case REQUEST_RESPONSE:
+                return Math.max(Math.max(getTimeout(StorageService.Verb.READ), getTimeout(StorageService.Verb.MUTATION)),
+                                Math.max(getTimeout(StorageService.Verb.TRUNCATE), conf.rpc_timeout_in_ms));
+        }
+        return timeout == null ? conf.rpc_timeout_in_ms : timeout;
+    }
+
     public static int getPhiConvictThreshold()
     {
         return conf.phi_convict_threshold;
@@ -826,6 +976,16 @@ public class    DatabaseDescriptor
         return conf.concurrent_reads;
     }
 
+    public static int getRangeSliceConcurrency()
+    {
+        return conf.range_slice_concurrency;
+    }
+
+    public static void setRangeSliceConcurrency(int rangeSliceConcurrency)
+    {
+        conf.range_slice_concurrency = rangeSliceConcurrency;
+    }
+
     public static int getConcurrentWriters()
     {
         return conf.concurrent_writes;
@@ -836,10 +996,35 @@ public class    DatabaseDescriptor
             return conf.memtable_flush_writers;
     }
 
+    public static int getFlushStripes()
+    {
+        return conf.memtable_flush_stripes;
+    }
+
+    public static void setFlushStripes(int flushStripes)
+    {
+        conf.memtable_flush_stripes = flushStripes;
+    }
+
     public static int getInMemoryCompactionLimit()
     {
         return conf.in_memory_compaction_limit_in_mb * 1024 * 1024;
     }
+
+    public static int getRowCacheWarmupThreads()
+    {
+        return conf.row_cache_warmup_threads;
+    }
+
+    public static int getRowCacheWarmupThroughputMbPerSec()
+    {
+        return conf.row_cache_warmup_throughput_mb_per_sec;
+    }
+
+    public static int getLeveledCompactionSSTableSizeInMB()
+    {
+        return conf.leveled_compaction_sstable_size_in_mb;
+    }
     
     public static String[] getAllDataFileLocations()
     {
@@ -894,6 +1079,15 @@ public class    DatabaseDescriptor
      * do compaction in this case.
      */
     public static String getDataFileLocationForTable(String table, long expectedCompactedFileSize)
+    {
+        return getDataFileLocationForTable(table, expectedCompactedFileSize, Collections.<String, Long>emptyMap());
+    }
+
+    /**
+     * As above, counting the bytes in reservedBytes against the free space of each directory: e.g.
+     * what compactions in progress have yet to write there.
+     */
+    public static String getDataFileLocationForTable(String table, long expectedCompactedFileSize, Map<String, Long> reservedBytes)
     {
       long maxFreeDisk = 0;
       int maxDiskIndex = 0;
@@ -903,9 +1097,11 @@ public class    DatabaseDescriptor
       for ( int i = 0 ; i < dataDirectoryForTable.length ; i++ )
       {
         File f = new File(dataDirectoryForTable[i]);
-        if( maxFreeDisk < f.getUsableSpace())
+        Long reserved = reservedBytes.get(dataDirectoryForTable[i]);
+        long freeDisk = f.getUsableSpace() - (reserved == null ? 0 : reserved);
+        if( maxFreeDisk < freeDisk)
         {
-          maxFreeDisk = f.getUsableSpace();
+          maxFreeDisk = freeDisk;
           maxDiskIndex = i;
         }
       }
@@ -948,16 +1144,6 @@ public class    DatabaseDescriptor
         return (int)Math.min(FBUtilities.absoluteFromFraction(v, expectedKeys), Integer.MAX_VALUE);
     }
 
-    /**
-     * @return The absolute number of rows that should be cached for the columnfamily.
-     */
-    public static int getRowsCachedFor(String tableName, String columnFamilyName, long expectedRows)
-    {
-        CFMetaData cfm = getCFMetaData(tableName, columnFamilyName);
-        double v = (cfm == null) ? CFMetaData.DEFAULT_ROW_CACHE_SIZE : cfm.rowCacheSize;
-        return (int)Math.min(FBUtilities.absoluteFromFraction(v, expectedRows), Integer.MAX_VALUE);
-    }
-
     public static KSMetaData getTableDefinition(String table)
     {
         return tables.get(table);
@@ -1016,6 +1202,16 @@ public class    DatabaseDescriptor
         return conf.commitlog_sync_period_in_ms;
     }
 
+    public static Config.IndexMaintenance getIndexMaintenance()
+    {
+        return conf.index_maintenance;
+    }
+
+    public static void setIndexMaintenance(Config.IndexMaintenance indexMaintenance)
+    {
+        conf.index_maintenance = indexMaintenance;
+    }
+
     public static Config.CommitLogSync getCommitLogSync()
     {
         return conf.commitlog_sync;
@@ -1051,6 +1247,16 @@ public class    DatabaseDescriptor
         return conf.compaction_thread_priority;
     }
 
+    public static int getConcurrentCompactors()
+    {
+        return conf.concurrent_compactors;
+    }
+
+    public static long getParallelCompactionThreshold()
+    {
+        return conf.parallel_compaction_threshold_in_mb * 1024L * 1024L;
+    }
+
     public static boolean isSnapshotBeforeCompaction()
     {
         return conf.snapshot_before_compaction;
@@ -46,4 +46,8 @@ public class RawColumnFamily
     public int memtable_flush_after_mins = CFMetaData.DEFAULT_MEMTABLE_LIFETIME_IN_MINS;
     public Integer memtable_throughput_in_mb;
     public Double memtable_operations_in_millions;
+    public String memtable_allocator;
+    public String row_cache_provider;
+    public int row_cache_size_in_mb = CFMetaData.DEFAULT_ROW_CACHE_SIZE_IN_MB;
+    public String compaction_strategy;
 }
@@ -0,0 +1,66 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.cassandra.db;
+
+import java.util.Collection;
+import java.util.List;
+
+import org.apache.cassandra.io.sstable.SSTableReader;
+
+/**
+ * Decides which sstables of a column family minor compactions merge, and how large the sstables they
+ * write may grow.  Each column family has its own instance, named by its metadata; implementations need
+ * a public constructor taking the ColumnFamilyStore.
+ */
+public abstract class AbstractCompactionStrategy
+{
+    protected final ColumnFamilyStore cfs;
+
+    protected AbstractCompactionStrategy(ColumnFamilyStore cfs)
+    {
+        this.cfs = cfs;
+    }
+
+    /**
+     * @return the sstables the next minor compaction should merge; empty if none is needed.  Compactions
+     * may run concurrently, so these must not include any that cfs.getUncompactingSSTables() leaves out.
+     */
+    public abstract List<SSTableReader> getMinorCompactionCandidates(int minThreshold, int maxThreshold);
+
+    /**
+     * @return the number of minor compactions expected to be needed before no more are
+     */
+    public abstract int getEstimatedRemainingTasks(int minThreshold, int maxThreshold);
+
+    /**
+     * @return the size at which compactions should start writing a new sstable; Long.MAX_VALUE to always
+     * write a single one
+     */
+    public long getMaxSSTableSize()
+    {
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     * Called whenever the live sstables change, by flushes, compactions, streaming and truncation alike.
+     */
+    public void replaced(Collection<SSTableReader> removed, Collection<SSTableReader> added)
+    {
+    }
+}
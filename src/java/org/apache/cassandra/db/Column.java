@@ -25,6 +25,7 @@ import java.util.Collection;
 
 import org.apache.cassandra.db.marshal.AbstractType;
 import org.apache.cassandra.io.util.DataOutputBuffer;
+import org.apache.cassandra.utils.Allocator;
 import org.apache.cassandra.utils.ByteBufferUtil;
 import org.apache.cassandra.utils.FBUtilities;
 import org.slf4j.Logger;
@@ -169,6 +170,11 @@ public class Column implements IColumn
         throw new IllegalStateException("column is not marked for delete");
     }
 
+    public IColumn localCopy(Allocator allocator)
+    {
+        return new Column(allocator.clone(name), allocator.clone(value), timestamp);
+    }
+
     public IColumn reconcile(IColumn column)
     {
         // tombstones take precedence.  (if both are tombstones, then it doesn't matter which one we use.)
@@ -36,6 +36,7 @@ import org.apache.cassandra.db.filter.QueryPath;
 import org.apache.cassandra.db.marshal.AbstractType;
 import org.apache.cassandra.io.ICompactSerializer2;
 import org.apache.cassandra.io.util.IIterableColumns;
+import org.apache.cassandra.utils.Allocator;
 import org.apache.cassandra.utils.FBUtilities;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -135,6 +136,19 @@ public class ColumnFamily implements IColumnContainer, IIterableColumns
         delete(cf);
     }
 
+    /**
+     * Like addAll, but the columns are copied into memory obtained from the given allocator
+     * rather than shared with <code>cf</code>.
+     */
+    public void addAll(ColumnFamily cf, Allocator allocator)
+    {
+        for (IColumn column : cf.getSortedColumns())
+        {
+            addColumn(column.localCopy(allocator));
+        }
+        delete(cf);
+    }
+
     /**
      * FIXME: Gross.
      */
@@ -331,7 +345,7 @@ public class ColumnFamily implements IColumnContainer, IIterableColumns
         return (AbstractType)columns.comparator();
     }
 
-    int size()
+    public int size()
     {
         int size = 0;
         for (IColumn column : columns.values())
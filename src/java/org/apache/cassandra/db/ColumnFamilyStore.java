@@ -24,7 +24,9 @@ import java.nio.ByteBuffer;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.regex.Pattern;
 import javax.management.MBeanServer;
 import javax.management.ObjectName;
@@ -40,6 +42,7 @@ import org.apache.cassandra.concurrent.RetryingScheduledThreadPoolExecutor;
 import org.apache.cassandra.concurrent.StageManager;
 import org.apache.cassandra.config.CFMetaData;
 import org.apache.cassandra.config.ColumnDefinition;
+import org.apache.cassandra.config.Config;
 import org.apache.cassandra.config.DatabaseDescriptor;
 import org.apache.cassandra.db.columniterator.IColumnIterator;
 import org.apache.cassandra.db.commitlog.CommitLog;
@@ -96,6 +99,9 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
                                                new NamedThreadFactory("FlushWriter"),
                                                "internal");
     public static final ExecutorService postFlushExecutor = new JMXEnabledThreadPoolExecutor("MemtablePostFlusher");
+
+    // scans merge-join an index only if it is expected to rule out at least half of the candidate rows
+    private static final double MAX_JOIN_SELECTIVITY = 0.5;
     
     private Set<Memtable> memtablesPendingFlush = new ConcurrentSkipListSet<Memtable>();
 
@@ -112,7 +118,22 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
     /* active memtable associated with this ColumnFamilyStore. */
     private Memtable memtable;
 
+    /**
+     * accesses to memtable should acquire this for thread safety; maybeSwitchMemtable acquires the writeLock.
+     * Each column family has its own, so switching one memtable never stalls writes to other column families.
+     * Index column families share the lock of their parent, since their memtables are switched together.
+     */
+    final ReentrantReadWriteLock flusherLock;
+
+    /**
+     * Minor compactions hold the read lock, so they run alongside one another (on disjoint sstables,
+     * see markCompacting), but not alongside major compactions, cleanups or drops, which hold the write lock.
+     */
+    final ReentrantReadWriteLock compactionLock = new ReentrantReadWriteLock();
+
     private final SortedMap<ByteBuffer, ColumnFamilyStore> indexedColumns;
+    // the indexed columns whose index may hold stale entries, written by lazy index maintenance
+    private final Set<ByteBuffer> staleIndexes = Collections.newSetFromMap(new ConcurrentHashMap<ByteBuffer, Boolean>());
 
     // TODO binarymemtable ops are not threadsafe (do they need to be?)
     private AtomicReference<BinaryMemtable> binaryMemtable;
@@ -120,13 +141,25 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
     /* SSTables on disk for this column family */
     private SSTableTracker ssTables;
 
+    /* chooses the sstables of minor compactions; kept informed of every change to ssTables */
+    private volatile AbstractCompactionStrategy compactionStrategy;
+
     private LatencyTracker readStats = new LatencyTracker();
     private LatencyTracker writeStats = new LatencyTracker();
+    private LatencyTracker flushStats = new LatencyTracker();
+    private final AtomicLong flushedBytes = new AtomicLong();
+    // bytes and time flushed since the last getRecentFlushThroughput, read and reset together under the lock
+    private final Object recentFlushLock = new Object();
+    private long recentFlushedBytes;
+    private long recentFlushNanos;
 
     // counts of sstables accessed by reads
     private final EstimatedHistogram recentSSTablesPerRead = new EstimatedHistogram(35);
     private final EstimatedHistogram sstablesPerRead = new EstimatedHistogram(35);
 
+    // keys of the rows being warmed into the row cache, mapped to whether they have been written to since
+    private final ConcurrentMap<DecoratedKey, Boolean> warmingKeys = new ConcurrentHashMap<DecoratedKey, Boolean>();
+
     public final CFMetaData metadata;
 
     /* These are locally held copies to be changed from the config during runtime */
@@ -152,10 +185,11 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
         }
     };
 
-    private ColumnFamilyStore(Table table, String columnFamilyName, IPartitioner partitioner, int generation, CFMetaData metadata)
+    private ColumnFamilyStore(Table table, String columnFamilyName, IPartitioner partitioner, int generation, CFMetaData metadata, ReentrantReadWriteLock flusherLock)
     {
         assert metadata != null : "null metadata for " + table + ":" + columnFamilyName;
         this.table = table;
+        this.flusherLock = flusherLock;
         columnFamily = columnFamilyName; 
         this.metadata = metadata;
         this.minCompactionThreshold = metadata.minCompactionThreshold;
@@ -173,15 +207,21 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
 
         // scan for sstables corresponding to this cf and load them
         ssTables = new SSTableTracker(table.name, columnFamilyName);
-        Set<DecoratedKey> savedKeys = readSavedCache(DatabaseDescriptor.getSerializedKeyCachePath(table.name, columnFamilyName));
-        logger.info("read " + savedKeys.size() + " from saved key cache");
+        Map<Descriptor,Set<Component>> files = files(table.name, columnFamilyName, false);
+        Map<Integer, Long> dataLengths = new HashMap<Integer, Long>();
+        for (Descriptor desc : files.keySet())
+            dataLengths.put(desc.generation, new File(desc.filenameFor(Component.DATA)).length());
+        Map<Integer, Map<DecoratedKey, Long>> savedPositions = readSavedKeyCache(DatabaseDescriptor.getSerializedKeyCachePath(table.name, columnFamilyName), dataLengths);
         List<SSTableReader> sstables = new ArrayList<SSTableReader>();
-        for (Map.Entry<Descriptor,Set<Component>> sstableFiles : files(table.name, columnFamilyName, false).entrySet())
+        for (Map.Entry<Descriptor,Set<Component>> sstableFiles : files.entrySet())
         {
             SSTableReader sstable;
             try
             {
-                sstable = SSTableReader.open(sstableFiles.getKey(), sstableFiles.getValue(), savedKeys, ssTables, metadata, this.partitioner);
+                Map<DecoratedKey, Long> positions = savedPositions.get(sstableFiles.getKey().generation);
+                if (positions == null)
+                    positions = Collections.emptyMap();
+                sstable = SSTableReader.open(sstableFiles.getKey(), sstableFiles.getValue(), positions, ssTables, metadata, this.partitioner);
             }
             catch (FileNotFoundException ex)
             {
@@ -196,6 +236,7 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
             sstables.add(sstable);
         }
         ssTables.add(sstables);
+        compactionStrategy = metadata.createCompactionStrategy(this);
 
         // create the private ColumnFamilyStores for the secondary column indexes
         indexedColumns = new ConcurrentSkipListMap<ByteBuffer, ColumnFamilyStore>(getComparator());
@@ -220,36 +261,122 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
         }
     }
 
-    protected Set<DecoratedKey> readSavedCache(File path)
+    /**
+     * Opens a cache saved by SSTableTracker and reads past the sstables it was saved against.
+     * @param dataLengths the data file length of each live sstable, by generation
+     * @param validGenerations receives the generations of the sstables whose saved positions are still good
+     * @return the stream, at the first entry; or null if there is no cache saved in the current format
+     */
+    private static DataInputStream openSavedCache(File path, Map<Integer, Long> dataLengths, Set<Integer> validGenerations) throws IOException
+    {
+        if (!path.exists())
+            return null;
+        if (logger.isDebugEnabled())
+            logger.debug(String.format("reading saved cache from %s", path));
+
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(path)));
+        if (in.readInt() != SSTableTracker.SAVED_CACHE_VERSION)
+        {
+            logger.warn(String.format("ignoring saved cache at %s, which is in an old format", path.getAbsolutePath()));
+            in.close();
+            return null;
+        }
+        int sstables = in.readInt();
+        for (int i = 0; i < sstables; i++)
+        {
+            int generation = in.readInt();
+            long dataLength = in.readLong();
+            Long liveLength = dataLengths.get(generation);
+            if (liveLength != null && liveLength == dataLength)
+                validGenerations.add(generation);
+        }
+        return in;
+    }
+
+    /**
+     * @return the saved data file positions of keys, by sstable generation
+     */
+    protected Map<Integer, Map<DecoratedKey, Long>> readSavedKeyCache(File path, Map<Integer, Long> dataLengths)
     {
-        Set<DecoratedKey> keys = new TreeSet<DecoratedKey>();
+        Map<Integer, Map<DecoratedKey, Long>> positions = new HashMap<Integer, Map<DecoratedKey, Long>>();
+        long start = System.currentTimeMillis();
+        int count = 0;
         try
         {
-            long start = System.currentTimeMillis();
+            Set<Integer> validGenerations = new HashSet<Integer>();
+            DataInputStream in = openSavedCache(path, dataLengths, validGenerations);
+            if (in == null)
+                return positions;
+            try
+            {
+                while (in.available() > 0)
+                {
+                    int generation = in.readInt();
+                    DecoratedKey key = partitioner.decorateKey(FBUtilities.readShortByteArray(in));
+                    long position = in.readLong();
+                    if (!validGenerations.contains(generation))
+                        continue;
+                    Map<DecoratedKey, Long> sstablePositions = positions.get(generation);
+                    if (sstablePositions == null)
+                    {
+                        sstablePositions = new HashMap<DecoratedKey, Long>();
+                        positions.put(generation, sstablePositions);
+                    }
+                    sstablePositions.put(key, position);
+                    count++;
+                }
+            }
+            finally
+            {
+                in.close();
+            }
+        }
+        catch (IOException ioe)
+        {
+            logger.warn(String.format("error reading saved cache at %s", path.getAbsolutePath()), ioe);
+        }
+        logger.info(String.format("read %d keys (%d ms) from saved key cache for %s", count, System.currentTimeMillis() - start, columnFamily));
+        return positions;
+    }
 
-            if (path.exists())
+    /**
+     * @param validGenerations receives the generations of the sstables whose saved positions are still good
+     * @return the keys of the saved rows, with the saved positions of each row by sstable generation; in
+     * key order, so reading them back moves through each sstable in one direction
+     */
+    protected SortedMap<DecoratedKey, Map<Integer, Long>> readSavedRowCache(File path, Set<Integer> validGenerations)
+    {
+        SortedMap<DecoratedKey, Map<Integer, Long>> rows = new TreeMap<DecoratedKey, Map<Integer, Long>>();
+        Map<Integer, Long> dataLengths = new HashMap<Integer, Long>();
+        for (SSTableReader sstable : ssTables)
+            dataLengths.put(sstable.descriptor.generation, sstable.length());
+        try
+        {
+            DataInputStream in = openSavedCache(path, dataLengths, validGenerations);
+            if (in == null)
+                return rows;
+            try
             {
-                if (logger.isDebugEnabled())
-                    logger.debug(String.format("reading saved cache from %s", path));
-                ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(path)));
                 while (in.available() > 0)
                 {
-                    int size = in.readInt();
-                    byte[] bytes = new byte[size];
-                    in.readFully(bytes);
-                    keys.add(StorageService.getPartitioner().decorateKey(ByteBuffer.wrap(bytes)));
+                    DecoratedKey key = partitioner.decorateKey(FBUtilities.readShortByteArray(in));
+                    int sstables = in.readInt();
+                    Map<Integer, Long> positions = new HashMap<Integer, Long>(sstables);
+                    for (int i = 0; i < sstables; i++)
+                        positions.put(in.readInt(), in.readLong());
+                    rows.put(key, positions);
                 }
+            }
+            finally
+            {
                 in.close();
-                if (logger.isDebugEnabled())
-                    logger.debug(String.format("completed reading (%d ms; %d keys) from saved cache at %s",
-                                               System.currentTimeMillis() - start, keys.size(), path));
             }
         }
         catch (IOException ioe)
         {
             logger.warn(String.format("error reading saved cache at %s", path.getAbsolutePath()), ioe);
         }
-        return keys;
+        return rows;
     }
 
     public void addIndex(final ColumnDefinition info)
@@ -263,13 +390,32 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
         ColumnFamilyStore indexedCfs = ColumnFamilyStore.createColumnFamilyStore(table,
                                                                                  indexedCfMetadata.cfName,
                                                                                  new LocalPartitioner(metadata.column_metadata.get(info.name).validator),
-                                                                                 indexedCfMetadata);
+                                                                                 indexedCfMetadata,
+                                                                                 flusherLock);
         // record that the column is supposed to be indexed, before we start building it
         // (so we don't omit indexing writes that happen during build process)
         indexedColumns.put(info.name, indexedCfs);
-        if (!SystemTable.isIndexBuilt(table.name, indexedCfMetadata.cfName))
+        // an index maintained lazily before may hold stale entries, which only a scan that checks them
+        // against the rows would ignore.  Unless we keep maintaining it lazily, start it over.
+        boolean rebuild = false;
+        if (SystemTable.isIndexStale(table.name, indexedCfMetadata.cfName))
         {
-            logger.info("Creating index {}.{}", table, indexedCfMetadata.cfName);
+            if (DatabaseDescriptor.getIndexMaintenance() == Config.IndexMaintenance.lazy)
+                staleIndexes.add(info.name);
+            else
+                rebuild = true;
+        }
+        if (rebuild || !SystemTable.isIndexBuilt(table.name, indexedCfMetadata.cfName))
+        {
+            if (rebuild)
+            {
+                logger.info("Rebuilding index {}.{}, which was maintained lazily", table, indexedCfMetadata.cfName);
+                indexedCfs.removeAllSSTables();
+            }
+            else
+            {
+                logger.info("Creating index {}.{}", table, indexedCfMetadata.cfName);
+            }
             try
             {
                 forceBlockingFlush();
@@ -285,6 +431,29 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
             buildSecondaryIndexes(getSSTables(), FBUtilities.singleton(info.name));
             logger.info("Index {} complete", indexedCfMetadata.cfName);
             SystemTable.setIndexBuilt(table.name, indexedCfMetadata.cfName);
+            if (rebuild)
+                SystemTable.setIndexStale(table.name, indexedCfMetadata.cfName, false);
+        }
+    }
+
+    /**
+     * Notes that the indexes of the columns are about to be written without reading the values they
+     * replace, so scans keep checking their entries against the rows until the indexes are rebuilt.
+     */
+    void markIndexesStale(Collection<ByteBuffer> columns)
+    {
+        for (ByteBuffer column : columns)
+        {
+            if (staleIndexes.contains(column))
+                continue;
+            synchronized (staleIndexes)
+            {
+                if (staleIndexes.contains(column))
+                    continue;
+                // recorded before the first lazy write, so it is ahead of it in the commit log
+                SystemTable.setIndexStale(table.name, getIndexedColumnFamilyStore(column).columnFamily, true);
+                staleIndexes.add(column);
+            }
         }
     }
 
@@ -375,12 +544,36 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
         return count > 0 ? (int) (sum / count) : 0;
     }
 
+    public long getEstimatedRowCount()
+    {
+        return getMemtableThreadSafe().getCurrentRows() + ssTables.estimatedKeys();
+    }
+
+    public double getEstimatedMeanColumns()
+    {
+        Memtable memtable = getMemtableThreadSafe();
+        double rows = memtable.getCurrentRows();
+        double columns = memtable.getCurrentOperations();
+        for (SSTableReader sstable : ssTables)
+        {
+            long keys = sstable.estimatedKeys();
+            rows += keys;
+            columns += keys * sstable.getEstimatedColumnCount().median();
+        }
+        return rows > 0 ? columns / rows : 0;
+    }
+
     public static ColumnFamilyStore createColumnFamilyStore(Table table, String columnFamily)
     {
         return createColumnFamilyStore(table, columnFamily, StorageService.getPartitioner(), DatabaseDescriptor.getCFMetaData(table.name, columnFamily));
     }
 
-    public static synchronized ColumnFamilyStore createColumnFamilyStore(Table table, String columnFamily, IPartitioner partitioner, CFMetaData metadata)
+    public static ColumnFamilyStore createColumnFamilyStore(Table table, String columnFamily, IPartitioner partitioner, CFMetaData metadata)
+    {
+        return createColumnFamilyStore(table, columnFamily, partitioner, metadata, new ReentrantReadWriteLock(true));
+    }
+
+    private static synchronized ColumnFamilyStore createColumnFamilyStore(Table table, String columnFamily, IPartitioner partitioner, CFMetaData metadata, ReentrantReadWriteLock flusherLock)
     {
         // get the max generation number, to prevent generation conflicts
         List<Integer> generations = new ArrayList<Integer>();
@@ -389,7 +582,7 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
         Collections.sort(generations);
         int value = (generations.size() > 0) ? (generations.get(generations.size() - 1)) : 0;
 
-        return new ColumnFamilyStore(table, columnFamily, partitioner, value, metadata);
+        return new ColumnFamilyStore(table, columnFamily, partitioner, value, metadata, flusherLock);
     }
     
     /**
@@ -445,18 +638,9 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
     // must be called after all sstables are loaded since row cache merges all row versions
     public void initRowCache()
     {
-        String msgSuffix = String.format(" row cache for %s of %s", columnFamily, table.name);
         int rowCacheSavePeriodInSeconds = DatabaseDescriptor.getTableMetaData(table.name).get(columnFamily).rowCacheSavePeriodInSeconds;
         int keyCacheSavePeriodInSeconds = DatabaseDescriptor.getTableMetaData(table.name).get(columnFamily).keyCacheSavePeriodInSeconds;
 
-        long start = System.currentTimeMillis();
-        logger.info(String.format("loading%s", msgSuffix));
-        // sort the results on read because there are few reads and many writes and reads only happen at startup
-        Set<DecoratedKey> savedKeys = readSavedCache(DatabaseDescriptor.getSerializedRowCachePath(table.name, columnFamily));
-        for (DecoratedKey key : savedKeys)
-            cacheRow(key);
-        logger.info(String.format("completed loading (%d ms; %d keys) %s",
-                                  System.currentTimeMillis()-start, ssTables.getRowCache().getSize(), msgSuffix));
         if (rowCacheSavePeriodInSeconds > 0)
         {
             cacheSavingExecutor.scheduleWithFixedDelay(rowCacheSaverTask,
@@ -474,6 +658,19 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
         }
     }
 
+    /**
+     * Reads the saved row cache back into the row cache in the background, so the node can serve
+     * requests in the meantime.  Called once the commit log has been replayed.
+     * @return a future for each batch of rows
+     */
+    public List<Future<?>> warmRowCache()
+    {
+        Set<Integer> validGenerations = new HashSet<Integer>();
+        SortedMap<DecoratedKey, Map<Integer, Long>> savedRows = readSavedRowCache(DatabaseDescriptor.getSerializedRowCachePath(table.name, columnFamily), validGenerations);
+        logger.info(String.format("warming %d rows of the row cache for %s of %s", savedRows.size(), columnFamily, table.name));
+        return RowCacheWarmer.instance.submit(this, savedRows, validGenerations);
+    }
+
     public Future<?> submitRowCacheWrite()
     {
         return cacheSavingExecutor.submit(rowCacheSaverTask);
@@ -542,6 +739,23 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
         return getTempSSTablePath(location);
     }
 
+    /**
+     * @return a temporary file name for one of the sstables of a striped flush.  Stripes are spread
+     * over the data directories (starting from a different one for each stripe), skipping those without room.
+     */
+    public String getFlushPath(int stripe, int stripes)
+    {
+        long guessedSize = 2L * memsize * 1024*1024 / stripes;
+        String[] directories = DatabaseDescriptor.getAllDataFileLocationsForTable(table.name);
+        for (int i = 0; i < directories.length; i++)
+        {
+            String directory = directories[(stripe + i) % directories.length];
+            if (guessedSize < 0.9 * new File(directory).getUsableSpace())
+                return getTempSSTablePath(directory);
+        }
+        throw new RuntimeException("Insufficient disk space to flush");
+    }
+
     public String getTempSSTablePath(String directory)
     {
         Descriptor desc = new Descriptor(new File(directory),
@@ -560,12 +774,13 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
          * all ongoing updates to memtables have completed. We can get the tail
          * of the log and use it as the starting position for log replay on recovery.
          *
-         * This is why we Table.flusherLock needs to be global instead of per-Table:
-         * we need to schedule discardCompletedSegments calls in the same order as their
-         * contexts (commitlog position) were read, even though the flush executor
-         * is multithreaded.
+         * The lock only needs to cover this column family (and its indexes, which share it):
+         * discardCompletedSegments calls for a given column family must be scheduled in the same
+         * order as their contexts (commitlog position) were read, even though the flush executor
+         * is multithreaded, but the calls for different column families touch independent
+         * commitlog header entries and may be scheduled in any order.
          */
-        Table.flusherLock.writeLock().lock();
+        flusherLock.writeLock().lock();
         try
         {
             if (oldMemtable.isFrozen())
@@ -613,7 +828,7 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
         }
         finally
         {
-            Table.flusherLock.writeLock().unlock();
+            flusherLock.writeLock().unlock();
             if (memtableSwitchCount == Integer.MAX_VALUE)
             {
                 memtableSwitchCount = 0;
@@ -659,7 +874,7 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
 
     /**
      * Insert/Update the column family for this key.
-     * Caller is responsible for acquiring Table.flusherLock!
+     * Caller is responsible for acquiring flusherLock!
      * param @ lock - lock that needs to be used.
      * param @ key - key for update/insert
      * param @ columnFamily - columnFamily changes
@@ -670,9 +885,23 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
 
         boolean flushRequested = memtable.isThresholdViolated();
         memtable.put(key, columnFamily);
-        ColumnFamily cachedRow = getRawCachedRow(key);
-        if (cachedRow != null)
-            cachedRow.addAll(columnFamily);
+        // a row being warmed may have been read before this write, and not be cached for it to update yet
+        if (!warmingKeys.isEmpty())
+            warmingKeys.replace(key, Boolean.FALSE, Boolean.TRUE);
+        // a cache holding copies of its rows cannot be updated in place
+        if (ssTables.getRowCache().isPutCopying())
+        {
+            invalidateCachedRow(key);
+        }
+        else
+        {
+            ColumnFamily cachedRow = getRawCachedRow(key);
+            if (cachedRow != null)
+            {
+                cachedRow.addAll(columnFamily);
+                ssTables.getRowCache().reweigh(key, cachedRow);
+            }
+        }
         writeStats.addNano(System.nanoTime() - start);
         
         return flushRequested ? memtable : null;
@@ -799,10 +1028,30 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
      */
     public void addSSTable(SSTableReader sstable)
     {
-        ssTables.add(Arrays.asList(sstable));
+        addSSTables(Arrays.asList(sstable));
+    }
+
+    /**
+     * Adds the sstables to the live set in a single step, e.g. all the stripes of a flush.
+     */
+    public void addSSTables(Collection<SSTableReader> sstables)
+    {
+        ssTables.add(sstables);
+        compactionStrategy.replaced(Collections.<SSTableReader>emptyList(), sstables);
         CompactionManager.instance.submitMinorIfNeeded(this);
     }
 
+    void addFlushStatistics(long bytes, long nanos)
+    {
+        flushStats.addNano(nanos);
+        flushedBytes.addAndGet(bytes);
+        synchronized (recentFlushLock)
+        {
+            recentFlushedBytes += bytes;
+            recentFlushNanos += nanos;
+        }
+    }
+
     /*
      * Add up all the files sizes this is the worst case file
      * size for compaction of all the list of files given.
@@ -844,6 +1093,7 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
     void markCompacted(Collection<SSTableReader> sstables)
     {
         ssTables.markCompacted(sstables);
+        compactionStrategy.replaced(sstables, Collections.<SSTableReader>emptyList());
     }
 
     boolean isCompleteSSTables(Collection<SSTableReader> sstables)
@@ -851,14 +1101,22 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
         return ssTables.getSSTables().equals(new HashSet<SSTableReader>(sstables));
     }
 
-    void replaceCompactedSSTables(Collection<SSTableReader> sstables, Iterable<SSTableReader> replacements)
+    void replaceCompactedSSTables(Collection<SSTableReader> sstables, Collection<SSTableReader> replacements)
     {
         ssTables.replace(sstables, replacements);
+        compactionStrategy.replaced(sstables, replacements);
+    }
+
+    public AbstractCompactionStrategy getCompactionStrategy()
+    {
+        return compactionStrategy;
     }
 
     public void removeAllSSTables()
     {
-        ssTables.replace(ssTables.getSSTables(), Collections.<SSTableReader>emptyList());
+        Collection<SSTableReader> sstables = ssTables.getSSTables();
+        ssTables.replace(sstables, Collections.<SSTableReader>emptyList());
+        compactionStrategy.replaced(sstables, Collections.<SSTableReader>emptyList());
         for (ColumnFamilyStore indexedCfs : indexedColumns.values())
         {
             indexedCfs.removeAllSSTables();
@@ -907,14 +1165,14 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
      */
     private Memtable getMemtableThreadSafe()
     {
-        Table.flusherLock.readLock().lock();
+        flusherLock.readLock().lock();
         try
         {
             return memtable;
         }
         finally
         {
-            Table.flusherLock.readLock().unlock();
+            flusherLock.readLock().unlock();
         }
     }
 
@@ -923,6 +1181,28 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
         return ssTables.getSSTables();
     }
 
+    /**
+     * @return the live sstables that no compaction in progress is merging
+     */
+    public Set<SSTableReader> getUncompactingSSTables()
+    {
+        return ssTables.getUncompactingSSTables();
+    }
+
+    /**
+     * Reserves sstables for a compaction, so that no concurrent one merges them too.
+     * @return false, reserving none of them, if any is already reserved or no longer live
+     */
+    boolean markCompacting(Collection<SSTableReader> sstables)
+    {
+        return ssTables.markCompacting(sstables);
+    }
+
+    void unmarkCompacting(Collection<SSTableReader> sstables)
+    {
+        ssTables.unmarkCompacting(sstables);
+    }
+
     public long[] getRecentSSTablesPerReadHistogram()
     {
         return recentSSTablesPerRead.get(true);
@@ -961,7 +1241,7 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
 // TODO this actually isn't a good meature of pending tasks
     public int getPendingTasks()
     {
-        return Table.flusherLock.getQueueLength();
+        return flusherLock.getQueueLength();
     }
 
     public long getWriteCount()
@@ -979,6 +1259,34 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
         return writeStats.getRecentLatencyMicros();
     }
 
+    public long getFlushCount()
+    {
+        return flushStats.getOpCount();
+    }
+
+    public long getTotalFlushedBytes()
+    {
+        return flushedBytes.get();
+    }
+
+    public long getTotalFlushLatencyMicros()
+    {
+        return flushStats.getTotalLatencyMicros();
+    }
+
+    public double getRecentFlushThroughput()
+    {
+        long bytes, nanos;
+        synchronized (recentFlushLock)
+        {
+            bytes = recentFlushedBytes;
+            nanos = recentFlushNanos;
+            recentFlushedBytes = 0;
+            recentFlushNanos = 0;
+        }
+        return nanos == 0 ? 0 : bytes * 1000000000.0 / nanos;
+    }
+
     public long[] getLifetimeWriteLatencyHistogramMicros()
     {
         return writeStats.getTotalLatencyHistogramMicros();
@@ -1022,6 +1330,37 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
         return cached;
     }
 
+    /**
+     * Reads a row saved with the row cache back into it, unless it has been cached since.
+     * @param savedPositions the saved position of the row in each sstable of validGenerations holding it
+     * @return the row cached, or null if none was
+     */
+    ColumnFamily warmCachedRow(DecoratedKey key, Map<Integer, Long> savedPositions, Set<Integer> validGenerations)
+    {
+        if (ssTables.getRowCache().getCapacity() == 0 || ssTables.getRowCache().getKeySet().contains(key))
+            return null;
+
+        ColumnFamily cached = null;
+        warmingKeys.put(key, Boolean.FALSE);
+        try
+        {
+            KeyLocations locations = KeyLocations.locate(ssTables.getSSTables(), key, savedPositions, validGenerations);
+            cached = getTopLevelColumns(QueryFilter.getIdentityFilter(key, new QueryPath(columnFamily)), Integer.MIN_VALUE, locations);
+            if (cached != null)
+                ssTables.getRowCache().put(key, cached);
+        }
+        finally
+        {
+            // a write since the read found nothing cached to update, so what was cached misses it
+            if (Boolean.TRUE.equals(warmingKeys.remove(key)) && cached != null)
+            {
+                invalidateCachedRow(key);
+                cached = null;
+            }
+        }
+        return cached;
+    }
+
     private ColumnFamily getColumnFamily(QueryFilter filter, int gcBefore)
     {
         assert columnFamily.equals(filter.getColumnFamilyName()) : filter.getColumnFamilyName();
@@ -1107,6 +1446,14 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
     }
 
     private ColumnFamily getTopLevelColumns(QueryFilter filter, int gcBefore)
+    {
+        return getTopLevelColumns(filter, gcBefore, ssTables.locate(filter.key));
+    }
+
+    /**
+     * @param locations the sstables holding the row, with its position in each
+     */
+    private ColumnFamily getTopLevelColumns(QueryFilter filter, int gcBefore, KeyLocations locations)
     {
         // we are querying top-level columns, do a merging fetch with indexes.
         List<IColumnIterator> iterators = new ArrayList<IColumnIterator>();
@@ -1135,11 +1482,11 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
                 }
             }
 
-            /* add the SSTables on disk */
+            /* add the SSTables on disk holding the row */
             int sstablesToIterate = 0;
-            for (SSTableReader sstable : ssTables)
+            for (int i = 0; i < locations.size(); i++)
             {
-                iter = filter.getSSTableColumnIterator(sstable);
+                iter = filter.getSSTableColumnIterator(locations.getSSTable(i), locations.getPosition(i));
                 if (iter.getColumnFamily() != null)
                 {
                     returnCF.delete(iter.getColumnFamily());
@@ -1204,14 +1551,7 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
         DecoratedKey stopAt = new DecoratedKey(range.right, null);
 
         QueryFilter filter = new QueryFilter(null, new QueryPath(columnFamily, superColumn, null), columnFilter);
-        Collection<Memtable> memtables = new ArrayList<Memtable>();
-        memtables.add(getMemtableThreadSafe());
-        memtables.addAll(memtablesPendingFlush);
-
-        Collection<SSTableReader> sstables = new ArrayList<SSTableReader>();
-        Iterables.addAll(sstables, ssTables);
-
-        RowIterator iterator = RowIteratorFactory.getIterator(memtables, sstables, startWith, stopAt, filter, getComparator(), this);
+        RowIterator iterator = getRowIterator(startWith, stopAt, filter);
 
         try
         {
@@ -1222,7 +1562,7 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
                 Row current = iterator.next();
                 DecoratedKey key = current.key;
 
-                if (!stopAt.isEmpty() && stopAt.compareTo(key) < 0)
+                if (!stopAt.token.equals(partitioner.getMinimumToken()) && stopAt.compareTo(key) < 0)
                     return rows;
 
                 // skip first one
@@ -1253,21 +1593,44 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
         return rows;
     }
 
+    /**
+     * @return an iterator over the rows from startWith through stopAt, or through the last row if stopAt
+     * is the minimum token.  The caller must close it.
+     */
+    RowIterator getRowIterator(DecoratedKey startWith, DecoratedKey stopAt, QueryFilter filter)
+    {
+        Collection<Memtable> memtables = new ArrayList<Memtable>();
+        memtables.add(getMemtableThreadSafe());
+        memtables.addAll(memtablesPendingFlush);
+
+        Collection<SSTableReader> sstables = new ArrayList<SSTableReader>();
+        Iterables.addAll(sstables, ssTables);
+
+        return RowIteratorFactory.getIterator(memtables, sstables, startWith, stopAt, filter, getComparator(), this);
+    }
+
     public List<Row> scan(IndexClause clause, AbstractBounds range, IFilter dataFilter)
     {
-        // Start with the most-restrictive indexed clause, then apply remaining clauses
-        // to each row matching that clause.
-        // TODO: allow merge join instead of just one index + loop
-        IndexExpression primary = highestSelectivityPredicate(clause);
-        ColumnFamilyStore indexCFS = getIndexedColumnFamilyStore(primary.column_name);
-        assert indexCFS != null;
-        DecoratedKey indexKey = indexCFS.partitioner.decorateKey(primary.value);
+        // Walk the index rows of the chosen EQ expressions together, merge-joining them on data key, and
+        // fetch only the rows present in all of them; then apply the remaining clauses to each row fetched.
+        // Without an indexed EQ expression, walk the index rows for a range of values instead.
+        List<IndexExpression> joined = indexPlan(clause);
+
+        // an index that was only ever maintained synchronously has every entry match its row, so the joined
+        // expressions on such indexes are known to be satisfied.  one that was maintained lazily may hold
+        // stale entries, so those have to be checked against the row like the others.
+        List<IndexExpression> satisfied = new ArrayList<IndexExpression>(joined.size());
+        for (IndexExpression expr : joined)
+        {
+            if (!staleIndexes.contains(expr.column_name))
+                satisfied.add(expr);
+        }
 
         // if the slicepredicate doesn't contain all the columns for which we have expressions to evaluate,
         // it needs to be expanded to include those too
         IFilter firstFilter = dataFilter;
         NamesQueryFilter extraFilter = null;
-        if (clause.expressions.size() > 1)
+        if (clause.expressions.size() > satisfied.size())
         {
             if (dataFilter instanceof SliceQueryFilter)
             {
@@ -1285,7 +1648,7 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
                     SortedSet<ByteBuffer> columns = new TreeSet<ByteBuffer>(getComparator());
                     for (IndexExpression expr : clause.expressions)
                     {
-                        if (expr == primary)
+                        if (satisfied.contains(expr))
                             continue;
                         columns.add(expr.column_name);
                     }
@@ -1299,7 +1662,7 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
                 SortedSet<ByteBuffer> columns = new TreeSet<ByteBuffer>(getComparator());
                 for (IndexExpression expr : clause.expressions)
                 {
-                    if (expr == primary || ((NamesQueryFilter) dataFilter).columns.contains(expr.column_name))
+                    if (satisfied.contains(expr) || ((NamesQueryFilter) dataFilter).columns.contains(expr.column_name))
                         continue;
                     columns.add(expr.column_name);
                 }
@@ -1311,61 +1674,90 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
             }
         }
 
+        // a page has to hold more than the entry it starts from, or paging could not advance
+        int pageSize = Math.max(clause.count, 2);
+        List<IndexCursor> cursors = new ArrayList<IndexCursor>(Math.max(joined.size(), 1));
+        for (IndexExpression expr : joined)
+            cursors.add(new IndexCursor.ValueCursor(getIndexedColumnFamilyStore(expr.column_name), expr, pageSize));
+        if (cursors.isEmpty())
+            cursors.add(valueRangeCursor(clause, pageSize));
+        // all of our index CFs order their entries the same way, by data key
+        AbstractType indexComparator = cursors.get(0).comparator;
+
         List<Row> rows = new ArrayList<Row>();
-        ByteBuffer startKey = clause.start_key;
         QueryPath path = new QueryPath(columnFamily);
 
-        // fetch row keys matching the primary expression, fetch the slice predicate for each
-        // and filter by remaining expressions.  repeat until finished w/ assigned range or index row is exhausted.
+        /* we don't have a way to get the key back from the DK -- we just have a token --
+         * so, we need to loop after starting with start_key, until we get to keys in the given `range`.
+         * But, if the calling StorageProxy is doing a good job estimating data from each range, the range
+         * should be pretty close to `start_key`. */
+        ByteBuffer dataKey = clause.start_key;
         outer:
         while (true)
         {
-            /* we don't have a way to get the key back from the DK -- we just have a token --
-             * so, we need to loop after starting with start_key, until we get to keys in the given `range`.
-             * But, if the calling StorageProxy is doing a good job estimating data from each range, the range
-             * should be pretty close to `start_key`. */
-            QueryFilter indexFilter = QueryFilter.getSliceFilter(indexKey,
-                                                                 new QueryPath(indexCFS.getColumnFamilyName()),
-                                                                 startKey,
-                                                                 FBUtilities.EMPTY_BYTE_BUFFER,
-                                                                 false,
-                                                                 clause.count);
-            ColumnFamily indexRow = indexCFS.getColumnFamily(indexFilter);
-            if (indexRow == null)
-                break;
-
-            ByteBuffer dataKey = null;
-            int n = 0;
-            for (IColumn column : indexRow.getSortedColumns())
+            // leapfrog the cursors forward until they all agree on a data key
+            int agreed = 0;
+            for (int i = 0; agreed < cursors.size(); i = (i + 1) % cursors.size())
             {
-                if (column.isMarkedForDelete())
-                    continue;
-                dataKey = column.name();
-                n++;
-                DecoratedKey dk = partitioner.decorateKey(dataKey);
-                if (!range.right.equals(partitioner.getMinimumToken()) && range.right.compareTo(dk.token) < 0)
+                ByteBuffer key = cursors.get(i).seek(dataKey);
+                if (key == null)
                     break outer;
-                if (!range.contains(dk.token))
-                    continue;
+                if (indexComparator.compare(key, dataKey) > 0)
+                {
+                    dataKey = key;
+                    agreed = 1;
+                }
+                else
+                {
+                    agreed++;
+                }
+            }
 
+            DecoratedKey dk = partitioner.decorateKey(dataKey);
+            if (!range.right.equals(partitioner.getMinimumToken()) && range.right.compareTo(dk.token) < 0)
+                break;
+
+            if (range.contains(dk.token))
+            {
                 // get the row columns requested, and additional columns for the expressions if necessary
                 ColumnFamily data = getColumnFamily(new QueryFilter(dk, path, firstFilter));
-                if (extraFilter != null)
+                if (data != null && extraFilter != null)
                 {
                     // we might have gotten the expression columns in with the main data slice, but
                     // we can't know for sure until that slice is done.  So, we'll do the extra query
                     // if we go through and any expression columns are not present.
                     for (IndexExpression expr : clause.expressions)
                     {
-                        if (expr != primary && data.getColumn(expr.column_name) == null)
+                        if (!satisfied.contains(expr) && data.getColumn(expr.column_name) == null)
                         {
-                            data.addAll(getColumnFamily(new QueryFilter(dk, path, extraFilter)));
+                            ColumnFamily extraData = getColumnFamily(new QueryFilter(dk, path, extraFilter));
+                            if (extraData != null)
+                                data.addAll(extraData);
                             break;
                         }
                     }
                 }
 
-                if (satisfies(data, clause, primary))
+                // only a lazily maintained index can point at a row that no longer holds the indexed value.
+                // a row holding a different one fails the expression on it, since that is not among those
+                // satisfied; but a row that lost the column altogether has to be ruled out here.
+                boolean stale = data == null;
+                for (IndexCursor cursor : cursors)
+                {
+                    if (staleIndexes.contains(cursor.columnName))
+                    {
+                        IColumn column = data == null ? null : data.getColumn(cursor.columnName);
+                        if (column == null || column.isMarkedForDelete())
+                            stale = true;
+                        for (Pair<DecoratedKey, IColumn> entry : cursor.currentEntries())
+                        {
+                            if (data == null || isStale(data, cursor.columnName, entry.left.key, entry.right))
+                                removeStaleIndexEntry(cursor.indexCFS, entry.left, entry.right);
+                        }
+                    }
+                }
+
+                if (!stale && satisfies(data, clause, satisfied))
                 {
                     // cut the resultset back to what was requested, if necessary
                     if (firstFilter != dataFilter)
@@ -1377,50 +1769,129 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
                     }
 
                     rows.add(new Row(dk, data));
+                    if (rows.size() == clause.count)
+                        break;
                 }
-
-                if (rows.size() == clause.count)
-                    break outer;
             }
-            if (n < clause.count || startKey.equals(dataKey))
+
+            dataKey = cursors.get(0).advance();
+            if (dataKey == null)
                 break;
-            startKey = dataKey;
         }
 
         return rows;
     }
 
-    private IndexExpression highestSelectivityPredicate(IndexClause clause)
+    /**
+     * @return true if the row no longer holds the value a (lazily maintained) index entry was created for,
+     * because the indexed column was overwritten or deleted after the entry was written.
+     */
+    private static boolean isStale(ColumnFamily data, ByteBuffer columnName, ByteBuffer indexedValue, IColumn indexEntry)
+    {
+        IColumn column = data.getColumn(columnName);
+        if (column == null || column.isMarkedForDelete())
+            return true;
+        return !column.value().equals(indexedValue) && column.timestamp() >= indexEntry.timestamp();
+    }
+
+    /**
+     * Deletes an index entry found to be stale.  The tombstone carries the entry's own timestamp, so that
+     * an entry re-created by a newer write of the same value survives it.
+     */
+    private void removeStaleIndexEntry(ColumnFamilyStore indexCFS, DecoratedKey indexKey, IColumn indexEntry)
     {
-        IndexExpression best = null;
-        int bestMeanCount = Integer.MAX_VALUE;
+        ColumnFamily cfi = ColumnFamily.create(indexCFS.metadata);
+        cfi.addTombstone(indexEntry.name(), (int) (System.currentTimeMillis() / 1000), indexEntry.timestamp());
+        // index CFSes share our flusherLock.  ignore full index memtables -- we flush those when ours is full
+        flusherLock.readLock().lock();
+        try
+        {
+            indexCFS.apply(indexKey, cfi);
+        }
+        finally
+        {
+            flusherLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Chooses the indexed EQ expressions to merge-join.  The one with the fewest expected matches drives the
+     * scan; each other one is joined in if it is expected to discard enough of the candidate rows to pay for
+     * reading its index row.
+     * @return the expressions to join, or an empty list if there is no indexed EQ expression
+     */
+    private List<IndexExpression> indexPlan(IndexClause clause)
+    {
+        final Map<IndexExpression, Double> meanMatches = new IdentityHashMap<IndexExpression, Double>();
         for (IndexExpression expression : clause.expressions)
         {
             ColumnFamilyStore cfs = getIndexedColumnFamilyStore(expression.column_name);
             if (cfs == null || !expression.op.equals(IndexOperator.EQ))
                 continue;
-            int columns = cfs.getMeanColumns();
-            if (columns < bestMeanCount)
+            meanMatches.put(expression, cfs.getEstimatedMeanColumns());
+        }
+        if (meanMatches.isEmpty())
+            return Collections.emptyList();
+
+        List<IndexExpression> candidates = new ArrayList<IndexExpression>(meanMatches.keySet());
+        Collections.sort(candidates, new Comparator<IndexExpression>()
+        {
+            public int compare(IndexExpression e1, IndexExpression e2)
             {
-                best = expression;
-                bestMeanCount = columns;
+                return Double.compare(meanMatches.get(e1), meanMatches.get(e2));
             }
+        });
+
+        List<IndexExpression> plan = new ArrayList<IndexExpression>(candidates.size());
+        plan.add(candidates.get(0));
+        long rows = getEstimatedRowCount();
+        for (IndexExpression expression : candidates.subList(1, candidates.size()))
+        {
+            if (rows == 0 || meanMatches.get(expression) / rows <= MAX_JOIN_SELECTIVITY)
+                plan.add(expression);
         }
-        return best;
+        if (logger.isDebugEnabled())
+            logger.debug("scanning {} using indexes {} (estimated matches {} of {} rows)",
+                         new Object[] { columnFamily, plan, meanMatches.values(), rows });
+        return plan;
     }
 
-    private static boolean satisfies(ColumnFamily data, IndexClause clause, IndexExpression first)
+    /**
+     * @return a cursor over the values of the first indexed column that the clause has GT, GTE, LT or LTE
+     * expressions on, bounded by those expressions
+     */
+    private IndexCursor valueRangeCursor(IndexClause clause, int pageSize)
     {
+        ByteBuffer columnName = null;
+        List<IndexExpression> bounds = new ArrayList<IndexExpression>(2);
         for (IndexExpression expression : clause.expressions)
         {
-            // (we can skip "first" since we already know it's satisfied)
-            if (expression == first)
+            if (expression.op.equals(IndexOperator.EQ) || getIndexedColumnFamilyStore(expression.column_name) == null)
+                continue;
+            if (columnName == null)
+                columnName = expression.column_name;
+            if (columnName.equals(expression.column_name))
+                bounds.add(expression);
+        }
+        assert columnName != null : "no indexed expression in " + clause;
+
+        if (logger.isDebugEnabled())
+            logger.debug("scanning {} using index range {}", columnFamily, bounds);
+        return new IndexCursor.ValueRangeCursor(getIndexedColumnFamilyStore(columnName), columnName, bounds, pageSize);
+    }
+
+    private boolean satisfies(ColumnFamily data, IndexClause clause, Collection<IndexExpression> satisfied)
+    {
+        for (IndexExpression expression : clause.expressions)
+        {
+            // (we can skip the expressions we already know are satisfied)
+            if (satisfied.contains(expression))
                 continue;
             // check column data vs expression
             IColumn column = data.getColumn(expression.column_name);
             if (column == null)
                 continue;
-            int v = data.getComparator().compare(column.value(), expression.value);
+            int v = metadata.getValueValidator(expression.column_name).compare(column.value(), expression.value);
             if (!satisfies(v, expression.op))
                 return false;
         }
@@ -1529,6 +2000,12 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
         ssTables.getRowCache().remove(key);
     }
 
+    /** raw cached sstable locations of a row -- does not locate it if they are not present.  not counted in cache statistics.  */
+    public KeyLocations getRawCachedKeyLocations(DecoratedKey key)
+    {
+        return ssTables.getKeyLocatorCache().getInternal(key);
+    }
+
     public void forceMajorCompaction() throws InterruptedException, ExecutionException
     {
         CompactionManager.instance.performMajor(this);
@@ -1589,6 +2066,7 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
     {
         memtable.clearUnsafe();
         ssTables.clearUnsafe();
+        compactionStrategy = metadata.createCompactionStrategy(this);
     }
 
 
@@ -121,6 +121,26 @@ public interface ColumnFamilyStoreMBean
      */
     public double getRecentWriteLatencyMicros();
 
+    /**
+     * @return the number of memtable flushes completed for this column family
+     */
+    public long getFlushCount();
+
+    /**
+     * @return the number of bytes written to sstables by memtable flushes
+     */
+    public long getTotalFlushedBytes();
+
+    /**
+     * @return total time spent flushing memtables (divide by getFlushCount() for average)
+     */
+    public long getTotalFlushLatencyMicros();
+
+    /**
+     * @return bytes flushed per second of flush time, since the last call
+     */
+    public double getRecentFlushThroughput();
+
     /**
      * @return the estimated number of tasks pending for this column family
      */
@@ -169,6 +189,17 @@ public interface ColumnFamilyStoreMBean
      */
     public long getMeanRowSize();
 
+    /**
+     * @return the estimated number of rows, over the memtable and all sstables
+     */
+    public long getEstimatedRowCount();
+
+    /**
+     * return the estimated mean number of columns per row, over the memtable and all sstables.
+     * For an index column family this is the expected number of rows matching an indexed value.
+     */
+    public double getEstimatedMeanColumns();
+
     public long getBloomFilterFalsePositives();
 
     public long getRecentBloomFilterFalsePositives();
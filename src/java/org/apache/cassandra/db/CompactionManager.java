@@ -28,6 +28,9 @@ import java.util.Map.Entry;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import javax.management.MBeanServer;
 import javax.management.ObjectName;
 
@@ -40,6 +43,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import org.apache.cassandra.concurrent.DebuggableThreadPoolExecutor;
+import org.apache.cassandra.concurrent.NamedThreadFactory;
 import org.apache.cassandra.config.DatabaseDescriptor;
 import org.apache.cassandra.dht.Range;
 import org.apache.cassandra.io.AbstractCompactedRow;
@@ -53,6 +57,8 @@ import org.apache.cassandra.utils.FBUtilities;
 import org.apache.cassandra.utils.Pair;
 import org.cliffc.high_scale_lib.NonBlockingHashMap;
 
+import com.google.common.collect.AbstractIterator;
+
 public class CompactionManager implements CompactionManagerMBean
 {
     public static final String MBEAN_OBJECT_NAME = "org.apache.cassandra.db:type=CompactionManager";
@@ -73,13 +79,19 @@ public class CompactionManager implements CompactionManagerMBean
         }
     }
 
-    private CompactionExecutor executor = new CompactionExecutor();
+    private final CompactionExecutor executor = new CompactionExecutor("CompactionExecutor");
+    // compacts the token ranges of split major compactions; a separate pool, so a compaction never waits
+    // for a thread of the pool it runs in
+    private final CompactionExecutor rangeExecutor = new CompactionExecutor("CompactionRangeExecutor");
+    // bytes that compactions in progress expect to write to each data directory, so that concurrent ones
+    // spread over the disks instead of all picking the one with the most space free now
+    private final Map<String, Long> reservedBytes = new NonBlockingHashMap<String, Long>();
     private Map<ColumnFamilyStore, Integer> estimatedCompactions = new NonBlockingHashMap<ColumnFamilyStore, Integer>();
 
     /**
      * Call this whenever a compaction might be needed on the given columnfamily.
-     * It's okay to over-call (within reason) since the compactions are single-threaded,
-     * and if a call is unnecessary, it will just be no-oped in the bucketing phase.
+     * It's okay to over-call (within reason) since a compaction never merges sstables another is merging,
+     * and if a call is unnecessary, the column family's compaction strategy will find nothing to compact.
      */
     public Future<Integer> submitMinorIfNeeded(final ColumnFamilyStore cfs)
     {
@@ -95,42 +107,46 @@ public class CompactionManager implements CompactionManagerMBean
                     logger.debug("Compaction is currently disabled.");
                     return 0;
                 }
-                logger.debug("Checking to see if compaction of " + cfs.columnFamily + " would be useful");
-                Set<List<SSTableReader>> buckets = getBuckets(convertSSTablesToPairs(cfs.getSSTables()), 50L * 1024L * 1024L);
-                updateEstimateFor(cfs, buckets);
-                
-                for (List<SSTableReader> sstables : buckets)
+                cfs.compactionLock.readLock().lock();
+                try
                 {
-                    if (sstables.size() >= minThreshold)
+                    logger.debug("Checking to see if compaction of " + cfs.columnFamily + " would be useful");
+                    updateEstimateFor(cfs);
+
+                    AbstractCompactionStrategy strategy = cfs.getCompactionStrategy();
+                    List<SSTableReader> sstables;
+                    synchronized (strategy)
                     {
-                        // if we have too many to compact all at once, compact older ones first -- this avoids
-                        // re-compacting files we just created.
-                        Collections.sort(sstables);
-                        return doCompaction(cfs, sstables.subList(0, Math.min(sstables.size(), maxThreshold)), (int) (System.currentTimeMillis() / 1000) - cfs.metadata.gcGraceSeconds);
+                        sstables = strategy.getMinorCompactionCandidates(minThreshold, maxThreshold);
+                        if (sstables.isEmpty() || !cfs.markCompacting(sstables))
+                            return 0;
                     }
+                    try
+                    {
+                        return doCompaction(cfs, sstables, (int) (System.currentTimeMillis() / 1000) - cfs.metadata.gcGraceSeconds);
+                    }
+                    finally
+                    {
+                        cfs.unmarkCompacting(sstables);
+                    }
+                }
+                finally
+                {
+                    cfs.compactionLock.readLock().unlock();
                 }
-                return 0;
             }
         };
         return executor.submit(callable);
     }
 
-    private void updateEstimateFor(ColumnFamilyStore cfs, Set<List<SSTableReader>> buckets)
+    private void updateEstimateFor(ColumnFamilyStore cfs)
     {
         Integer minThreshold = cfs.getMinimumCompactionThreshold();
         Integer maxThreshold = cfs.getMaximumCompactionThreshold();
 
         if (minThreshold > 0 && maxThreshold > 0)
         {
-            int n = 0;
-            for (List<SSTableReader> sstables : buckets)
-            {
-                if (sstables.size() >= minThreshold)
-                {
-                    n += Math.ceil((double)sstables.size() / maxThreshold);
-                }
-            }
-            estimatedCompactions.put(cfs, n);
+            estimatedCompactions.put(cfs, cfs.getCompactionStrategy().getEstimatedRemainingTasks(minThreshold, maxThreshold));
         }
         else
         {
@@ -144,7 +160,15 @@ public class CompactionManager implements CompactionManagerMBean
         {
             public Object call() throws IOException
             {
-                doCleanupCompaction(cfStore);
+                cfStore.compactionLock.writeLock().lock();
+                try
+                {
+                    doCleanupCompaction(cfStore);
+                }
+                finally
+                {
+                    cfStore.compactionLock.writeLock().unlock();
+                }
                 return this;
             }
         };
@@ -162,24 +186,33 @@ public class CompactionManager implements CompactionManagerMBean
         {
             public Object call() throws IOException
             {
-                Collection<SSTableReader> sstables;
-                if (skip > 0)
+                // wait for the minor compactions in progress, so that all the sstables are ours
+                cfStore.compactionLock.writeLock().lock();
+                try
                 {
-                    sstables = new ArrayList<SSTableReader>();
-                    for (SSTableReader sstable : cfStore.getSSTables())
+                    Collection<SSTableReader> sstables;
+                    if (skip > 0)
                     {
-                        if (sstable.length() < skip * 1024L * 1024L * 1024L)
+                        sstables = new ArrayList<SSTableReader>();
+                        for (SSTableReader sstable : cfStore.getSSTables())
                         {
-                            sstables.add(sstable);
+                            if (sstable.length() < skip * 1024L * 1024L * 1024L)
+                            {
+                                sstables.add(sstable);
+                            }
                         }
                     }
+                    else
+                    {
+                        sstables = cfStore.getSSTables();
+                    }
+
+                    doCompaction(cfStore, sstables, gcBefore);
                 }
-                else
+                finally
                 {
-                    sstables = cfStore.getSSTables();
+                    cfStore.compactionLock.writeLock().unlock();
                 }
-
-                doCompaction(cfStore, sstables, gcBefore);
                 return this;
             }
         };
@@ -222,7 +255,8 @@ public class CompactionManager implements CompactionManagerMBean
         if (DatabaseDescriptor.isSnapshotBeforeCompaction())
             table.snapshot("compact-" + cfs.columnFamily);
         logger.info("Compacting [" + StringUtils.join(sstables, ",") + "]");
-        String compactionFileLocation = table.getDataFileLocation(cfs.getExpectedCompactedFileSize(sstables));
+        long expectedSize = cfs.getExpectedCompactedFileSize(sstables);
+        String compactionFileLocation = table.getDataFileLocation(expectedSize, reservedBytes);
         // If the compaction file path is null that means we have no space left for this compaction.
         // try again w/o the largest one.
         List<SSTableReader> smallerSSTables = new ArrayList<SSTableReader>(sstables);
@@ -230,7 +264,8 @@ public class CompactionManager implements CompactionManagerMBean
         {
             logger.warn("insufficient space to compact all requested files " + StringUtils.join(smallerSSTables, ", "));
             smallerSSTables.remove(cfs.getMaxSizeFile(smallerSSTables));
-            compactionFileLocation = table.getDataFileLocation(cfs.getExpectedCompactedFileSize(smallerSSTables));
+            expectedSize = cfs.getExpectedCompactedFileSize(smallerSSTables);
+            compactionFileLocation = table.getDataFileLocation(expectedSize, reservedBytes);
         }
         if (compactionFileLocation == null)
         {
@@ -239,39 +274,88 @@ public class CompactionManager implements CompactionManagerMBean
         }
         sstables = smallerSSTables;
 
+        reserve(compactionFileLocation, expectedSize);
+        try
+        {
+            return doCompaction(cfs, sstables, gcBefore, compactionFileLocation);
+        }
+        finally
+        {
+            reserve(compactionFileLocation, -expectedSize);
+        }
+    }
+
+    private int doCompaction(ColumnFamilyStore cfs, Collection<SSTableReader> sstables, int gcBefore, String compactionFileLocation) throws IOException
+    {
         // new sstables from flush can be added during a compaction, but only the compaction can remove them,
-        // so in our single-threaded compaction world this is a valid way of determining if we're compacting
-        // all the sstables (that existed when we started)
+        // and concurrent compactions never share sstables, so this is a valid way of determining if we're
+        // compacting all the sstables (that existed when we started)
         boolean major = cfs.isCompleteSSTables(sstables);
 
         long startTime = System.currentTimeMillis();
-        long totalkeysWritten = 0;
+        long startsize = SSTable.getTotalBytes(sstables);
+        List<DecoratedKey> splitKeys = major ? getSplitKeys(sstables, startsize) : Collections.<DecoratedKey>emptyList();
 
+        // each sstable written holds its share of the keys, when the output is split by range or size
+        long bytesPerSSTable = Math.min(cfs.getCompactionStrategy().getMaxSSTableSize(), startsize / (splitKeys.size() + 1));
+        long expectedKeys = SSTableReader.getApproximateKeyCount(sstables);
+        if (bytesPerSSTable < startsize)
+            expectedKeys = (long) (expectedKeys * ((double) bytesPerSSTable / startsize));
         // TODO the int cast here is potentially buggy
-        int expectedBloomFilterSize = Math.max(DatabaseDescriptor.getIndexInterval(), (int)SSTableReader.getApproximateKeyCount(sstables));
+        int expectedBloomFilterSize = Math.max(DatabaseDescriptor.getIndexInterval(), (int) expectedKeys);
         if (logger.isDebugEnabled())
           logger.debug("Expected bloom filter size : " + expectedBloomFilterSize);
 
-        SSTableWriter writer;
-        CompactionIterator ci = new CompactionIterator(cfs, sstables, gcBefore, major); // retain a handle so we can call close()
-        Iterator<AbstractCompactedRow> nni = new FilterIterator(ci, PredicateUtils.notNullPredicate());
-        executor.beginCompaction(cfs, ci);
+        AtomicLong totalkeysWritten = new AtomicLong();
+        List<SSTableReader> results;
+        if (splitKeys.isEmpty())
+        {
+            CompactionIterator ci = new CompactionIterator(cfs, sstables, gcBefore, major); // retain a handle so we can call close()
+            executor.beginCompaction(cfs, ci);
+            results = writeCompacted(cfs, ci, compactionFileLocation, expectedBloomFilterSize, getMaxDataAge(sstables), totalkeysWritten);
+        }
+        else
+        {
+            results = writeCompactedRanges(cfs, sstables, splitKeys, gcBefore, compactionFileLocation, expectedBloomFilterSize, totalkeysWritten);
+        }
 
-        try
+        if (results.isEmpty())
         {
-            if (!nni.hasNext())
-            {
-                // don't mark compacted in the finally block, since if there _is_ nondeleted data,
-                // we need to sync it (via closeAndOpen) first, so there is no period during which
-                // a crash could cause data loss.
-                cfs.markCompacted(sstables);
-                return 0;
-            }
+            // nothing survived; no sstables to sync before we mark the old ones compacted
+            cfs.markCompacted(sstables);
+            return 0;
+        }
+        cfs.replaceCompactedSSTables(sstables, results);
+        submitMinorIfNeeded(cfs);
+
+        String format = "Compacted to %s.  %,d to %,d (~%d%% of original) bytes for %,d keys.  Time: %,dms.";
+        long dTime = System.currentTimeMillis() - startTime;
+        long endsize = SSTable.getTotalBytes(results);
+        double ratio = (double)endsize / (double)startsize;
+        logger.info(String.format(format, StringUtils.join(results, ","), startsize, endsize, (int) (ratio * 100), totalkeysWritten.get(), dTime));
+        return sstables.size();
+    }
 
-            String newFilename = new File(cfs.getTempSSTablePath(compactionFileLocation)).getAbsolutePath();
-            writer = new SSTableWriter(newFilename, expectedBloomFilterSize, cfs.metadata, cfs.partitioner);
+    /**
+     * Writes the rows of ci to new sstables, starting another whenever one reaches the size limit of the
+     * column family's compaction strategy.  Closes ci.
+     */
+    private List<SSTableReader> writeCompacted(ColumnFamilyStore cfs, CompactionIterator ci, String compactionFileLocation, int expectedBloomFilterSize, long maxDataAge, AtomicLong keysWritten)
+    throws IOException
+    {
+        long maxSSTableSize = cfs.getCompactionStrategy().getMaxSSTableSize();
+        List<SSTableReader> results = new ArrayList<SSTableReader>();
+        SSTableWriter writer = null;
+        Iterator<AbstractCompactedRow> nni = new FilterIterator(ci, PredicateUtils.notNullPredicate());
+        try
+        {
             while (nni.hasNext())
             {
+                if (writer == null)
+                {
+                    String newFilename = new File(cfs.getTempSSTablePath(compactionFileLocation)).getAbsolutePath();
+                    writer = new SSTableWriter(newFilename, expectedBloomFilterSize, cfs.metadata, cfs.partitioner);
+                }
                 AbstractCompactedRow row = nni.next();
                 try
                 {
@@ -280,10 +364,19 @@ public class CompactionManager implements CompactionManagerMBean
                 catch (IOException ex)
                 {
                     writer.abort();
+                    // the sstables already finished will never be used
+                    for (SSTableReader sstable : results)
+                        sstable.markCompacted();
                     // rethrow the exception so that caller knows compaction failed.
                     throw ex;
                 }
-                totalkeysWritten++;
+                keysWritten.incrementAndGet();
+
+                if (writer.getFilePointer() >= maxSSTableSize && nni.hasNext())
+                {
+                    results.add(writer.closeAndOpenReader(maxDataAge));
+                    writer = null;
+                }
             }
         }
         finally
@@ -291,17 +384,114 @@ public class CompactionManager implements CompactionManagerMBean
             ci.close();
         }
 
-        SSTableReader ssTable = writer.closeAndOpenReader(getMaxDataAge(sstables));
-        cfs.replaceCompactedSSTables(sstables, Arrays.asList(ssTable));
-        submitMinorIfNeeded(cfs);
+        if (writer != null)
+            results.add(writer.closeAndOpenReader(maxDataAge));
+        return results;
+    }
 
-        String format = "Compacted to %s.  %,d to %,d (~%d%% of original) bytes for %,d keys.  Time: %,dms.";
-        long dTime = System.currentTimeMillis() - startTime;
-        long startsize = SSTable.getTotalBytes(sstables);
-        long endsize = ssTable.length();
-        double ratio = (double)endsize / (double)startsize;
-        logger.info(String.format(format, writer.getFilename(), startsize, endsize, (int) (ratio * 100), totalkeysWritten, dTime));
-        return sstables.size();
+    /**
+     * Compacts each of the token ranges that splitKeys divide sstables into on a thread of its own.
+     */
+    private List<SSTableReader> writeCompactedRanges(final ColumnFamilyStore cfs,
+                                                     final Collection<SSTableReader> sstables,
+                                                     List<DecoratedKey> splitKeys,
+                                                     final int gcBefore,
+                                                     final String compactionFileLocation,
+                                                     final int expectedBloomFilterSize,
+                                                     final AtomicLong keysWritten)
+    throws IOException
+    {
+        logger.info("Compacting {} ranges of {} in parallel", splitKeys.size() + 1, cfs.columnFamily);
+        final long maxDataAge = getMaxDataAge(sstables);
+        List<Future<List<SSTableReader>>> futures = new ArrayList<Future<List<SSTableReader>>>();
+        DecoratedKey left = null;
+        for (int i = 0; i <= splitKeys.size(); i++)
+        {
+            final DecoratedKey start = left;
+            final DecoratedKey end = i < splitKeys.size() ? splitKeys.get(i) : null;
+            Callable<List<SSTableReader>> callable = new Callable<List<SSTableReader>>()
+            {
+                public List<SSTableReader> call() throws IOException
+                {
+                    CompactionIterator ci = new RangeCompactionIterator(cfs, sstables, start, end, gcBefore);
+                    rangeExecutor.beginCompaction(cfs, ci);
+                    return writeCompacted(cfs, ci, compactionFileLocation, expectedBloomFilterSize, maxDataAge, keysWritten);
+                }
+            };
+            futures.add(rangeExecutor.submit(callable));
+            left = end;
+        }
+
+        // the ranges are in token order, and so are their sstables
+        List<SSTableReader> results = new ArrayList<SSTableReader>();
+        Throwable failure = null;
+        for (Future<List<SSTableReader>> future : futures)
+        {
+            try
+            {
+                results.addAll(future.get());
+            }
+            catch (InterruptedException e)
+            {
+                throw new AssertionError(e);
+            }
+            catch (ExecutionException e)
+            {
+                if (failure == null)
+                    failure = e.getCause();
+            }
+        }
+        if (failure != null)
+        {
+            for (SSTableReader sstable : results)
+                sstable.markCompacted();
+            if (failure instanceof IOException)
+                throw (IOException) failure;
+            throw new RuntimeException(failure);
+        }
+        return results;
+    }
+
+    /**
+     * @return keys dividing sstables into a token range for each concurrent compactor, if they are large
+     * enough to compact in parallel; otherwise none
+     */
+    private static List<DecoratedKey> getSplitKeys(Collection<SSTableReader> sstables, long totalBytes)
+    {
+        long threshold = DatabaseDescriptor.getParallelCompactionThreshold();
+        int ranges = DatabaseDescriptor.getConcurrentCompactors();
+        if (threshold == 0 || totalBytes <= threshold || ranges < 2)
+            return Collections.emptyList();
+
+        List<DecoratedKey> samples = new ArrayList<DecoratedKey>();
+        for (SSTableReader sstable : sstables)
+            samples.addAll(sstable.getKeySamples());
+        Collections.sort(samples);
+
+        List<DecoratedKey> splitKeys = new ArrayList<DecoratedKey>(ranges - 1);
+        for (int i = 1; i < ranges && !samples.isEmpty(); i++)
+        {
+            DecoratedKey key = samples.get(i * samples.size() / ranges);
+            if (splitKeys.isEmpty() || key.compareTo(splitKeys.get(splitKeys.size() - 1)) > 0)
+                splitKeys.add(key);
+        }
+        return splitKeys;
+    }
+
+    /**
+     * Adds bytes (which may be negative, to release them) to those reserved in a data directory.
+     */
+    private void reserve(String dataDirectory, long bytes)
+    {
+        synchronized (reservedBytes)
+        {
+            Long reserved = reservedBytes.get(dataDirectory);
+            long total = (reserved == null ? 0 : reserved) + bytes;
+            if (total == 0)
+                reservedBytes.remove(dataDirectory);
+            else
+                reservedBytes.put(dataDirectory, total);
+        }
     }
 
     private static long getMaxDataAge(Collection<SSTableReader> sstables)
@@ -333,12 +523,25 @@ public class CompactionManager implements CompactionManagerMBean
         logger.info("AntiCompacting [" + StringUtils.join(sstables, ",") + "]");
         // Calculate the expected compacted filesize
         long expectedRangeFileSize = cfs.getExpectedCompactedFileSize(sstables) / 2;
-        String compactionFileLocation = table.getDataFileLocation(expectedRangeFileSize);
+        String compactionFileLocation = table.getDataFileLocation(expectedRangeFileSize, reservedBytes);
         if (compactionFileLocation == null)
         {
             throw new UnsupportedOperationException("disk full");
         }
+        reserve(compactionFileLocation, expectedRangeFileSize);
+        try
+        {
+            return writeAntiCompacted(cfs, sstables, ranges, compactionFileLocation);
+        }
+        finally
+        {
+            reserve(compactionFileLocation, -expectedRangeFileSize);
+        }
+    }
 
+    private List<SSTableReader> writeAntiCompacted(ColumnFamilyStore cfs, Collection<SSTableReader> sstables, Collection<Range> ranges, String compactionFileLocation)
+            throws IOException
+    {
         List<SSTableReader> results = new ArrayList<SSTableReader>();
         long startTime = System.currentTimeMillis();
         long totalkeysWritten = 0;
@@ -489,16 +692,6 @@ public class CompactionManager implements CompactionManagerMBean
         return buckets.keySet();
     }
 
-    private static Collection<Pair<SSTableReader, Long>> convertSSTablesToPairs(Collection<SSTableReader> collection)
-    {
-        Collection<Pair<SSTableReader, Long>> tablePairs = new ArrayList<Pair<SSTableReader, Long>>();
-        for(SSTableReader table: collection)
-        {
-            tablePairs.add(new Pair<SSTableReader, Long>(table, table.length()));
-        }
-        return tablePairs;
-    }
-
     public Future submitDrop(final ColumnFamilyStore... stores)
     {
         Callable callable = new Callable()
@@ -507,14 +700,16 @@ public class CompactionManager implements CompactionManagerMBean
             {
                 for (ColumnFamilyStore cfs : stores)
                 {
-                    Table.flusherLock.writeLock().lock();
+                    cfs.compactionLock.writeLock().lock();
+                    cfs.flusherLock.writeLock().lock();
                     try
                     {
                         cfs.table.dropCf(cfs.metadata.cfId);
                     }
                     finally
                     {
-                        Table.flusherLock.writeLock().unlock();
+                        cfs.flusherLock.writeLock().unlock();
+                        cfs.compactionLock.writeLock().unlock();
                     }
                 }
                 return null;
@@ -564,6 +759,73 @@ public class CompactionManager implements CompactionManagerMBean
         }
     }
 
+    /**
+     * Compacts the rows with keys in (left, right] of all the sstables; a null bound is unbounded.
+     */
+    private static class RangeCompactionIterator extends CompactionIterator
+    {
+        private Set<SSTableScanner> scanners;
+
+        public RangeCompactionIterator(ColumnFamilyStore cfs, Collection<SSTableReader> sstables, DecoratedKey left, DecoratedKey right, int gcBefore)
+        {
+            super(cfs, getCollatedRangeIterator(sstables, left, right), gcBefore, true);
+        }
+
+        private static Iterator getCollatedRangeIterator(Collection<SSTableReader> sstables, DecoratedKey left, DecoratedKey right)
+        {
+            CollatingIterator iter = FBUtilities.getCollatingIterator();
+            for (SSTableReader sstable : sstables)
+            {
+                SSTableScanner scanner = sstable.getScanner(FILE_BUFFER_SIZE);
+                if (left != null)
+                    scanner.seekTo(left);
+                iter.addIterator(new BoundedScanner(scanner, left, right));
+            }
+            return iter;
+        }
+
+        public Iterable<SSTableScanner> getScanners()
+        {
+            if (scanners == null)
+            {
+                scanners = new HashSet<SSTableScanner>();
+                for (Object o : ((CollatingIterator)source).getIterators())
+                {
+                    scanners.add(((BoundedScanner)o).scanner);
+                }
+            }
+            return scanners;
+        }
+    }
+
+    private static class BoundedScanner extends AbstractIterator<SSTableIdentityIterator>
+    {
+        private final SSTableScanner scanner;
+        private final DecoratedKey left;
+        private final DecoratedKey right;
+
+        public BoundedScanner(SSTableScanner scanner, DecoratedKey left, DecoratedKey right)
+        {
+            this.scanner = scanner;
+            this.left = left;
+            this.right = right;
+        }
+
+        protected SSTableIdentityIterator computeNext()
+        {
+            while (scanner.hasNext())
+            {
+                SSTableIdentityIterator row = (SSTableIdentityIterator) scanner.next();
+                if (left != null && row.getKey().compareTo(left) <= 0)
+                    continue;
+                if (right != null && row.getKey().compareTo(right) > 0)
+                    break;
+                return row;
+            }
+            return endOfData();
+        }
+    }
+
     private static class AntiCompactionIterator extends CompactionIterator
     {
         private Set<SSTableScanner> scanners;
@@ -623,8 +885,7 @@ public class CompactionManager implements CompactionManagerMBean
                 public void run ()
                 {
                     logger.debug("Estimating compactions for " + cfs.columnFamily);
-                    final Set<List<SSTableReader>> buckets = getBuckets(convertSSTablesToPairs(cfs.getSSTables()), 50L * 1024L * 1024L);
-                    updateEstimateFor(cfs, buckets);
+                    updateEstimateFor(cfs);
                 }
             };
             executor.submit(runnable);
@@ -640,67 +901,93 @@ public class CompactionManager implements CompactionManagerMBean
 
     private static class CompactionExecutor extends DebuggableThreadPoolExecutor
     {
-        private volatile ColumnFamilyStore cfs;
-        private volatile ICompactionInfo ci;
+        // the column family and progress of the task each thread is running, if it has begun one
+        private final Map<Thread, Pair<ColumnFamilyStore, ICompactionInfo>> compactions = new NonBlockingHashMap<Thread, Pair<ColumnFamilyStore, ICompactionInfo>>();
 
-        public CompactionExecutor()
+        public CompactionExecutor(String threadPoolName)
         {
-            super("CompactionExecutor", DatabaseDescriptor.getCompactionThreadPriority());
+            super(DatabaseDescriptor.getConcurrentCompactors(),
+                  DatabaseDescriptor.getConcurrentCompactors(),
+                  Integer.MAX_VALUE,
+                  TimeUnit.SECONDS,
+                  new LinkedBlockingQueue<Runnable>(),
+                  new NamedThreadFactory(threadPoolName, DatabaseDescriptor.getCompactionThreadPriority()));
         }
 
         @Override
         public void afterExecute(Runnable r, Throwable t)
         {
             super.afterExecute(r, t);
-            cfs = null;
-            ci = null;
+            compactions.remove(Thread.currentThread());
         }
 
         void beginCompaction(ColumnFamilyStore cfs, ICompactionInfo ci)
         {
-            this.cfs = cfs;
-            this.ci = ci;
-        }
-
-        public String getColumnFamilyName()
-        {
-            return cfs == null ? null : cfs.getColumnFamilyName();
+            compactions.put(Thread.currentThread(), new Pair<ColumnFamilyStore, ICompactionInfo>(cfs, ci));
         }
 
-        public Long getBytesTotal()
+        Collection<Pair<ColumnFamilyStore, ICompactionInfo>> getCompactions()
         {
-            return ci == null ? null : ci.getTotalBytes();
+            return compactions.values();
         }
+    }
 
-        public Long getBytesCompleted()
-        {
-            return ci == null ? null : ci.getBytesRead();
-        }
+    private List<Pair<ColumnFamilyStore, ICompactionInfo>> getCompactionsInProgress()
+    {
+        List<Pair<ColumnFamilyStore, ICompactionInfo>> compactions = new ArrayList<Pair<ColumnFamilyStore, ICompactionInfo>>();
+        compactions.addAll(executor.getCompactions());
+        compactions.addAll(rangeExecutor.getCompactions());
+        return compactions;
+    }
 
-        public String getType()
-        {
-            return ci == null ? null : ci.getTaskType();
-        }
+    private Pair<ColumnFamilyStore, ICompactionInfo> getAnyCompactionInProgress()
+    {
+        List<Pair<ColumnFamilyStore, ICompactionInfo>> compactions = getCompactionsInProgress();
+        return compactions.isEmpty() ? null : compactions.get(0);
     }
 
     public String getColumnFamilyInProgress()
     {
-        return executor.getColumnFamilyName();
+        Pair<ColumnFamilyStore, ICompactionInfo> compaction = getAnyCompactionInProgress();
+        return compaction == null ? null : compaction.left.getColumnFamilyName();
     }
 
     public Long getBytesTotalInProgress()
     {
-        return executor.getBytesTotal();
+        Pair<ColumnFamilyStore, ICompactionInfo> compaction = getAnyCompactionInProgress();
+        return compaction == null ? null : compaction.right.getTotalBytes();
     }
 
     public Long getBytesCompacted()
     {
-        return executor.getBytesCompleted();
+        Pair<ColumnFamilyStore, ICompactionInfo> compaction = getAnyCompactionInProgress();
+        return compaction == null ? null : compaction.right.getBytesRead();
     }
 
     public String getCompactionType()
     {
-        return executor.getType();
+        Pair<ColumnFamilyStore, ICompactionInfo> compaction = getAnyCompactionInProgress();
+        return compaction == null ? null : compaction.right.getTaskType();
+    }
+
+    public List<String> getCompactions()
+    {
+        List<String> descriptions = new ArrayList<String>();
+        for (Pair<ColumnFamilyStore, ICompactionInfo> compaction : getCompactionsInProgress())
+        {
+            descriptions.add(String.format("%s of %s/%s: %d of %d bytes",
+                                           compaction.right.getTaskType(),
+                                           compaction.left.table.name,
+                                           compaction.left.getColumnFamilyName(),
+                                           compaction.right.getBytesRead(),
+                                           compaction.right.getTotalBytes()));
+        }
+        return descriptions;
+    }
+
+    public int getActiveCompactions()
+    {
+        return getCompactionsInProgress().size();
     }
 
     public int getPendingTasks()
@@ -18,29 +18,41 @@
 
 package org.apache.cassandra.db;
 
+import java.util.List;
+
 public interface CompactionManagerMBean
 {    
 
     /**
-     * @return the columnfamily currently being compacted; null if none
+     * @return the columnfamily of one of the compactions in progress; null if none
      */
     public String getColumnFamilyInProgress();
 
     /**
-     * @return the total (data, not including index and filter) bytes being compacted; null if none
+     * @return the total (data, not including index and filter) bytes of one of the compactions in progress; null if none
      */
     public Long getBytesTotalInProgress();
 
     /**
-     * @return the progress on the current compaction; null if none
+     * @return the progress of one of the compactions in progress; null if none
      */
     public Long getBytesCompacted();
 
     /**
-     * @return the type of compaction operation currently in progress; null if none
+     * @return the type of one of the compaction operations in progress; null if none
      */
     public String getCompactionType();
 
+    /**
+     * @return the type, columnfamily and progress of each compaction, cleanup, validation and index build in progress
+     */
+    public List<String> getCompactions();
+
+    /**
+     * @return the number of compaction operations in progress
+     */
+    public int getActiveCompactions();
+
     /**
      * @return estimated number of compactions remaining to perform
      */
@@ -20,6 +20,7 @@ package org.apache.cassandra.db;
 
 import java.nio.ByteBuffer;
 
+import org.apache.cassandra.utils.Allocator;
 import org.apache.cassandra.utils.FBUtilities;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -55,4 +56,10 @@ public class DeletedColumn extends Column
     {
        return value.getInt(value.position()+value.arrayOffset()	);
     }
+
+    @Override
+    public IColumn localCopy(Allocator allocator)
+    {
+        return new DeletedColumn(allocator.clone(name), allocator.clone(value), timestamp);
+    }
 }
@@ -23,6 +23,7 @@ import java.security.MessageDigest;
 import java.util.Collection;
 
 import org.apache.cassandra.db.marshal.AbstractType;
+import org.apache.cassandra.utils.Allocator;
 import org.apache.cassandra.utils.FBUtilities;
 
 public interface IColumn
@@ -45,4 +46,7 @@ public interface IColumn
     public void updateDigest(MessageDigest digest);
     public int getLocalDeletionTime(); // for tombstone GC, so int is sufficient granularity
     public String getString(AbstractType comparator);
+
+    /** clone the column, copying any name and value bytes into memory obtained from the given allocator */
+    public IColumn localCopy(Allocator allocator);
 }
@@ -0,0 +1,406 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.db;
+
+import java.io.IOError;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+import org.apache.cassandra.db.filter.QueryFilter;
+import org.apache.cassandra.db.filter.QueryPath;
+import org.apache.cassandra.db.filter.SliceQueryFilter;
+import org.apache.cassandra.db.marshal.AbstractType;
+import org.apache.cassandra.dht.Token;
+import org.apache.cassandra.thrift.IndexExpression;
+import org.apache.cassandra.thrift.IndexOperator;
+import org.apache.cassandra.utils.FBUtilities;
+import org.apache.cassandra.utils.Pair;
+
+/**
+ * Iterates the keys of the rows matching an expression on an indexed column, in index comparator order,
+ * reading the index a page at a time.  Every index of a column family orders its entries the same way,
+ * so cursors over different indexes can be merge-joined.
+ */
+abstract class IndexCursor
+{
+    final ColumnFamilyStore indexCFS;
+    final ByteBuffer columnName;
+    protected final QueryPath path;
+    protected final AbstractType comparator;
+    protected final int pageSize;
+
+    // the live index entries of the current page, by data key, with the index row each was read from
+    private SortedMap<ByteBuffer, List<Pair<DecoratedKey, IColumn>>> entries;
+    private Iterator<ByteBuffer> page = Collections.<ByteBuffer>emptyList().iterator();
+    private ByteBuffer lastRead; // the last data key of the current page
+    private boolean exhausted;   // no entries remain past the current page
+    private ByteBuffer current;
+
+    /**
+     * @param pageSize must be at least 2, or a page starting from the last entry of the previous one
+     * could not advance past it
+     */
+    protected IndexCursor(ColumnFamilyStore indexCFS, ByteBuffer columnName, int pageSize)
+    {
+        assert pageSize > 1;
+        this.indexCFS = indexCFS;
+        this.columnName = columnName;
+        this.path = new QueryPath(indexCFS.getColumnFamilyName());
+        this.comparator = indexCFS.getComparator();
+        this.pageSize = pageSize;
+    }
+
+    ByteBuffer current()
+    {
+        return current;
+    }
+
+    /**
+     * @return the index entries pointing to the current data key, with the index row key of each
+     */
+    List<Pair<DecoratedKey, IColumn>> currentEntries()
+    {
+        return entries.get(current);
+    }
+
+    /**
+     * Moves to the first data key at or after key; the cursor never moves backwards.
+     * @return the data key, or null if there is none
+     */
+    ByteBuffer seek(ByteBuffer key)
+    {
+        if (current != null && comparator.compare(current, key) >= 0)
+            return current;
+        while (true)
+        {
+            while (page.hasNext())
+            {
+                ByteBuffer dataKey = page.next();
+                if (comparator.compare(dataKey, key) >= 0)
+                    return current = dataKey;
+            }
+            if (exhausted)
+                return current = null;
+            // skip straight to key if it lies beyond everything read so far
+            nextPage(lastRead == null || comparator.compare(key, lastRead) > 0 ? key : lastRead);
+        }
+    }
+
+    /**
+     * Moves past the current data key.
+     * @return the next data key, or null if there is none
+     */
+    ByteBuffer advance()
+    {
+        assert current != null;
+        while (true)
+        {
+            if (page.hasNext())
+                return current = page.next();
+            if (exhausted)
+                return current = null;
+            nextPage(lastRead);
+        }
+    }
+
+    private void nextPage(ByteBuffer start)
+    {
+        entries = new TreeMap<ByteBuffer, List<Pair<DecoratedKey, IColumn>>>(comparator);
+        exhausted = fetch(start, entries);
+        // a page starting from the last entry of the previous one repeats it
+        if (lastRead != null)
+            entries.remove(lastRead);
+        if (!entries.isEmpty())
+            lastRead = entries.lastKey();
+        page = entries.keySet().iterator();
+    }
+
+    /**
+     * Reads live index entries at or after start into entries.  Those read must be the first ones at
+     * or after start, without gaps, but need not be all of them.
+     * @return true if there are no entries past those read
+     */
+    protected abstract boolean fetch(ByteBuffer start, SortedMap<ByteBuffer, List<Pair<DecoratedKey, IColumn>>> entries);
+
+    protected static void add(SortedMap<ByteBuffer, List<Pair<DecoratedKey, IColumn>>> entries, DecoratedKey indexKey, IColumn column)
+    {
+        List<Pair<DecoratedKey, IColumn>> sources = entries.get(column.name());
+        if (sources == null)
+        {
+            sources = new ArrayList<Pair<DecoratedKey, IColumn>>(1);
+            entries.put(column.name(), sources);
+        }
+        sources.add(new Pair<DecoratedKey, IColumn>(indexKey, column));
+    }
+
+    /**
+     * Cursor over the rows holding one value of the indexed column: a single index row.
+     */
+    static class ValueCursor extends IndexCursor
+    {
+        private final DecoratedKey indexKey;
+
+        ValueCursor(ColumnFamilyStore indexCFS, IndexExpression expression, int pageSize)
+        {
+            super(indexCFS, expression.column_name, pageSize);
+            this.indexKey = indexCFS.partitioner.decorateKey(expression.value);
+        }
+
+        protected boolean fetch(ByteBuffer start, SortedMap<ByteBuffer, List<Pair<DecoratedKey, IColumn>>> entries)
+        {
+            QueryFilter filter = QueryFilter.getSliceFilter(indexKey, path, start, FBUtilities.EMPTY_BYTE_BUFFER, false, pageSize);
+            ColumnFamily indexRow = indexCFS.getColumnFamily(filter);
+            if (indexRow == null)
+                return true;
+
+            for (IColumn column : indexRow.getSortedColumns())
+            {
+                if (!column.isMarkedForDelete())
+                    add(entries, indexKey, column);
+            }
+            // the slice counts only live columns
+            return entries.size() < pageSize;
+        }
+    }
+
+    /**
+     * Cursor over the rows holding any value of the indexed column within bounds: every index row
+     * between them, which are ordered by value.  The rows are merged by data key: the first page reads a
+     * slice of each of them in a single pass, and after that a row is sliced again, from the last column read
+     * from it, only once the columns already read from it have been returned.
+     */
+    static class ValueRangeCursor extends IndexCursor
+    {
+        // columns read from a row at a time; at least 2, so a slice from the last column read moves past it
+        private static final int MAX_ROW_SLICE = 32;
+
+        private final Token lower;
+        private final boolean lowerInclusive;
+        private final Token upper;
+        private final boolean upperInclusive;
+        private final int sliceSize;
+
+        // the rows with columns read but not yet returned, by the first of those
+        private PriorityQueue<RowSlice> rows;
+        private int indexRowsRead;
+
+        /**
+         * @param expressions the GT, GTE, LT and LTE expressions on the indexed column.  The narrowest
+         * lower and upper bounds among them are used; if there is none on one side, the range is open there.
+         */
+        ValueRangeCursor(ColumnFamilyStore indexCFS, ByteBuffer columnName, List<IndexExpression> expressions, int pageSize)
+        {
+            super(indexCFS, columnName, pageSize);
+            Token lower = null, upper = null;
+            boolean lowerInclusive = true, upperInclusive = true;
+            for (IndexExpression expression : expressions)
+            {
+                assert expression.column_name.equals(columnName);
+                Token token = indexCFS.partitioner.getToken(expression.value);
+                switch (expression.op)
+                {
+                    case GT:
+                    case GTE:
+                        int lc = lower == null ? 1 : token.compareTo(lower);
+                        if (lc > 0 || (lc == 0 && expression.op == IndexOperator.GT))
+                        {
+                            lower = token;
+                            lowerInclusive = expression.op == IndexOperator.GTE;
+                        }
+                        break;
+                    case LT:
+                    case LTE:
+                        int uc = upper == null ? -1 : token.compareTo(upper);
+                        if (uc < 0 || (uc == 0 && expression.op == IndexOperator.LT))
+                        {
+                            upper = token;
+                            upperInclusive = expression.op == IndexOperator.LTE;
+                        }
+                        break;
+                    default:
+                        throw new IllegalArgumentException(expression.op + " is not a range operator");
+                }
+            }
+            this.lower = lower;
+            this.lowerInclusive = lowerInclusive;
+            this.upper = upper;
+            this.upperInclusive = upperInclusive;
+            this.sliceSize = Math.min(pageSize, MAX_ROW_SLICE);
+        }
+
+        /**
+         * @return the number of index row reads so far, counting each row of the first pass and each slice after
+         */
+        int getIndexRowsRead()
+        {
+            return indexRowsRead;
+        }
+
+        protected boolean fetch(ByteBuffer start, SortedMap<ByteBuffer, List<Pair<DecoratedKey, IColumn>>> entries)
+        {
+            if (rows == null)
+                open(start);
+            else
+                skipTo(start);
+
+            // take the smallest data keys, along with every other entry for the last of them
+            while (!rows.isEmpty() && (entries.size() < pageSize || comparator.compare(rows.peek().first(), entries.lastKey()) == 0))
+            {
+                RowSlice slice = rows.poll();
+                add(entries, slice.key, slice.columns.removeFirst());
+                if (slice.columns.isEmpty() && !slice.complete)
+                    read(slice, slice.position);
+                if (!slice.columns.isEmpty())
+                    rows.add(slice);
+            }
+            return rows.isEmpty();
+        }
+
+        /**
+         * Reads a slice of every index row in range, from start.
+         */
+        private void open(ByteBuffer start)
+        {
+            rows = new PriorityQueue<RowSlice>(11, new Comparator<RowSlice>()
+            {
+                public int compare(RowSlice s1, RowSlice s2)
+                {
+                    return comparator.compare(s1.first(), s2.first());
+                }
+            });
+
+            Token minimum = indexCFS.partitioner.getMinimumToken();
+            DecoratedKey startWith = new DecoratedKey(lower == null ? minimum : lower, null);
+            DecoratedKey stopAt = new DecoratedKey(upper == null ? minimum : upper, null);
+            QueryFilter filter = new QueryFilter(null, path, new SliceQueryFilter(start, FBUtilities.EMPTY_BYTE_BUFFER, false, sliceSize));
+            RowIterator iter = indexCFS.getRowIterator(startWith, stopAt, filter);
+            try
+            {
+                while (iter.hasNext())
+                {
+                    Row row = iter.next();
+                    if (upper != null)
+                    {
+                        int c = row.key.token.compareTo(upper);
+                        if (c > 0 || (c == 0 && !upperInclusive))
+                            break;
+                    }
+                    if (lower != null && !lowerInclusive && row.key.token.equals(lower))
+                        continue;
+                    indexRowsRead++;
+                    if (row.cf == null)
+                        continue;
+
+                    RowSlice slice = new RowSlice(row.key);
+                    slice.add(row.cf, start);
+                    if (!slice.columns.isEmpty())
+                        rows.add(slice);
+                }
+            }
+            finally
+            {
+                try
+                {
+                    iter.close();
+                }
+                catch (IOException e)
+                {
+                    throw new IOError(e);
+                }
+            }
+        }
+
+        /**
+         * Drops the columns before start that were read but not returned, which seek skips past.
+         */
+        private void skipTo(ByteBuffer start)
+        {
+            List<RowSlice> moved = new ArrayList<RowSlice>();
+            while (!rows.isEmpty() && comparator.compare(rows.peek().first(), start) < 0)
+            {
+                RowSlice slice = rows.poll();
+                while (!slice.columns.isEmpty() && comparator.compare(slice.first(), start) < 0)
+                    slice.columns.removeFirst();
+                if (slice.columns.isEmpty() && !slice.complete)
+                    read(slice, comparator.compare(slice.position, start) < 0 ? start : slice.position);
+                if (!slice.columns.isEmpty())
+                    moved.add(slice);
+            }
+            rows.addAll(moved);
+        }
+
+        /**
+         * Slices the row again from the given column, until it yields a live column past those already read
+         * or has none left.
+         */
+        private void read(RowSlice slice, ByteBuffer from)
+        {
+            while (slice.columns.isEmpty() && !slice.complete)
+            {
+                indexRowsRead++;
+                ColumnFamily cf = indexCFS.getColumnFamily(QueryFilter.getSliceFilter(slice.key, path, from, FBUtilities.EMPTY_BYTE_BUFFER, false, sliceSize));
+                if (cf == null)
+                    return;
+                slice.add(cf, from);
+                from = slice.position;
+            }
+        }
+
+        /**
+         * The live columns read from one index row and not yet returned, and where to slice it from next.
+         */
+        private class RowSlice
+        {
+            final DecoratedKey key;
+            final Deque<IColumn> columns = new ArrayDeque<IColumn>();
+            ByteBuffer position; // the last live column read
+            boolean complete;    // no live columns follow position
+
+            RowSlice(DecoratedKey key)
+            {
+                this.key = key;
+            }
+
+            ByteBuffer first()
+            {
+                return columns.getFirst().name();
+            }
+
+            /**
+             * Adds the live columns of a slice from the given column that lie past position.
+             */
+            void add(ColumnFamily cf, ByteBuffer from)
+            {
+                int live = 0;
+                for (IColumn column : cf.getSortedColumns())
+                {
+                    if (column.isMarkedForDelete())
+                        continue;
+                    // the slice counts only live columns, including one at position that was read already
+                    live++;
+                    if (comparator.compare(column.name(), from) < 0 || (position != null && comparator.compare(column.name(), position) <= 0))
+                        continue;
+                    columns.addLast(column);
+                    position = column.name();
+                }
+                complete = live < sliceSize;
+            }
+        }
+    }
+}
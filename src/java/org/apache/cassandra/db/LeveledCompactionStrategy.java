@@ -0,0 +1,376 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.cassandra.db;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.io.sstable.SSTable;
+import org.apache.cassandra.io.sstable.SSTableReader;
+import org.apache.cassandra.io.util.FileUtils;
+
+/**
+ * Keeps sstables of about leveled_compaction_sstable_size_in_mb in levels, each holding LEVEL_FANOUT
+ * times the data of the one below.  Flushed sstables enter level 0, where they may overlap; the sstables
+ * of every higher level cover disjoint key ranges, so a read needs at most one sstable from each.  When
+ * a level outgrows its limit, one of its sstables is merged with those it overlaps in the next level.
+ * Rows are rewritten more often than by size-tiered compaction, in exchange for fewer sstables per read
+ * and compactions that never need more than a few sstables' worth of free space.
+ *
+ * Levels are saved to a manifest next to the sstables, so they survive restarts.
+ */
+public class LeveledCompactionStrategy extends AbstractCompactionStrategy
+{
+    private static final Logger logger = LoggerFactory.getLogger(LeveledCompactionStrategy.class);
+
+    public static final String MANIFEST_EXTENSION = ".json";
+
+    private static final int LEVEL_FANOUT = 10;
+
+    private static final Comparator<SSTableReader> firstKeyComparator = new Comparator<SSTableReader>()
+    {
+        public int compare(SSTableReader o1, SSTableReader o2)
+        {
+            return o1.getFirstKey().compareTo(o2.getFirstKey());
+        }
+    };
+
+    private final long maxSSTableBytes;
+    private final File manifestFile;
+    // guarded by this.  The sstables of each level above 0 are kept in key order.
+    private final List<List<SSTableReader>> levels = new ArrayList<List<SSTableReader>>();
+    // the last key of the sstable last compacted out of each level, so compactions work through a level in turn
+    private final Map<Integer, DecoratedKey> lastCompactedKeys = new HashMap<Integer, DecoratedKey>();
+
+    public LeveledCompactionStrategy(ColumnFamilyStore cfs)
+    {
+        super(cfs);
+        maxSSTableBytes = DatabaseDescriptor.getLeveledCompactionSSTableSizeInMB() * 1024L * 1024L;
+        manifestFile = new File(DatabaseDescriptor.getAllDataFileLocationsForTable(cfs.table.name)[0], cfs.columnFamily + MANIFEST_EXTENSION);
+
+        levels.add(new ArrayList<SSTableReader>());
+        Map<Integer, Integer> savedLevels = readManifest();
+        List<SSTableReader> sstables = new ArrayList<SSTableReader>(cfs.getSSTables());
+        Collections.sort(sstables);
+        for (SSTableReader sstable : sstables)
+        {
+            Integer level = savedLevels.get(sstable.descriptor.generation);
+            add(sstable, level == null ? 0 : level);
+        }
+    }
+
+    public long getMaxSSTableSize()
+    {
+        return maxSSTableBytes;
+    }
+
+    private long getMaxBytesForLevel(int level)
+    {
+        return maxSSTableBytes * (long) Math.pow(LEVEL_FANOUT, level);
+    }
+
+    public synchronized List<SSTableReader> getMinorCompactionCandidates(int minThreshold, int maxThreshold)
+    {
+        // compact the level furthest over its limit; level 0 is limited by count, since its sstables overlap
+        final Map<Integer, Double> scores = new HashMap<Integer, Double>();
+        for (int i = 0; i < levels.size(); i++)
+        {
+            double score = i == 0
+                         ? (double) levels.get(0).size() / minThreshold
+                         : (double) SSTable.getTotalBytes(levels.get(i)) / getMaxBytesForLevel(i);
+            if (i == 0 ? score >= 1 : score > 1)
+                scores.put(i, score);
+        }
+        List<Integer> overfull = new ArrayList<Integer>(scores.keySet());
+        Collections.sort(overfull, new Comparator<Integer>()
+        {
+            public int compare(Integer o1, Integer o2)
+            {
+                return scores.get(o2).compareTo(scores.get(o1));
+            }
+        });
+
+        // other compactions may hold some of the sstables of a level; move on to the next level then
+        Set<SSTableReader> available = cfs.getUncompactingSSTables();
+        for (int level : overfull)
+        {
+            List<SSTableReader> candidates = getCandidates(level, maxThreshold, available);
+            if (!candidates.isEmpty())
+                return candidates;
+        }
+        return Collections.emptyList();
+    }
+
+    /**
+     * @return sstables of level to merge into the next, with those they overlap there; empty if every choice
+     * includes some sstable not in available
+     */
+    private List<SSTableReader> getCandidates(int level, int maxThreshold, Set<SSTableReader> available)
+    {
+        List<SSTableReader> candidates;
+        if (level == 0)
+        {
+            // two level 0 compactions at once would write overlapping sstables to level 1
+            if (!available.containsAll(levels.get(0)))
+                return Collections.emptyList();
+            // the oldest sstables of level 0, as with size-tiered compaction
+            List<SSTableReader> level0 = new ArrayList<SSTableReader>(levels.get(0));
+            Collections.sort(level0);
+            candidates = new ArrayList<SSTableReader>(level0.subList(0, Math.min(level0.size(), maxThreshold)));
+            List<SSTableReader> overlapping = getOverlapping(candidates, 1);
+            if (!available.containsAll(overlapping))
+                return Collections.emptyList();
+            candidates.addAll(overlapping);
+            return candidates;
+        }
+
+        for (SSTableReader sstable : getCompactionOrder(level))
+        {
+            if (!available.contains(sstable))
+                continue;
+            candidates = new ArrayList<SSTableReader>();
+            candidates.add(sstable);
+            List<SSTableReader> overlapping = getOverlapping(candidates, level + 1);
+            if (!available.containsAll(overlapping))
+                continue;
+            lastCompactedKeys.put(level, sstable.getLastKey());
+            candidates.addAll(overlapping);
+            return candidates;
+        }
+        return Collections.emptyList();
+    }
+
+    /**
+     * @return the sstables of level in key order, starting after the one last compacted out of it
+     */
+    private List<SSTableReader> getCompactionOrder(int level)
+    {
+        List<SSTableReader> sstables = levels.get(level);
+        DecoratedKey lastCompacted = lastCompactedKeys.get(level);
+        int start = 0;
+        if (lastCompacted != null)
+        {
+            while (start < sstables.size() && sstables.get(start).getFirstKey().compareTo(lastCompacted) <= 0)
+                start++;
+        }
+        List<SSTableReader> ordered = new ArrayList<SSTableReader>(sstables.subList(start, sstables.size()));
+        ordered.addAll(sstables.subList(0, start));
+        return ordered;
+    }
+
+    /**
+     * @return the sstables of level whose keys overlap the range covered by sstables
+     */
+    private List<SSTableReader> getOverlapping(Collection<SSTableReader> sstables, int level)
+    {
+        if (level >= levels.size() || sstables.isEmpty())
+            return Collections.emptyList();
+
+        DecoratedKey first = null, last = null;
+        for (SSTableReader sstable : sstables)
+        {
+            if (first == null || sstable.getFirstKey().compareTo(first) < 0)
+                first = sstable.getFirstKey();
+            if (last == null || sstable.getLastKey().compareTo(last) > 0)
+                last = sstable.getLastKey();
+        }
+
+        List<SSTableReader> overlapping = new ArrayList<SSTableReader>();
+        for (SSTableReader sstable : levels.get(level))
+        {
+            if (sstable.getFirstKey().compareTo(last) <= 0 && sstable.getLastKey().compareTo(first) >= 0)
+                overlapping.add(sstable);
+        }
+        return overlapping;
+    }
+
+    public synchronized int getEstimatedRemainingTasks(int minThreshold, int maxThreshold)
+    {
+        int level0 = levels.get(0).size();
+        int n = level0 >= minThreshold ? (int) Math.ceil((double) level0 / maxThreshold) : 0;
+        for (int i = 1; i < levels.size(); i++)
+        {
+            long excess = SSTable.getTotalBytes(levels.get(i)) - getMaxBytesForLevel(i);
+            if (excess > 0)
+                n += Math.ceil((double) excess / maxSSTableBytes);
+        }
+        return n;
+    }
+
+    public synchronized void replaced(Collection<SSTableReader> removed, Collection<SSTableReader> added)
+    {
+        int minLevel = Integer.MAX_VALUE;
+        int maxLevel = -1;
+        for (SSTableReader sstable : removed)
+        {
+            int level = remove(sstable);
+            if (level < 0)
+                continue;
+            minLevel = Math.min(minLevel, level);
+            maxLevel = Math.max(maxLevel, level);
+        }
+
+        // the output of compacting a single level moves up to the next one; the output of merging
+        // a level into the next stays there.  Anything else new, e.g. a flush, starts at level 0.
+        int level = maxLevel < 0 ? 0 : (minLevel == maxLevel ? maxLevel + 1 : maxLevel);
+        for (SSTableReader sstable : added)
+            add(sstable, level);
+
+        if (!removed.isEmpty() || !added.isEmpty())
+            saveManifest();
+    }
+
+    /**
+     * Adds sstable to level, or to level 0 if it overlaps an sstable already there.
+     */
+    private void add(SSTableReader sstable, int level)
+    {
+        if (level > 0 && level < levels.size() && !getOverlapping(Collections.singleton(sstable), level).isEmpty())
+        {
+            logger.debug("{} overlaps level {}; adding it to level 0", sstable, level);
+            level = 0;
+        }
+        while (levels.size() <= level)
+            levels.add(new ArrayList<SSTableReader>());
+
+        List<SSTableReader> sstables = levels.get(level);
+        sstables.add(sstable);
+        if (level > 0)
+            Collections.sort(sstables, firstKeyComparator);
+    }
+
+    /**
+     * @return the level sstable was removed from; -1 if it was not in any
+     */
+    private int remove(SSTableReader sstable)
+    {
+        for (int i = 0; i < levels.size(); i++)
+        {
+            if (levels.get(i).remove(sstable))
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * @return the level each sstable is in, level 0 first
+     */
+    public synchronized List<List<SSTableReader>> getLevels()
+    {
+        List<List<SSTableReader>> copy = new ArrayList<List<SSTableReader>>(levels.size());
+        for (List<SSTableReader> sstables : levels)
+            copy.add(new ArrayList<SSTableReader>(sstables));
+        return copy;
+    }
+
+    /**
+     * @return the saved level of each sstable, by generation
+     */
+    private Map<Integer, Integer> readManifest()
+    {
+        Map<Integer, Integer> savedLevels = new HashMap<Integer, Integer>();
+        if (!manifestFile.exists())
+            return savedLevels;
+
+        try
+        {
+            Reader reader = new FileReader(manifestFile);
+            try
+            {
+                Object manifest = JSONValue.parse(reader);
+                if (!(manifest instanceof JSONObject))
+                    throw new IOException("not a compaction manifest");
+                JSONArray savedGenerations = (JSONArray) ((JSONObject) manifest).get("levels");
+                for (int i = 0; i < savedGenerations.size(); i++)
+                {
+                    for (Object generation : (JSONArray) savedGenerations.get(i))
+                        savedLevels.put(((Number) generation).intValue(), i);
+                }
+            }
+            catch (ClassCastException e)
+            {
+                throw new IOException("not a compaction manifest", e);
+            }
+            finally
+            {
+                reader.close();
+            }
+        }
+        catch (IOException e)
+        {
+            logger.warn("Unable to read compaction manifest " + manifestFile + "; all sstables start at level 0", e);
+            savedLevels.clear();
+        }
+        return savedLevels;
+    }
+
+    private void saveManifest()
+    {
+        JSONArray savedGenerations = new JSONArray();
+        for (List<SSTableReader> sstables : levels)
+        {
+            JSONArray generations = new JSONArray();
+            for (SSTableReader sstable : sstables)
+                generations.add(sstable.descriptor.generation);
+            savedGenerations.add(generations);
+        }
+        JSONObject manifest = new JSONObject();
+        manifest.put("levels", savedGenerations);
+
+        File tmpFile = new File(manifestFile.getPath() + ".tmp");
+        try
+        {
+            FileUtils.createDirectory(manifestFile.getParent());
+            Writer writer = new FileWriter(tmpFile);
+            try
+            {
+                writer.write(manifest.toJSONString());
+            }
+            finally
+            {
+                writer.close();
+            }
+            if (!tmpFile.renameTo(manifestFile))
+                throw new IOException("Unable to rename " + tmpFile + " to " + manifestFile);
+        }
+        catch (IOException e)
+        {
+            logger.error("Unable to save compaction manifest " + manifestFile, e);
+        }
+    }
+}
@@ -21,16 +21,15 @@ package org.apache.cassandra.db;
 import java.io.File;
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.util.Collection;
-import java.util.Comparator;
-import java.util.Iterator;
-import java.util.Map;
+import java.util.*;
 import java.util.concurrent.ConcurrentNavigableMap;
 import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
+import org.apache.cassandra.config.DatabaseDescriptor;
 import org.apache.cassandra.db.columniterator.IColumnIterator;
 import org.apache.cassandra.db.columniterator.SimpleAbstractColumnIterator;
 import org.apache.cassandra.db.filter.AbstractColumnIterator;
@@ -39,6 +38,7 @@ import org.apache.cassandra.db.filter.SliceQueryFilter;
 import org.apache.cassandra.db.marshal.AbstractType;
 import org.apache.cassandra.io.sstable.SSTableReader;
 import org.apache.cassandra.io.sstable.SSTableWriter;
+import org.apache.cassandra.utils.Allocator;
 import org.apache.cassandra.utils.WrappedRunnable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -54,14 +54,26 @@ public class Memtable implements Comparable<Memtable>, IFlushable
 
     private final AtomicInteger currentThroughput = new AtomicInteger(0);
     private final AtomicInteger currentOperations = new AtomicInteger(0);
+    private final AtomicInteger currentRows = new AtomicInteger(0);
 
     private final long creationTime;
     private final ConcurrentNavigableMap<DecoratedKey, ColumnFamily> columnFamilies = new ConcurrentSkipListMap<DecoratedKey, ColumnFamily>();
     public final ColumnFamilyStore cfs;
 
+    // holds the keys, column names and values of this memtable; it lives exactly as long as the memtable does
+    private final Allocator allocator;
+
+    // don't bother striping a flush into sstables smaller than this
+    private static long MIN_STRIPE_SIZE = 16 * 1024 * 1024;
+
     private final int THRESHOLD;
     private final int THRESHOLD_COUNT;
 
+    static void setMinStripeSize(long size)
+    {
+        MIN_STRIPE_SIZE = size;
+    }
+
     public Memtable(ColumnFamilyStore cfs)
     {
 
@@ -69,6 +81,7 @@ public class Memtable implements Comparable<Memtable>, IFlushable
         creationTime = System.currentTimeMillis();
         this.THRESHOLD = cfs.getMemtableThroughputInMB() * 1024 * 1024;
         this.THRESHOLD_COUNT = (int) (cfs.getMemtableOperationsInMillions() * 1024 * 1024);
+        this.allocator = cfs.metadata.createMemtableAllocator();
     }
 
     /**
@@ -98,6 +111,11 @@ public class Memtable implements Comparable<Memtable>, IFlushable
         return currentOperations.get();
     }
 
+    public int getCurrentRows()
+    {
+        return currentRows.get();
+    }
+
     boolean isThresholdViolated()
     {
         return currentThroughput.get() >= this.THRESHOLD || currentOperations.get() >= this.THRESHOLD_COUNT;
@@ -129,11 +147,29 @@ public class Memtable implements Comparable<Memtable>, IFlushable
         currentThroughput.addAndGet(cf.size());
         currentOperations.addAndGet(cf.getColumnCount());
 
-        ColumnFamily oldCf = columnFamilies.putIfAbsent(key, cf);
-        if (oldCf == null)
-            return;
+        // the key, names and values go through our allocator, which may copy them into memory it owns
+        // rather than hold on to the caller's buffers (which may be views into a much larger message)
+        ColumnFamily previous = columnFamilies.get(key);
+        if (previous == null)
+        {
+            ColumnFamily empty = cf.cloneMeShallow();
+            previous = columnFamilies.putIfAbsent(new DecoratedKey(key.token, allocator.clone(key.key)), empty);
+            if (previous == null)
+            {
+                previous = empty;
+                currentRows.incrementAndGet();
+            }
+        }
+
+        previous.addAll(cf, allocator);
+    }
 
-        oldCf.resolve(cf);
+    /**
+     * @return the number of bytes claimed by the allocator backing this memtable
+     */
+    public long getAllocatedSize()
+    {
+        return allocator.getMinimumSize();
     }
 
     // for debugging
@@ -151,11 +187,16 @@ public class Memtable implements Comparable<Memtable>, IFlushable
 
 
     private SSTableReader writeSortedContents() throws IOException
+    {
+        return writeSortedContents(columnFamilies, cfs.getFlushPath());
+    }
+
+    private SSTableReader writeSortedContents(ConcurrentNavigableMap<DecoratedKey, ColumnFamily> contents, String path) throws IOException
     {
         logger.info("Writing " + this);
-        SSTableWriter writer = new SSTableWriter(cfs.getFlushPath(), columnFamilies.size(), cfs.metadata, cfs.partitioner);
+        SSTableWriter writer = new SSTableWriter(path, contents.size(), cfs.metadata, cfs.partitioner);
 
-        for (Map.Entry<DecoratedKey, ColumnFamily> entry : columnFamilies.entrySet())
+        for (Map.Entry<DecoratedKey, ColumnFamily> entry : contents.entrySet())
             writer.append(entry.getKey(), entry.getValue());
 
         SSTableReader ssTable = writer.closeAndOpenReader();
@@ -164,24 +205,104 @@ public class Memtable implements Comparable<Memtable>, IFlushable
         return ssTable;
     }
 
+    /**
+     * Splits the (frozen) memtable into at most the given number of contiguous token ranges of roughly
+     * equal key count.
+     */
+    private List<ConcurrentNavigableMap<DecoratedKey, ColumnFamily>> getStripes(int count)
+    {
+        int keysPerStripe = Math.max(1, columnFamilies.size() / count);
+        List<DecoratedKey> boundaries = new ArrayList<DecoratedKey>(count - 1);
+        int i = 0;
+        for (DecoratedKey key : columnFamilies.keySet())
+        {
+            if (i > 0 && i % keysPerStripe == 0 && boundaries.size() < count - 1)
+                boundaries.add(key);
+            i++;
+        }
+
+        List<ConcurrentNavigableMap<DecoratedKey, ColumnFamily>> stripes = new ArrayList<ConcurrentNavigableMap<DecoratedKey, ColumnFamily>>(boundaries.size() + 1);
+        DecoratedKey left = null;
+        for (DecoratedKey right : boundaries)
+        {
+            stripes.add(left == null ? columnFamilies.headMap(right) : columnFamilies.subMap(left, right));
+            left = right;
+        }
+        stripes.add(left == null ? columnFamilies : columnFamilies.tailMap(left));
+        return stripes;
+    }
+
+    /**
+     * @return the number of sstables to split this memtable into when flushing; small memtables are not striped
+     */
+    private int getStripeCount()
+    {
+        return (int) Math.min(DatabaseDescriptor.getFlushStripes(), 1 + currentThroughput.get() / MIN_STRIPE_SIZE);
+    }
+
     public void flushAndSignal(final CountDownLatch latch, ExecutorService sorter, final ExecutorService writer)
     {
         cfs.getMemtablesPendingFlush().add(this); // it's ok for the MT to briefly be both active and pendingFlush
-        writer.submit(new WrappedRunnable()
+        // the flush statistics time the writing only, not the wait for a writer thread
+        if (getStripeCount() <= 1)
         {
-            public void runMayThrow() throws IOException
+            writer.submit(new WrappedRunnable()
             {
-                cfs.addSSTable(writeSortedContents());
-                cfs.getMemtablesPendingFlush().remove(Memtable.this);
-                latch.countDown();
+                public void runMayThrow() throws IOException
+                {
+                    long start = System.nanoTime();
+                    SSTableReader sstable = writeSortedContents();
+                    cfs.addSSTable(sstable);
+                    cfs.getMemtablesPendingFlush().remove(Memtable.this);
+                    cfs.addFlushStatistics(sstable.length(), System.nanoTime() - start);
+                    latch.countDown();
+                }
+            });
+            return;
+        }
+
+        // finding the stripe boundaries means walking the whole memtable, so do that on the sorter,
+        // and then write the stripes concurrently, each to its own sstable.  the last stripe
+        // to finish adds all of the sstables at once, so readers never see a partial flush.
+        sorter.submit(new Runnable()
+        {
+            public void run()
+            {
+                final List<ConcurrentNavigableMap<DecoratedKey, ColumnFamily>> stripes = getStripes(getStripeCount());
+                final List<SSTableReader> sstables = Collections.synchronizedList(new ArrayList<SSTableReader>(stripes.size()));
+                final AtomicInteger remaining = new AtomicInteger(stripes.size());
+                final AtomicLong start = new AtomicLong();
+                for (int i = 0; i < stripes.size(); i++)
+                {
+                    final ConcurrentNavigableMap<DecoratedKey, ColumnFamily> stripe = stripes.get(i);
+                    final String path = cfs.getFlushPath(i, stripes.size());
+                    writer.submit(new WrappedRunnable()
+                    {
+                        public void runMayThrow() throws IOException
+                        {
+                            start.compareAndSet(0, System.nanoTime());
+                            sstables.add(writeSortedContents(stripe, path));
+                            if (remaining.decrementAndGet() > 0)
+                                return;
+
+                            long bytes = 0;
+                            for (SSTableReader sstable : sstables)
+                                bytes += sstable.length();
+                            cfs.addSSTables(sstables);
+                            cfs.getMemtablesPendingFlush().remove(Memtable.this);
+                            cfs.addFlushStatistics(bytes, System.nanoTime() - start.get());
+                            latch.countDown();
+                        }
+                    });
+                }
             }
         });
     }
 
     public String toString()
     {
-        return String.format("Memtable-%s@%s(%s bytes, %s operations)",
-                             cfs.getColumnFamilyName(), hashCode(), currentThroughput, currentOperations);
+        return String.format("Memtable-%s@%s(%s bytes, %s operations, %s allocated)",
+                             cfs.getColumnFamilyName(), hashCode(), currentThroughput, currentOperations, getAllocatedSize());
     }
 
     /**
@@ -0,0 +1,145 @@
+/*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements.  See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership.  The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License.  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+package org.apache.cassandra.db;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.cassandra.io.ICompactSerializer;
+import org.apache.cassandra.io.util.DataOutputBuffer;
+import org.apache.cassandra.net.Message;
+import org.apache.cassandra.service.StorageService;
+import org.apache.cassandra.utils.FBUtilities;
+
+/**
+ * Several read commands sent to one replica in a single message.  The replica answers with a single
+ * message as well, holding the ReadResponse to each command in order.
+ */
+public class ReadBatchCommand
+{
+    private static final ReadBatchCommandSerializer serializer = new ReadBatchCommandSerializer();
+
+    public final List<ReadCommand> commands = new ArrayList<ReadCommand>();
+    // whether the replica should check the consistency of each row with the other replicas, as for DO_REPAIR
+    public final List<Boolean> repair = new ArrayList<Boolean>();
+
+    public void add(ReadCommand command, boolean doRepair)
+    {
+        commands.add(command);
+        repair.add(doRepair);
+    }
+
+    public int size()
+    {
+        return commands.size();
+    }
+
+    public Message getMessage() throws IOException
+    {
+        DataOutputBuffer dob = new DataOutputBuffer();
+        serializer.serialize(this, dob);
+        return new Message(FBUtilities.getLocalAddress(),
+                           StorageService.Verb.READ_BATCH,
+                           Arrays.copyOf(dob.getData(), dob.getLength()));
+    }
+
+    public static ReadBatchCommand read(Message message) throws IOException
+    {
+        byte[] bytes = message.getMessageBody();
+        ByteArrayInputStream bis = new ByteArrayInputStream(bytes);
+        return serializer.deserialize(new DataInputStream(bis));
+    }
+
+    /**
+     * @param responses the serialized ReadResponse to each command, in order, or null for a command that failed
+     * @return the body of the reply to a batch
+     */
+    public static byte[] serializeResponses(byte[][] responses) throws IOException
+    {
+        DataOutputBuffer dob = new DataOutputBuffer();
+        dob.writeInt(responses.length);
+        for (byte[] response : responses)
+        {
+            if (response == null)
+            {
+                dob.writeInt(-1);
+                continue;
+            }
+            dob.writeInt(response.length);
+            dob.write(response);
+        }
+        return Arrays.copyOf(dob.getData(), dob.getLength());
+    }
+
+    /**
+     * @return the serialized ReadResponse to each command, in order, from the reply to a batch;
+     * null for a command the replica failed to read
+     */
+    public static byte[][] deserializeResponses(byte[] body) throws IOException
+    {
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(body));
+        byte[][] responses = new byte[dis.readInt()][];
+        for (int i = 0; i < responses.length; i++)
+        {
+            int length = dis.readInt();
+            if (length < 0)
+                continue;
+            responses[i] = new byte[length];
+            dis.readFully(responses[i]);
+        }
+        return responses;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "ReadBatchCommand(" + commands + ")";
+    }
+}
+
+class ReadBatchCommandSerializer implements ICompactSerializer<ReadBatchCommand>
+{
+    public void serialize(ReadBatchCommand batch, DataOutputStream dos) throws IOException
+    {
+        dos.writeInt(batch.size());
+        for (int i = 0; i < batch.size(); i++)
+        {
+            dos.writeBoolean(batch.repair.get(i));
+            ReadCommand.serializer().serialize(batch.commands.get(i), dos);
+        }
+    }
+
+    public ReadBatchCommand deserialize(DataInputStream dis) throws IOException
+    {
+        ReadBatchCommand batch = new ReadBatchCommand();
+        int size = dis.readInt();
+        for (int i = 0; i < size; i++)
+        {
+            boolean doRepair = dis.readBoolean();
+            batch.add(ReadCommand.serializer().deserialize(dis), doRepair);
+        }
+        return batch;
+    }
+}
@@ -0,0 +1,98 @@
+/*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements.  See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership.  The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License.  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+package org.apache.cassandra.db;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.cassandra.concurrent.Stage;
+import org.apache.cassandra.concurrent.StageManager;
+import org.apache.cassandra.net.IVerbHandler;
+import org.apache.cassandra.net.Message;
+import org.apache.cassandra.net.MessagingService;
+import org.apache.cassandra.service.StorageService;
+import org.apache.cassandra.utils.FBUtilities;
+import org.apache.cassandra.utils.WrappedRunnable;
+
+/**
+ * Serves a ReadBatchCommand.  Each command is read by a task of its own on the read stage, and whichever
+ * task finishes last sends the reply, which holds a response to each command that could be read.  Nothing
+ * waits on the tasks, so a burst of batches cannot tie up the read stage threads.
+ */
+public class ReadBatchVerbHandler implements IVerbHandler
+{
+    private static final Logger logger = LoggerFactory.getLogger(ReadBatchVerbHandler.class);
+
+    public void doVerb(final Message message)
+    {
+        if (StorageService.instance.isBootstrapMode())
+        {
+            /* Don't service reads! */
+            throw new RuntimeException("Cannot service reads while bootstrapping!");
+        }
+
+        final ReadBatchCommand batch;
+        try
+        {
+            batch = ReadBatchCommand.read(message);
+        }
+        catch (IOException e)
+        {
+            throw new RuntimeException(e);
+        }
+
+        final byte[][] responses = new byte[batch.size()][];
+        final AtomicInteger remaining = new AtomicInteger(batch.size());
+        for (int i = 0; i < batch.size(); i++)
+        {
+            final int index = i;
+            Runnable runnable = new WrappedRunnable()
+            {
+                public void runMayThrow() throws IOException
+                {
+                    try
+                    {
+                        responses[index] = ReadVerbHandler.read(batch.commands.get(index), batch.repair.get(index));
+                    }
+                    catch (Exception e)
+                    {
+                        // leave this response out, so the coordinator times it out as it would a lone READ
+                        logger.error("Error reading " + batch.commands.get(index) + " in batch " + message.getMessageId(), e);
+                    }
+                    // the decrement orders the other tasks' writes to responses before our read of them
+                    if (remaining.decrementAndGet() == 0)
+                        reply(message, responses);
+                }
+            };
+            StageManager.getStage(Stage.READ).execute(runnable);
+        }
+    }
+
+    private static void reply(Message message, byte[][] responses) throws IOException
+    {
+        Message response = message.getReply(FBUtilities.getLocalAddress(), ReadBatchCommand.serializeResponses(responses));
+        if (logger.isDebugEnabled())
+            logger.debug("Read " + responses.length + " rows; sending response to " + message.getMessageId() + "@" + message.getFrom());
+        MessagingService.instance.sendOneWay(response, message.getFrom());
+    }
+}
@@ -29,6 +29,7 @@ import java.util.Map;
 import org.apache.cassandra.db.filter.QueryPath;
 import org.apache.cassandra.db.marshal.AbstractType;
 import org.apache.cassandra.io.ICompactSerializer;
+import org.apache.cassandra.net.HeaderTypes;
 import org.apache.cassandra.net.Message;
 import org.apache.cassandra.service.StorageService;
 import org.apache.cassandra.utils.FBUtilities;
@@ -36,7 +37,7 @@ import org.apache.cassandra.utils.FBUtilities;
 
 public abstract class ReadCommand
 {
-    public static final String DO_REPAIR = "READ-REPAIR";
+    public static final String DO_REPAIR = HeaderTypes.READ_REPAIR;
     public static final byte CMD_TYPE_GET_SLICE_BY_NAMES = 1;
     public static final byte CMD_TYPE_GET_SLICE = 2;
 
@@ -41,7 +41,6 @@ public class ReadVerbHandler implements IVerbHandler
 {
     protected static class ReadContext
     {
-        protected ByteArrayInputStream bufIn_;
         protected DataOutputBuffer bufOut_ = new DataOutputBuffer();
     }
 
@@ -51,16 +50,6 @@ public class ReadVerbHandler implements IVerbHandler
 
     public void doVerb(Message message)
     {
-        byte[] body = message.getMessageBody();
-        /* Obtain a Read Context from TLS */
-        ReadContext readCtx = tls_.get();
-        if ( readCtx == null )
-        {
-            readCtx = new ReadContext();
-            tls_.set(readCtx);
-        }
-        readCtx.bufIn_ = new ByteArrayInputStream(body);
-
         try
         {
             if (StorageService.instance.isBootstrapMode())
@@ -68,45 +57,64 @@ public class ReadVerbHandler implements IVerbHandler
                 /* Don't service reads! */
                 throw new RuntimeException("Cannot service reads while bootstrapping!");
             }
-            ReadCommand command = ReadCommand.serializer().deserialize(new DataInputStream(readCtx.bufIn_));
-            Table table = Table.open(command.table);
-            Row row = command.getRow(table);
-            ReadResponse readResponse;
-            if (command.isDigestQuery())
-            {
-                if (logger_.isDebugEnabled())
-                    logger_.debug("digest is " + FBUtilities.bytesToHex(ColumnFamily.digest(row.cf)));
-                readResponse = new ReadResponse(ColumnFamily.digest(row.cf));
-            }
-            else
-            {
-                readResponse = new ReadResponse(row);
-            }
-            readResponse.setIsDigestQuery(command.isDigestQuery());
-            /* serialize the ReadResponseMessage. */
-            readCtx.bufOut_.reset();
-
-            ReadResponse.serializer().serialize(readResponse, readCtx.bufOut_);
-
-            byte[] bytes = new byte[readCtx.bufOut_.getLength()];
-            System.arraycopy(readCtx.bufOut_.getData(), 0, bytes, 0, bytes.length);
+            ReadCommand command = ReadCommand.serializer().deserialize(new DataInputStream(new ByteArrayInputStream(message.getMessageBody())));
+            byte[] bytes = read(command, message.getHeader(ReadCommand.DO_REPAIR) != null);
 
             Message response = message.getReply(FBUtilities.getLocalAddress(), bytes);
             if (logger_.isDebugEnabled())
               logger_.debug("Read key " + command.key + "; sending response to " + message.getMessageId() + "@" + message.getFrom());
             MessagingService.instance.sendOneWay(response, message.getFrom());
-
-            /* Do read repair if header of the message says so */
-            if (message.getHeader(ReadCommand.DO_REPAIR) != null)
-            {
-                List<InetAddress> endpoints = StorageService.instance.getLiveNaturalEndpoints(command.table, command.key);
-                if (endpoints.size() > 1)
-                    StorageService.instance.doConsistencyCheck(row, endpoints, command);
-            }
         }
         catch (IOException ex)
         {
             throw new RuntimeException(ex);
         }
     }
+
+    /**
+     * Performs a read on behalf of another node.
+     * @param doRepair whether to check the consistency of the other replicas of the row in the background
+     * @return the serialized ReadResponse
+     */
+    static byte[] read(ReadCommand command, boolean doRepair) throws IOException
+    {
+        /* Obtain a Read Context from TLS */
+        ReadContext readCtx = tls_.get();
+        if ( readCtx == null )
+        {
+            readCtx = new ReadContext();
+            tls_.set(readCtx);
+        }
+
+        Table table = Table.open(command.table);
+        Row row = command.getRow(table);
+        ReadResponse readResponse;
+        if (command.isDigestQuery())
+        {
+            if (logger_.isDebugEnabled())
+                logger_.debug("digest is " + FBUtilities.bytesToHex(ColumnFamily.digest(row.cf)));
+            readResponse = new ReadResponse(ColumnFamily.digest(row.cf));
+        }
+        else
+        {
+            readResponse = new ReadResponse(row);
+        }
+        readResponse.setIsDigestQuery(command.isDigestQuery());
+        /* serialize the ReadResponseMessage. */
+        readCtx.bufOut_.reset();
+
+        ReadResponse.serializer().serialize(readResponse, readCtx.bufOut_);
+
+        byte[] bytes = new byte[readCtx.bufOut_.getLength()];
+        System.arraycopy(readCtx.bufOut_.getData(), 0, bytes, 0, bytes.length);
+
+        /* Do read repair if header of the message says so */
+        if (doRepair)
+        {
+            List<InetAddress> endpoints = StorageService.instance.getLiveNaturalEndpoints(command.table, command.key);
+            if (endpoints.size() > 1)
+                StorageService.instance.doConsistencyCheck(row, endpoints, command);
+        }
+        return bytes;
+    }
 }
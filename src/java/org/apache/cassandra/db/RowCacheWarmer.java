@@ -0,0 +1,165 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.cassandra.db;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.cassandra.concurrent.JMXEnabledThreadPoolExecutor;
+import org.apache.cassandra.concurrent.NamedThreadFactory;
+import org.apache.cassandra.concurrent.StageManager;
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.utils.Throttle;
+import org.apache.cassandra.utils.WrappedRunnable;
+
+/**
+ * Reads the rows saved with row caches back into them in the background, on a few low priority
+ * threads and at a limited rate, so the node can serve requests while its caches warm up.
+ */
+public class RowCacheWarmer implements RowCacheWarmerMBean
+{
+    public static final String MBEAN_OBJECT_NAME = "org.apache.cassandra.db:type=RowCacheWarmer";
+    private static final Logger logger = LoggerFactory.getLogger(RowCacheWarmer.class);
+    public static final RowCacheWarmer instance;
+
+    static
+    {
+        instance = new RowCacheWarmer();
+        MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+        try
+        {
+            mbs.registerMBean(instance, new ObjectName(MBEAN_OBJECT_NAME));
+        }
+        catch (Exception e)
+        {
+            throw new RuntimeException(e);
+        }
+    }
+
+    // rows are read back in batches, rather than with a task each
+    private static final int BATCH_SIZE = 256;
+
+    private final ExecutorService executor;
+    private final Throttle throttle;
+    private final AtomicLong pendingRows = new AtomicLong();
+    private final AtomicLong warmedRows = new AtomicLong();
+
+    private RowCacheWarmer()
+    {
+        int threads = DatabaseDescriptor.getRowCacheWarmupThreads();
+        executor = new JMXEnabledThreadPoolExecutor(threads,
+                                                    threads,
+                                                    StageManager.KEEPALIVE,
+                                                    TimeUnit.SECONDS,
+                                                    new LinkedBlockingQueue<Runnable>(),
+                                                    new NamedThreadFactory("RowCacheWarmer", Thread.MIN_PRIORITY),
+                                                    "internal");
+        throttle = new Throttle(DatabaseDescriptor.getRowCacheWarmupThroughputMbPerSec() * 1024L * 1024L);
+    }
+
+    /**
+     * Reads saved rows back into the row cache of cfs.
+     * @param rows the keys of the rows, with their saved position in each sstable of validGenerations holding them
+     * @return a future for each batch of rows
+     */
+    public List<Future<?>> submit(final ColumnFamilyStore cfs, final SortedMap<DecoratedKey, Map<Integer, Long>> rows, final Set<Integer> validGenerations)
+    {
+        if (rows.isEmpty())
+            return Collections.emptyList();
+
+        final long start = System.currentTimeMillis();
+        final List<DecoratedKey> keys = new ArrayList<DecoratedKey>(rows.keySet());
+        final AtomicInteger remainingBatches = new AtomicInteger((keys.size() + BATCH_SIZE - 1) / BATCH_SIZE);
+        pendingRows.addAndGet(keys.size());
+
+        List<Future<?>> futures = new ArrayList<Future<?>>(remainingBatches.get());
+        for (int i = 0; i < keys.size(); i += BATCH_SIZE)
+        {
+            final List<DecoratedKey> batch = keys.subList(i, Math.min(i + BATCH_SIZE, keys.size()));
+            futures.add(executor.submit(new WrappedRunnable()
+            {
+                protected void runMayThrow()
+                {
+                    int done = 0;
+                    try
+                    {
+                        for (DecoratedKey key : batch)
+                        {
+                            ColumnFamily cached = cfs.warmCachedRow(key, rows.get(key), validGenerations);
+                            pendingRows.decrementAndGet();
+                            done++;
+                            if (cached != null)
+                            {
+                                warmedRows.incrementAndGet();
+                                throttle.acquire(cached.size());
+                            }
+                        }
+                    }
+                    finally
+                    {
+                        // rows left over by a failure are no longer pending either
+                        pendingRows.addAndGet(done - batch.size());
+                        if (remainingBatches.decrementAndGet() == 0)
+                            logger.info(String.format("completed warming (%d ms; %d keys) row cache for %s of %s",
+                                                      System.currentTimeMillis() - start, keys.size(), cfs.columnFamily, cfs.table.name));
+                    }
+                }
+            }));
+        }
+        return futures;
+    }
+
+    public long getPendingRows()
+    {
+        return pendingRows.get();
+    }
+
+    public long getWarmedRows()
+    {
+        return warmedRows.get();
+    }
+
+    public int getThroughputMbPerSec()
+    {
+        return (int) (throttle.getThroughput() / (1024 * 1024));
+    }
+
+    public void setThroughputMbPerSec(int throughputMbPerSec)
+    {
+        if (throughputMbPerSec < 0)
+            throw new IllegalArgumentException("throughput must be non-negative");
+        throttle.setThroughput(throughputMbPerSec * 1024L * 1024L);
+    }
+}
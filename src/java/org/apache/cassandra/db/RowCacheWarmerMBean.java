@@ -0,0 +1,39 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.cassandra.db;
+
+public interface RowCacheWarmerMBean
+{
+    /**
+     * @return the number of saved rows still to be read back into row caches
+     */
+    public long getPendingRows();
+
+    /**
+     * @return the number of saved rows read back into row caches since server [re]start
+     */
+    public long getWarmedRows();
+
+    public int getThroughputMbPerSec();
+
+    /**
+     * @param throughputMbPerSec the rate to read saved rows back at, or 0 not to throttle it
+     */
+    public void setThroughputMbPerSec(int throughputMbPerSec);
+}
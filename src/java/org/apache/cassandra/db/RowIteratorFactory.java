@@ -76,12 +76,14 @@ public class RowIteratorFactory
         final List<Iterator<IColumnIterator>> iterators = new ArrayList<Iterator<IColumnIterator>>();
         // we iterate through memtables with a priority queue to avoid more sorting than necessary.
         // this predicate throws out the rows before the start of our range.
+        // (the stop key's partitioner is the store's, which is not necessarily the global one)
+        final boolean unbounded = stopAt.token.equals(cfs.partitioner.getMinimumToken());
         Predicate<IColumnIterator> p = new Predicate<IColumnIterator>()
         {
             public boolean apply(IColumnIterator row)
             {
                 return startWith.compareTo(row.getKey()) <= 0
-                       && (stopAt.isEmpty() || row.getKey().compareTo(stopAt) <= 0);
+                       && (unbounded || row.getKey().compareTo(stopAt) <= 0);
             }
         };
 
@@ -143,7 +145,7 @@ public class RowIteratorFactory
                     // TODO this is a little subtle: the Memtable ColumnIterator has to be a shallow clone of the source CF,
                     // with deletion times set correctly, so we can use it as the "base" CF to add query results to.
                     // (for sstable ColumnIterators we do not care if it is a shallow clone or not.)
-                    returnCF = returnCF == null ? ColumnFamily.create(firstMemtable.getTableName(), filter.getColumnFamilyName())
+                    returnCF = returnCF == null ? ColumnFamily.create(cfs.metadata)
                             : returnCF.cloneMeShallow();
 
                     if (colCollated.hasNext())
@@ -174,14 +176,14 @@ public class RowIteratorFactory
      */
     private static Iterator<Map.Entry<DecoratedKey, ColumnFamily>> memtableEntryIterator(Memtable memtable, DecoratedKey startWith)
     {
-        Table.flusherLock.readLock().lock();
+        memtable.cfs.flusherLock.readLock().lock();
         try
         {
             return memtable.getEntryIterator(startWith);
         }
         finally
         {
-            Table.flusherLock.readLock().unlock();
+            memtable.cfs.flusherLock.readLock().unlock();
         }
     }
 
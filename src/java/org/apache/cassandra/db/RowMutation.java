@@ -35,6 +35,7 @@ import org.apache.cassandra.config.DatabaseDescriptor;
 import org.apache.cassandra.db.filter.QueryPath;
 import org.apache.cassandra.io.ICompactSerializer;
 import org.apache.cassandra.io.util.DataOutputBuffer;
+import org.apache.cassandra.net.HeaderTypes;
 import org.apache.cassandra.net.Message;
 import org.apache.cassandra.service.StorageService;
 import org.apache.cassandra.thrift.ColumnOrSuperColumn;
@@ -47,7 +48,7 @@ import org.apache.commons.lang.StringUtils;
 public class RowMutation
 {
     private static ICompactSerializer<RowMutation> serializer_;
-    public static final String HINT = "HINT";
+    public static final String HINT = HeaderTypes.HINT;
 
     static
     {
@@ -0,0 +1,78 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.cassandra.db;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.cassandra.io.sstable.SSTableReader;
+import org.apache.cassandra.utils.Pair;
+
+/**
+ * Merges sstables of similar size once there are at least minThreshold of them, so each row is
+ * rewritten about once per size tier.  Cheap on writes, but a row updated over time can be spread
+ * across an sstable of every tier.  The default.
+ */
+public class SizeTieredCompactionStrategy extends AbstractCompactionStrategy
+{
+    // sstables smaller than this are all bucketed together
+    private static final long MIN_SSTABLE_SIZE = 50L * 1024L * 1024L;
+
+    public SizeTieredCompactionStrategy(ColumnFamilyStore cfs)
+    {
+        super(cfs);
+    }
+
+    public List<SSTableReader> getMinorCompactionCandidates(int minThreshold, int maxThreshold)
+    {
+        for (List<SSTableReader> sstables : getBuckets(cfs.getUncompactingSSTables()))
+        {
+            if (sstables.size() >= minThreshold)
+            {
+                // if we have too many to compact all at once, compact older ones first -- this avoids
+                // re-compacting files we just created.
+                Collections.sort(sstables);
+                return sstables.subList(0, Math.min(sstables.size(), maxThreshold));
+            }
+        }
+        return Collections.emptyList();
+    }
+
+    public int getEstimatedRemainingTasks(int minThreshold, int maxThreshold)
+    {
+        int n = 0;
+        for (List<SSTableReader> sstables : getBuckets(cfs.getSSTables()))
+        {
+            if (sstables.size() >= minThreshold)
+                n += Math.ceil((double) sstables.size() / maxThreshold);
+        }
+        return n;
+    }
+
+    private static Set<List<SSTableReader>> getBuckets(Collection<SSTableReader> sstables)
+    {
+        Collection<Pair<SSTableReader, Long>> pairs = new ArrayList<Pair<SSTableReader, Long>>();
+        for (SSTableReader sstable : sstables)
+            pairs.add(new Pair<SSTableReader, Long>(sstable, sstable.length()));
+        return CompactionManager.getBuckets(pairs, MIN_SSTABLE_SIZE);
+    }
+}
@@ -31,6 +31,7 @@ import java.util.concurrent.atomic.AtomicLong;
 import org.apache.cassandra.db.marshal.AbstractType;
 import org.apache.cassandra.io.ICompactSerializer2;
 import org.apache.cassandra.io.util.DataOutputBuffer;
+import org.apache.cassandra.utils.Allocator;
 import org.apache.cassandra.utils.FBUtilities;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -82,6 +83,15 @@ public class SuperColumn implements IColumn, IColumnContainer
         return sc;
     }
 
+    public IColumn localCopy(Allocator allocator)
+    {
+        SuperColumn sc = new SuperColumn(allocator.clone(name_), getComparator());
+        sc.markForDeleteAt(localDeletionTime.get(), markedForDeleteAt.get());
+        for (IColumn subColumn : columns_.values())
+            sc.columns_.put(subColumn.name(), subColumn.localCopy(allocator));
+        return sc;
+    }
+
 	public boolean isMarkedForDelete()
 	{
         return markedForDeleteAt.get() > Long.MIN_VALUE;
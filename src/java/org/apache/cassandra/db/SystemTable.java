@@ -51,6 +51,9 @@ public class SystemTable
     private static Logger logger = LoggerFactory.getLogger(SystemTable.class);
     public static final String STATUS_CF = "LocationInfo"; // keep the old CF string for backwards-compatibility
     public static final String INDEX_CF = "IndexInfo";
+    // IndexInfo holds a column named after each index that is built, and another, with this suffix, for each
+    // that may hold stale entries
+    private static final String STALE_SUFFIX = ":stale";
     private static final ByteBuffer LOCATION_KEY = ByteBufferUtil.bytes("L");
     private static final ByteBuffer RING_KEY = ByteBufferUtil.bytes("Ring");
     private static final ByteBuffer BOOTSTRAP_KEY = ByteBufferUtil.bytes("Bootstrap");
@@ -355,10 +358,46 @@ public class SystemTable
         forceBlockingFlush(INDEX_CF);
     }
 
+    /**
+     * @return true if the index was ever written without reading the values it replaced, as in lazy index
+     * maintenance, and may hold stale entries for them until it is rebuilt
+     */
+    public static boolean isIndexStale(String table, String indexName)
+    {
+        return isIndexBuilt(table, indexName + STALE_SUFFIX);
+    }
+
+    /**
+     * Marking an index stale happens on the write path, so it is not flushed: the mutation goes to the
+     * commit log ahead of the writes it covers, and replay restores it along with them.  Clearing the mark
+     * is flushed, like the other index markers.
+     */
+    public static void setIndexStale(String table, String indexName, boolean isStale)
+    {
+        ByteBuffer name = ByteBuffer.wrap((indexName + STALE_SUFFIX).getBytes(UTF_8));
+        RowMutation rm = new RowMutation(Table.SYSTEM_TABLE, ByteBuffer.wrap(table.getBytes(UTF_8)));
+        if (isStale)
+            rm.add(new QueryPath(INDEX_CF, null, name), FBUtilities.EMPTY_BYTE_BUFFER, System.currentTimeMillis());
+        else
+            rm.delete(new QueryPath(INDEX_CF, null, name), System.currentTimeMillis());
+        try
+        {
+            rm.apply();
+        }
+        catch (IOException e)
+        {
+            throw new IOError(e);
+        }
+
+        if (!isStale)
+            forceBlockingFlush(INDEX_CF);
+    }
+
     public static void setIndexRemoved(String table, String indexName)
     {
         RowMutation rm = new RowMutation(Table.SYSTEM_TABLE, ByteBuffer.wrap(table.getBytes(UTF_8)));
         rm.delete(new QueryPath(INDEX_CF, null, ByteBuffer.wrap(indexName.getBytes(UTF_8))), System.currentTimeMillis());
+        rm.delete(new QueryPath(INDEX_CF, null, ByteBuffer.wrap((indexName + STALE_SUFFIX).getBytes(UTF_8))), System.currentTimeMillis());
         try
         {
             rm.apply();
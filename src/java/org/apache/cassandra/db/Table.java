@@ -28,15 +28,17 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.SortedMap;
 import java.util.SortedSet;
+import java.util.TreeMap;
 import java.util.TreeSet;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.apache.cassandra.config.CFMetaData;
+import org.apache.cassandra.config.Config;
 import org.apache.cassandra.config.ConfigurationException;
 import org.apache.cassandra.config.DatabaseDescriptor;
 import org.apache.cassandra.config.KSMetaData;
@@ -66,12 +68,6 @@ public class Table
     private static final Logger logger = LoggerFactory.getLogger(Table.class);
     private static final String SNAPSHOT_SUBDIR_NAME = "snapshots";
 
-    /**
-     * accesses to CFS.memtable should acquire this for thread safety.
-     * Table.maybeSwitchMemtable should aquire the writeLock; see that method for the full explanation.
-     */
-    static final ReentrantReadWriteLock flusherLock = new ReentrantReadWriteLock(true);
-
     // It is possible to call Table.open without a running daemon, so it makes sense to ensure
     // proper directories here as well as in CassandraDaemon.
     static
@@ -249,7 +245,9 @@ public class Table
             throw new RuntimeException(e);
         }
 
-        indexLocks = new Object[DatabaseDescriptor.getConcurrentWriters() * 8];
+        // enough stripes that writers on every core rarely collide; a power of two so indexLockFor can mask
+        int stripes = Math.max(DatabaseDescriptor.getConcurrentWriters(), Runtime.getRuntime().availableProcessors()) * 8;
+        indexLocks = new Object[Integer.highestOneBit(stripes - 1) << 1];
         for (int i = 0; i < indexLocks.length; i++)
             indexLocks[i] = new Object();
         // create data directories.
@@ -369,15 +367,31 @@ public class Table
     {
         List<Memtable> memtablesToFlush = Collections.emptyList();
 
+        // lock the memtables of the column families being written, in cfId order, so that concurrent
+        // mutations cannot deadlock against each other's memtable switches.  writes to other column
+        // families (in this keyspace or any other) never wait for these.
+        SortedMap<Integer, ColumnFamily> columnFamilies = new TreeMap<Integer, ColumnFamily>();
+        for (ColumnFamily cf : mutation.getColumnFamilies())
+            columnFamilies.put(cf.id(), cf);
+        List<ColumnFamilyStore> lockedStores = new ArrayList<ColumnFamilyStore>(columnFamilies.size());
+
         // write the mutation to the commitlog and memtables
-        flusherLock.readLock().lock();
         try
         {
+            for (Integer cfId : columnFamilies.keySet())
+            {
+                ColumnFamilyStore cfs = columnFamilyStores.get(cfId);
+                if (cfs == null)
+                    continue;
+                cfs.flusherLock.readLock().lock();
+                lockedStores.add(cfs);
+            }
+
             if (writeCommitLog)
                 CommitLog.instance.add(mutation, serializedMutation);
         
             DecoratedKey key = StorageService.getPartitioner().decorateKey(mutation.key());
-            for (ColumnFamily cf : mutation.getColumnFamilies())
+            for (ColumnFamily cf : columnFamilies.values())
             {
                 ColumnFamilyStore cfs = columnFamilyStores.get(cf.id());
                 if (cfs == null)
@@ -397,25 +411,38 @@ public class Table
                     }
                 }
 
-                synchronized (indexLockFor(mutation.key()))
+                if (mutatedIndexedColumns == null)
                 {
-                    ColumnFamily oldIndexedColumns = null;
-                    if (mutatedIndexedColumns != null)
+                    Memtable fullMemtable = cfs.apply(key, cf);
+                    if (fullMemtable != null)
+                        memtablesToFlush = addFullMemtable(memtablesToFlush, fullMemtable);
+                }
+                else if (DatabaseDescriptor.getIndexMaintenance() == Config.IndexMaintenance.lazy)
+                {
+                    // add entries for the new values only; entries for values this write replaces are
+                    // left in place, and recognized and removed as stale by ColumnFamilyStore.scan.
+                    // since nothing is read, there is nothing to serialize against other writes to the row.
+                    cfs.markIndexesStale(mutatedIndexedColumns);
+                    Memtable fullMemtable = cfs.apply(key, cf);
+                    if (fullMemtable != null)
+                        memtablesToFlush = addFullMemtable(memtablesToFlush, fullMemtable);
+                    applyIndexUpdates(mutation.key(), cf, cfs, mutatedIndexedColumns, null);
+                }
+                else
+                {
+                    synchronized (indexLockFor(mutation.key()))
                     {
                         // with the raw data CF, we can just apply every update in any order and let
                         // read-time resolution throw out obsolete versions, thus avoiding read-before-write.
                         // but for indexed data we need to make sure that we're not creating index entries
                         // for obsolete writes.
-                        oldIndexedColumns = readCurrentIndexedColumns(key, cfs, mutatedIndexedColumns);
+                        ColumnFamily oldIndexedColumns = readCurrentIndexedColumns(key, cfs, mutatedIndexedColumns);
                         ignoreObsoleteMutations(cf, mutatedIndexedColumns, oldIndexedColumns);
-                    }
 
-                    Memtable fullMemtable = cfs.apply(key, cf);
-                    if (fullMemtable != null)
-                        memtablesToFlush = addFullMemtable(memtablesToFlush, fullMemtable);
+                        Memtable fullMemtable = cfs.apply(key, cf);
+                        if (fullMemtable != null)
+                            memtablesToFlush = addFullMemtable(memtablesToFlush, fullMemtable);
 
-                    if (mutatedIndexedColumns != null)
-                    {
                         // ignore full index memtables -- we flush those when the "master" one is full
                         applyIndexUpdates(mutation.key(), cf, cfs, mutatedIndexedColumns, oldIndexedColumns);
                     }
@@ -424,10 +451,11 @@ public class Table
         }
         finally
         {
-            flusherLock.readLock().unlock();
+            for (ColumnFamilyStore cfs : lockedStores)
+                cfs.flusherLock.readLock().unlock();
         }
 
-        // flush memtables that got filled up outside the readlock (maybeSwitchMemtable acquires writeLock).
+        // flush memtables that got filled up outside the readlocks (maybeSwitchMemtable acquires writeLock).
         // usually mTF will be empty and this will be a no-op.
         for (Memtable memtable : memtablesToFlush)
             memtable.cfs.maybeSwitchMemtable(memtable, writeCommitLog);
@@ -553,7 +581,7 @@ public class Table
                 DecoratedKey key = iter.next();
                 logger.debug("Indexing row {} ", key);
                 List<Memtable> memtablesToFlush = Collections.emptyList();
-                flusherLock.readLock().lock();
+                cfs.flusherLock.readLock().lock();
                 try
                 {
                     synchronized (indexLockFor(key.key))
@@ -565,7 +593,7 @@ public class Table
                 }
                 finally
                 {
-                    flusherLock.readLock().unlock();
+                    cfs.flusherLock.readLock().unlock();
                 }
 
                 // during index build, we do flush index memtables separately from master; otherwise we could OOM
@@ -601,7 +629,11 @@ public class Table
 
     private Object indexLockFor(ByteBuffer key)
     {
-        return indexLocks[Math.abs(key.hashCode() % indexLocks.length)];
+        // ByteBuffer hashes are weak in the low bits for similar keys, so spread the high bits down
+        int h = key.hashCode();
+        h ^= (h >>> 20) ^ (h >>> 12);
+        h ^= (h >>> 7) ^ (h >>> 4);
+        return indexLocks[h & (indexLocks.length - 1)];
     }
 
     public List<Future<?>> flush() throws IOException
@@ -633,7 +665,15 @@ public class Table
 
     public String getDataFileLocation(long expectedCompactedFileSize)
     {
-        String path = DatabaseDescriptor.getDataFileLocationForTable(name, expectedCompactedFileSize);
+        return getDataFileLocation(expectedCompactedFileSize, Collections.<String, Long>emptyMap());
+    }
+
+    /**
+     * @param reservedBytes bytes not to count as free in each data directory
+     */
+    public String getDataFileLocation(long expectedCompactedFileSize, Map<String, Long> reservedBytes)
+    {
+        String path = DatabaseDescriptor.getDataFileLocationForTable(name, expectedCompactedFileSize, reservedBytes);
         if (path == null)
         {
             // retry after GCing to force unmap of compacted SSTables so they can be deleted
@@ -646,7 +686,7 @@ public class Table
             {
                 throw new AssertionError(e);
             }
-            path = DatabaseDescriptor.getDataFileLocationForTable(name, expectedCompactedFileSize);
+            path = DatabaseDescriptor.getDataFileLocationForTable(name, expectedCompactedFileSize, reservedBytes);
         }
         return path;
     }
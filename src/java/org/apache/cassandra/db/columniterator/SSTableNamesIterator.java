@@ -54,14 +54,22 @@ public class SSTableNamesIterator extends SimpleAbstractColumnIterator implement
     public final DecoratedKey key;
 
     public SSTableNamesIterator(SSTableReader sstable, DecoratedKey key, SortedSet<ByteBuffer> columns)
+    {
+        this(sstable, key, sstable.getPosition(key, SSTableReader.Operator.EQ), columns);
+    }
+
+    /**
+     * @param position the position of the row in the data file, or -1 if the sstable does not hold it
+     */
+    public SSTableNamesIterator(SSTableReader sstable, DecoratedKey key, long position, SortedSet<ByteBuffer> columns)
     {
         assert columns != null;
         this.columns = columns;
         this.key = key;
 
-        FileDataInput file = sstable.getFileDataInput(key, DatabaseDescriptor.getIndexedReadBufferSizeInKB() * 1024);
-        if (file == null)
+        if (position < 0)
             return;
+        FileDataInput file = sstable.getFileDataInput(position, DatabaseDescriptor.getIndexedReadBufferSizeInKB() * 1024);
 
         try
         {
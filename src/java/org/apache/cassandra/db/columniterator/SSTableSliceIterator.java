@@ -44,11 +44,22 @@ public class SSTableSliceIterator implements IColumnIterator
     private DecoratedKey key;
 
     public SSTableSliceIterator(SSTableReader sstable, DecoratedKey key, ByteBuffer startColumn, ByteBuffer finishColumn, boolean reversed)
+    {
+        this(sstable, key, sstable.getPosition(key, SSTableReader.Operator.EQ), startColumn, finishColumn, reversed);
+    }
+
+    /**
+     * @param position the position of the row in the data file, or -1 if the sstable does not hold it
+     */
+    public SSTableSliceIterator(SSTableReader sstable, DecoratedKey key, long position, ByteBuffer startColumn, ByteBuffer finishColumn, boolean reversed)
     {
         this.key = key;
-        fileToClose = sstable.getFileDataInput(this.key, DatabaseDescriptor.getSlicedReadBufferSizeInKB() * 1024);
-        if (fileToClose == null)
+        if (position < 0)
+        {
+            fileToClose = null;
             return;
+        }
+        fileToClose = sstable.getFileDataInput(position, DatabaseDescriptor.getSlicedReadBufferSizeInKB() * 1024);
 
         try
         {
@@ -47,7 +47,6 @@ class BatchCommitLogExecutorService extends AbstractCommitLogExecutorService imp
                 while (true)
                 {
                     processWithSyncBatch();
-                    completedTaskCount++;
                 }
             }
         };
@@ -61,38 +60,64 @@ class BatchCommitLogExecutorService extends AbstractCommitLogExecutorService imp
         return queue.size();
     }
 
+    private final ArrayList<CheaterFutureTask> drainedTasks = new ArrayList<CheaterFutureTask>();
     private final ArrayList<CheaterFutureTask> incompleteTasks = new ArrayList<CheaterFutureTask>();
-    private final ArrayList taskValues = new ArrayList(); // TODO not sure how to generify this
+
+    /**
+     * Group commit: everything already queued, plus anything arriving during the batch window,
+     * is appended to the log back to back (the adders arrive pre-serialized, so this is just a
+     * copy into the segment's write buffer), followed by a single sync that acknowledges the
+     * whole group.  Other tasks (context requests, segment discards) are run in queue order,
+     * after syncing the adders ahead of them.
+     */
     private void processWithSyncBatch() throws Exception
     {
         CheaterFutureTask firstTask = queue.take();
         if (!(firstTask.getRawCallable() instanceof CommitLog.LogRecordAdder))
         {
             firstTask.run();
+            completedTaskCount++;
             return;
         }
 
-        // attempt to do a bunch of LogRecordAdder ops before syncing
-        // (this is a little clunky since there is no blocking peek method,
-        //  so we have to break it into firstTask / extra tasks)
-        incompleteTasks.clear();
-        taskValues.clear();
-        long end = System.nanoTime() + (long)(1000000 * DatabaseDescriptor.getCommitLogSyncBatchWindow());
-
         // it doesn't seem worth bothering future-izing the exception
         // since if a commitlog op throws, we're probably screwed anyway
-        incompleteTasks.add(firstTask);
-        taskValues.add(firstTask.getRawCallable().call());
-        while (!queue.isEmpty()
-               && queue.peek().getRawCallable() instanceof CommitLog.LogRecordAdder
-               && System.nanoTime() < end)
+        incompleteTasks.clear();
+        long end = System.nanoTime() + (long)(1000000 * DatabaseDescriptor.getCommitLogSyncBatchWindow());
+        append(firstTask);
+        while (!queue.isEmpty() && System.nanoTime() < end)
         {
-            CheaterFutureTask task = queue.remove();
-            incompleteTasks.add(task);
-            taskValues.add(task.getRawCallable().call());
+            drainedTasks.clear();
+            queue.drainTo(drainedTasks);
+            for (CheaterFutureTask task : drainedTasks)
+            {
+                if (task.getRawCallable() instanceof CommitLog.LogRecordAdder)
+                {
+                    append(task);
+                }
+                else
+                {
+                    syncAndAcknowledge();
+                    task.run();
+                    completedTaskCount++;
+                }
+            }
         }
+        syncAndAcknowledge();
+    }
+
+    private void append(CheaterFutureTask task) throws Exception
+    {
+        task.getRawCallable().call();
+        incompleteTasks.add(task);
+    }
 
-        // now sync and set the tasks' values (which allows thread calling get() to proceed)
+    private void syncAndAcknowledge()
+    {
+        if (incompleteTasks.isEmpty())
+            return;
+
+        // sync once for the group, then set the tasks' values (which allows threads calling get() to proceed)
         try
         {
             CommitLog.instance.sync();
@@ -101,13 +126,14 @@ class BatchCommitLogExecutorService extends AbstractCommitLogExecutorService imp
         {
             throw new RuntimeException(e);
         }
-        for (int i = 0; i < incompleteTasks.size(); i++)
+        for (CheaterFutureTask task : incompleteTasks)
         {
-            incompleteTasks.get(i).set(taskValues.get(i));
+            task.set(null);
         }
+        completedTaskCount += incompleteTasks.size();
+        incompleteTasks.clear();
     }
 
-
     @Override
     protected <T> RunnableFuture<T> newTaskFor(Runnable runnable, T value)
     {
@@ -18,6 +18,8 @@
 
 package org.apache.cassandra.db.commitlog;
 
+import org.apache.cassandra.concurrent.DebuggableThreadPoolExecutor;
+import org.apache.cassandra.concurrent.NamedThreadFactory;
 import org.apache.cassandra.concurrent.Stage;
 import org.apache.cassandra.config.CFMetaData;
 import org.apache.cassandra.concurrent.StageManager;
@@ -33,14 +35,13 @@ import org.apache.cassandra.io.util.FileUtils;
 import org.apache.cassandra.utils.FBUtilities;
 import org.apache.cassandra.utils.WrappedRunnable;
 import org.apache.commons.lang.StringUtils;
+import org.cliffc.high_scale_lib.NonBlockingHashSet;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
 import java.util.*;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Future;
+import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.zip.CRC32;
 import java.util.zip.Checksum;
@@ -200,114 +201,182 @@ public class CommitLog
         logger.info("Log replay complete");
     }
 
+    /**
+     * Replays the given segments.  Segments are read and checksummed in parallel, one reader per segment
+     * up to the number of processors, and each reader hands the mutations it finds to the MUTATION stage.
+     * Columns are reconciled by timestamp, so the order in which mutations are re-applied does not matter.
+     * The readers share a single bound of MAX_OUTSTANDING_REPLAY_COUNT mutations waiting on the stage.
+     * Progress is visible through the CommitLogReplay MBean.
+     */
     public static void recover(File[] clogs) throws IOException
     {
-        Set<Table> tablesRecovered = new HashSet<Table>();
+        final Set<Table> tablesRecovered = new NonBlockingHashSet<Table>();
+        final ConcurrentMap<Integer, AtomicInteger> invalidMutations = new ConcurrentHashMap<Integer, AtomicInteger>();
+        final Semaphore outstanding = new Semaphore(MAX_OUTSTANDING_REPLAY_COUNT);
+        final CommitLogReplay progress = CommitLogReplay.instance;
+        progress.started(clogs);
+
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        int readers = Math.max(1, Math.min(clogs.length, Runtime.getRuntime().availableProcessors()));
+        ExecutorService executor = new DebuggableThreadPoolExecutor(readers,
+                                                                    readers,
+                                                                    Integer.MAX_VALUE,
+                                                                    TimeUnit.SECONDS,
+                                                                    new LinkedBlockingQueue<Runnable>(),
+                                                                    new NamedThreadFactory("COMMIT-LOG-REPLAY"));
+        try
+        {
+            for (final File file : clogs)
+            {
+                Runnable runnable = new WrappedRunnable()
+                {
+                    public void runMayThrow() throws IOException
+                    {
+                        recover(file, tablesRecovered, invalidMutations, outstanding);
+                        progress.segmentReplayed();
+                    }
+                };
+                futures.add(executor.submit(runnable));
+            }
+            FBUtilities.waitOnFutures(futures);
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+        
+        for (Map.Entry<Integer, AtomicInteger> entry : invalidMutations.entrySet())
+            logger.info(String.format("Skipped %d mutations from unknown (probably removed) CF with id %d", entry.getValue().intValue(), entry.getKey()));
+
+        logger.debug("Finished waiting on mutations from recovery");
+
+        // flush replayed tables
+        futures.clear();
+        for (Table table : tablesRecovered)
+            futures.addAll(table.flush());
+        FBUtilities.waitOnFutures(futures);
+        progress.finished();
+        logger.info(String.format("Replayed %d mutations (%d bytes) at %.0f bytes/s",
+                                  progress.getReplayedMutations(), progress.getReplayedBytes(), progress.getReplayThroughput()));
+    }
+
+    /**
+     * Replays a single segment, returning once all of its mutations have been applied.  A permit from
+     * outstanding is held by each mutation from submission until it has been applied.
+     */
+    private static void recover(File file, Set<Table> tablesRecovered, ConcurrentMap<Integer, AtomicInteger> invalidMutations, final Semaphore outstanding) throws IOException
+    {
         List<Future<?>> futures = new ArrayList<Future<?>>();
         byte[] bytes = new byte[4096];
-        Map<Integer, AtomicInteger> invalidMutations = new HashMap<Integer, AtomicInteger>();
+        final CommitLogReplay progress = CommitLogReplay.instance;
 
-        for (File file : clogs)
-        {
-            int bufferSize = (int)Math.min(file.length(), 32 * 1024 * 1024);
-            BufferedRandomAccessFile reader = new BufferedRandomAccessFile(file.getAbsolutePath(), "r", bufferSize);
+        int bufferSize = (int)Math.min(file.length(), 32 * 1024 * 1024);
+        BufferedRandomAccessFile reader = new BufferedRandomAccessFile(file.getAbsolutePath(), "r", bufferSize);
 
+        try
+        {
+            CommitLogHeader clHeader = null;
+            int replayPosition = 0;
+            String headerPath = CommitLogHeader.getHeaderPathFromSegmentPath(file.getAbsolutePath());
             try
             {
-                CommitLogHeader clHeader = null;
-                int replayPosition = 0;
-                String headerPath = CommitLogHeader.getHeaderPathFromSegmentPath(file.getAbsolutePath());
+                clHeader = CommitLogHeader.readCommitLogHeader(headerPath);
+                replayPosition = clHeader.getReplayPosition();
+            }
+            catch (IOException ioe)
+            {
+                logger.info(headerPath + " incomplete, missing or corrupt.  Everything is ok, don't panic.  CommitLog will be replayed from the beginning");
+                logger.debug("exception was", ioe);
+            }
+            if (replayPosition < 0)
+            {
+                logger.debug("skipping replay of fully-flushed {}", file);
+                progress.bytesReplayed(file.length());
+                return;
+            }
+            reader.seek(replayPosition);
+            long reportedPosition = replayPosition;
+            progress.bytesReplayed(reportedPosition);
+
+            if (logger.isDebugEnabled())
+                logger.debug("Replaying " + file + " starting at " + reader.getFilePointer());
+
+            /* read the logs populate RowMutation and apply */
+            while (!reader.isEOF())
+            {
+                if (logger.isDebugEnabled())
+                    logger.debug("Reading mutation at " + reader.getFilePointer());
+
+                long claimedCRC32;
+
+                Checksum checksum = new CRC32();
+                int serializedSize;
                 try
                 {
-                    clHeader = CommitLogHeader.readCommitLogHeader(headerPath);
-                    replayPosition = clHeader.getReplayPosition();
+                    // any of the reads may hit EOF
+                    serializedSize = reader.readInt();
+                    long claimedSizeChecksum = reader.readLong();
+                    checksum.update(serializedSize);
+                    if (checksum.getValue() != claimedSizeChecksum || serializedSize <= 0)
+                        break; // entry wasn't synced correctly/fully.  that's ok.
+
+                    if (serializedSize > bytes.length)
+                        bytes = new byte[(int) (1.2 * serializedSize)];
+                    reader.readFully(bytes, 0, serializedSize);
+                    claimedCRC32 = reader.readLong();
                 }
-                catch (IOException ioe)
+                catch(EOFException eof)
                 {
-                    logger.info(headerPath + " incomplete, missing or corrupt.  Everything is ok, don't panic.  CommitLog will be replayed from the beginning");
-                    logger.debug("exception was", ioe);
+                    break; // last CL entry didn't get completely written.  that's ok.
                 }
-                if (replayPosition < 0)
+                progress.bytesReplayed(reader.getFilePointer() - reportedPosition);
+                reportedPosition = reader.getFilePointer();
+
+                checksum.update(bytes, 0, serializedSize);
+                if (claimedCRC32 != checksum.getValue())
                 {
-                    logger.debug("skipping replay of fully-flushed {}", file);
+                    // this entry must not have been fsynced.  probably the rest is bad too,
+                    // but just in case there is no harm in trying them (since we still read on an entry boundary)
                     continue;
                 }
-                reader.seek(replayPosition);
 
-                if (logger.isDebugEnabled())
-                    logger.debug("Replaying " + file + " starting at " + reader.getFilePointer());
-
-                /* read the logs populate RowMutation and apply */
-                while (!reader.isEOF())
+                /* deserialize the commit log entry */
+                ByteArrayInputStream bufIn = new ByteArrayInputStream(bytes, 0, serializedSize);
+                RowMutation rm = null;
+                try
                 {
-                    if (logger.isDebugEnabled())
-                        logger.debug("Reading mutation at " + reader.getFilePointer());
-
-                    long claimedCRC32;
-
-                    Checksum checksum = new CRC32();
-                    int serializedSize;
-                    try
-                    {
-                        // any of the reads may hit EOF
-                        serializedSize = reader.readInt();
-                        long claimedSizeChecksum = reader.readLong();
-                        checksum.update(serializedSize);
-                        if (checksum.getValue() != claimedSizeChecksum || serializedSize <= 0)
-                            break; // entry wasn't synced correctly/fully.  that's ok.
-
-                        if (serializedSize > bytes.length)
-                            bytes = new byte[(int) (1.2 * serializedSize)];
-                        reader.readFully(bytes, 0, serializedSize);
-                        claimedCRC32 = reader.readLong();
-                    }
-                    catch(EOFException eof)
-                    {
-                        break; // last CL entry didn't get completely written.  that's ok.
-                    }
-
-                    checksum.update(bytes, 0, serializedSize);
-                    if (claimedCRC32 != checksum.getValue())
-                    {
-                        // this entry must not have been fsynced.  probably the rest is bad too,
-                        // but just in case there is no harm in trying them (since we still read on an entry boundary)
-                        continue;
-                    }
-
-                    /* deserialize the commit log entry */
-                    ByteArrayInputStream bufIn = new ByteArrayInputStream(bytes, 0, serializedSize);
-                    RowMutation rm = null;
-                    try
-                    {
-                        rm = RowMutation.serializer().deserialize(new DataInputStream(bufIn));
-                    }
-                    catch (UnserializableColumnFamilyException ex)
+                    rm = RowMutation.serializer().deserialize(new DataInputStream(bufIn));
+                }
+                catch (UnserializableColumnFamilyException ex)
+                {
+                    AtomicInteger i = invalidMutations.get(ex.cfId);
+                    if (i == null)
                     {
-                        AtomicInteger i = invalidMutations.get(ex.cfId);
-                        if (i == null)
-                        {
-                            i = new AtomicInteger(1);
-                            invalidMutations.put(ex.cfId, i);
-                        }
-                        else
+                        i = invalidMutations.putIfAbsent(ex.cfId, new AtomicInteger(1));
+                        if (i != null)
                             i.incrementAndGet();
-                        continue;
                     }
-                    
-                    if (logger.isDebugEnabled())
-                        logger.debug(String.format("replaying mutation for %s.%s: %s",
-                                                    rm.getTable(),
-                                                    rm.key(),
-                                                    "{" + StringUtils.join(rm.getColumnFamilies(), ", ") + "}"));
-                    final Table table = Table.open(rm.getTable());
-                    tablesRecovered.add(table);
-                    final Collection<ColumnFamily> columnFamilies = new ArrayList<ColumnFamily>(rm.getColumnFamilies());
-                    final long entryLocation = reader.getFilePointer();
-                    final CommitLogHeader finalHeader = clHeader;
-                    final RowMutation frm = rm;
-                    Runnable runnable = new WrappedRunnable()
+                    else
+                        i.incrementAndGet();
+                    continue;
+                }
+                
+                if (logger.isDebugEnabled())
+                    logger.debug(String.format("replaying mutation for %s.%s: %s",
+                                                rm.getTable(),
+                                                rm.key(),
+                                                "{" + StringUtils.join(rm.getColumnFamilies(), ", ") + "}"));
+                final Table table = Table.open(rm.getTable());
+                tablesRecovered.add(table);
+                final Collection<ColumnFamily> columnFamilies = new ArrayList<ColumnFamily>(rm.getColumnFamilies());
+                final long entryLocation = reader.getFilePointer();
+                final CommitLogHeader finalHeader = clHeader;
+                final RowMutation frm = rm;
+                Runnable runnable = new WrappedRunnable()
+                {
+                    public void runMayThrow() throws IOException
                     {
-                        public void runMayThrow() throws IOException
+                        try
                         {
                             RowMutation newRm = new RowMutation(frm.getTable(), frm.key());
 
@@ -327,35 +396,49 @@ public class CommitLog
                             {
                                 Table.open(newRm.getTable()).apply(newRm, null, false);
                             }
+                            progress.mutationReplayed();
+                        }
+                        finally
+                        {
+                            outstanding.release();
                         }
-                    };
+                    }
+                };
+                // blocks while the readers together have MAX_OUTSTANDING_REPLAY_COUNT mutations in flight
+                outstanding.acquireUninterruptibly();
+                try
+                {
                     futures.add(StageManager.getStage(Stage.MUTATION).submit(runnable));
-                    if (futures.size() > MAX_OUTSTANDING_REPLAY_COUNT)
+                }
+                catch (RuntimeException e)
+                {
+                    outstanding.release();
+                    throw e;
+                }
+                if (futures.size() > MAX_OUTSTANDING_REPLAY_COUNT)
+                {
+                    // the semaphore bounds the work; this only drops finished futures, surfacing their failures
+                    Iterator<Future<?>> iter = futures.iterator();
+                    while (iter.hasNext())
                     {
-                        FBUtilities.waitOnFutures(futures);
-                        futures.clear();
+                        Future<?> future = iter.next();
+                        if (future.isDone())
+                        {
+                            FBUtilities.waitOnFutures(Collections.<Future<?>>singletonList(future));
+                            iter.remove();
+                        }
                     }
                 }
             }
-            finally
-            {
-                reader.close();
-                logger.info("Finished reading " + file);
-            }
         }
-        
-        for (Map.Entry<Integer, AtomicInteger> entry : invalidMutations.entrySet())
-            logger.info(String.format("Skipped %d mutations from unknown (probably removed) CF with id %d", entry.getValue().intValue(), entry.getKey()));
+        finally
+        {
+            reader.close();
+            logger.info("Finished reading " + file);
+        }
 
         // wait for all the writes to finish on the mutation stage
         FBUtilities.waitOnFutures(futures);
-        logger.debug("Finished waiting on mutations from recovery");
-
-        // flush replayed tables
-        futures.clear();
-        for (Table table : tablesRecovered)
-            futures.addAll(table.flush());
-        FBUtilities.waitOnFutures(futures);
     }
 
     private CommitLogSegment currentSegment()
@@ -493,19 +576,20 @@ public class CommitLog
     class LogRecordAdder implements Callable, Runnable
     {
         final RowMutation rowMutation;
-        final Object serializedRow;
+        final byte[] serializedEntry;
 
         LogRecordAdder(RowMutation rm, Object serializedRow)
         {
             this.rowMutation = rm;
-            this.serializedRow = serializedRow;
+            // checksum and frame the entry in the calling thread, rather than the single commit log writer
+            this.serializedEntry = CommitLogSegment.serializeEntry(serializedRow);
         }
 
         public void run()
         {
             try
             {
-                currentSegment().write(rowMutation, serializedRow);
+                currentSegment().write(rowMutation, serializedEntry);
                 // roll log if necessary
                 if (currentSegment().length() >= SEGMENT_SIZE)
                 {
@@ -0,0 +1,122 @@
+/*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements.  See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership.  The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License.  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.apache.cassandra.db.commitlog;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Tracks the progress of commit log replay, so that a long startup after an unclean shutdown can be followed over JMX.
+ */
+class CommitLogReplay implements CommitLogReplayMBean
+{
+    public static final CommitLogReplay instance = new CommitLogReplay();
+
+    private volatile int totalSegments;
+    private final AtomicInteger replayedSegments = new AtomicInteger();
+    private volatile long totalBytes;
+    private final AtomicLong replayedBytes = new AtomicLong();
+    private final AtomicLong replayedMutations = new AtomicLong();
+    private volatile long startedAt;
+    private volatile long finishedAt;
+
+    private CommitLogReplay()
+    {
+        MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+        try
+        {
+            mbs.registerMBean(this, new ObjectName("org.apache.cassandra.db:type=CommitLogReplay"));
+        }
+        catch (Exception e)
+        {
+            throw new RuntimeException(e);
+        }
+    }
+
+    void started(File[] segments)
+    {
+        long bytes = 0;
+        for (File segment : segments)
+            bytes += segment.length();
+        totalSegments = segments.length;
+        totalBytes = bytes;
+        replayedSegments.set(0);
+        replayedBytes.set(0);
+        replayedMutations.set(0);
+        finishedAt = 0;
+        startedAt = System.currentTimeMillis();
+    }
+
+    void finished()
+    {
+        finishedAt = System.currentTimeMillis();
+    }
+
+    void segmentReplayed()
+    {
+        replayedSegments.incrementAndGet();
+    }
+
+    void bytesReplayed(long bytes)
+    {
+        replayedBytes.addAndGet(bytes);
+    }
+
+    void mutationReplayed()
+    {
+        replayedMutations.incrementAndGet();
+    }
+
+    public int getTotalSegments()
+    {
+        return totalSegments;
+    }
+
+    public int getReplayedSegments()
+    {
+        return replayedSegments.get();
+    }
+
+    public long getTotalBytes()
+    {
+        return totalBytes;
+    }
+
+    public long getReplayedBytes()
+    {
+        return replayedBytes.get();
+    }
+
+    public long getReplayedMutations()
+    {
+        return replayedMutations.get();
+    }
+
+    public double getReplayThroughput()
+    {
+        if (startedAt == 0)
+            return 0;
+        long elapsed = (finishedAt == 0 ? System.currentTimeMillis() : finishedAt) - startedAt;
+        return elapsed == 0 ? 0 : replayedBytes.get() * 1000.0 / elapsed;
+    }
+}
@@ -0,0 +1,40 @@
+/*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements.  See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership.  The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License.  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.apache.cassandra.db.commitlog;
+
+public interface CommitLogReplayMBean
+{
+    /** @return the number of commit log segments in the current (or last) replay */
+    public int getTotalSegments();
+
+    /** @return the number of those segments that have been completely replayed */
+    public int getReplayedSegments();
+
+    /** @return the combined size of the segments being replayed */
+    public long getTotalBytes();
+
+    /** @return the number of bytes read and checked so far */
+    public long getReplayedBytes();
+
+    /** @return the number of mutations re-applied so far */
+    public long getReplayedMutations();
+
+    /** @return replayed bytes per second since the replay started */
+    public double getReplayThroughput();
+}
@@ -23,6 +23,7 @@ package org.apache.cassandra.db.commitlog;
 import java.io.File;
 import java.io.IOError;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.zip.CRC32;
 import java.util.zip.Checksum;
 
@@ -40,6 +41,9 @@ public class CommitLogSegment
 {
     private static final Logger logger = LoggerFactory.getLogger(CommitLogSegment.class);
 
+    // size, size checksum, and data checksum
+    private static final int ENTRY_OVERHEAD = 4 + 8 + 8;
+
     private final BufferedRandomAccessFile logWriter;
     private final CommitLogHeader header;
 
@@ -75,7 +79,39 @@ public class CommitLogSegment
         return new BufferedRandomAccessFile(file, "rw", 128 * 1024);
     }
 
-    public CommitLogSegment.CommitLogContext write(RowMutation rowMutation, Object serializedRow) throws IOException
+    /**
+     * Builds the on-disk form of a commit log entry: the size, a checksum of the size, the
+     * serialized mutation, and a checksum covering both.  This is done by the thread
+     * submitting the mutation, so that the commit log writer only has to copy bytes.
+     */
+    public static byte[] serializeEntry(Object serializedRow)
+    {
+        byte[] bytes;
+        int length;
+        if (serializedRow instanceof DataOutputBuffer)
+        {
+            bytes = ((DataOutputBuffer) serializedRow).getData();
+            length = ((DataOutputBuffer) serializedRow).getLength();
+        }
+        else
+        {
+            assert serializedRow instanceof byte[];
+            bytes = (byte[]) serializedRow;
+            length = bytes.length;
+        }
+
+        Checksum checksum = new CRC32();
+        ByteBuffer entry = ByteBuffer.allocate(ENTRY_OVERHEAD + length);
+        checksum.update(length);
+        entry.putInt(length);
+        entry.putLong(checksum.getValue());
+        entry.put(bytes, 0, length);
+        checksum.update(bytes, 0, length);
+        entry.putLong(checksum.getValue());
+        return entry.array();
+    }
+
+    public CommitLogSegment.CommitLogContext write(RowMutation rowMutation, byte[] serializedEntry) throws IOException
     {
         long currentPosition = -1L;
         try
@@ -106,24 +142,7 @@ public class CommitLogSegment
             }
 
             // write mutation, w/ checksum on the size and data
-            byte[] bytes;
-            Checksum checksum = new CRC32();
-            if (serializedRow instanceof DataOutputBuffer)
-            {
-                bytes = ((DataOutputBuffer) serializedRow).getData();
-            }
-            else
-            {
-                assert serializedRow instanceof byte[];
-                bytes = (byte[]) serializedRow;
-            }
-
-            checksum.update(bytes.length);
-            logWriter.writeInt(bytes.length);
-            logWriter.writeLong(checksum.getValue());
-            logWriter.write(bytes);
-            checksum.update(bytes, 0, bytes.length);
-            logWriter.writeLong(checksum.getValue());
+            logWriter.write(serializedEntry);
 
             return cLogCtx;
         }
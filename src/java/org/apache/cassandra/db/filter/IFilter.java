@@ -60,6 +60,13 @@ public interface IFilter
      */
     public abstract IColumnIterator getSSTableColumnIterator(SSTableReader sstable, DecoratedKey key);
 
+    /**
+     * returns an iterator that returns columns from the row at the given position of the SSTable
+     * matching the Filter criteria in sorted order.
+     * @param position the position of the row in the data file, as returned by SSTableReader.getPosition
+     */
+    public abstract IColumnIterator getSSTableColumnIterator(SSTableReader sstable, DecoratedKey key, long position);
+
     /**
      * collects columns from reducedColumns into returnCF.  Termination is determined
      * by the filter code, which should have some limit on the number of columns
@@ -63,6 +63,11 @@ public class NamesQueryFilter implements IFilter
     {
         return new SSTableNamesIterator(sstable, key, columns);
     }
+
+    public IColumnIterator getSSTableColumnIterator(SSTableReader sstable, DecoratedKey key, long position)
+    {
+        return new SSTableNamesIterator(sstable, key, position, columns);
+    }
     
     public IColumnIterator getSSTableColumnIterator(CFMetaData metadata, FileDataInput file, DecoratedKey key)
     {
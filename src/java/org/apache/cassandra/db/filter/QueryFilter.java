@@ -85,6 +85,13 @@ public class QueryFilter
         return superFilter.getSSTableColumnIterator(sstable, key);
     }
 
+    public IColumnIterator getSSTableColumnIterator(SSTableReader sstable, long position)
+    {
+        if (path.superColumnName == null)
+            return filter.getSSTableColumnIterator(sstable, key, position);
+        return superFilter.getSSTableColumnIterator(sstable, key, position);
+    }
+
     public IColumnIterator getSSTableColumnIterator(SSTableReader sstable, FileDataInput file, DecoratedKey key)
     {
         if (path.superColumnName == null)
@@ -71,6 +71,11 @@ public class SliceQueryFilter implements IFilter
     {
         return new SSTableSliceIterator(sstable, key, start, finish, reversed);
     }
+
+    public IColumnIterator getSSTableColumnIterator(SSTableReader sstable, DecoratedKey key, long position)
+    {
+        return new SSTableSliceIterator(sstable, key, position, start, finish, reversed);
+    }
     
     public IColumnIterator getSSTableColumnIterator(CFMetaData metadata, FileDataInput file, DecoratedKey key)
     {
@@ -0,0 +1,64 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.dht;
+
+/**
+ * A token held as a primitive long.  The boxed Token.token of the superclass is left null: use this class's
+ * token field, which hides it.
+ */
+public class LongToken extends Token<Long>
+{
+    private static final long serialVersionUID = 1L;
+
+    public final long token;
+
+    public LongToken(long token)
+    {
+        super(null);
+        this.token = token;
+    }
+
+    @Override
+    public int compareTo(Token<Long> o)
+    {
+        long r = ((LongToken) o).token;
+        return token < r ? -1 : (token == r ? 0 : 1);
+    }
+
+    @Override
+    public String toString()
+    {
+        return Long.toString(token);
+    }
+
+    @Override
+    public boolean equals(Object obj)
+    {
+        if (this == obj)
+            return true;
+        if (!(obj instanceof LongToken))
+            return false;
+        return token == ((LongToken) obj).token;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return (int) (token ^ (token >>> 32));
+    }
+}
@@ -0,0 +1,134 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.dht;
+
+import static com.google.common.base.Charsets.UTF_8;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.apache.cassandra.db.DecoratedKey;
+import org.apache.cassandra.utils.FBUtilities;
+import org.apache.cassandra.utils.GuidGenerator;
+import org.apache.cassandra.utils.MurmurHash;
+import org.apache.cassandra.utils.Pair;
+
+/**
+ * This class generates a LongToken using the 64-bit MurmurHash.  It distributes keys as
+ * evenly as RandomPartitioner, but hashing a key and comparing tokens are much cheaper than
+ * with MD5 and BigInteger.
+ */
+public class MurmurPartitioner implements IPartitioner<LongToken>
+{
+    public static final LongToken MINIMUM = new LongToken(Long.MIN_VALUE);
+
+    private static final byte DELIMITER_BYTE = ":".getBytes()[0];
+
+    // tokens as distances from MINIMUM range over 64 bits
+    private static final BigInteger OFFSET = BigInteger.valueOf(Long.MIN_VALUE).negate();
+
+    public DecoratedKey<LongToken> decorateKey(ByteBuffer key)
+    {
+        return new DecoratedKey<LongToken>(getToken(key), key);
+    }
+
+    public DecoratedKey<LongToken> convertFromDiskFormat(ByteBuffer fromdisk)
+    {
+        // find the delimiter position
+        int start = fromdisk.position() + fromdisk.arrayOffset();
+        int end = fromdisk.limit() + fromdisk.arrayOffset();
+        int splitPoint = -1;
+        for (int i = start; i < end; i++)
+        {
+            if (fromdisk.array()[i] == DELIMITER_BYTE)
+            {
+                splitPoint = i;
+                break;
+            }
+        }
+        assert splitPoint != -1;
+
+        // and decode the token and key
+        String token = new String(fromdisk.array(), start, splitPoint - start, UTF_8);
+        byte[] key = Arrays.copyOfRange(fromdisk.array(), splitPoint + 1, end);
+        return new DecoratedKey<LongToken>(new LongToken(Long.parseLong(token)), ByteBuffer.wrap(key));
+    }
+
+    public Token midpoint(Token ltoken, Token rtoken)
+    {
+        BigInteger left = BigInteger.valueOf(((LongToken)ltoken).token).add(OFFSET);
+        BigInteger right = BigInteger.valueOf(((LongToken)rtoken).token).add(OFFSET);
+        Pair<BigInteger,Boolean> midpair = FBUtilities.midpoint(left, right, 64);
+        // discard the remainder
+        return new LongToken(midpair.left.subtract(OFFSET).longValue());
+    }
+
+    public LongToken getMinimumToken()
+    {
+        return MINIMUM;
+    }
+
+    public LongToken getRandomToken()
+    {
+        return getToken(GuidGenerator.guidAsBytes());
+    }
+
+    private final Token.TokenFactory<Long> tokenFactory = new Token.TokenFactory<Long>() {
+        public ByteBuffer toByteArray(Token<Long> longToken)
+        {
+            ByteBuffer bytes = ByteBuffer.allocate(8);
+            bytes.putLong(0, ((LongToken) longToken).token);
+            return bytes;
+        }
+
+        public Token<Long> fromByteArray(ByteBuffer bytes)
+        {
+            return new LongToken(bytes.getLong(bytes.position()));
+        }
+
+        public String toString(Token<Long> longToken)
+        {
+            return longToken.toString();
+        }
+
+        public Token<Long> fromString(String string)
+        {
+            return new LongToken(Long.parseLong(string));
+        }
+    };
+
+    public Token.TokenFactory<Long> getTokenFactory()
+    {
+        return tokenFactory;
+    }
+
+    public boolean preservesOrder()
+    {
+        return false;
+    }
+
+    public LongToken getToken(ByteBuffer key)
+    {
+        if (key.remaining() == 0)
+            return MINIMUM;
+        long hash = MurmurHash.hash64(key, key.position(), key.remaining(), 0);
+        // only the empty key may have the minimum token
+        return new LongToken(hash == Long.MIN_VALUE ? Long.MAX_VALUE : hash);
+    }
+}
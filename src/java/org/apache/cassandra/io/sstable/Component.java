@@ -50,7 +50,11 @@ public class Component
         // statistical metadata about the content of the sstable
         STATS("Statistics.db"),
         // a bitmap secondary index: many of these may exist per sstable
-        BITMAP_INDEX("Bitidx.db");
+        BITMAP_INDEX("Bitidx.db"),
+        // fixed-width positions of the primary index entries, to binary search between sampled entries
+        INDEX_OFFSETS("Offsets.db"),
+        // the sampled index entries, with the planned segments of the index and data files
+        SUMMARY("Summary.db");
 
         final String repr;
         Type(String repr)
@@ -73,6 +77,8 @@ public class Component
     public final static Component FILTER = new Component(Type.FILTER, -1);
     public final static Component COMPACTED_MARKER = new Component(Type.COMPACTED_MARKER, -1);
     public final static Component STATS = new Component(Type.STATS, -1);
+    public final static Component INDEX_OFFSETS = new Component(Type.INDEX_OFFSETS, -1);
+    public final static Component SUMMARY = new Component(Type.SUMMARY, -1);
 
     public final Type type;
     public final int id;
@@ -102,6 +108,8 @@ public class Component
             case FILTER:
             case COMPACTED_MARKER:
             case STATS:
+            case INDEX_OFFSETS:
+            case SUMMARY:
                 return type.repr;
             case BITMAP_INDEX:
                 return String.format("%d-%s", id, type.repr);
@@ -138,6 +146,8 @@ public class Component
             case FILTER:            component = Component.FILTER;           break;
             case COMPACTED_MARKER:  component = Component.COMPACTED_MARKER; break;
             case STATS:             component = Component.STATS;            break;
+            case INDEX_OFFSETS:     component = Component.INDEX_OFFSETS;    break;
+            case SUMMARY:           component = Component.SUMMARY;          break;
             case BITMAP_INDEX:
                  component = new Component(type, id);
                  break;
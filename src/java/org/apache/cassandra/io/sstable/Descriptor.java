@@ -38,7 +38,7 @@ import org.apache.cassandra.utils.Pair;
 public class Descriptor
 {
     public static final String LEGACY_VERSION = "a";
-    public static final String CURRENT_VERSION = "e";
+    public static final String CURRENT_VERSION = "g";
 
     public final File directory;
     public final String version;
@@ -51,6 +51,8 @@ public class Descriptor
     public final boolean hasStringsInBloomFilter;
     public final boolean hasIntRowSize;
     public final boolean hasEncodedKeys;
+    public final boolean hasIndexOffsets;
+    public final boolean hasBlockedBloomFilter;
     public final boolean isLatestVersion;
 
     /**
@@ -75,6 +77,8 @@ public class Descriptor
         hasStringsInBloomFilter = version.compareTo("c") < 0;
         hasIntRowSize = version.compareTo("d") < 0;
         hasEncodedKeys = version.compareTo("e") < 0;
+        hasIndexOffsets = version.compareTo("f") >= 0;
+        hasBlockedBloomFilter = version.compareTo("g") >= 0;
         isLatestVersion = version.compareTo(CURRENT_VERSION) == 0;
     }
 
@@ -21,32 +21,53 @@ package org.apache.cassandra.io.sstable;
  */
 
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 import org.apache.cassandra.config.DatabaseDescriptor;
-import org.apache.cassandra.config.Config;
 import org.apache.cassandra.db.DecoratedKey;
+import org.apache.cassandra.dht.IPartitioner;
+import org.apache.cassandra.dht.Token;
 
 /**
+ * Every indexInterval'th key of an sstable, with the position of its entry in the index file.  Entries
+ * are packed: the tokens in one array, the positions in a long[], and the key bytes in a single buffer
+ * outside the heap.  Keys are only needed to hand out samples, as decorated keys compare by token.
+ *
  * Two approaches to building an IndexSummary:
  * 1. Call maybeAddEntry with every potential index entry
  * 2. Call shouldAddEntry, [addEntry,] incrementRowid
  */
 public class IndexSummary
 {
-    private ArrayList<KeyPosition> indexPositions;
+    private final int indexInterval;
     private long keysWritten = 0;
 
+    private int size = 0;
+    private Token[] tokens;
+    private long[] positions;
+    // the start of each key in the key bytes, and the end of the last one
+    private int[] keyOffsets;
+    private int keysLength = 0;
+    // the key bytes: growing on the heap while building, then moved off it by complete()
+    private byte[] keyBuffer;
+    private ByteBuffer keys;
+
     public IndexSummary(long expectedKeys)
     {
-        long expectedEntries = expectedKeys / DatabaseDescriptor.getIndexInterval();
+        indexInterval = DatabaseDescriptor.getIndexInterval();
+        long expectedEntries = expectedKeys / indexInterval;
         if (expectedEntries > Integer.MAX_VALUE)
             // TODO: that's a _lot_ of keys, or a very low interval
-            throw new RuntimeException("Cannot use index_interval of " + DatabaseDescriptor.getIndexInterval() + " with " + expectedKeys + " (expected) keys.");
-        indexPositions = new ArrayList<KeyPosition>((int)expectedEntries);
+            throw new RuntimeException("Cannot use index_interval of " + indexInterval + " with " + expectedKeys + " (expected) keys.");
+        int capacity = Math.max(1, (int) expectedEntries);
+        tokens = new Token[capacity];
+        positions = new long[capacity];
+        keyOffsets = new int[capacity];
+        keyBuffer = new byte[16 * capacity];
     }
 
     public void incrementRowid()
@@ -56,12 +77,29 @@ public class IndexSummary
 
     public boolean shouldAddEntry()
     {
-        return keysWritten % DatabaseDescriptor.getIndexInterval() == 0;
+        return keysWritten % indexInterval == 0;
     }
 
     public void addEntry(DecoratedKey decoratedKey, long indexPosition)
     {
-        indexPositions.add(new KeyPosition(decoratedKey, indexPosition));
+        assert keys == null : "summary is already complete";
+        if (size == tokens.length)
+        {
+            int capacity = size * 2;
+            tokens = Arrays.copyOf(tokens, capacity);
+            positions = Arrays.copyOf(positions, capacity);
+            keyOffsets = Arrays.copyOf(keyOffsets, capacity);
+        }
+        ByteBuffer key = decoratedKey.key;
+        if (keysLength + key.remaining() > keyBuffer.length)
+            keyBuffer = Arrays.copyOf(keyBuffer, Math.max(2 * keyBuffer.length, keysLength + key.remaining()));
+        key.duplicate().get(keyBuffer, keysLength, key.remaining());
+
+        tokens[size] = decoratedKey.token;
+        positions[size] = indexPosition;
+        keyOffsets[size] = keysLength;
+        keysLength += key.remaining();
+        size++;
     }
 
     public void maybeAddEntry(DecoratedKey decoratedKey, long indexPosition)
@@ -71,41 +109,110 @@ public class IndexSummary
         incrementRowid();
     }
 
-    public List<KeyPosition> getIndexPositions()
+    public void complete()
     {
-        return indexPositions;
+        tokens = Arrays.copyOf(tokens, size);
+        positions = Arrays.copyOf(positions, size);
+        keyOffsets = Arrays.copyOf(keyOffsets, size);
+        keys = ByteBuffer.allocateDirect(keysLength);
+        keys.put(keyBuffer, 0, keysLength);
+        keys.flip();
+        keyBuffer = null;
     }
 
-    public void complete()
+    public int size()
     {
-        indexPositions.trimToSize();
+        return size;
     }
 
     /**
-     * This is a simple container for the index Key and its corresponding position
-     * in the index file. Binary search is performed on a list of these objects
-     * to find where to start looking for the index entry containing the data position
-     * (which will be turned into a PositionSize object)
+     * @return the position in the index file of the i'th entry
      */
-    public static final class KeyPosition implements Comparable<KeyPosition>
+    public long getPosition(int i)
+    {
+        return positions[i];
+    }
+
+    /**
+     * @return the key of the i'th entry, copied onto the heap
+     */
+    public DecoratedKey getKey(int i)
+    {
+        byte[] key = new byte[keyLength(i)];
+        ByteBuffer bytes = keys.duplicate();
+        bytes.position(keyOffsets[i]);
+        bytes.get(key);
+        return new DecoratedKey(tokens[i], ByteBuffer.wrap(key));
+    }
+
+    private int keyLength(int i)
     {
-        public final DecoratedKey key;
-        public final long indexPosition;
+        return (i + 1 < size ? keyOffsets[i + 1] : keysLength) - keyOffsets[i];
+    }
 
-        public KeyPosition(DecoratedKey key, long indexPosition)
+    /**
+     * Searches the entries for the given key, without allocating.
+     * @return as for Collections.binarySearch: the index of the entry for the key if there is one,
+     * otherwise (-(insertion point) - 1)
+     */
+    public int binarySearch(DecoratedKey key)
+    {
+        int low = 0, high = size - 1;
+        while (low <= high)
         {
-            this.key = key;
-            this.indexPosition = indexPosition;
+            int mid = (low + high) >>> 1;
+            int comparison = tokens[mid].compareTo(key.token);
+            if (comparison < 0)
+                low = mid + 1;
+            else if (comparison > 0)
+                high = mid - 1;
+            else
+                return mid;
         }
+        return -(low + 1);
+    }
 
-        public int compareTo(KeyPosition kp)
+    /**
+     * Writes the entries of a complete summary.
+     */
+    public static void serialize(IndexSummary summary, DataOutput dos) throws IOException
+    {
+        dos.writeInt(summary.indexInterval);
+        dos.writeInt(summary.size);
+        byte[] key = new byte[0];
+        for (int i = 0; i < summary.size; i++)
         {
-            return key.compareTo(kp.key);
+            dos.writeLong(summary.positions[i]);
+            int length = summary.keyLength(i);
+            if (key.length < length)
+                key = new byte[length];
+            ByteBuffer bytes = summary.keys.duplicate();
+            bytes.position(summary.keyOffsets[i]);
+            bytes.get(key, 0, length);
+            dos.writeShort(length);
+            dos.write(key, 0, length);
         }
+    }
 
-        public String toString()
+    /**
+     * Reads a summary written by serialize, decorating its keys with the given partitioner.
+     * @return the complete summary, or null if it was sampled at another index interval than the current one
+     */
+    public static IndexSummary deserialize(DataInput dis, IPartitioner partitioner) throws IOException
+    {
+        int indexInterval = dis.readInt();
+        if (indexInterval != DatabaseDescriptor.getIndexInterval())
+            return null;
+        int size = dis.readInt();
+        IndexSummary summary = new IndexSummary((long) size * indexInterval);
+        for (int i = 0; i < size; i++)
         {
-            return key + ":" + indexPosition;
+            long position = dis.readLong();
+            byte[] key = new byte[dis.readUnsignedShort()];
+            dis.readFully(key);
+            summary.addEntry(partitioner.decorateKey(ByteBuffer.wrap(key)), position);
         }
+        summary.complete();
+        return summary;
     }
 }
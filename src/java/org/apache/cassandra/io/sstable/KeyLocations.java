@@ -0,0 +1,191 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.cassandra.io.sstable;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.cassandra.db.DecoratedKey;
+
+/**
+ * The sstables holding a row, with the position of the row in each: what the key locator cache
+ * remembers for hot keys so reads need not probe every sstable's bloom filter and index.
+ */
+public class KeyLocations
+{
+    private final SSTableReader[] sstables;
+    private final long[] positions;
+    // the generation of the tracker's sstable set these were looked up in, or any later one
+    final long generation;
+
+    private KeyLocations(SSTableReader[] sstables, long[] positions, long generation)
+    {
+        assert sstables.length == positions.length;
+        this.sstables = sstables;
+        this.positions = positions;
+        this.generation = generation;
+    }
+
+    /**
+     * Looks key up in each of sstables, which make up the tracker's sstable set of the given generation
+     * or a later one.
+     */
+    static KeyLocations locate(Collection<SSTableReader> sstables, DecoratedKey key, long generation)
+    {
+        SSTableReader[] found = new SSTableReader[sstables.size()];
+        long[] positions = new long[found.length];
+        int n = 0;
+        for (SSTableReader sstable : sstables)
+        {
+            long position = sstable.getPosition(key, SSTableReader.Operator.EQ);
+            if (position < 0)
+                continue;
+            found[n] = sstable;
+            positions[n++] = position;
+        }
+        return new KeyLocations(Arrays.copyOf(found, n), Arrays.copyOf(positions, n), generation);
+    }
+
+    /**
+     * Looks key up in those of sstables whose generation is not among known, and takes its position in
+     * the others from saved, which holds one for each of those that has it.
+     */
+    public static KeyLocations locate(Collection<SSTableReader> sstables, DecoratedKey key, Map<Integer, Long> saved, Set<Integer> known)
+    {
+        SSTableReader[] found = new SSTableReader[sstables.size()];
+        long[] positions = new long[found.length];
+        int n = 0;
+        for (SSTableReader sstable : sstables)
+        {
+            long position;
+            if (known.contains(sstable.descriptor.generation))
+            {
+                Long savedPosition = saved.get(sstable.descriptor.generation);
+                position = savedPosition == null ? -1 : savedPosition;
+            }
+            else
+            {
+                position = sstable.getPosition(key, SSTableReader.Operator.EQ);
+            }
+            if (position < 0)
+                continue;
+            found[n] = sstable;
+            positions[n++] = position;
+        }
+        return new KeyLocations(Arrays.copyOf(found, n), Arrays.copyOf(positions, n), -1);
+    }
+
+    /**
+     * Brings these locations up to date with a later sstable set: drops the sstables no longer in it,
+     * and looks key up in those that joined it since.
+     * @param live the tracker's sstable set of the given generation, or a later one
+     */
+    KeyLocations refresh(Set<SSTableReader> live, DecoratedKey key, long generation)
+    {
+        SSTableReader[] found = new SSTableReader[live.size()];
+        long[] newPositions = new long[found.length];
+        int n = 0;
+        for (int i = 0; i < sstables.length; i++)
+        {
+            if (!live.contains(sstables[i]))
+                continue;
+            found[n] = sstables[i];
+            newPositions[n++] = positions[i];
+        }
+        int kept = n;
+        for (SSTableReader sstable : live)
+        {
+            // one that joined while we were looked up may be among ours already
+            if (sstable.addedGeneration <= this.generation || contains(found, kept, sstable))
+                continue;
+            long position = sstable.getPosition(key, SSTableReader.Operator.EQ);
+            if (position < 0)
+                continue;
+            found[n] = sstable;
+            newPositions[n++] = position;
+        }
+        return new KeyLocations(Arrays.copyOf(found, n), Arrays.copyOf(newPositions, n), generation);
+    }
+
+    private static boolean contains(SSTableReader[] sstables, int length, SSTableReader sstable)
+    {
+        for (int i = 0; i < length; i++)
+        {
+            if (sstables[i] == sstable)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return true if these locations hold any of the sstables
+     */
+    boolean refersTo(Collection<SSTableReader> sstables)
+    {
+        for (SSTableReader sstable : this.sstables)
+        {
+            if (sstables.contains(sstable))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return true if all of these locations are in sstables
+     */
+    boolean isWithin(Set<SSTableReader> sstables)
+    {
+        for (SSTableReader sstable : this.sstables)
+        {
+            if (!sstables.contains(sstable))
+                return false;
+        }
+        return true;
+    }
+
+    public int size()
+    {
+        return sstables.length;
+    }
+
+    public SSTableReader getSSTable(int i)
+    {
+        return sstables[i];
+    }
+
+    public long getPosition(int i)
+    {
+        return positions[i];
+    }
+
+    public String toString()
+    {
+        StringBuilder sb = new StringBuilder("KeyLocations(");
+        for (int i = 0; i < sstables.length; i++)
+        {
+            if (i > 0)
+                sb.append(", ");
+            sb.append(sstables[i].getFilename()).append('@').append(positions[i]);
+        }
+        return sb.append(')').toString();
+    }
+}
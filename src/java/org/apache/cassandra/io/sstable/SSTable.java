@@ -30,6 +30,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import org.apache.cassandra.config.CFMetaData;
+import org.apache.cassandra.db.LeveledCompactionStrategy;
 import org.apache.cassandra.dht.IPartitioner;
 import org.apache.cassandra.io.util.FileUtils;
 import org.apache.cassandra.io.util.BufferedRandomAccessFile;
@@ -176,7 +177,7 @@ public abstract class SSTable
         }
         catch (Exception e)
         {
-            if (!"snapshots".equals(name))
+            if (!"snapshots".equals(name) && !name.endsWith(LeveledCompactionStrategy.MANIFEST_EXTENSION))
                 logger.warn("Invalid file '{}' in data directory {}.", name, dir);
             return null;
         }
@@ -19,21 +19,27 @@
 
 package org.apache.cassandra.io.sstable;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.DataInput;
 import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOError;
 import java.io.IOException;
 import java.lang.ref.Reference;
 import java.lang.ref.ReferenceQueue;
 import java.nio.ByteBuffer;
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.apache.cassandra.cache.InstrumentedCache;
@@ -53,17 +59,18 @@ import org.apache.cassandra.dht.Range;
 import org.apache.cassandra.io.ICompactSerializer2;
 import org.apache.cassandra.io.util.BufferedRandomAccessFile;
 import org.apache.cassandra.io.util.FileDataInput;
+import org.apache.cassandra.io.util.FileMark;
 import org.apache.cassandra.io.util.SegmentedFile;
 import org.apache.cassandra.service.StorageService;
+import org.apache.cassandra.utils.BlockedBloomFilter;
 import org.apache.cassandra.utils.BloomFilter;
 import org.apache.cassandra.utils.EstimatedHistogram;
 import org.apache.cassandra.utils.FBUtilities;
+import org.apache.cassandra.utils.Filter;
 import org.apache.cassandra.utils.Pair;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.google.common.base.Function;
-import com.google.common.collect.Collections2;
 
 /**
  * SSTableReaders are open()ed by Table.onStart; after that they are created by SSTableWriter.renameAndOpen.
@@ -76,6 +83,9 @@ public class SSTableReader extends SSTable implements Comparable<SSTableReader>
     // guesstimated size of INDEX_INTERVAL index entries
     private static final int INDEX_FILE_BUFFER_BYTES = 16 * DatabaseDescriptor.getIndexInterval();
 
+    // returned by searchIndex when the index entries cannot be binary searched
+    private static final long SEARCH_UNAVAILABLE = -2;
+
     // `finalizers` is required to keep the PhantomReferences alive after the enclosing SSTR is itself
     // unreferenced.  otherwise they will never get enqueued.
     private static final Set<Reference<SSTableReader>> finalizers = new HashSet<Reference<SSTableReader>>();
@@ -128,15 +138,21 @@ public class SSTableReader extends SSTable implements Comparable<SSTableReader>
     // indexfile and datafile: might be null before a call to load()
     private SegmentedFile ifile;
     private SegmentedFile dfile;
+    // positions of the index entries: null if the sstable has none
+    private SegmentedFile ofile;
 
     private IndexSummary indexSummary;
-    private BloomFilter bf;
+    private Filter bf;
+    // the last key, read from the index when first needed
+    private volatile DecoratedKey lastKey;
 
     private InstrumentedCache<Pair<Descriptor,DecoratedKey>, Long> keyCache;
 
     private BloomFilterTracker bloomFilterTracker = new BloomFilterTracker();
 
     private volatile SSTableDeletingReference phantomReference;
+    // the generation of its tracker's sstable set that it joined
+    volatile long addedGeneration;
 
     public static long getApproximateKeyCount(Iterable<SSTableReader> sstables)
     {
@@ -161,10 +177,10 @@ public class SSTableReader extends SSTable implements Comparable<SSTableReader>
 
     public static SSTableReader open(Descriptor descriptor, Set<Component> components, CFMetaData metadata, IPartitioner partitioner) throws IOException
     {
-        return open(descriptor, components, Collections.<DecoratedKey>emptySet(), null, metadata, partitioner);
+        return open(descriptor, components, Collections.<DecoratedKey, Long>emptyMap(), null, metadata, partitioner);
     }
 
-    public static SSTableReader open(Descriptor descriptor, Set<Component> components, Set<DecoratedKey> savedKeys, SSTableTracker tracker, CFMetaData metadata, IPartitioner partitioner) throws IOException
+    public static SSTableReader open(Descriptor descriptor, Set<Component> components, Map<DecoratedKey, Long> savedPositions, SSTableTracker tracker, CFMetaData metadata, IPartitioner partitioner) throws IOException
     {
         assert partitioner != null;
 
@@ -189,19 +205,20 @@ public class SSTableReader extends SSTable implements Comparable<SSTableReader>
             columnCounts = SSTable.defaultColumnHistogram();
         }
 
-        SSTableReader sstable = new SSTableReader(descriptor, components, metadata, partitioner, null, null, null, null, System.currentTimeMillis(), rowSizes, columnCounts);
+        SSTableReader sstable = new SSTableReader(descriptor, components, metadata, partitioner, null, null, null, null, null, System.currentTimeMillis(), rowSizes, columnCounts);
         sstable.setTrackedBy(tracker);
 
         // versions before 'c' encoded keys as utf-16 before hashing to the filter
         if (descriptor.hasStringsInBloomFilter)
         {
-            sstable.load(true, savedKeys);
+            sstable.load(true);
         }
         else
         {
-            sstable.load(false, savedKeys);
+            sstable.load(false);
             sstable.loadBloomFilter();
         }
+        sstable.cacheSavedPositions(savedPositions);
         if (logger.isDebugEnabled())
             logger.debug("INDEX LOAD TIME for " + descriptor + ": " + (System.currentTimeMillis() - start) + " ms.");
 
@@ -214,11 +231,11 @@ public class SSTableReader extends SSTable implements Comparable<SSTableReader>
     /**
      * Open a RowIndexedReader which already has its state initialized (by SSTableWriter).
      */
-    static SSTableReader internalOpen(Descriptor desc, Set<Component> components, CFMetaData metadata, IPartitioner partitioner, SegmentedFile ifile, SegmentedFile dfile, IndexSummary isummary, BloomFilter bf, long maxDataAge, EstimatedHistogram rowsize,
+    static SSTableReader internalOpen(Descriptor desc, Set<Component> components, CFMetaData metadata, IPartitioner partitioner, SegmentedFile ifile, SegmentedFile ofile, SegmentedFile dfile, IndexSummary isummary, Filter bf, long maxDataAge, EstimatedHistogram rowsize,
                                       EstimatedHistogram columncount) throws IOException
     {
         assert desc != null && partitioner != null && ifile != null && dfile != null && isummary != null && bf != null;
-        return new SSTableReader(desc, components, metadata, partitioner, ifile, dfile, isummary, bf, maxDataAge, rowsize, columncount);
+        return new SSTableReader(desc, components, metadata, partitioner, ifile, ofile, dfile, isummary, bf, maxDataAge, rowsize, columncount);
     }
 
     private SSTableReader(Descriptor desc,
@@ -226,9 +243,10 @@ public class SSTableReader extends SSTable implements Comparable<SSTableReader>
                           CFMetaData metadata,
                           IPartitioner partitioner,
                           SegmentedFile ifile,
+                          SegmentedFile ofile,
                           SegmentedFile dfile,
                           IndexSummary indexSummary,
-                          BloomFilter bloomFilter,
+                          Filter bloomFilter,
                           long maxDataAge,
                           EstimatedHistogram rowSizes,
                           EstimatedHistogram columnCounts)
@@ -238,6 +256,7 @@ public class SSTableReader extends SSTable implements Comparable<SSTableReader>
         this.maxDataAge = maxDataAge;
 
         this.ifile = ifile;
+        this.ofile = ofile;
         this.dfile = dfile;
         this.indexSummary = indexSummary;
         this.bf = bloomFilter;
@@ -255,6 +274,12 @@ public class SSTableReader extends SSTable implements Comparable<SSTableReader>
 
     void loadBloomFilter() throws IOException
     {
+        if (descriptor.hasBlockedBloomFilter)
+        {
+            bf = BlockedBloomFilter.open(descriptor.filenameFor(Component.FILTER));
+            return;
+        }
+
         DataInputStream stream = new DataInputStream(new FileInputStream(descriptor.filenameFor(Component.FILTER)));
         try
         {
@@ -269,25 +294,28 @@ public class SSTableReader extends SSTable implements Comparable<SSTableReader>
     /**
      * Loads ifile, dfile and indexSummary, and optionally recreates the bloom filter.
      */
-    private void load(boolean recreatebloom, Set<DecoratedKey> keysToLoadInCache) throws IOException
+    private void load(boolean recreatebloom) throws IOException
     {
-        boolean cacheLoading = keyCache != null && !keysToLoadInCache.isEmpty();
+        // unless every key is needed anyway, a saved summary spares reading the whole index
+        if (!recreatebloom && loadSummary())
+            return;
+
         SegmentedFile.Builder ibuilder = SegmentedFile.getBuilder(DatabaseDescriptor.getIndexAccessMode());
         SegmentedFile.Builder dbuilder = SegmentedFile.getBuilder(DatabaseDescriptor.getDiskAccessMode());
+        boolean hasOffsets = hasIndexOffsets();
+        SegmentedFile.Builder obuilder = hasOffsets ? SegmentedFile.getBuilder(DatabaseDescriptor.getIndexAccessMode()) : null;
 
         // we read the positions in a BRAF so we don't have to worry about an entry spanning a mmap boundary.
         BufferedRandomAccessFile input = new BufferedRandomAccessFile(descriptor.filenameFor(Component.PRIMARY_INDEX), "r");
         try
         {
-            if (keyCache != null && keyCache.getCapacity() - keyCache.getSize() < keysToLoadInCache.size())
-                keyCache.updateCapacity(keyCache.getSize() + keysToLoadInCache.size());
-
             long indexSize = input.length();
             long estimatedKeys = SSTable.estimateRowsFromIndex(input);
             indexSummary = new IndexSummary(estimatedKeys);
             if (recreatebloom)
                 // estimate key count based on index length
-                bf = BloomFilter.getFilter(estimatedKeys, 15);
+                bf = BlockedBloomFilter.getFilter(estimatedKeys, 15);
+            long offsetPosition = 0;
             while (true)
             {
                 long indexPosition = input.getFilePointer();
@@ -295,7 +323,7 @@ public class SSTableReader extends SSTable implements Comparable<SSTableReader>
                     break;
 
                 boolean shouldAddEntry = indexSummary.shouldAddEntry();
-                ByteBuffer key = (ByteBuffer) ((shouldAddEntry || cacheLoading || recreatebloom)
+                ByteBuffer key = (ByteBuffer) ((shouldAddEntry || recreatebloom)
                              ? FBUtilities.readShortByteArray(input)
                              : FBUtilities.skipShortByteArray(input));
                 long dataPosition = input.readLong();
@@ -306,10 +334,13 @@ public class SSTableReader extends SSTable implements Comparable<SSTableReader>
                         bf.add(decoratedKey.key);
                     if (shouldAddEntry)
                         indexSummary.addEntry(decoratedKey, indexPosition);
-                    if (cacheLoading && keysToLoadInCache.contains(decoratedKey))
-                        keyCache.put(new Pair(descriptor, decoratedKey), dataPosition);
                 }
 
+                if (hasOffsets)
+                {
+                    obuilder.addPotentialBoundary(offsetPosition);
+                    offsetPosition += 8;
+                }
                 indexSummary.incrementRowid();
                 ibuilder.addPotentialBoundary(indexPosition);
                 dbuilder.addPotentialBoundary(dataPosition);
@@ -321,28 +352,129 @@ public class SSTableReader extends SSTable implements Comparable<SSTableReader>
             input.close();
         }
 
+        if (!descriptor.hasEncodedKeys)
+        {
+            try
+            {
+                saveSummary(descriptor, indexSummary, ibuilder, dbuilder, obuilder);
+                components.add(Component.SUMMARY);
+            }
+            catch (IOException e)
+            {
+                logger.warn("Unable to save the index summary of " + descriptor, e);
+            }
+        }
+
         // finalize the state of the reader
         ifile = ibuilder.complete(descriptor.filenameFor(Component.PRIMARY_INDEX));
         dfile = dbuilder.complete(descriptor.filenameFor(Component.DATA));
+        if (hasOffsets)
+            ofile = obuilder.complete(descriptor.filenameFor(Component.INDEX_OFFSETS));
+    }
+
+    /**
+     * Puts the data file positions saved with the key cache back into it, growing the cache if
+     * needed to hold them.
+     */
+    private void cacheSavedPositions(Map<DecoratedKey, Long> savedPositions)
+    {
+        if (keyCache == null || savedPositions.isEmpty())
+            return;
+
+        if (keyCache.getCapacity() - keyCache.getSize() < savedPositions.size())
+            keyCache.updateCapacity(keyCache.getSize() + savedPositions.size());
+        for (Map.Entry<DecoratedKey, Long> entry : savedPositions.entrySet())
+            keyCache.put(new Pair<Descriptor, DecoratedKey>(descriptor, entry.getKey()), entry.getValue());
     }
 
-    /** get the position in the index file to start scanning to find the given key (at most indexInterval keys away) */
-    private IndexSummary.KeyPosition getIndexScanPosition(DecoratedKey decoratedKey)
+    private boolean hasIndexOffsets()
     {
-        assert indexSummary.getIndexPositions() != null && indexSummary.getIndexPositions().size() > 0;
-        int index = Collections.binarySearch(indexSummary.getIndexPositions(), new IndexSummary.KeyPosition(decoratedKey, -1));
+        return descriptor.hasIndexOffsets && components.contains(Component.INDEX_OFFSETS);
+    }
+
+    /**
+     * Saves the summary of an sstable, with the boundaries planned by the builders of its segmented files,
+     * which must not have been completed yet.
+     * @param obuilder the builder for the offsets file, or null if there is none
+     */
+    static void saveSummary(Descriptor desc, IndexSummary summary, SegmentedFile.Builder ibuilder, SegmentedFile.Builder dbuilder, SegmentedFile.Builder obuilder) throws IOException
+    {
+        DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(desc.filenameFor(Component.SUMMARY))));
+        try
+        {
+            IndexSummary.serialize(summary, dos);
+            ibuilder.serializeBounds(dos);
+            dbuilder.serializeBounds(dos);
+            dos.writeBoolean(obuilder != null);
+            if (obuilder != null)
+                obuilder.serializeBounds(dos);
+        }
+        finally
+        {
+            dos.close();
+        }
+    }
+
+    /**
+     * Loads ifile, dfile and indexSummary from a saved summary.
+     * @return false if there is no usable summary, in which case nothing was loaded
+     */
+    private boolean loadSummary() throws IOException
+    {
+        if (descriptor.hasEncodedKeys || !components.contains(Component.SUMMARY))
+            return false;
+
+        SegmentedFile.Builder ibuilder = SegmentedFile.getBuilder(DatabaseDescriptor.getIndexAccessMode());
+        SegmentedFile.Builder dbuilder = SegmentedFile.getBuilder(DatabaseDescriptor.getDiskAccessMode());
+        SegmentedFile.Builder obuilder = hasIndexOffsets() ? SegmentedFile.getBuilder(DatabaseDescriptor.getIndexAccessMode()) : null;
+        IndexSummary summary;
+        DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(descriptor.filenameFor(Component.SUMMARY))));
+        try
+        {
+            // the summary must have been sampled at the current interval, and the files be accessed as they were
+            summary = IndexSummary.deserialize(dis, partitioner);
+            if (summary == null || !ibuilder.deserializeBounds(dis) || !dbuilder.deserializeBounds(dis))
+                return false;
+            boolean hasOffsetBounds = dis.readBoolean();
+            if (obuilder != null && !(hasOffsetBounds && obuilder.deserializeBounds(dis)))
+                return false;
+        }
+        catch (IOException e)
+        {
+            logger.warn("Unable to load the index summary of " + descriptor + ": reading the index instead", e);
+            return false;
+        }
+        finally
+        {
+            dis.close();
+        }
+
+        indexSummary = summary;
+        ifile = ibuilder.complete(descriptor.filenameFor(Component.PRIMARY_INDEX));
+        dfile = dbuilder.complete(descriptor.filenameFor(Component.DATA));
+        if (obuilder != null)
+            ofile = obuilder.complete(descriptor.filenameFor(Component.INDEX_OFFSETS));
+        return true;
+    }
+
+    /**
+     * get the sampled index entry to start scanning from to find the given key (at most indexInterval keys away)
+     * @return its position in the index summary, or -1 if the key sorts before every entry
+     */
+    private int getIndexScanPosition(DecoratedKey decoratedKey)
+    {
+        assert indexSummary.size() > 0;
+        int index = indexSummary.binarySearch(decoratedKey);
         if (index < 0)
         {
             // binary search gives us the first index _greater_ than the key searched for,
             // i.e., its insertion position
             int greaterThan = (index + 1) * -1;
-            if (greaterThan == 0)
-                return null;
-            return indexSummary.getIndexPositions().get(greaterThan - 1);
+            return greaterThan - 1;
         }
         else
         {
-            return indexSummary.getIndexPositions().get(index);
+            return index;
         }
     }
 
@@ -354,7 +486,7 @@ public class SSTableReader extends SSTable implements Comparable<SSTableReader>
         bf = BloomFilter.alwaysMatchingBloomFilter();
     }
 
-    public BloomFilter getBloomFilter()
+    public Filter getBloomFilter()
     {
       return bf;
     }
@@ -372,7 +504,7 @@ public class SSTableReader extends SSTable implements Comparable<SSTableReader>
      */
     public long estimatedKeys()
     {
-        return indexSummary.getIndexPositions().size() * DatabaseDescriptor.getIndexInterval();
+        return indexSummary.size() * DatabaseDescriptor.getIndexInterval();
     }
 
     /**
@@ -380,13 +512,70 @@ public class SSTableReader extends SSTable implements Comparable<SSTableReader>
      */
     public Collection<DecoratedKey> getKeySamples()
     {
-        return Collections2.transform(indexSummary.getIndexPositions(),
-                                      new Function<IndexSummary.KeyPosition, DecoratedKey>(){
-                                          public DecoratedKey apply(IndexSummary.KeyPosition kp)
-                                          {
-                                              return kp.key;
-                                          }
-                                      });
+        return new AbstractList<DecoratedKey>()
+        {
+            public DecoratedKey get(int index)
+            {
+                return indexSummary.getKey(index);
+            }
+
+            public int size()
+            {
+                return indexSummary.size();
+            }
+        };
+    }
+
+    /**
+     * @return the smallest key in this SSTable, which is always sampled
+     */
+    public DecoratedKey getFirstKey()
+    {
+        return indexSummary.getKey(0);
+    }
+
+    /**
+     * @return the largest key in this SSTable
+     */
+    public DecoratedKey getLastKey()
+    {
+        if (lastKey == null)
+            lastKey = readLastKey();
+        return lastKey;
+    }
+
+    private DecoratedKey readLastKey()
+    {
+        DecoratedKey key = null;
+        Iterator<FileDataInput> segments = ifile.iterator(indexSummary.getPosition(indexSummary.size() - 1), INDEX_FILE_BUFFER_BYTES);
+        while (segments.hasNext())
+        {
+            FileDataInput input = segments.next();
+            try
+            {
+                while (!input.isEOF())
+                {
+                    key = decodeKey(partitioner, descriptor, FBUtilities.readShortByteArray(input));
+                    input.readLong();
+                }
+            }
+            catch (IOException e)
+            {
+                throw new IOError(e);
+            }
+            finally
+            {
+                try
+                {
+                    input.close();
+                }
+                catch (IOException e)
+                {
+                    logger.error("error closing file", e);
+                }
+            }
+        }
+        return key;
     }
 
     /**
@@ -438,8 +627,8 @@ public class SSTableReader extends SSTable implements Comparable<SSTableReader>
         }
 
         // next, see if the sampled index says it's impossible for the key to be present
-        IndexSummary.KeyPosition sampledPosition = getIndexScanPosition(decoratedKey);
-        if (sampledPosition == null)
+        int sampledIndex = getIndexScanPosition(decoratedKey);
+        if (sampledIndex < 0)
         {
             if (op == Operator.EQ)
                 bloomFilterTracker.addFalsePositive();
@@ -447,8 +636,16 @@ public class SSTableReader extends SSTable implements Comparable<SSTableReader>
             return op.apply(1) >= 0 ? 0 : -1;
         }
 
+        // binary search the entries following the sampled one, if their positions are known
+        if (ofile != null)
+        {
+            long dataPosition = searchIndex(sampledIndex, decoratedKey, unifiedKey, op);
+            if (dataPosition != SEARCH_UNAVAILABLE)
+                return dataPosition;
+        }
+
         // scan the on-disk index, starting at the nearest sampled position
-        Iterator<FileDataInput> segments = ifile.iterator(sampledPosition.indexPosition, INDEX_FILE_BUFFER_BYTES);
+        Iterator<FileDataInput> segments = ifile.iterator(indexSummary.getPosition(sampledIndex), INDEX_FILE_BUFFER_BYTES);
         while (segments.hasNext())
         {
             FileDataInput input = segments.next();
@@ -503,6 +700,120 @@ public class SSTableReader extends SSTable implements Comparable<SSTableReader>
         return -1;
     }
 
+    /**
+     * Binary searches the index entries between the sampled one and the next, locating them through the
+     * offsets component, so that only about log2(indexInterval) keys are read and decorated.
+     * @return as for getPosition, or SEARCH_UNAVAILABLE if the entries do not lie within a single segment
+     */
+    private long searchIndex(int sampledIndex, DecoratedKey decoratedKey, Pair<Descriptor, DecoratedKey> unifiedKey, Operator op)
+    {
+        int interval = DatabaseDescriptor.getIndexInterval();
+        long firstEntry = (long) sampledIndex * interval;
+        int entries = (int) Math.min(interval, ofile.length / 8 - firstEntry);
+        long indexStart = indexSummary.getPosition(sampledIndex);
+        long indexEnd = sampledIndex + 1 < indexSummary.size() ? indexSummary.getPosition(sampledIndex + 1) : ifile.length;
+
+        FileDataInput offsets = ofile.getSegment(firstEntry * 8, entries * 8);
+        FileDataInput input = ifile.getSegment(indexStart, INDEX_FILE_BUFFER_BYTES);
+        try
+        {
+            if (offsets.bytesRemaining() < entries * 8 || input.bytesRemaining() < indexEnd - indexStart)
+                return SEARCH_UNAVAILABLE;
+            FileMark offsetsMark = offsets.mark();
+            FileMark inputMark = input.mark();
+
+            // find the first entry that the operator matches, or that shows nothing further can
+            int low = 0, high = entries;
+            int v = 1, comparison = 1;
+            long dataPosition = -1;
+            while (low < high)
+            {
+                int mid = (low + high) >>> 1;
+                offsets.reset(offsetsMark);
+                offsets.skipBytes(mid * 8);
+                long indexPosition = offsets.readLong();
+                input.reset(inputMark);
+                input.skipBytes((int) (indexPosition - indexStart));
+                DecoratedKey indexDecoratedKey = decodeKey(partitioner, descriptor, FBUtilities.readShortByteArray(input));
+                int c = indexDecoratedKey.compareTo(decoratedKey);
+                int midv = op.apply(c);
+                if (midv <= 0)
+                {
+                    high = mid;
+                    v = midv;
+                    comparison = c;
+                    dataPosition = input.readLong();
+                }
+                else
+                {
+                    low = mid + 1;
+                }
+            }
+
+            if (high == entries)
+            {
+                // every entry sorts before the key: the first entry of the next interval sorts after it
+                if (op == Operator.EQ)
+                    bloomFilterTracker.addFalsePositive();
+                if (op == Operator.EQ || sampledIndex + 1 == indexSummary.size())
+                    return -1;
+                return readDataPosition(indexEnd);
+            }
+            if (v == 0)
+            {
+                if (comparison == 0 && keyCache != null && keyCache.getCapacity() > 0)
+                {
+                    if (op == Operator.EQ)
+                        bloomFilterTracker.addTruePositive();
+                    // store exact match for the key
+                    keyCache.put(unifiedKey, Long.valueOf(dataPosition));
+                }
+                return dataPosition;
+            }
+            if (op == Operator.EQ)
+                bloomFilterTracker.addFalsePositive();
+            return -1;
+        }
+        catch (IOException e)
+        {
+            throw new IOError(e);
+        }
+        finally
+        {
+            closeSegment(offsets);
+            closeSegment(input);
+        }
+    }
+
+    /**
+     * @return the data position of the index entry at the given position in the index file
+     */
+    private long readDataPosition(long indexPosition) throws IOException
+    {
+        FileDataInput input = ifile.getSegment(indexPosition, INDEX_FILE_BUFFER_BYTES);
+        try
+        {
+            FBUtilities.skipShortByteArray(input);
+            return input.readLong();
+        }
+        finally
+        {
+            closeSegment(input);
+        }
+    }
+
+    private static void closeSegment(FileDataInput input)
+    {
+        try
+        {
+            input.close();
+        }
+        catch (IOException e)
+        {
+            logger.error("error closing file", e);
+        }
+    }
+
     /**
      * @return The length in bytes of the data file for this SSTable.
      */
@@ -553,6 +864,14 @@ public class SSTableReader extends SSTable implements Comparable<SSTableReader>
         if (position < 0)
             return null;
 
+        return getFileDataInput(position, bufferSize);
+    }
+
+    /**
+     * @param position the position of a row, as returned by getPosition
+     */
+    public FileDataInput getFileDataInput(long position, int bufferSize)
+    {
         return dfile.getSegment(position, bufferSize);
     }
 
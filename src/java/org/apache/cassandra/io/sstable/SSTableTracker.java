@@ -20,12 +20,12 @@
 package org.apache.cassandra.io.sstable;
 
 import java.io.BufferedOutputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileDescriptor;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.ObjectOutputStream;
-import java.nio.ByteBuffer;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
@@ -33,21 +33,28 @@ import java.util.Iterator;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicLong;
 
+import org.apache.cassandra.cache.ConcurrentLinkedHashCacheProvider;
+import org.apache.cassandra.cache.IRowCacheProvider;
 import org.apache.cassandra.cache.JMXInstrumentedCache;
+import org.apache.cassandra.config.CFMetaData;
 import org.apache.cassandra.config.DatabaseDescriptor;
 import org.apache.cassandra.db.ColumnFamily;
 import org.apache.cassandra.db.DecoratedKey;
+import org.apache.cassandra.utils.FBUtilities;
 import org.apache.cassandra.utils.Pair;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.google.common.base.Function;
-
 public class SSTableTracker implements Iterable<SSTableReader>
 {
     private static final Logger logger = LoggerFactory.getLogger(SSTableTracker.class);
 
+    // written ahead of a saved cache, so that caches saved in any other format are ignored
+    public static final int SAVED_CACHE_VERSION = 1;
+
     private volatile Set<SSTableReader> sstables;
+    // sstables a compaction in progress is merging; guarded by this
+    private final Set<SSTableReader> compacting = new HashSet<SSTableReader>();
     private final AtomicLong liveSize = new AtomicLong();
     private final AtomicLong totalSize = new AtomicLong();
 
@@ -55,7 +62,12 @@ public class SSTableTracker implements Iterable<SSTableReader>
     private final String cfname;
 
     private final JMXInstrumentedCache<Pair<Descriptor,DecoratedKey>,Long> keyCache;
+    // the provider the row cache was created by, which also decides its capacity
+    private final IRowCacheProvider rowCacheProvider;
     private final JMXInstrumentedCache<DecoratedKey, ColumnFamily> rowCache;
+    private final JMXInstrumentedCache<DecoratedKey, KeyLocations> keyLocatorCache;
+    // bumped whenever the sstable set changes, so a lookup racing with the change can tell its result may be stale
+    private volatile long generation;
 
     public SSTableTracker(String ksname, String cfname)
     {
@@ -63,12 +75,24 @@ public class SSTableTracker implements Iterable<SSTableReader>
         this.cfname = cfname;
         sstables = Collections.emptySet();
         keyCache = new JMXInstrumentedCache<Pair<Descriptor,DecoratedKey>,Long>(ksname, cfname + "KeyCache", 0);
-        rowCache = new JMXInstrumentedCache<DecoratedKey, ColumnFamily>(ksname, cfname + "RowCache", 3);
+        CFMetaData cfm = DatabaseDescriptor.getCFMetaData(ksname, cfname);
+        rowCacheProvider = cfm == null ? new ConcurrentLinkedHashCacheProvider() : cfm.createRowCacheProvider();
+        rowCache = new JMXInstrumentedCache<DecoratedKey, ColumnFamily>(ksname, cfname + "RowCache", rowCacheProvider.create(3));
+        keyLocatorCache = new JMXInstrumentedCache<DecoratedKey, KeyLocations>(ksname, cfname + "KeyLocatorCache", 0);
     }
 
-    protected class CacheWriter<K, V>
+    /**
+     * Saves the entries of a cache after the generation and data file length of each live sstable, so
+     * that positions saved for an sstable are only trusted on load if it is still there, unchanged.
+     */
+    protected abstract class CacheWriter<K, V>
     {
-        public void saveCache(JMXInstrumentedCache<K, V> cache, File savedCachePath, Function<K, ByteBuffer> converter) throws IOException
+        /**
+         * @return false if nothing was written for key
+         */
+        protected abstract boolean writeEntry(K key, DataOutput out) throws IOException;
+
+        public void saveCache(JMXInstrumentedCache<K, V> cache, File savedCachePath) throws IOException
         {
             long start = System.currentTimeMillis();
             String msgSuffix = " " + savedCachePath.getName() + " for " + cfname + " of " + ksname;
@@ -76,14 +100,20 @@ public class SSTableTracker implements Iterable<SSTableReader>
             int count = 0;
             File tmpFile = File.createTempFile(savedCachePath.getName(), null, savedCachePath.getParentFile());
             FileOutputStream fout = new FileOutputStream(tmpFile);
-            ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(fout));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fout));
             FileDescriptor fd = fout.getFD();
+            out.writeInt(SAVED_CACHE_VERSION);
+            Set<SSTableReader> live = sstables;
+            out.writeInt(live.size());
+            for (SSTableReader sstable : live)
+            {
+                out.writeInt(sstable.descriptor.generation);
+                out.writeLong(sstable.length());
+            }
             for (K key : cache.getKeySet())
             {
-                ByteBuffer bytes = converter.apply(key);
-                out.writeInt(bytes.remaining());
-                out.write(bytes.array(),bytes.position()+bytes.arrayOffset(),bytes.remaining());
-                ++count;
+                if (writeEntry(key, out))
+                    ++count;
             }
             out.flush();
             fd.sync();
@@ -95,33 +125,67 @@ public class SSTableTracker implements Iterable<SSTableReader>
         }
     }
 
+    /**
+     * Saves the data file position of each key in the key cache.
+     */
     public void saveKeyCache() throws IOException
     {
-        Function<Pair<Descriptor, DecoratedKey>, ByteBuffer> function = new Function<Pair<Descriptor, DecoratedKey>, ByteBuffer>()
+        CacheWriter<Pair<Descriptor, DecoratedKey>, Long> writer = new CacheWriter<Pair<Descriptor, DecoratedKey>, Long>()
         {
-            public ByteBuffer apply(Pair<Descriptor, DecoratedKey> key)
+            protected boolean writeEntry(Pair<Descriptor, DecoratedKey> key, DataOutput out) throws IOException
             {
-                return key.right.key;
+                Long position = keyCache.getInternal(key);
+                if (position == null)
+                    return false;
+                out.writeInt(key.left.generation);
+                FBUtilities.writeShortByteArray(key.right.key, out);
+                out.writeLong(position);
+                return true;
             }
         };
-        CacheWriter<Pair<Descriptor, DecoratedKey>, Long> writer = new CacheWriter<Pair<Descriptor, DecoratedKey>, Long>();
-        writer.saveCache(keyCache, DatabaseDescriptor.getSerializedKeyCachePath(ksname, cfname), function);
+        writer.saveCache(keyCache, DatabaseDescriptor.getSerializedKeyCachePath(ksname, cfname));
     }
 
+    /**
+     * Saves the key of each row in the row cache, with the sstables holding it and its position in each,
+     * so warming the cache back up need not look the rows up again.
+     */
     public void saveRowCache() throws IOException
     {
-        Function<DecoratedKey, ByteBuffer> function = new Function<DecoratedKey, ByteBuffer>()
+        CacheWriter<DecoratedKey, ColumnFamily> writer = new CacheWriter<DecoratedKey, ColumnFamily>()
         {
-            public ByteBuffer apply(DecoratedKey key)
+            protected boolean writeEntry(DecoratedKey key, DataOutput out) throws IOException
             {
-                return key.key;
+                KeyLocations locations = keyLocatorCache.getInternal(key);
+                // read the generation before the sstables: replace() changes them in the other order
+                long current = generation;
+                if (locations == null)
+                    locations = KeyLocations.locate(sstables, key, current);
+                else if (locations.generation != current)
+                    locations = locations.refresh(sstables, key, current);
+                FBUtilities.writeShortByteArray(key.key, out);
+                out.writeInt(locations.size());
+                for (int i = 0; i < locations.size(); i++)
+                {
+                    out.writeInt(locations.getSSTable(i).descriptor.generation);
+                    out.writeLong(locations.getPosition(i));
+                }
+                return true;
             }
         };
-        CacheWriter<DecoratedKey, ColumnFamily> writer = new CacheWriter<DecoratedKey, ColumnFamily>();
-        writer.saveCache(rowCache, DatabaseDescriptor.getSerializedRowCachePath(ksname, cfname), function);
+        writer.saveCache(rowCache, DatabaseDescriptor.getSerializedRowCachePath(ksname, cfname));
     }
 
-    public synchronized void replace(Collection<SSTableReader> oldSSTables, Iterable<SSTableReader> replacements)
+    public void replace(Collection<SSTableReader> oldSSTables, Iterable<SSTableReader> replacements)
+    {
+        replaceSSTables(oldSSTables, replacements);
+        // cached locations are brought up to date when next looked up, but those of removed sstables
+        // would keep their files from being deleted until then
+        if (!oldSSTables.isEmpty())
+            dropKeyLocations(oldSSTables);
+    }
+
+    private synchronized void replaceSSTables(Collection<SSTableReader> oldSSTables, Iterable<SSTableReader> replacements)
     {
         Set<SSTableReader> sstablesNew = new HashSet<SSTableReader>(sstables);
 
@@ -133,6 +197,7 @@ public class SSTableTracker implements Iterable<SSTableReader>
             liveSize.addAndGet(size);
             totalSize.addAndGet(size);
             sstable.setTrackedBy(this);
+            sstable.addedGeneration = generation + 1;
         }
 
         long maxDataAge = -1;
@@ -146,22 +211,63 @@ public class SSTableTracker implements Iterable<SSTableReader>
         }
 
         sstables = Collections.unmodifiableSet(sstablesNew);
+        generation++;
         updateCacheSizes();
     }
 
-    public synchronized void add(Iterable<SSTableReader> sstables)
+    /**
+     * Drops the cached locations that hold any of the removed sstables.
+     */
+    private void dropKeyLocations(Collection<SSTableReader> removed)
+    {
+        Set<SSTableReader> removedSet = new HashSet<SSTableReader>(removed);
+        for (DecoratedKey key : keyLocatorCache.getKeySet())
+        {
+            KeyLocations locations = keyLocatorCache.getInternal(key);
+            if (locations != null && locations.refersTo(removedSet))
+                keyLocatorCache.remove(key);
+        }
+    }
+
+    /**
+     * @return the live sstables holding key, with the position of its row in each
+     */
+    public KeyLocations locate(DecoratedKey key)
+    {
+        // read the generation before the sstables: replace() changes them in the other order
+        long current = generation;
+        if (keyLocatorCache.getCapacity() == 0)
+            return KeyLocations.locate(sstables, key, current);
+
+        KeyLocations locations = keyLocatorCache.get(key);
+        if (locations != null && locations.generation == current)
+            return locations;
+
+        // sstables changed since they were cached: only those that joined the set since need looking at
+        Set<SSTableReader> live = sstables;
+        locations = locations == null
+                  ? KeyLocations.locate(live, key, current)
+                  : locations.refresh(live, key, current);
+        keyLocatorCache.put(key, locations);
+        // a replace() removing sstables that began before our put may not have seen it
+        if (generation != current && !locations.isWithin(sstables))
+            keyLocatorCache.remove(key);
+        return locations;
+    }
+
+    public void add(Iterable<SSTableReader> sstables)
     {
         assert sstables != null;
         replace(Collections.<SSTableReader>emptyList(), sstables);
     }
 
-    public synchronized void markCompacted(Collection<SSTableReader> compacted)
+    public void markCompacted(Collection<SSTableReader> compacted)
     {
         replace(compacted, Collections.<SSTableReader>emptyList());
     }
 
     /**
-     * Resizes the key and row caches based on the current key estimate.
+     * Resizes the key, row and key locator caches based on the current key estimate.
      */
     public synchronized void updateCacheSizes()
     {
@@ -181,7 +287,8 @@ public class SSTableTracker implements Iterable<SSTableReader>
 
         if (!rowCache.isCapacitySetManually())
         {
-            int rowCacheSize = DatabaseDescriptor.getRowsCachedFor(ksname, cfname, keys);
+            CFMetaData cfm = DatabaseDescriptor.getCFMetaData(ksname, cfname);
+            int rowCacheSize = cfm == null ? 0 : rowCacheProvider.capacityFor(cfm, keys);
             if (rowCacheSize != rowCache.getCapacity())
             {
                 if (logger.isDebugEnabled())
@@ -189,6 +296,18 @@ public class SSTableTracker implements Iterable<SSTableReader>
                 rowCache.updateCapacity(rowCacheSize);
             }
         }
+
+        // locations are kept for as many keys as the key cache holds positions of per sstable
+        if (!keyLocatorCache.isCapacitySetManually())
+        {
+            int keyLocatorCacheSize = DatabaseDescriptor.getKeysCachedFor(ksname, cfname, keys);
+            if (keyLocatorCacheSize != keyLocatorCache.getCapacity())
+            {
+                if (logger.isDebugEnabled())
+                    logger.debug("key locator cache capacity for " + cfname + " is " + keyLocatorCacheSize);
+                keyLocatorCache.updateCapacity(keyLocatorCacheSize);
+            }
+        }
     }
 
     // the modifiers create new, unmodifiable objects each time; the volatile fences the assignment
@@ -198,6 +317,36 @@ public class SSTableTracker implements Iterable<SSTableReader>
         return sstables;
     }
 
+    /**
+     * Marks sstables as being compacted, so that no other compaction picks them.
+     * @return false, marking none of them, if any is already marked or no longer live
+     */
+    public synchronized boolean markCompacting(Collection<SSTableReader> toCompact)
+    {
+        for (SSTableReader sstable : toCompact)
+        {
+            if (compacting.contains(sstable) || !sstables.contains(sstable))
+                return false;
+        }
+        compacting.addAll(toCompact);
+        return true;
+    }
+
+    public synchronized void unmarkCompacting(Collection<SSTableReader> compacted)
+    {
+        compacting.removeAll(compacted);
+    }
+
+    /**
+     * @return the live sstables no compaction is merging
+     */
+    public synchronized Set<SSTableReader> getUncompactingSSTables()
+    {
+        Set<SSTableReader> uncompacting = new HashSet<SSTableReader>(sstables);
+        uncompacting.removeAll(compacting);
+        return uncompacting;
+    }
+
     public int size()
     {
         return sstables.size();
@@ -211,6 +360,9 @@ public class SSTableTracker implements Iterable<SSTableReader>
     public synchronized void clearUnsafe()
     {
         sstables = Collections.emptySet();
+        compacting.clear();
+        generation++;
+        keyLocatorCache.clear();
     }
 
     public JMXInstrumentedCache<DecoratedKey, ColumnFamily> getRowCache()
@@ -218,6 +370,11 @@ public class SSTableTracker implements Iterable<SSTableReader>
         return rowCache;
     }
 
+    public JMXInstrumentedCache<DecoratedKey, KeyLocations> getKeyLocatorCache()
+    {
+        return keyLocatorCache;
+    }
+
     public long estimatedKeys()
     {
         long n = 0;
@@ -41,7 +41,7 @@ import org.apache.cassandra.io.util.BufferedRandomAccessFile;
 import org.apache.cassandra.io.util.FileUtils;
 import org.apache.cassandra.io.util.SegmentedFile;
 import org.apache.cassandra.service.StorageService;
-import org.apache.cassandra.utils.BloomFilter;
+import org.apache.cassandra.utils.BlockedBloomFilter;
 import org.apache.cassandra.utils.EstimatedHistogram;
 import org.apache.cassandra.utils.FBUtilities;
 import org.slf4j.Logger;
@@ -73,6 +73,8 @@ public class SSTableWriter extends SSTable
         components.add(Component.FILTER);
         components.add(Component.PRIMARY_INDEX);
         components.add(Component.STATS);
+        components.add(Component.INDEX_OFFSETS);
+        components.add(Component.SUMMARY);
     }
     
     /** something bad happened and the files associated with this writer need to be deleted. */
@@ -92,6 +94,7 @@ public class SSTableWriter extends SSTable
         {
             iwriter.close();
             FileUtils.deleteWithConfirm(descriptor.filenameFor(SSTable.COMPONENT_INDEX));
+            FileUtils.deleteWithConfirm(descriptor.filenameFor(Component.INDEX_OFFSETS));
         }
         catch (IOException ex)
         {
@@ -181,6 +184,9 @@ public class SSTableWriter extends SSTable
         // write sstable statistics
         writeStatistics(descriptor, estimatedRowSize, estimatedColumnCount);
 
+        // and the summary, so that reopening need not read the index
+        SSTableReader.saveSummary(descriptor, iwriter.summary, iwriter.builder, dbuilder, iwriter.obuilder);
+
         // remove the 'tmp' marker from all components
         final Descriptor newdesc = rename(descriptor, components);
 
@@ -188,7 +194,8 @@ public class SSTableWriter extends SSTable
         // finalize in-memory state for the reader
         SegmentedFile ifile = iwriter.builder.complete(newdesc.filenameFor(SSTable.COMPONENT_INDEX));
         SegmentedFile dfile = dbuilder.complete(newdesc.filenameFor(SSTable.COMPONENT_DATA));
-        SSTableReader sstable = SSTableReader.internalOpen(newdesc, components, metadata, partitioner, ifile, dfile, iwriter.summary, iwriter.bf, maxDataAge, estimatedRowSize, estimatedColumnCount);
+        SegmentedFile ofile = iwriter.obuilder.complete(newdesc.filenameFor(Component.INDEX_OFFSETS));
+        SSTableReader sstable = SSTableReader.internalOpen(newdesc, components, metadata, partitioner, ifile, ofile, dfile, iwriter.summary, iwriter.bf, maxDataAge, estimatedRowSize, estimatedColumnCount);
         iwriter = null;
         dbuilder = null;
         return sstable;
@@ -262,8 +269,15 @@ public class SSTableWriter extends SSTable
         {
             File ifile = new File(desc.filenameFor(SSTable.COMPONENT_INDEX));
             File ffile = new File(desc.filenameFor(SSTable.COMPONENT_FILTER));
+            File ofile = new File(desc.filenameFor(Component.INDEX_OFFSETS));
             assert !ifile.exists();
             assert !ffile.exists();
+            // the offsets and summary are positions in the index being rebuilt
+            if (ofile.exists())
+                FileUtils.deleteWithConfirm(ofile);
+            File sfile = new File(desc.filenameFor(Component.SUMMARY));
+            if (sfile.exists())
+                FileUtils.deleteWithConfirm(sfile);
 
             EstimatedHistogram rowSizes = SSTable.defaultRowHistogram();
             EstimatedHistogram columnCounts = SSTable.defaultColumnHistogram();
@@ -353,11 +367,13 @@ public class SSTableWriter extends SSTable
     static class IndexWriter
     {
         private final BufferedRandomAccessFile indexFile;
+        private final BufferedRandomAccessFile offsetsFile;
         public final Descriptor desc;
         public final IPartitioner partitioner;
         public final SegmentedFile.Builder builder;
+        public final SegmentedFile.Builder obuilder;
         public final IndexSummary summary;
-        public final BloomFilter bf;
+        public final BlockedBloomFilter bf;
         
         IndexWriter(Descriptor desc, IPartitioner part, long keyCount) throws IOException
         {
@@ -365,8 +381,10 @@ public class SSTableWriter extends SSTable
             this.partitioner = part;
             indexFile = new BufferedRandomAccessFile(desc.filenameFor(SSTable.COMPONENT_INDEX), "rw", 8 * 1024 * 1024);
             builder = SegmentedFile.getBuilder(DatabaseDescriptor.getIndexAccessMode());
+            offsetsFile = new BufferedRandomAccessFile(desc.filenameFor(Component.INDEX_OFFSETS), "rw", 1024 * 1024);
+            obuilder = SegmentedFile.getBuilder(DatabaseDescriptor.getIndexAccessMode());
             summary = new IndexSummary(keyCount);
-            bf = BloomFilter.getFilter(keyCount, 15);
+            bf = BlockedBloomFilter.getFilter(keyCount, 15);
         }
 
         public void afterAppend(DecoratedKey key, long dataPosition) throws IOException
@@ -380,6 +398,10 @@ public class SSTableWriter extends SSTable
 
             summary.maybeAddEntry(key, indexPosition);
             builder.addPotentialBoundary(indexPosition);
+
+            long offsetPosition = offsetsFile.getFilePointer();
+            offsetsFile.writeLong(indexPosition);
+            obuilder.addPotentialBoundary(offsetPosition);
         }
 
         /**
@@ -390,7 +412,7 @@ public class SSTableWriter extends SSTable
             // bloom filter
             FileOutputStream fos = new FileOutputStream(desc.filenameFor(SSTable.COMPONENT_FILTER));
             DataOutputStream stream = new DataOutputStream(fos);
-            BloomFilter.serializer().serialize(bf, stream);
+            BlockedBloomFilter.serializer().serialize(bf, stream);
             stream.flush();
             fos.getFD().sync();
             stream.close();
@@ -398,6 +420,8 @@ public class SSTableWriter extends SSTable
             // index
             indexFile.getChannel().force(true);
             indexFile.close();
+            offsetsFile.getChannel().force(true);
+            offsetsFile.close();
 
             // finalize in-memory index state
             summary.complete();
@@ -0,0 +1,155 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.cassandra.io.util;
+
+import java.lang.reflect.Field;
+
+import sun.misc.Unsafe;
+
+/**
+ * A block of native memory, outside the java heap, that must be freed explicitly.
+ */
+public class Memory
+{
+    private static final Unsafe unsafe;
+    private static final long BYTE_ARRAY_BASE_OFFSET;
+    // copyMemory between an array and native memory is only there from java 7; before, copy a byte at a time
+    private static final boolean ARRAY_COPY_MEMORY;
+
+    static
+    {
+        try
+        {
+            Field field = Unsafe.class.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            unsafe = (Unsafe) field.get(null);
+        }
+        catch (Exception e)
+        {
+            throw new AssertionError(e);
+        }
+        BYTE_ARRAY_BASE_OFFSET = unsafe.arrayBaseOffset(byte[].class);
+
+        boolean arrayCopyMemory;
+        try
+        {
+            Unsafe.class.getMethod("copyMemory", Object.class, long.class, Object.class, long.class, long.class);
+            arrayCopyMemory = true;
+        }
+        catch (NoSuchMethodException e)
+        {
+            arrayCopyMemory = false;
+        }
+        ARRAY_COPY_MEMORY = arrayCopyMemory;
+    }
+
+    protected long peer;
+    protected final long size;
+
+    protected Memory(long bytes)
+    {
+        size = bytes;
+        peer = unsafe.allocateMemory(size);
+    }
+
+    public static Memory allocate(long bytes)
+    {
+        if (bytes < 0)
+            throw new IllegalArgumentException();
+        return new Memory(bytes);
+    }
+
+    public void setByte(long offset, byte b)
+    {
+        checkPosition(offset);
+        unsafe.putByte(peer + offset, b);
+    }
+
+    /**
+     * Copies count bytes of buffer, starting at start, to offset.
+     */
+    public void setBytes(long offset, byte[] buffer, int start, int count)
+    {
+        if (buffer == null)
+            throw new NullPointerException();
+        else if (start < 0 || count < 0 || start + count > buffer.length)
+            throw new IndexOutOfBoundsException();
+        else if (count == 0)
+            return;
+        checkPosition(offset);
+        checkPosition(offset + count - 1);
+
+        if (ARRAY_COPY_MEMORY)
+        {
+            unsafe.copyMemory(buffer, BYTE_ARRAY_BASE_OFFSET + start, null, peer + offset, count);
+            return;
+        }
+        long end = peer + offset + count;
+        for (long address = peer + offset; address < end; address++)
+            unsafe.putByte(address, buffer[start++]);
+    }
+
+    public byte getByte(long offset)
+    {
+        checkPosition(offset);
+        return unsafe.getByte(peer + offset);
+    }
+
+    /**
+     * Copies count bytes from offset into buffer, starting at start.
+     */
+    public void getBytes(long offset, byte[] buffer, int start, int count)
+    {
+        if (buffer == null)
+            throw new NullPointerException();
+        else if (start < 0 || count < 0 || start + count > buffer.length)
+            throw new IndexOutOfBoundsException();
+        else if (count == 0)
+            return;
+        checkPosition(offset);
+        checkPosition(offset + count - 1);
+
+        if (ARRAY_COPY_MEMORY)
+        {
+            unsafe.copyMemory(null, peer + offset, buffer, BYTE_ARRAY_BASE_OFFSET + start, count);
+            return;
+        }
+        long end = peer + offset + count;
+        for (long address = peer + offset; address < end; address++)
+            buffer[start++] = unsafe.getByte(address);
+    }
+
+    private void checkPosition(long offset)
+    {
+        assert peer != 0 : "Memory was freed";
+        assert offset >= 0 && offset < size : "Illegal offset: " + offset + ", size: " + size;
+    }
+
+    public void free()
+    {
+        assert peer != 0;
+        unsafe.freeMemory(peer);
+        peer = 0;
+    }
+
+    public long size()
+    {
+        return size;
+    }
+}
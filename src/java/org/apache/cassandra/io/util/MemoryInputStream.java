@@ -0,0 +1,70 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.cassandra.io.util;
+
+import java.io.InputStream;
+
+/**
+ * Reads the bytes of a Memory block, which must not be freed while the stream is in use.
+ */
+public class MemoryInputStream extends InputStream
+{
+    private final Memory mem;
+    private long position = 0;
+
+    public MemoryInputStream(Memory mem)
+    {
+        this.mem = mem;
+    }
+
+    public int read()
+    {
+        if (position == mem.size())
+            return -1;
+        return mem.getByte(position++) & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int count)
+    {
+        long remaining = mem.size() - position;
+        if (count == 0)
+            return 0;
+        if (remaining == 0)
+            return -1;
+        count = (int) Math.min(count, remaining);
+        mem.getBytes(position, buffer, offset, count);
+        position += count;
+        return count;
+    }
+
+    @Override
+    public long skip(long n)
+    {
+        n = Math.max(0, Math.min(n, mem.size() - position));
+        position += n;
+        return n;
+    }
+
+    @Override
+    public int available()
+    {
+        return (int) Math.min(Integer.MAX_VALUE, mem.size() - position);
+    }
+}
@@ -139,6 +139,22 @@ public class MmappedSegmentedFile extends SegmentedFile
             }
         }
 
+        @Override
+        protected List<Long> getBoundaries()
+        {
+            return boundaries;
+        }
+
+        @Override
+        protected void setBoundaries(List<Long> boundaries)
+        {
+            this.boundaries.clear();
+            this.boundaries.addAll(boundaries);
+            // the last boundary starts the open segment
+            currentStart = this.boundaries.get(this.boundaries.size() - 1);
+            currentSize = 0;
+        }
+
         @Override
         public SegmentedFile complete(String path)
         {
@@ -87,6 +87,44 @@ public abstract class SegmentedFile
          * @param path The file on disk.
          */
         public abstract SegmentedFile complete(String path);
+
+        /**
+         * Writes the segment boundaries planned so far, for a Builder of the same kind to resume from.
+         */
+        public void serializeBounds(DataOutput dos) throws IOException
+        {
+            List<Long> boundaries = getBoundaries();
+            dos.writeUTF(getClass().getName());
+            dos.writeInt(boundaries.size());
+            for (long boundary : boundaries)
+                dos.writeLong(boundary);
+        }
+
+        /**
+         * Resumes from boundaries written by serializeBounds, as if the same potential boundaries had been added.
+         * @return false if they were planned by a Builder of another kind, in which case they are skipped
+         */
+        public boolean deserializeBounds(DataInput dis) throws IOException
+        {
+            String kind = dis.readUTF();
+            int count = dis.readInt();
+            List<Long> boundaries = new ArrayList<Long>(count);
+            for (int i = 0; i < count; i++)
+                boundaries.add(dis.readLong());
+            if (!kind.equals(getClass().getName()))
+                return false;
+            setBoundaries(boundaries);
+            return true;
+        }
+
+        protected List<Long> getBoundaries()
+        {
+            return Collections.emptyList();
+        }
+
+        protected void setBoundaries(List<Long> boundaries)
+        {
+        }
     }
 
     static final class Segment extends Pair<Long, MappedByteBuffer> implements Comparable<Segment>
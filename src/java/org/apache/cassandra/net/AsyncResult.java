@@ -28,7 +28,7 @@ import java.util.concurrent.locks.ReentrantLock;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-class AsyncResult implements IAsyncResult
+public class AsyncResult implements IAsyncResult
 {
     private static Logger logger = LoggerFactory.getLogger(AsyncResult.class);
     private byte[] result;
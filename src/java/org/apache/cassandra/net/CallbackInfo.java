@@ -0,0 +1,65 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.cassandra.net;
+
+import java.net.InetAddress;
+import java.util.Arrays;
+
+/**
+ * A registered callback or async result, with the endpoints that have been sent its request but
+ * have not replied yet: when it expires, those are the ones the request timed out on.
+ */
+class CallbackInfo<T>
+{
+    final T callback;
+    private InetAddress[] pending;
+    private int size;
+
+    CallbackInfo(T callback)
+    {
+        this.callback = callback;
+    }
+
+    synchronized void sentTo(InetAddress endpoint)
+    {
+        if (pending == null)
+            pending = new InetAddress[4];
+        else if (size == pending.length)
+            pending = Arrays.copyOf(pending, size * 2);
+        pending[size++] = endpoint;
+    }
+
+    synchronized void responded(InetAddress endpoint)
+    {
+        for (int i = 0; i < size; i++)
+        {
+            if (pending[i].equals(endpoint))
+            {
+                pending[i] = pending[--size];
+                pending[size] = null;
+                return;
+            }
+        }
+    }
+
+    synchronized InetAddress[] pending()
+    {
+        return size == 0 ? new InetAddress[0] : Arrays.copyOf(pending, size);
+    }
+}
@@ -25,13 +25,12 @@ import java.util.*;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.net.InetAddress;
 
-import org.apache.cassandra.concurrent.Stage;
 import org.apache.cassandra.io.ICompactSerializer;
 import org.apache.cassandra.service.StorageService;
 
 public class Header
 {
-    private static ICompactSerializer<Header> serializer_;
+    private static HeaderSerializer serializer_;
     private static AtomicInteger idGen_ = new AtomicInteger(0);
     
     static
@@ -39,20 +38,48 @@ public class Header
         serializer_ = new HeaderSerializer();        
     }
     
-    static ICompactSerializer<Header> serializer()
+    static HeaderSerializer serializer()
     {
         return serializer_;
     }
 
+    // ids we hand out are never negative: negative ids stand for the string ids of VERSION_1 nodes
+    static int nextId()
+    {
+        return idGen_.incrementAndGet() & Integer.MAX_VALUE;
+    }
+
+    /**
+     * @return the int id of a message with the given VERSION_1 id.  Besides the numeric ids of this
+     * class, VERSION_1 nodes make up GUIDs for the messages of a sendRR group; those map to a
+     * negative int, and keep their string to send back in the reply.
+     */
+    static int legacyId(String id)
+    {
+        try
+        {
+            int messageId = Integer.parseInt(id);
+            if (messageId >= 0)
+                return messageId;
+        }
+        catch (NumberFormatException e)
+        {
+            // fall through
+        }
+        return id.hashCode() | Integer.MIN_VALUE;
+    }
+
     private InetAddress from_;
     // TODO STAGE can be determined from verb
     private StorageService.Verb verb_;
-    private String messageId_;
-    protected Map<String, byte[]> details_ = new Hashtable<String, byte[]>();
+    private int messageId_;
+    // the id a VERSION_1 node sent this message, or its request, with if it is not a number of ours
+    private String legacyId_;
+    // most messages carry no details, so the map is only created for those that do
+    protected Map<String, byte[]> details_;
     
-    Header(String id, InetAddress from, StorageService.Verb verb)
+    Header(int id, InetAddress from, StorageService.Verb verb)
     {
-        assert id != null;
         assert from != null;
         assert verb != null;
 
@@ -61,15 +88,21 @@ public class Header
         verb_ = verb;
     }
     
-    Header(String id, InetAddress from, StorageService.Verb verb, Map<String, byte[]> details)
+    Header(int id, InetAddress from, StorageService.Verb verb, Map<String, byte[]> details)
     {
         this(id, from, verb);
         details_ = details;
     }
 
+    Header(int id, String legacyId, InetAddress from, StorageService.Verb verb)
+    {
+        this(id, from, verb);
+        legacyId_ = legacyId;
+    }
+
     Header(InetAddress from, StorageService.Verb verb)
     {
-        this(Integer.toString(idGen_.incrementAndGet()), from, verb);
+        this(nextId(), from, verb);
     }        
 
     InetAddress getFrom()
@@ -82,59 +115,155 @@ public class Header
         return verb_;
     }
 
-    String getMessageId()
+    int getMessageId()
     {
         return messageId_;
     }
 
-    void setMessageId(String id)
+    void setMessageId(int id)
     {
         messageId_ = id;
+        legacyId_ = null;
+    }
+
+    String getLegacyId()
+    {
+        return legacyId_;
     }
     
     byte[] getDetail(Object key)
     {
-        return details_.get(key);
+        return details_ == null ? null : details_.get(key);
     }
 
     void setDetail(String key, byte[] value)
     {
+        if (details_ == null)
+            details_ = new Hashtable<String, byte[]>();
         details_.put(key, value);
     }
+
+    int detailCount()
+    {
+        return details_ == null ? 0 : details_.size();
+    }
 }
 
+/**
+ * VERSION_1 writes the message id as a string and every detail by name.  VERSION_2 writes the id
+ * as an int, the verb as a byte, and the details HeaderTypes knows of as bits of a flags byte,
+ * followed by any other details by name.
+ */
 class HeaderSerializer implements ICompactSerializer<Header>
 {
+    private static final int HINT = 1;
+    private static final int READ_REPAIR = 2;
+    private static final int OTHER_DETAILS = 4;
+
+    private static final byte[] EMPTY = new byte[0];
+
     public void serialize(Header t, DataOutputStream dos) throws IOException
-    {           
-        dos.writeUTF(t.getMessageId());
+    {
+        serialize(t, dos, MessagingService.current_version);
+    }
+
+    public Header deserialize(DataInputStream dis) throws IOException
+    {
+        return deserialize(dis, MessagingService.current_version);
+    }
+
+    public void serialize(Header t, DataOutputStream dos, int version) throws IOException
+    {
+        if (version == MessagingService.VERSION_1)
+        {
+            dos.writeUTF(t.getLegacyId() == null ? Integer.toString(t.getMessageId()) : t.getLegacyId());
+            CompactEndpointSerializationHelper.serialize(t.getFrom(), dos);
+            dos.writeInt(t.getVerb().ordinal());
+            serializeDetails(t.details_, t.detailCount(), dos);
+            return;
+        }
+
+        dos.writeInt(t.getMessageId());
         CompactEndpointSerializationHelper.serialize(t.getFrom(), dos);
-        dos.writeInt(t.getVerb().ordinal());
-        
-        /* Serialize the message header */
-        int size = t.details_.size();
+        dos.writeByte(t.getVerb().ordinal());
+
+        byte[] hint = t.getDetail(HeaderTypes.HINT);
+        boolean readRepair = t.getDetail(HeaderTypes.READ_REPAIR) != null;
+        int others = t.detailCount() - (hint == null ? 0 : 1) - (readRepair ? 1 : 0);
+        dos.writeByte((hint == null ? 0 : HINT) | (readRepair ? READ_REPAIR : 0) | (others == 0 ? 0 : OTHER_DETAILS));
+        if (hint != null)
+        {
+            dos.writeInt(hint.length);
+            dos.write(hint);
+        }
+        if (others > 0)
+        {
+            Map<String, byte[]> details = new HashMap<String, byte[]>(t.details_);
+            details.remove(HeaderTypes.HINT);
+            details.remove(HeaderTypes.READ_REPAIR);
+            serializeDetails(details, others, dos);
+        }
+    }
+
+    private static void serializeDetails(Map<String, byte[]> details, int size, DataOutputStream dos) throws IOException
+    {
         dos.writeInt(size);
-        Set<String> keys = t.details_.keySet();
-        
-        for( String key : keys )
+        if (size == 0)
+            return;
+        for (Map.Entry<String, byte[]> entry : details.entrySet())
         {
-            dos.writeUTF(key);
-            byte[] value = t.details_.get(key);
+            dos.writeUTF(entry.getKey());
+            byte[] value = entry.getValue();
             dos.writeInt(value.length);
             dos.write(value);
         }
     }
 
-    public Header deserialize(DataInputStream dis) throws IOException
+    public Header deserialize(DataInputStream dis, int version) throws IOException
     {
-        String id = dis.readUTF();
+        if (version == MessagingService.VERSION_1)
+        {
+            String id = dis.readUTF();
+            InetAddress from = CompactEndpointSerializationHelper.deserialize(dis);
+            int verbOrdinal = dis.readInt();
+            Map<String, byte[]> details = deserializeDetails(dis, null);
+            int messageId = Header.legacyId(id);
+            Header header = new Header(messageId, messageId < 0 ? id : null, from, StorageService.VERBS[verbOrdinal]);
+            header.details_ = details;
+            return header;
+        }
+
+        int id = dis.readInt();
         InetAddress from = CompactEndpointSerializationHelper.deserialize(dis);
-        int verbOrdinal = dis.readInt();
-        
-        /* Deserializing the message header */
+        int verbOrdinal = dis.readByte();
+        int flags = dis.readByte();
+        Map<String, byte[]> details = null;
+        if ((flags & HINT) != 0)
+        {
+            byte[] hint = new byte[dis.readInt()];
+            dis.readFully(hint);
+            details = new Hashtable<String, byte[]>();
+            details.put(HeaderTypes.HINT, hint);
+        }
+        if ((flags & READ_REPAIR) != 0)
+        {
+            if (details == null)
+                details = new Hashtable<String, byte[]>();
+            details.put(HeaderTypes.READ_REPAIR, EMPTY);
+        }
+        if ((flags & OTHER_DETAILS) != 0)
+            details = deserializeDetails(dis, details);
+        return new Header(id, from, StorageService.VERBS[verbOrdinal], details);
+    }
+
+    private static Map<String, byte[]> deserializeDetails(DataInputStream dis, Map<String, byte[]> details) throws IOException
+    {
         int size = dis.readInt();
-        Map<String, byte[]> details = new Hashtable<String, byte[]>(size);
-        for ( int i = 0; i < size; ++i )
+        if (size == 0)
+            return details;
+        if (details == null)
+            details = new Hashtable<String, byte[]>(size);
+        for (int i = 0; i < size; ++i)
         {
             String key = dis.readUTF();
             int length = dis.readInt();
@@ -142,9 +271,6 @@ class HeaderSerializer implements ICompactSerializer<Header>
             dis.readFully(bytes);
             details.put(key, bytes);
         }
-        
-        return new Header(id, from, StorageService.VERBS[verbOrdinal], details);
+        return details;
     }
 }
-
-
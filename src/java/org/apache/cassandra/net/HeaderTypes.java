@@ -22,4 +22,8 @@ public class HeaderTypes
 {
     public final static String TASK_PROFILE_CHAIN = "TASK_PROFILE_CHAIN";
     public static String TASK_ID = "TASK_ID";
+
+    /* details the compact header of MessagingService.VERSION_2 sends as flags */
+    public static final String HINT = "HINT";
+    public static final String READ_REPAIR = "READ-REPAIR";
 }
@@ -0,0 +1,47 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.cassandra.net;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The sending end of a connection to another node: messages written to it,
+ * already framed by MessagingService.packIt, go out in the order they were written.
+ */
+public interface IOutboundConnection
+{
+    /**
+     * queues the framed message for sending; never blocks on the network.
+     */
+    public void write(ByteBuffer buffer);
+
+    /**
+     * drops the queued messages and closes the socket; the next write reconnects.
+     */
+    public void closeSocket();
+
+    public int getPendingMessages();
+
+    public long getCompletedMesssages();
+
+    /**
+     * @return the average number of messages sent per socket write
+     */
+    public double getMessagesPerWrite();
+}
@@ -64,7 +64,7 @@ public class IncomingTcpConnection extends Thread
                 int header = input.readInt();
                 int type = MessagingService.getBits(header, 1, 2);
                 boolean isStream = MessagingService.getBits(header, 3, 1) == 1;
-                int version = MessagingService.getBits(header, 15, 8);
+                boolean compressed = MessagingService.getBits(header, 2, 1) == 1;
 
                 if (isStream)
                 {
@@ -79,8 +79,10 @@ public class IncomingTcpConnection extends Thread
                     int size = input.readInt();
                     byte[] contentBytes = new byte[size];
                     input.readFully(contentBytes);
-                    
-                    Message message = Message.serializer().deserialize(new DataInputStream(new ByteArrayInputStream(contentBytes)));
+                    if (compressed)
+                        contentBytes = MessagingService.decompress(contentBytes, 0, size);
+
+                    Message message = MessagingService.deserialize(header, new DataInputStream(new ByteArrayInputStream(contentBytes)));
                     MessagingService.receive(message);
                 }
             }
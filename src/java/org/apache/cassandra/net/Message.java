@@ -89,12 +89,12 @@ public class Message
         return header_.getVerb();
     }
 
-    public String getMessageId()
+    public int getMessageId()
     {
         return header_.getMessageId();
     }
 
-    void setMessageId(String id)
+    void setMessageId(int id)
     {
         header_.setMessageId(id);
     }    
@@ -102,13 +102,13 @@ public class Message
     // TODO should take byte[] + length so we don't have to copy to a byte[] of exactly the right len
     public Message getReply(InetAddress from, byte[] args)
     {
-        Header header = new Header(getMessageId(), from, StorageService.Verb.REQUEST_RESPONSE);
+        Header header = new Header(getMessageId(), header_.getLegacyId(), from, StorageService.Verb.REQUEST_RESPONSE);
         return new Message(header, args);
     }
 
     public Message getInternalReply(byte[] body)
     {
-        Header header = new Header(getMessageId(), FBUtilities.getLocalAddress(), StorageService.Verb.INTERNAL_RESPONSE);
+        Header header = new Header(getMessageId(), header_.getLegacyId(), FBUtilities.getLocalAddress(), StorageService.Verb.INTERNAL_RESPONSE);
         return new Message(header, body);
     }
 
@@ -132,15 +132,25 @@ class MessageSerializer implements ICompactSerializer<Message>
 {
     public void serialize(Message t, DataOutputStream dos) throws IOException
     {
-        Header.serializer().serialize( t.header_, dos);
+        serialize(t, dos, MessagingService.current_version);
+    }
+
+    public Message deserialize(DataInputStream dis) throws IOException
+    {
+        return deserialize(dis, MessagingService.current_version);
+    }
+
+    public void serialize(Message t, DataOutputStream dos, int version) throws IOException
+    {
+        Header.serializer().serialize(t.header_, dos, version);
         byte[] bytes = t.getMessageBody();
         dos.writeInt(bytes.length);
         dos.write(bytes);
     }
 
-    public Message deserialize(DataInputStream dis) throws IOException
+    public Message deserialize(DataInputStream dis, int version) throws IOException
     {
-        Header header = Header.serializer().deserialize(dis);
+        Header header = Header.serializer().deserialize(dis, version);
         int size = dis.readInt();
         byte[] bytes = new byte[size];
         dis.readFully(bytes);
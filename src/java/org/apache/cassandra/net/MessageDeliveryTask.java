@@ -47,7 +47,7 @@ public class MessageDeliveryTask implements Runnable
             case RANGE_SLICE:
             case READ_REPAIR:
             case REQUEST_RESPONSE:
-                if (System.currentTimeMillis() > constructionTime_ + DatabaseDescriptor.getRpcTimeout())
+                if (System.currentTimeMillis() > constructionTime_ + DatabaseDescriptor.getTimeout(verb))
                 {
                     MessagingService.incrementDroppedMessages(verb);
                     return;
@@ -18,6 +18,7 @@
 
 package org.apache.cassandra.net;
 
+import java.io.DataInputStream;
 import java.io.IOError;
 import java.io.IOException;
 import java.lang.management.ManagementFactory;
@@ -35,6 +36,7 @@ import java.util.Map;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import javax.management.MBeanServer;
 import javax.management.ObjectName;
 
@@ -43,6 +45,7 @@ import org.slf4j.LoggerFactory;
 
 import org.apache.cassandra.concurrent.DebuggableThreadPoolExecutor;
 import org.apache.cassandra.concurrent.StageManager;
+import org.apache.cassandra.config.Config;
 import org.apache.cassandra.config.DatabaseDescriptor;
 import org.apache.cassandra.io.util.DataOutputBuffer;
 import org.apache.cassandra.net.io.SerializerType;
@@ -51,14 +54,19 @@ import org.apache.cassandra.service.GCInspector;
 import org.apache.cassandra.service.StorageService;
 import org.apache.cassandra.streaming.FileStreamTask;
 import org.apache.cassandra.streaming.StreamHeader;
-import org.apache.cassandra.utils.ExpiringMap;
-import org.apache.cassandra.utils.GuidGenerator;
+import org.apache.cassandra.utils.ExpiringIntMap;
+import org.apache.cassandra.utils.LZFCodec;
 import org.apache.cassandra.utils.SimpleCondition;
 import org.cliffc.high_scale_lib.NonBlockingHashMap;
 
 public class MessagingService implements MessagingServiceMBean
 {
-    private static int version_ = 1;
+    /* VERSION_2 replaced the string message id and verb ordinal of the message header with an int and a byte,
+       and is the first to understand compressed messages */
+    public static final int VERSION_1 = 1;
+    public static final int VERSION_2 = 2;
+    public static final int current_version = VERSION_2;
+
     //TODO: make this parameter dynamic somehow.  Not sure if config is appropriate.
     private static SerializerType serializerType_ = SerializerType.BINARY;
 
@@ -66,8 +74,10 @@ public class MessagingService implements MessagingServiceMBean
     public static final int PROTOCOL_MAGIC = 0xCA552DFA;
 
     /* This records all the results mapped by message Id */
-    private static ExpiringMap<String, IAsyncCallback> callbackMap_;
-    private static ExpiringMap<String, IAsyncResult> taskCompletionMap_;
+    private static ExpiringIntMap<CallbackInfo<IAsyncCallback>> callbackMap_;
+    private static ExpiringIntMap<CallbackInfo<IAsyncResult>> taskCompletionMap_;
+    /* how often expired callbacks are evicted, which bounds how late they may be */
+    private static final long CALLBACK_EXPIRATION_TICK_IN_MS = 10;
     
     /* Lookup table for registering message handlers based on the verb. */
     private static Map<StorageService.Verb, IVerbHandler> verbHandlers_;
@@ -76,12 +86,24 @@ public class MessagingService implements MessagingServiceMBean
     private static ExecutorService streamExecutor_;
     
     private static NonBlockingHashMap<InetAddress, OutboundTcpConnectionPool> connectionManagers_ = new NonBlockingHashMap<InetAddress, OutboundTcpConnectionPool>();
+    /* the highest messaging version each endpoint has told us it speaks */
+    private static final NonBlockingHashMap<InetAddress, Integer> versions = new NonBlockingHashMap<InetAddress, Integer>();
     
     private static Logger logger_ = LoggerFactory.getLogger(MessagingService.class);
     private static int LOG_DROPPED_INTERVAL_IN_MS = 5000;
 
     public static final MessagingService instance = new MessagingService();
 
+    /* sizes of the messages sent compressed, before and after, and the time spent (de)compressing */
+    private static final AtomicLong uncompressedBytes = new AtomicLong();
+    private static final AtomicLong compressedBytes = new AtomicLong();
+    private static final AtomicLong compressionNanos = new AtomicLong();
+    private static final AtomicLong decompressionNanos = new AtomicLong();
+
+    /* requests that expired before each endpoint replied */
+    private static final NonBlockingHashMap<InetAddress, AtomicLong> timeoutsPerHost = new NonBlockingHashMap<InetAddress, AtomicLong>();
+    private static final AtomicLong totalTimeouts = new AtomicLong();
+
     private SocketThread socketThread;
     private SimpleCondition listenGate;
     private static final Map<StorageService.Verb, AtomicInteger> droppedMessages = new EnumMap<StorageService.Verb, AtomicInteger>(StorageService.Verb.class);
@@ -107,8 +129,16 @@ public class MessagingService implements MessagingServiceMBean
          * which is the sum of the threads in the pool that adds shit into the table and the 
          * pool that retrives the callback from here.
         */
-        callbackMap_ = new ExpiringMap<String, IAsyncCallback>((long) (1.1 * DatabaseDescriptor.getRpcTimeout()));
-        taskCompletionMap_ = new ExpiringMap<String, IAsyncResult>((long) (1.1 * DatabaseDescriptor.getRpcTimeout()));
+        ExpiringIntMap.ExpirationListener<CallbackInfo<?>> timeouts = new ExpiringIntMap.ExpirationListener<CallbackInfo<?>>()
+        {
+            public void expired(int key, CallbackInfo<?> info)
+            {
+                for (InetAddress endpoint : info.pending())
+                    incrementTimeouts(endpoint);
+            }
+        };
+        callbackMap_ = new ExpiringIntMap<CallbackInfo<IAsyncCallback>>(CALLBACK_EXPIRATION_TICK_IN_MS, timeouts);
+        taskCompletionMap_ = new ExpiringIntMap<CallbackInfo<IAsyncResult>>(CALLBACK_EXPIRATION_TICK_IN_MS, timeouts);
 
         streamExecutor_ = new DebuggableThreadPoolExecutor("Streaming", DatabaseDescriptor.getCompactionThreadPriority());
         Runnable logDropped = new Runnable()
@@ -163,8 +193,15 @@ public class MessagingService implements MessagingServiceMBean
         final ServerSocket ss = serverChannel.socket();
         ss.setReuseAddress(true);
         ss.bind(new InetSocketAddress(localEp, DatabaseDescriptor.getStoragePort()));
-        socketThread = new SocketThread(ss, "ACCEPT-" + localEp);
-        socketThread.start();
+        if (DatabaseDescriptor.getInternodeTransport() == Config.InternodeTransport.nio)
+        {
+            NioTransport.instance.listen(serverChannel);
+        }
+        else
+        {
+            socketThread = new SocketThread(ss, "ACCEPT-" + localEp);
+            socketThread.start();
+        }
         listenGate.signalAll();
     }
 
@@ -191,7 +228,7 @@ public class MessagingService implements MessagingServiceMBean
         return cp;
     }
 
-    public static OutboundTcpConnection getConnection(InetAddress to, Message msg)
+    public static IOutboundConnection getConnection(InetAddress to, Message msg)
     {
         return getConnectionPool(to).getConnection(msg);
     }
@@ -226,10 +263,10 @@ public class MessagingService implements MessagingServiceMBean
      * @return an reference to an IAsyncResult which can be queried for the
      * response
      */
-    public String sendRR(Message message, InetAddress[] to, IAsyncCallback cb)
+    public int sendRR(Message message, InetAddress[] to, IAsyncCallback cb)
     {
-        String messageId = message.getMessageId();
-        addCallback(cb, messageId);
+        int messageId = message.getMessageId();
+        addCallback(cb, message);
         for (InetAddress endpoint : to)
         {
             sendOneWay(message, endpoint);
@@ -237,9 +274,26 @@ public class MessagingService implements MessagingServiceMBean
         return messageId;
     }
 
-    public void addCallback(IAsyncCallback cb, String messageId)
+    /**
+     * registers a callback for the replies to the given message, for as long as its verb's timeout
+     */
+    public void addCallback(IAsyncCallback cb, Message message)
+    {
+        addCallback(cb, message.getMessageId(), message.getVerb());
+    }
+
+    private static void addCallback(IAsyncCallback cb, int messageId, StorageService.Verb verb)
     {
-        callbackMap_.put(messageId, cb);
+        callbackMap_.put(messageId, new CallbackInfo<IAsyncCallback>(cb), getCallbackExpiration(verb));
+    }
+
+    /*
+     * Leave callbacks in the table a little longer than their timeout, so that any reply arriving
+     * while the sender still waits finds its callback.
+     */
+    private static long getCallbackExpiration(StorageService.Verb verb)
+    {
+        return (long) (1.1 * DatabaseDescriptor.getTimeout(verb));
     }
 
     /**
@@ -252,10 +306,10 @@ public class MessagingService implements MessagingServiceMBean
      *           suggest that a timeout occurred to the invoker of the send().
      * @return an reference to message id used to match with the result
      */
-    public String sendRR(Message message, InetAddress to, IAsyncCallback cb)
+    public int sendRR(Message message, InetAddress to, IAsyncCallback cb)
     {        
-        String messageId = message.getMessageId();
-        addCallback(cb, messageId);
+        int messageId = message.getMessageId();
+        addCallback(cb, message);
         sendOneWay(message, to);
         return messageId;
     }
@@ -273,14 +327,14 @@ public class MessagingService implements MessagingServiceMBean
      *           suggest that a timeout occured to the invoker of the send().
      * @return an reference to message id used to match with the result
      */
-    public String sendRR(Message[] messages, InetAddress[] to, IAsyncCallback cb)
+    public int sendRR(Message[] messages, InetAddress[] to, IAsyncCallback cb)
     {
         if ( messages.length != to.length )
         {
             throw new IllegalArgumentException("Number of messages and the number of endpoints need to be same.");
         }
-        String groupId = GuidGenerator.guid();
-        addCallback(cb, groupId);
+        int groupId = Header.nextId();
+        addCallback(cb, groupId, messages[0].getVerb());
         for ( int i = 0; i < messages.length; ++i )
         {
             messages[i].setMessageId(groupId);
@@ -304,6 +358,8 @@ public class MessagingService implements MessagingServiceMBean
             return;
         }
 
+        expectResponse(message, to);
+
         // message sinks are a testing hook
         Message processedMessage = SinkManager.processClientMessageSink(message, to);
         if (processedMessage == null)
@@ -312,31 +368,49 @@ public class MessagingService implements MessagingServiceMBean
         }
 
         // get pooled connection (really, connection queue)
-        OutboundTcpConnection connection = getConnection(to, message);
+        OutboundTcpConnectionPool pool = getConnectionPool(to);
+        IOutboundConnection connection = pool.getConnection(message);
 
-        // pack message with header in a bytebuffer
-        byte[] data;
+        // pack message with header in a bytebuffer, in the newest format the recipient understands
+        int version = getVersion(to);
+        DataOutputBuffer data = new DataOutputBuffer();
         try
         {
-            DataOutputBuffer buffer = new DataOutputBuffer();
-            Message.serializer().serialize(message, buffer);
-            data = buffer.getData();
+            Message.serializer().serialize(message, data, version);
         }
         catch (IOException e)
         {
             throw new RuntimeException(e);
         }
-        assert data.length > 0;
-        ByteBuffer buffer = packIt(data , false);
+        assert data.getLength() > 0;
+        ByteBuffer buffer = packIt(data.getData(), data.getLength(), pool.isCompressed(), version);
 
         // write it
         connection.write(buffer);
     }
     
+    /**
+     * notes that a request with a callback or async result registered is on its way to the given
+     * endpoint, so that the endpoint is blamed if the callback expires before it replies.  Only
+     * replies carry ids that are not ours, and we never register callbacks for those.
+     */
+    private static void expectResponse(Message message, InetAddress to)
+    {
+        StorageService.Verb verb = message.getVerb();
+        if (verb == StorageService.Verb.REQUEST_RESPONSE || verb == StorageService.Verb.INTERNAL_RESPONSE)
+            return;
+
+        CallbackInfo<?> info = callbackMap_.get(message.getMessageId());
+        if (info == null)
+            info = taskCompletionMap_.get(message.getMessageId());
+        if (info != null)
+            info.sentTo(to);
+    }
+
     public IAsyncResult sendRR(Message message, InetAddress to)
     {
         IAsyncResult iar = new AsyncResult();
-        taskCompletionMap_.put(message.getMessageId(), iar);
+        taskCompletionMap_.put(message.getMessageId(), new CallbackInfo<IAsyncResult>(iar), getCallbackExpiration(message.getVerb()));
         sendOneWay(message, to);
         return iar;
     }
@@ -367,7 +441,10 @@ public class MessagingService implements MessagingServiceMBean
 
         try
         {
-            instance.socketThread.close();
+            if (DatabaseDescriptor.getInternodeTransport() == Config.InternodeTransport.nio)
+                NioTransport.instance.stopListening();
+            else
+                instance.socketThread.close();
         }
         catch (IOException e)
         {
@@ -386,6 +463,8 @@ public class MessagingService implements MessagingServiceMBean
     public static void receive(Message message)
     {
         message = SinkManager.processServerMessageSink(message, null);
+        if (message == null)
+            return;
 
         Runnable runnable = new MessageDeliveryTask(message);
         ExecutorService stage = StageManager.getStage(message.getMessageType());
@@ -393,27 +472,34 @@ public class MessagingService implements MessagingServiceMBean
         stage.execute(runnable);
     }
 
-    public static IAsyncCallback getRegisteredCallback(String key)
+    public static IAsyncCallback getRegisteredCallback(int key)
+    {
+        CallbackInfo<IAsyncCallback> info = callbackMap_.get(key);
+        return info == null ? null : info.callback;
+    }
+
+    static CallbackInfo<IAsyncCallback> getRegisteredCallbackInfo(int key)
     {
         return callbackMap_.get(key);
     }
     
-    public static void removeRegisteredCallback(String key)
+    public static void removeRegisteredCallback(int key)
     {
         callbackMap_.remove(key);
     }
     
-    public static IAsyncResult getAsyncResult(String key)
+    public static IAsyncResult getAsyncResult(int key)
     {
-        return taskCompletionMap_.remove(key);
+        CallbackInfo<IAsyncResult> info = taskCompletionMap_.remove(key);
+        return info == null ? null : info.callback;
     }
 
-    public static long getRegisteredCallbackAge(String key)
+    public static long getRegisteredCallbackAge(int key)
     {
         return callbackMap_.getAge(key);
     }
 
-    public static long getAsyncResultAge(String key)
+    public static long getAsyncResultAge(int key)
     {
         return taskCompletionMap_.getAge(key);
     }
@@ -428,8 +514,46 @@ public class MessagingService implements MessagingServiceMBean
     {
         return x >>> (p + 1) - n & ~(-1 << n);
     }
-        
-    public static ByteBuffer packIt(byte[] bytes, boolean compress)
+
+    /**
+     * @return the messaging version to serialize messages to the given endpoint with: the highest
+     * both sides speak, or VERSION_1 until the endpoint has sent us a message of its own.
+     */
+    public static int getVersion(InetAddress endpoint)
+    {
+        Integer version = versions.get(endpoint);
+        return version == null ? VERSION_1 : Math.min(version, current_version);
+    }
+
+    public static void setVersion(InetAddress endpoint, int version)
+    {
+        Integer old = versions.put(endpoint, version);
+        if (logger_.isDebugEnabled() && (old == null || old != version))
+            logger_.debug("{} speaks messaging version {}", endpoint, version);
+    }
+
+    /**
+     * deserializes the body of a message frame in the version its protocol header names, and notes
+     * the highest version the sender advertises alongside it.
+     */
+    static Message deserialize(int header, DataInputStream input) throws IOException
+    {
+        int version = getBits(header, 15, 8);
+        int maxVersion = getBits(header, 23, 8);
+        if (version < VERSION_1 || version > current_version)
+            throw new IOException("unknown messaging version " + version);
+        Message message = Message.serializer().deserialize(input, version);
+        // VERSION_1 nodes leave the advertised version empty
+        setVersion(message.getFrom(), Math.max(version, maxVersion));
+        return message;
+    }
+
+    /**
+     * frames the first length bytes of a serialized message.  A compressed body is the
+     * uncompressed length followed by the LZF-compressed bytes; messages that do not
+     * shrink are sent as they are, without the compression bit.
+     */
+    public static ByteBuffer packIt(byte[] bytes, int length, boolean compress, int version)
     {
         /*
              Setting up the protocol header. This is 4 bytes long
@@ -438,26 +562,65 @@ public class MessagingService implements MessagingServiceMBean
              is turned on or off. It is turned off by default. The 4th
              bit indicates if we are in streaming mode. It is turned off
              by default. The 5th-8th bits are reserved for future use.
-             The next 8 bits indicate a version number. Remaining 15 bits 
-             are not used currently.            
+             The next 8 bits indicate the version the message is serialized
+             with, and the 8 after those the highest version we speak.
+             Remaining 8 bits are not used currently.
         */
         int header = 0;
         // Setting up the serializer bit
         header |= serializerType_.ordinal();
-        // set compression bit.
+        // Setting up the version bits
+        header |= (version << 8);
+        header |= (current_version << 16);
+
         if (compress)
-            header |= 4;
-        // Setting up the version bit
-        header |= (version_ << 8);
+        {
+            long start = System.nanoTime();
+            ByteBuffer buffer = ByteBuffer.allocate(4 + 4 + 4 + 4 + LZFCodec.maxCompressedLength(length));
+            int compressedLength = 4 + LZFCodec.compress(bytes, 0, length, buffer.array(), buffer.arrayOffset() + 16);
+            compressionNanos.addAndGet(System.nanoTime() - start);
+            uncompressedBytes.addAndGet(length);
+            if (compressedLength < length)
+            {
+                compressedBytes.addAndGet(compressedLength);
+                // set compression bit.
+                header |= 4;
+                buffer.putInt(PROTOCOL_MAGIC);
+                buffer.putInt(header);
+                buffer.putInt(compressedLength);
+                buffer.putInt(length);
+                buffer.position(4 + 4 + 4 + compressedLength);
+                buffer.flip();
+                return buffer;
+            }
+            compressedBytes.addAndGet(length);
+        }
 
-        ByteBuffer buffer = ByteBuffer.allocate(4 + 4 + 4 + bytes.length);
+        ByteBuffer buffer = ByteBuffer.allocate(4 + 4 + 4 + length);
         buffer.putInt(PROTOCOL_MAGIC);
         buffer.putInt(header);
-        buffer.putInt(bytes.length);
-        buffer.put(bytes);
+        buffer.putInt(length);
+        buffer.put(bytes, 0, length);
         buffer.flip();
         return buffer;
     }
+
+    /**
+     * @return the serialized message in a frame body sent with the compression bit set
+     */
+    public static byte[] decompress(byte[] bytes, int offset, int length) throws IOException
+    {
+        long start = System.nanoTime();
+        if (length < 4)
+            throw new IOException("compressed message of " + length + " bytes");
+        int uncompressedLength = (bytes[offset] & 0xff) << 24 | (bytes[offset + 1] & 0xff) << 16 | (bytes[offset + 2] & 0xff) << 8 | (bytes[offset + 3] & 0xff);
+        if (uncompressedLength < 0)
+            throw new IOException("invalid uncompressed message size " + uncompressedLength);
+        byte[] uncompressed = new byte[uncompressedLength];
+        LZFCodec.decompress(bytes, offset + 4, length - 4, uncompressed, 0, uncompressedLength);
+        decompressionNanos.addAndGet(System.nanoTime() - start);
+        return uncompressed;
+    }
         
     public static ByteBuffer constructStreamHeader(StreamHeader streamHeader, boolean compress)
     {
@@ -479,8 +642,8 @@ public class MessagingService implements MessagingServiceMBean
             header |= 4;
         // set streaming bit
         header |= 8;
-        // Setting up the version bit
-        header |= (version_ << 8);
+        // Setting up the version bit; the stream header is the same in every version
+        header |= (VERSION_1 << 8);
         /* Finished the protocol header setup */
 
         /* Adding the StreamHeader which contains the session Id along
@@ -603,4 +766,63 @@ public class MessagingService implements MessagingServiceMBean
             completedTasks.put(entry.getKey().getHostAddress(), entry.getValue().ackCon.getCompletedMesssages());
         return completedTasks;
     }
+
+    public Map<String, Double> getCommandMessagesPerWrite()
+    {
+        Map<String, Double> messagesPerWrite = new HashMap<String, Double>();
+        for (Map.Entry<InetAddress, OutboundTcpConnectionPool> entry : connectionManagers_.entrySet())
+            messagesPerWrite.put(entry.getKey().getHostAddress(), entry.getValue().cmdCon.getMessagesPerWrite());
+        return messagesPerWrite;
+    }
+
+    public Map<String, Double> getResponseMessagesPerWrite()
+    {
+        Map<String, Double> messagesPerWrite = new HashMap<String, Double>();
+        for (Map.Entry<InetAddress, OutboundTcpConnectionPool> entry : connectionManagers_.entrySet())
+            messagesPerWrite.put(entry.getKey().getHostAddress(), entry.getValue().ackCon.getMessagesPerWrite());
+        return messagesPerWrite;
+    }
+
+    public double getCompressionRatio()
+    {
+        long uncompressed = uncompressedBytes.get();
+        return uncompressed == 0 ? 1 : (double) compressedBytes.get() / uncompressed;
+    }
+
+    public long getCompressionTimeInMicros()
+    {
+        return TimeUnit.NANOSECONDS.toMicros(compressionNanos.get());
+    }
+
+    public long getDecompressionTimeInMicros()
+    {
+        return TimeUnit.NANOSECONDS.toMicros(decompressionNanos.get());
+    }
+
+    private static void incrementTimeouts(InetAddress endpoint)
+    {
+        totalTimeouts.incrementAndGet();
+        AtomicLong timeouts = timeoutsPerHost.get(endpoint);
+        if (timeouts == null)
+        {
+            AtomicLong newTimeouts = new AtomicLong();
+            timeouts = timeoutsPerHost.putIfAbsent(endpoint, newTimeouts);
+            if (timeouts == null)
+                timeouts = newTimeouts;
+        }
+        timeouts.incrementAndGet();
+    }
+
+    public Map<String, Long> getTimeoutsPerHost()
+    {
+        Map<String, Long> timeouts = new HashMap<String, Long>();
+        for (Map.Entry<InetAddress, AtomicLong> entry : timeoutsPerHost.entrySet())
+            timeouts.put(entry.getKey().getHostAddress(), entry.getValue().get());
+        return timeouts;
+    }
+
+    public long getTotalTimeouts()
+    {
+        return totalTimeouts.get();
+    }
 }
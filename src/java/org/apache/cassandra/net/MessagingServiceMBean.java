@@ -26,7 +26,8 @@ import java.util.Map;
 
 /**
  * MBean exposing MessagingService metrics.
- * - OutboundConnectionPools - Command/Response - Pending/Completed Tasks
+ * - OutboundConnectionPools - Command/Response - Pending/Completed Tasks, Messages per Write
+ * - Timeouts per host
  */
 public interface MessagingServiceMBean
 {
@@ -49,4 +50,39 @@ public interface MessagingServiceMBean
      * Completed tasks for Response(GOSSIP & RESPONSE) TCP Connections
      */
     public Map<String, Long> getResponseCompletedTasks();
+
+    /**
+     * Average messages sent per socket write on Command TCP Connections
+     */
+    public Map<String, Double> getCommandMessagesPerWrite();
+
+    /**
+     * Average messages sent per socket write on Response TCP Connections
+     */
+    public Map<String, Double> getResponseMessagesPerWrite();
+
+    /**
+     * Size of the messages sent compressed relative to their uncompressed size
+     */
+    public double getCompressionRatio();
+
+    /**
+     * Total time spent compressing outgoing messages, in microseconds
+     */
+    public long getCompressionTimeInMicros();
+
+    /**
+     * Total time spent decompressing incoming messages, in microseconds
+     */
+    public long getDecompressionTimeInMicros();
+
+    /**
+     * Number of requests each host did not answer before their callback expired
+     */
+    public Map<String, Long> getTimeoutsPerHost();
+
+    /**
+     * Number of requests not answered before their callback expired, over all hosts
+     */
+    public long getTotalTimeouts();
 }
@@ -0,0 +1,224 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.cassandra.net;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.cassandra.streaming.IncomingStreamReader;
+import org.apache.cassandra.streaming.StreamHeader;
+
+/**
+ * Reads the frames IncomingTcpConnection reads -- magic, header and size ints, then the body --
+ * on a selector loop.  Bodies are deserialized straight out of the loop's pooled read buffers;
+ * only frames larger than a pooled buffer get one of their own.
+ *
+ * A stream connection carries a single stream header followed by the raw file, which
+ * IncomingStreamReader must read from the socket itself.  So until the first frame turns
+ * out to be a message, we read no further than the frame at hand, and a stream header
+ * hands the socket over to a thread of its own.
+ */
+class NioIncomingTcpConnection implements SelectorLoop.Handler
+{
+    private static final Logger logger = LoggerFactory.getLogger(NioIncomingTcpConnection.class);
+
+    // magic, header and body size
+    private static final int PREAMBLE_SIZE = 12;
+
+    private final SelectorLoop loop;
+    private final SocketChannel channel;
+    private SelectionKey key;
+    // holds the start of a partial frame at position 0, or null between frames
+    private ByteBuffer buffer;
+    private boolean readAhead;
+
+    NioIncomingTcpConnection(SelectorLoop loop, SocketChannel channel)
+    {
+        this.loop = loop;
+        this.channel = channel;
+    }
+
+    void register()
+    {
+        try
+        {
+            key = loop.register(channel, SelectionKey.OP_READ, this);
+        }
+        catch (ClosedChannelException e)
+        {
+            close();
+        }
+    }
+
+    public void ready(SelectionKey key)
+    {
+        try
+        {
+            read();
+        }
+        catch (EOFException e)
+        {
+            if (logger.isTraceEnabled())
+                logger.trace("eof reading from socket; closing", e);
+            releaseBuffer();
+            close();
+        }
+        catch (IOException e)
+        {
+            if (logger.isDebugEnabled())
+                logger.debug("error reading from socket; closing", e);
+            releaseBuffer();
+            close();
+        }
+    }
+
+    private void read() throws IOException
+    {
+        if (buffer == null)
+            buffer = loop.takeBuffer();
+
+        int frameSize = buffer.position() < PREAMBLE_SIZE ? -1 : PREAMBLE_SIZE + buffer.getInt(8);
+        if (frameSize > buffer.capacity())
+        {
+            ByteBuffer frame = ByteBuffer.allocate(frameSize);
+            buffer.flip();
+            frame.put(buffer);
+            loop.returnBuffer(buffer);
+            buffer = frame;
+        }
+        if (!readAhead)
+            buffer.limit(frameSize < 0 ? PREAMBLE_SIZE : frameSize);
+        int read = channel.read(buffer);
+        buffer.limit(buffer.capacity());
+        if (read < 0)
+            throw new EOFException();
+
+        buffer.flip();
+        while (buffer.remaining() >= PREAMBLE_SIZE)
+        {
+            int start = buffer.position();
+            MessagingService.validateMagic(buffer.getInt(start));
+            int header = buffer.getInt(start + 4);
+            int size = buffer.getInt(start + 8);
+            if (size < 0)
+                throw new IOException("invalid frame size " + size);
+            if (buffer.remaining() < PREAMBLE_SIZE + size)
+                break;
+
+            boolean isStream = MessagingService.getBits(header, 3, 1) == 1;
+            boolean compressed = MessagingService.getBits(header, 2, 1) == 1;
+            DataInputStream input = compressed && !isStream
+                                  ? new DataInputStream(new ByteArrayInputStream(MessagingService.decompress(buffer.array(), buffer.arrayOffset() + start + PREAMBLE_SIZE, size)))
+                                  : new DataInputStream(new ByteArrayInputStream(buffer.array(), buffer.arrayOffset() + start + PREAMBLE_SIZE, size));
+            buffer.position(start + PREAMBLE_SIZE + size);
+            if (isStream)
+            {
+                if (readAhead)
+                    throw new IOException("stream header on a message connection");
+                startStream(StreamHeader.serializer().deserialize(input));
+                return;
+            }
+            MessagingService.receive(MessagingService.deserialize(header, input));
+            readAhead = true;
+        }
+
+        buffer.compact();
+        if (buffer.position() == 0)
+        {
+            loop.returnBuffer(buffer);
+            buffer = null;
+        }
+    }
+
+    private void startStream(final StreamHeader streamHeader)
+    {
+        releaseBuffer();
+        // the channel can only go back to blocking mode once the selector has dropped it
+        key.cancel();
+        loop.execute(new Runnable()
+        {
+            public void run()
+            {
+                try
+                {
+                    channel.configureBlocking(true);
+                }
+                catch (IOException e)
+                {
+                    if (logger.isDebugEnabled())
+                        logger.debug("error switching socket to blocking mode; closing", e);
+                    close();
+                    return;
+                }
+                new Thread("STREAM-IN-" + channel.socket().getInetAddress())
+                {
+                    public void run()
+                    {
+                        try
+                        {
+                            new IncomingStreamReader(streamHeader, channel).read();
+                        }
+                        catch (IOException e)
+                        {
+                            if (logger.isDebugEnabled())
+                                logger.debug("error reading stream; closing", e);
+                        }
+                        finally
+                        {
+                            close();
+                        }
+                    }
+                }.start();
+            }
+        });
+    }
+
+    private void releaseBuffer()
+    {
+        if (buffer != null)
+        {
+            loop.returnBuffer(buffer);
+            buffer = null;
+        }
+    }
+
+    private void close()
+    {
+        if (key != null)
+            key.cancel();
+        try
+        {
+            channel.close();
+        }
+        catch (IOException e)
+        {
+            if (logger.isDebugEnabled())
+                logger.debug("error closing socket", e);
+        }
+    }
+}
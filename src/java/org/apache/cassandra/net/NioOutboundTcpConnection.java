@@ -0,0 +1,302 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.cassandra.net;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.service.StorageService;
+import org.apache.cassandra.utils.FBUtilities;
+
+/**
+ * OutboundTcpConnection on a selector loop: writers queue messages and wake the loop, which
+ * sends whatever has queued up meanwhile in a single gathering write.  Connecting, retrying
+ * and giving up behave as they do for OutboundTcpConnection.
+ */
+class NioOutboundTcpConnection implements IOutboundConnection, SelectorLoop.Handler
+{
+    private static final Logger logger = LoggerFactory.getLogger(NioOutboundTcpConnection.class);
+
+    private static final int OPEN_RETRY_DELAY = 100; // ms between retries
+    private static final int MAX_GATHER = 64; // messages per write
+
+    private final InetAddress endpoint;
+    private final SelectorLoop loop;
+    private final Queue<ByteBuffer> queue = new ConcurrentLinkedQueue<ByteBuffer>();
+    private final AtomicInteger pendingCount = new AtomicInteger();
+    // set while the loop is responsible for draining the queue, so that writers only wake it when it is not
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private volatile long completedCount;
+    private volatile long messagesWritten;
+    private volatile long writes;
+
+    private final Runnable flushTask = new Runnable()
+    {
+        public void run()
+        {
+            flush();
+        }
+    };
+
+    // the rest is only used on the loop thread
+    private SocketChannel channel;
+    private SelectionKey key;
+    private long connectStart;
+    private final ByteBuffer[] writing = new ByteBuffer[MAX_GATHER];
+    private int writingCount;
+
+    NioOutboundTcpConnection(InetAddress remoteEp, SelectorLoop loop)
+    {
+        this.endpoint = remoteEp;
+        this.loop = loop;
+    }
+
+    public void write(ByteBuffer buffer)
+    {
+        queue.add(buffer);
+        pendingCount.incrementAndGet();
+        if (scheduled.compareAndSet(false, true))
+            loop.execute(flushTask);
+    }
+
+    public void closeSocket()
+    {
+        dropQueued();
+        loop.execute(new Runnable()
+        {
+            public void run()
+            {
+                dropWriting();
+                disconnect();
+                flush();
+            }
+        });
+    }
+
+    public int getPendingMessages()
+    {
+        return pendingCount.get();
+    }
+
+    public long getCompletedMesssages()
+    {
+        return completedCount;
+    }
+
+    public double getMessagesPerWrite()
+    {
+        long w = writes;
+        return w == 0 ? 0 : (double) messagesWritten / w;
+    }
+
+    public void ready(SelectionKey key)
+    {
+        if (key.isConnectable())
+        {
+            try
+            {
+                if (channel.finishConnect())
+                    connected();
+            }
+            catch (IOException e)
+            {
+                connectFailed(e);
+            }
+        }
+        else if (key.isWritable())
+        {
+            flush();
+        }
+    }
+
+    private void flush()
+    {
+        // still connecting: connected() flushes
+        if (channel != null && !channel.isConnected())
+            return;
+
+        while (true)
+        {
+            gather();
+            if (writingCount == 0)
+            {
+                if (key != null)
+                    key.interestOps(0);
+                scheduled.set(false);
+                // a writer may have queued after gather() but still seen scheduled set
+                if (queue.isEmpty() || !scheduled.compareAndSet(false, true))
+                    return;
+                continue;
+            }
+
+            if (channel == null)
+            {
+                connect();
+                return;
+            }
+
+            try
+            {
+                channel.write(writing, 0, writingCount);
+                writes++;
+            }
+            catch (IOException e)
+            {
+                logger.info("error writing to " + endpoint);
+                dropWriting();
+                disconnect();
+                continue;
+            }
+            if (writing[writingCount - 1].hasRemaining())
+            {
+                // socket buffer is full; carry on when it drains
+                key.interestOps(SelectionKey.OP_WRITE);
+                return;
+            }
+        }
+    }
+
+    /**
+     * drops the messages written in full from the head of writing, and tops it up from the queue.
+     */
+    private void gather()
+    {
+        int written = 0;
+        while (written < writingCount && !writing[written].hasRemaining())
+            written++;
+        messagesWritten += written;
+        System.arraycopy(writing, written, writing, 0, writingCount - written);
+        Arrays.fill(writing, writingCount - written, writingCount, null);
+        writingCount -= written;
+
+        ByteBuffer buffer;
+        while (writingCount < writing.length && (buffer = queue.poll()) != null)
+        {
+            pendingCount.decrementAndGet();
+            completedCount++;
+            writing[writingCount++] = buffer;
+        }
+    }
+
+    private void connect()
+    {
+        if (connectStart == 0)
+        {
+            if (logger.isDebugEnabled())
+                logger.debug("attempting to connect to " + endpoint);
+            connectStart = System.currentTimeMillis();
+        }
+        try
+        {
+            channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            // zero means 'bind on any available port.'
+            channel.socket().bind(new InetSocketAddress(FBUtilities.getLocalAddress(), 0));
+            key = loop.register(channel, 0, this);
+            if (channel.connect(new InetSocketAddress(endpoint, DatabaseDescriptor.getStoragePort())))
+                connected();
+            else
+                key.interestOps(SelectionKey.OP_CONNECT);
+        }
+        catch (IOException e)
+        {
+            connectFailed(e);
+        }
+    }
+
+    private void connected()
+    {
+        connectStart = 0;
+        key.interestOps(0);
+        flush();
+    }
+
+    private void connectFailed(IOException e)
+    {
+        if (logger.isTraceEnabled())
+            logger.trace("unable to connect to " + endpoint, e);
+        disconnect();
+        if (System.currentTimeMillis() < connectStart + DatabaseDescriptor.getRpcTimeout())
+        {
+            Runnable retry = new Runnable()
+            {
+                public void run()
+                {
+                    loop.execute(flushTask);
+                }
+            };
+            StorageService.scheduledTasks.schedule(retry, OPEN_RETRY_DELAY, TimeUnit.MILLISECONDS);
+        }
+        else
+        {
+            connectStart = 0;
+            // clear out the queue, else gossip messages back up.
+            dropWriting();
+            dropQueued();
+            flush();
+        }
+    }
+
+    private void dropQueued()
+    {
+        while (queue.poll() != null)
+            pendingCount.decrementAndGet();
+    }
+
+    private void dropWriting()
+    {
+        Arrays.fill(writing, 0, writingCount, null);
+        writingCount = 0;
+    }
+
+    private void disconnect()
+    {
+        if (channel != null)
+        {
+            if (key != null)
+                key.cancel();
+            try
+            {
+                channel.close();
+            }
+            catch (IOException e)
+            {
+                if (logger.isDebugEnabled())
+                    logger.debug("exception closing connection to " + endpoint, e);
+            }
+            channel = null;
+            key = null;
+        }
+    }
+}
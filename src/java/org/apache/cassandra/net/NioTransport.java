@@ -0,0 +1,175 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.cassandra.net;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.cassandra.config.DatabaseDescriptor;
+
+/**
+ * The nio internode transport: a fixed set of selector loops shared by every inbound
+ * and outbound connection of the node, instead of a thread per socket.
+ */
+class NioTransport
+{
+    private static final Logger logger = LoggerFactory.getLogger(NioTransport.class);
+
+    static final NioTransport instance = new NioTransport(DatabaseDescriptor.getInternodeSelectorThreads());
+
+    private final SelectorLoop[] loops;
+    private final AtomicInteger nextLoop = new AtomicInteger();
+    private volatile ServerSocketChannel server;
+
+    NioTransport(int threads)
+    {
+        loops = new SelectorLoop[threads];
+        for (int i = 0; i < threads; i++)
+        {
+            loops[i] = new SelectorLoop("INTERNODE-SELECTOR:" + i);
+            loops[i].start();
+        }
+    }
+
+    /** connections are spread over the loops round-robin */
+    SelectorLoop nextLoop()
+    {
+        return loops[Math.abs(nextLoop.getAndIncrement() % loops.length)];
+    }
+
+    /**
+     * accepts connections on the bound server channel, handing each to one of the loops.
+     */
+    void listen(final ServerSocketChannel server) throws IOException
+    {
+        this.server = server;
+        server.configureBlocking(false);
+        final SelectorLoop acceptLoop = loops[0];
+        acceptLoop.execute(new Runnable()
+        {
+            public void run()
+            {
+                try
+                {
+                    acceptLoop.register(server, SelectionKey.OP_ACCEPT, new Acceptor(server));
+                }
+                catch (ClosedChannelException e)
+                {
+                    logger.info("MessagingService server channel closed before it could accept anything.");
+                }
+            }
+        });
+    }
+
+    /**
+     * closes the server channel on the loop accepting on it, and waits for the port to be released:
+     * a channel still registered with a selector keeps its socket open until it is deregistered.
+     */
+    void stopListening() throws IOException
+    {
+        final ServerSocketChannel server = this.server;
+        if (server == null)
+            return;
+        final SelectorLoop acceptLoop = loops[0];
+        FutureTask<Object> close = new FutureTask<Object>(new Callable<Object>()
+        {
+            public Object call() throws IOException
+            {
+                acceptLoop.close(server);
+                return null;
+            }
+        });
+        acceptLoop.execute(close);
+        try
+        {
+            close.get();
+        }
+        catch (InterruptedException e)
+        {
+            throw new AssertionError(e);
+        }
+        catch (ExecutionException e)
+        {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    void shutdown()
+    {
+        for (SelectorLoop loop : loops)
+            loop.shutdown();
+    }
+
+    private class Acceptor implements SelectorLoop.Handler
+    {
+        private final ServerSocketChannel server;
+
+        Acceptor(ServerSocketChannel server)
+        {
+            this.server = server;
+        }
+
+        public void ready(SelectionKey key)
+        {
+            while (true)
+            {
+                final SocketChannel channel;
+                try
+                {
+                    channel = server.accept();
+                    if (channel == null)
+                        return;
+                    channel.configureBlocking(false);
+                }
+                catch (IOException e)
+                {
+                    if (!server.isOpen())
+                    {
+                        logger.info("MessagingService shutting down server channel.");
+                        key.cancel();
+                        return;
+                    }
+                    logger.warn("error accepting connection", e);
+                    return;
+                }
+
+                final SelectorLoop loop = nextLoop();
+                loop.execute(new Runnable()
+                {
+                    public void run()
+                    {
+                        new NioIncomingTcpConnection(loop, channel).register();
+                    }
+                });
+            }
+        }
+    }
+}
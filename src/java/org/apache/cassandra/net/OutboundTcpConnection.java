@@ -21,13 +21,16 @@ package org.apache.cassandra.net;
  */
 
 
-import java.io.DataOutputStream;
 import java.io.IOException;
 import java.net.InetAddress;
-import java.net.Socket;
+import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.cassandra.utils.FBUtilities;
 import org.slf4j.Logger;
@@ -35,18 +38,23 @@ import org.slf4j.LoggerFactory;
 
 import org.apache.cassandra.config.DatabaseDescriptor;
 
-public class OutboundTcpConnection extends Thread
+public class OutboundTcpConnection extends Thread implements IOutboundConnection
 {
     private static final Logger logger = LoggerFactory.getLogger(OutboundTcpConnection.class);
 
     private static final ByteBuffer CLOSE_SENTINEL = ByteBuffer.allocate(0);
     private static final int OPEN_RETRY_DELAY = 100; // ms between retries
+    private static final int MAX_COALESCED_MESSAGES = 128;
 
     private final InetAddress endpoint;
     private final BlockingQueue<ByteBuffer> queue = new LinkedBlockingQueue<ByteBuffer>();
-    private DataOutputStream output;
-    private Socket socket;
+    // messages taken from the queue to go out in the next write
+    private final List<ByteBuffer> drained = new ArrayList<ByteBuffer>(MAX_COALESCED_MESSAGES);
+    private final ByteBuffer[] writeBuffers = new ByteBuffer[MAX_COALESCED_MESSAGES];
+    private SocketChannel channel;
     private long completedCount;
+    private volatile long messagesWritten;
+    private volatile long writes;
 
     public OutboundTcpConnection(InetAddress remoteEp)
     {
@@ -66,27 +74,40 @@ public class OutboundTcpConnection extends Thread
         }
     }
 
-    void closeSocket()
+    public void closeSocket()
     {
         queue.clear();
         write(CLOSE_SENTINEL);
     }
 
+    /**
+     * writes until interrupted, at which point the connection is dropped and the thread exits.
+     */
     public void run()
     {
         while (true)
         {
-            ByteBuffer bb = take();
-            if (bb == CLOSE_SENTINEL)
+            try
+            {
+                drain();
+            }
+            catch (InterruptedException e)
             {
                 disconnect();
-                continue;
+                return;
+            }
+            int start = 0;
+            for (int i = 0; i < drained.size(); i++)
+            {
+                if (drained.get(i) == CLOSE_SENTINEL)
+                {
+                    send(start, i);
+                    disconnect();
+                    start = i + 1;
+                }
             }
-            if (socket != null || connect())
-                writeConnected(bb);
-            else
-                // clear out the queue, else gossip messages back up.
-                queue.clear();            
+            send(start, drained.size());
+            drained.clear();
         }
     }
 
@@ -100,56 +121,94 @@ public class OutboundTcpConnection extends Thread
         return completedCount;
     }
 
-    private void writeConnected(ByteBuffer bb)
+    public double getMessagesPerWrite()
+    {
+        long w = writes;
+        return w == 0 ? 0 : (double) messagesWritten / w;
+    }
+
+    /**
+     * waits for a message, then takes whatever else is queued, waiting up to the coalescing window
+     * for more unless MAX_COALESCED_MESSAGES are in hand.
+     */
+    private void drain() throws InterruptedException
+    {
+        drained.add(queue.take());
+        queue.drainTo(drained, MAX_COALESCED_MESSAGES - drained.size());
+        long window = TimeUnit.MICROSECONDS.toNanos(DatabaseDescriptor.getInternodeCoalescingWindowInMicros());
+        long deadline = System.nanoTime() + window;
+        while (drained.size() < MAX_COALESCED_MESSAGES)
+        {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0)
+                break;
+            ByteBuffer bb = queue.poll(remaining, TimeUnit.NANOSECONDS);
+            if (bb == null)
+                break;
+            drained.add(bb);
+            queue.drainTo(drained, MAX_COALESCED_MESSAGES - drained.size());
+        }
+        completedCount += drained.size();
+    }
+
+    private void send(int from, int to)
     {
+        if (from == to)
+            return;
+        if (channel != null || connect())
+            writeConnected(from, to);
+        else
+            // clear out the queue, else gossip messages back up.
+            queue.clear();
+    }
+
+    private void writeConnected(int from, int to)
+    {
+        int count = to - from;
+        for (int i = 0; i < count; i++)
+            writeBuffers[i] = drained.get(from + i);
         try
         {
-            output.write(bb.array(), bb.position()+bb.arrayOffset(), bb.limit()+bb.arrayOffset());
-            if (queue.peek() == null)
+            // a blocking channel writes everything at once, short of an error; loop all the same
+            int offset = 0;
+            while (offset < count)
             {
-                output.flush();
+                channel.write(writeBuffers, offset, count - offset);
+                while (offset < count && !writeBuffers[offset].hasRemaining())
+                    offset++;
             }
+            writes++;
+            messagesWritten += count;
         }
         catch (IOException e)
         {
             logger.info("error writing to " + endpoint);
             disconnect();
         }
+        finally
+        {
+            for (int i = 0; i < count; i++)
+                writeBuffers[i] = null;
+        }
     }
 
     private void disconnect()
     {
-        if (socket != null)
+        if (channel != null)
         {
             try
             {
-                socket.close();
+                channel.close();
             }
             catch (IOException e)
             {
                 if (logger.isDebugEnabled())
                     logger.debug("exception closing connection to " + endpoint, e);
             }
-            output = null;
-            socket = null;
+            channel = null;
         }
     }
 
-    private ByteBuffer take()
-    {
-        ByteBuffer bb;
-        try
-        {
-            bb = queue.take();
-            completedCount++;
-        }
-        catch (InterruptedException e)
-        {
-            throw new AssertionError(e);
-        }
-        return bb;
-    }
-
     private boolean connect()
     {
         if (logger.isDebugEnabled())
@@ -159,15 +218,16 @@ public class OutboundTcpConnection extends Thread
         {
             try
             {
+                channel = SocketChannel.open();
                 // zero means 'bind on any available port.'
-                socket = new Socket(endpoint, DatabaseDescriptor.getStoragePort(), FBUtilities.getLocalAddress(), 0);
-                socket.setTcpNoDelay(true);
-                output = new DataOutputStream(socket.getOutputStream());
+                channel.socket().bind(new InetSocketAddress(FBUtilities.getLocalAddress(), 0));
+                channel.socket().setTcpNoDelay(true);
+                channel.connect(new InetSocketAddress(endpoint, DatabaseDescriptor.getStoragePort()));
                 return true;
             }
             catch (IOException e)
             {
-                socket = null;
+                disconnect();
                 if (logger.isTraceEnabled())
                     logger.trace("unable to connect to " + endpoint, e);
                 try
@@ -176,7 +236,9 @@ public class OutboundTcpConnection extends Thread
                 }
                 catch (InterruptedException e1)
                 {
-                    throw new AssertionError(e1);
+                    // give up; run() sees the interrupt on its next drain and exits
+                    Thread.currentThread().interrupt();
+                    return false;
                 }
             }
         }
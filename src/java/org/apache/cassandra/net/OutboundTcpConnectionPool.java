@@ -21,25 +21,41 @@ package org.apache.cassandra.net;
 import java.net.InetAddress;
 
 import org.apache.cassandra.concurrent.Stage;
+import org.apache.cassandra.config.Config;
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.locator.IEndpointSnitch;
+import org.apache.cassandra.utils.FBUtilities;
 
 class OutboundTcpConnectionPool
 {
-    public final OutboundTcpConnection cmdCon;
-    public final OutboundTcpConnection ackCon;
+    public final IOutboundConnection cmdCon;
+    public final IOutboundConnection ackCon;
+    private final InetAddress remoteEp;
+    private volatile boolean compress;
 
     OutboundTcpConnectionPool(InetAddress remoteEp)
     {
-        cmdCon = new OutboundTcpConnection(remoteEp);
-        cmdCon.start();
-        ackCon = new OutboundTcpConnection(remoteEp);
-        ackCon.start();
+        this.remoteEp = remoteEp;
+        cmdCon = newConnection(remoteEp);
+        ackCon = newConnection(remoteEp);
+        compress = shouldCompress(remoteEp);
+    }
+
+    private static IOutboundConnection newConnection(InetAddress remoteEp)
+    {
+        if (DatabaseDescriptor.getInternodeTransport() == Config.InternodeTransport.nio)
+            return new NioOutboundTcpConnection(remoteEp, NioTransport.instance.nextLoop());
+
+        OutboundTcpConnection connection = new OutboundTcpConnection(remoteEp);
+        connection.start();
+        return connection;
     }
 
     /**
      * returns the appropriate connection based on message type.
      * returns null if a connection could not be established.
      */
-    OutboundTcpConnection getConnection(Message msg)
+    IOutboundConnection getConnection(Message msg)
     {
         Stage stage = msg.getMessageType();
         return stage == Stage.REQUEST_RESPONSE || stage == Stage.INTERNAL_RESPONSE || stage == Stage.GOSSIP
@@ -47,9 +63,35 @@ class OutboundTcpConnectionPool
                : cmdCon;
     }
 
+    /**
+     * whether messages to the endpoint are compressed.  The configuration is settled when the pool is
+     * created, and again when it is reset, since the snitch may only learn the endpoint's datacenter
+     * later; but nothing is compressed before the endpoint has told us it speaks VERSION_2, which
+     * introduced compressed messages.
+     */
+    boolean isCompressed()
+    {
+        return compress && MessagingService.getVersion(remoteEp) >= MessagingService.VERSION_2;
+    }
+
+    private static boolean shouldCompress(InetAddress remoteEp)
+    {
+        switch (DatabaseDescriptor.getInternodeCompression())
+        {
+            case all:
+                return true;
+            case dc:
+                IEndpointSnitch snitch = DatabaseDescriptor.getEndpointSnitch();
+                return DatabaseDescriptor.isCompressedDcPair(snitch.getDatacenter(FBUtilities.getLocalAddress()), snitch.getDatacenter(remoteEp));
+            default:
+                return false;
+        }
+    }
+
     synchronized void reset()
     {
-        for (OutboundTcpConnection con : new OutboundTcpConnection[] { cmdCon, ackCon })
+        for (IOutboundConnection con : new IOutboundConnection[] { cmdCon, ackCon })
             con.closeSocket();
+        compress = shouldCompress(remoteEp);
     }
 }
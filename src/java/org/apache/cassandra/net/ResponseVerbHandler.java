@@ -34,15 +34,16 @@ public class ResponseVerbHandler implements IVerbHandler, ILatencyPublisher
 
     public void doVerb(Message message)
     {     
-        String messageId = message.getMessageId();        
-        IAsyncCallback cb = MessagingService.getRegisteredCallback(messageId);
+        int messageId = message.getMessageId();
+        CallbackInfo<IAsyncCallback> info = MessagingService.getRegisteredCallbackInfo(messageId);
         double age = 0;
-        if (cb != null)
+        if (info != null)
         {
             if (logger_.isDebugEnabled())
                 logger_.debug("Processing response on a callback from " + message.getMessageId() + "@" + message.getFrom());
             age = System.currentTimeMillis() - MessagingService.getRegisteredCallbackAge(messageId);
-            cb.response(message);
+            info.responded(message.getFrom());
+            info.callback.response(message);
         }
         else
         {
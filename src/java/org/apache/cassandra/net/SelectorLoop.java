@@ -0,0 +1,198 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.cassandra.net;
+
+import java.io.IOError;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * One thread of the nio internode transport, serving the channels registered with its selector.
+ * Handlers run on this thread and must never block; other threads hand it work through execute().
+ * It also keeps the read buffers its connections share, which need no locking for that reason.
+ */
+class SelectorLoop extends Thread
+{
+    private static final Logger logger = LoggerFactory.getLogger(SelectorLoop.class);
+
+    static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_POOLED_BUFFERS = 64;
+
+    interface Handler
+    {
+        /** called on the loop thread when the channel is ready for some of the key's interest ops */
+        public void ready(SelectionKey key);
+    }
+
+    private final Selector selector;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+    private final ArrayDeque<ByteBuffer> buffers = new ArrayDeque<ByteBuffer>();
+    private volatile boolean running = true;
+
+    SelectorLoop(String name)
+    {
+        super(name);
+        try
+        {
+            selector = Selector.open();
+        }
+        catch (IOException e)
+        {
+            throw new IOError(e);
+        }
+    }
+
+    /**
+     * runs the task on the loop thread, after the next select: keys cancelled before
+     * the call have been deregistered by then.
+     */
+    void execute(Runnable task)
+    {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    /** must be called on the loop thread */
+    SelectionKey register(SelectableChannel channel, int ops, Handler handler) throws ClosedChannelException
+    {
+        assert Thread.currentThread() == this;
+        return channel.register(selector, ops, handler);
+    }
+
+    /** must be called on the loop thread; the buffer is cleared */
+    ByteBuffer takeBuffer()
+    {
+        ByteBuffer buffer = buffers.poll();
+        return buffer == null ? ByteBuffer.allocate(BUFFER_SIZE) : buffer;
+    }
+
+    /** must be called on the loop thread; buffers that were not taken from the pool are dropped */
+    void returnBuffer(ByteBuffer buffer)
+    {
+        if (buffer.capacity() == BUFFER_SIZE && buffers.size() < MAX_POOLED_BUFFERS)
+        {
+            buffer.clear();
+            buffers.add(buffer);
+        }
+    }
+
+    /**
+     * must be called on the loop thread.  Closes the channel and deregisters it from the selector
+     * right away, rather than at the next select, so that its socket is released on return.
+     */
+    void close(SelectableChannel channel) throws IOException
+    {
+        assert Thread.currentThread() == this;
+        SelectionKey key = channel.keyFor(selector);
+        if (key != null)
+            key.cancel();
+        channel.close();
+        // the keys selected here are handled with the others once the pending tasks have run
+        selector.selectNow();
+    }
+
+    public void run()
+    {
+        while (running)
+        {
+            try
+            {
+                selector.select();
+            }
+            catch (IOException e)
+            {
+                throw new IOError(e);
+            }
+
+            Runnable task;
+            while ((task = tasks.poll()) != null)
+            {
+                try
+                {
+                    task.run();
+                }
+                catch (RuntimeException e)
+                {
+                    logger.error("Unexpected error running " + task, e);
+                }
+            }
+
+            Iterator<SelectionKey> iter = selector.selectedKeys().iterator();
+            while (iter.hasNext())
+            {
+                SelectionKey key = iter.next();
+                iter.remove();
+                if (!key.isValid())
+                    continue;
+                try
+                {
+                    ((Handler) key.attachment()).ready(key);
+                }
+                catch (RuntimeException e)
+                {
+                    logger.error("Unexpected error handling " + key.channel() + "; closing it", e);
+                    close(key);
+                }
+            }
+        }
+
+        for (SelectionKey key : selector.keys())
+            close(key);
+        try
+        {
+            selector.close();
+        }
+        catch (IOException e)
+        {
+            logger.debug("error closing selector", e);
+        }
+    }
+
+    private static void close(SelectionKey key)
+    {
+        key.cancel();
+        try
+        {
+            key.channel().close();
+        }
+        catch (IOException e)
+        {
+            if (logger.isDebugEnabled())
+                logger.debug("error closing " + key.channel(), e);
+        }
+    }
+
+    /** closes every channel registered with the loop and stops it */
+    void shutdown()
+    {
+        running = false;
+        selector.wakeup();
+    }
+}
@@ -141,6 +141,13 @@ public abstract class AbstractCassandraDaemon implements CassandraDaemon
         // replay the log if necessary and check for compaction candidates
         CommitLog.recover();
         CompactionManager.instance.checkAllColumnFamilies();
+
+        // warm the row caches only now, so the rows replayed above are read along with the rest
+        for (String table : DatabaseDescriptor.getTables())
+        {
+            for (ColumnFamilyStore cfs : Table.open(table).getColumnFamilyStores())
+                cfs.warmRowCache();
+        }
         
         // check to see if CL.recovery modified the lastMigrationId. if it did, we need to re apply migrations. this isn't
         // the same as merely reloading the schema (which wouldn't perform file deletion after a DROP). The solution
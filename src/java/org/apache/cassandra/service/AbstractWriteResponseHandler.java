@@ -52,7 +52,7 @@ public abstract class AbstractWriteResponseHandler implements IWriteResponseHand
 
     public void get() throws TimeoutException
     {
-        long timeout = DatabaseDescriptor.getRpcTimeout() - (System.currentTimeMillis() - startTime);
+        long timeout = DatabaseDescriptor.getTimeout(StorageService.Verb.MUTATION) - (System.currentTimeMillis() - startTime);
         boolean success;
         try
         {
@@ -73,7 +73,7 @@ public abstract class AbstractWriteResponseHandler implements IWriteResponseHand
     {
         // (non-destination hints are part of the callback and count towards consistency only under CL.ANY)
         if (writeEndpoints.contains(destination) || consistencyLevel == ConsistencyLevel.ANY)
-            MessagingService.instance.addCallback(this, hintedMessage.getMessageId());
+            MessagingService.instance.addCallback(this, hintedMessage);
     }
 
     /** null message means "response from local write" */
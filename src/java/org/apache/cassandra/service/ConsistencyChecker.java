@@ -76,7 +76,7 @@ class ConsistencyChecker implements Runnable
             if (logger_.isDebugEnabled())
               logger_.debug("Reading consistency digest for " + readCommand_.key + " from " + message.getMessageId() + "@[" + StringUtils.join(replicas_, ", ") + "]");
 
-            MessagingService.instance.addCallback(new DigestResponseHandler(), message.getMessageId());
+            MessagingService.instance.addCallback(new DigestResponseHandler(), message);
             for (InetAddress endpoint : replicas_)
             {
                 if (!endpoint.equals(FBUtilities.getLocalAddress()))
@@ -125,7 +125,7 @@ class ConsistencyChecker implements Runnable
                     Message message = readCommand.makeReadMessage();
                     if (logger_.isDebugEnabled())
                       logger_.debug("Performing read repair for " + readCommand_.key + " to " + message.getMessageId() + "@[" + StringUtils.join(replicas_, ", ") + "]");
-                    MessagingService.instance.addCallback(responseHandler, message.getMessageId());
+                    MessagingService.instance.addCallback(responseHandler, message);
                     for (InetAddress endpoint : replicas_)
                     {
                         if (!endpoint.equals(FBUtilities.getLocalAddress()))
@@ -57,7 +57,7 @@ public class QuorumResponseHandler<T> implements IAsyncCallback
     {
         try
         {
-            long timeout = DatabaseDescriptor.getRpcTimeout() - (System.currentTimeMillis() - startTime);
+            long timeout = DatabaseDescriptor.getTimeout(StorageService.Verb.READ) - (System.currentTimeMillis() - startTime);
             boolean success;
             try
             {
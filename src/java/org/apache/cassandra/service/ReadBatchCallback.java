@@ -0,0 +1,65 @@
+/*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements.  See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership.  The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License.  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+package org.apache.cassandra.service;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.cassandra.db.ReadBatchCommand;
+import org.apache.cassandra.net.IAsyncCallback;
+import org.apache.cassandra.net.Message;
+
+/**
+ * Receives the reply to a ReadBatchCommand and hands each command's ReadResponse to the callback waiting
+ * for it, as if it had been the reply to a READ of its own.
+ */
+public class ReadBatchCallback implements IAsyncCallback
+{
+    private final List<IAsyncCallback> callbacks;
+
+    /**
+     * @param callbacks the callback for each command of the batch, in order
+     */
+    public ReadBatchCallback(List<IAsyncCallback> callbacks)
+    {
+        this.callbacks = callbacks;
+    }
+
+    public void response(Message message)
+    {
+        byte[][] responses;
+        try
+        {
+            responses = ReadBatchCommand.deserializeResponses(message.getMessageBody());
+        }
+        catch (IOException e)
+        {
+            throw new RuntimeException(e);
+        }
+        assert responses.length == callbacks.size() : responses.length + " responses to " + callbacks.size() + " commands";
+
+        for (int i = 0; i < responses.length; i++)
+        {
+            // the replica failed this read; leave its callback to time out
+            if (responses[i] != null)
+                callbacks.get(i).response(message.getReply(message.getFrom(), responses[i]));
+        }
+    }
+}
@@ -45,6 +45,7 @@ import org.apache.cassandra.dht.*;
 import org.apache.cassandra.gms.Gossiper;
 import org.apache.cassandra.locator.AbstractReplicationStrategy;
 import org.apache.cassandra.locator.TokenMetadata;
+import org.apache.cassandra.net.AsyncResult;
 import org.apache.cassandra.net.IAsyncCallback;
 import org.apache.cassandra.net.IAsyncResult;
 import org.apache.cassandra.net.Message;
@@ -135,7 +136,7 @@ public class StorageProxy implements StorageProxyMBean
                             if (unhintedMessage == null)
                             {
                                 unhintedMessage = rm.makeRowMutationMessage();
-                                MessagingService.instance.addCallback(responseHandler, unhintedMessage.getMessageId());
+                                MessagingService.instance.addCallback(responseHandler, unhintedMessage);
                             }
                             if (logger.isDebugEnabled())
                                 logger.debug("insert writing key " + FBUtilities.bytesToHex(rm.key()) + " to " + unhintedMessage.getMessageId() + "@" + destination);
@@ -241,6 +242,7 @@ public class StorageProxy implements StorageProxyMBean
         // send off all the commands asynchronously
         List<Future<Object>> localFutures = null;
         List<IAsyncResult> remoteResults = null;
+        ReadBatcher batcher = new ReadBatcher();
         for (ReadCommand command: commands)
         {
             InetAddress endPoint = StorageService.instance.findSuitableEndpoint(command.table, command.key);
@@ -258,14 +260,20 @@ public class StorageProxy implements StorageProxyMBean
             {
                 if (remoteResults == null)
                     remoteResults = new ArrayList<IAsyncResult>();
-                Message message = command.makeReadMessage();
                 if (logger.isDebugEnabled())
-                    logger.debug("weakread reading " + command + " from " + message.getMessageId() + "@" + endPoint);
-                if (randomlyReadRepair(command))
-                    message.setHeader(ReadCommand.DO_REPAIR, ReadCommand.DO_REPAIR.getBytes());
-                remoteResults.add(MessagingService.instance.sendRR(message, endPoint));
+                    logger.debug("weakread reading " + command + " from " + endPoint);
+                final IAsyncResult result = new AsyncResult();
+                batcher.add(endPoint, command, randomlyReadRepair(command), new IAsyncCallback()
+                {
+                    public void response(Message msg)
+                    {
+                        result.result(msg);
+                    }
+                });
+                remoteResults.add(result);
             }
         }
+        batcher.send();
 
         // wait for results
         if (localFutures != null)
@@ -289,7 +297,7 @@ public class StorageProxy implements StorageProxyMBean
             for (IAsyncResult iar: remoteResults)
             {
                 byte[] body;
-                body = iar.get(DatabaseDescriptor.getRpcTimeout(), TimeUnit.MILLISECONDS);
+                body = iar.get(DatabaseDescriptor.getTimeout(StorageService.Verb.READ), TimeUnit.MILLISECONDS);
                 ByteArrayInputStream bufIn = new ByteArrayInputStream(body);
                 ReadResponse response = ReadResponse.serializer().deserialize(new DataInputStream(bufIn));
                 if (response.row() != null)
@@ -300,6 +308,60 @@ public class StorageProxy implements StorageProxyMBean
         return rows;
     }
 
+    /**
+     * Collects the reads bound for each replica, to send them as a single message per replica.
+     */
+    private static class ReadBatcher
+    {
+        private final Map<InetAddress, ReadBatchCommand> batches = new HashMap<InetAddress, ReadBatchCommand>();
+        private final Map<InetAddress, List<IAsyncCallback>> callbacks = new HashMap<InetAddress, List<IAsyncCallback>>();
+
+        /**
+         * @param doRepair whether the replica should check the consistency of the row with the others
+         * @param callback to receive the response to this command
+         */
+        void add(InetAddress endpoint, ReadCommand command, boolean doRepair, IAsyncCallback callback)
+        {
+            ReadBatchCommand batch = batches.get(endpoint);
+            if (batch == null)
+            {
+                batch = new ReadBatchCommand();
+                batches.put(endpoint, batch);
+                callbacks.put(endpoint, new ArrayList<IAsyncCallback>());
+            }
+            batch.add(command, doRepair);
+            callbacks.get(endpoint).add(callback);
+        }
+
+        void send() throws IOException
+        {
+            for (Map.Entry<InetAddress, ReadBatchCommand> entry : batches.entrySet())
+            {
+                InetAddress endpoint = entry.getKey();
+                ReadBatchCommand batch = entry.getValue();
+                List<IAsyncCallback> batchCallbacks = callbacks.get(endpoint);
+                if (batch.size() == 1 || MessagingService.getVersion(endpoint) < MessagingService.VERSION_2)
+                {
+                    // nodes before VERSION_2 have no READ_BATCH handler
+                    for (int i = 0; i < batch.size(); i++)
+                    {
+                        Message message = batch.commands.get(i).makeReadMessage();
+                        if (batch.repair.get(i))
+                            message.setHeader(ReadCommand.DO_REPAIR, ReadCommand.DO_REPAIR.getBytes());
+                        MessagingService.instance.sendRR(message, endpoint, batchCallbacks.get(i));
+                    }
+                }
+                else
+                {
+                    Message message = batch.getMessage();
+                    if (logger.isDebugEnabled())
+                        logger.debug("reading " + batch.size() + " rows in " + message.getMessageId() + "@" + endpoint);
+                    MessagingService.instance.sendRR(message, endpoint, new ReadBatchCallback(batchCallbacks));
+                }
+            }
+        }
+    }
+
     /*
      * This function executes the read protocol.
         // 1. Get the N nodes from storage service where the data needs to be
@@ -318,37 +380,32 @@ public class StorageProxy implements StorageProxyMBean
         List<InetAddress[]> commandEndpoints = new ArrayList<InetAddress[]>();
         List<Row> rows = new ArrayList<Row>();
 
-        // send out read requests
+        // send out read requests, one message per replica
+        ReadBatcher batcher = new ReadBatcher();
         for (ReadCommand command: commands)
         {
             assert !command.isDigestQuery();
             ReadCommand readMessageDigestOnly = command.copy();
             readMessageDigestOnly.setDigestQuery(true);
-            Message message = command.makeReadMessage();
-            Message messageDigestOnly = readMessageDigestOnly.makeReadMessage();
 
             InetAddress dataPoint = StorageService.instance.findSuitableEndpoint(command.table, command.key);
             List<InetAddress> endpointList = StorageService.instance.getLiveNaturalEndpoints(command.table, command.key);
 
-            InetAddress[] endpoints = new InetAddress[endpointList.size()];
-            Message messages[] = new Message[endpointList.size()];
+            AbstractReplicationStrategy rs = Table.open(command.table).replicationStrategy;
+            QuorumResponseHandler<Row> quorumResponseHandler = rs.getQuorumResponseHandler(new ReadResponseResolver(command.table), consistency_level);
             // data-request message is sent to dataPoint, the node that will actually get
             // the data for us. The other replicas are only sent a digest query.
-            int n = 0;
             for (InetAddress endpoint : endpointList)
             {
-                Message m = endpoint.equals(dataPoint) ? message : messageDigestOnly;
-                endpoints[n] = endpoint;
-                messages[n++] = m;
+                ReadCommand c = endpoint.equals(dataPoint) ? command : readMessageDigestOnly;
+                batcher.add(endpoint, c, false, quorumResponseHandler);
                 if (logger.isDebugEnabled())
-                    logger.debug("strongread reading " + (m == message ? "data" : "digest") + " for " + command + " from " + m.getMessageId() + "@" + endpoint);
+                    logger.debug("strongread reading " + (c == command ? "data" : "digest") + " for " + command + " from " + endpoint);
             }
-            AbstractReplicationStrategy rs = Table.open(command.table).replicationStrategy;
-            QuorumResponseHandler<Row> quorumResponseHandler = rs.getQuorumResponseHandler(new ReadResponseResolver(command.table), consistency_level);
-            MessagingService.instance.sendRR(messages, endpoints, quorumResponseHandler);
             quorumResponseHandlers.add(quorumResponseHandler);
-            commandEndpoints.add(endpoints);
+            commandEndpoints.add(endpointList.toArray(new InetAddress[endpointList.size()]));
         }
+        batcher.send();
 
         // read results and make a second pass for any digest mismatches
         List<QuorumResponseHandler<Row>> repairResponseHandlers = null;
@@ -414,76 +471,177 @@ public class StorageProxy implements StorageProxyMBean
         long startTime = System.nanoTime();
 
         List<AbstractBounds> ranges = getRestrictedRanges(command.range);
-        // now scan until we have enough results
+        // now scan until we have enough results, reading as many ranges at once as we expect to need.
+        // results are collected in range order, which is token order, so they come back just as they
+        // would if the ranges were read one at a time.
         List<Row> rows = new ArrayList<Row>(command.max_keys);
-        for (AbstractBounds range : ranges)
+        double rowsPerRange = estimateRowsPerRange(command.keyspace, command.column_family);
+        int completed = 0;
+        while (completed < ranges.size() && rows.size() < command.max_keys)
+        {
+            int concurrency = getRangeConcurrency(command.max_keys - rows.size(), rowsPerRange);
+            List<RangeSliceRead> reads = new ArrayList<RangeSliceRead>(concurrency);
+            for (AbstractBounds range : ranges.subList(completed, Math.min(completed + concurrency, ranges.size())))
+                reads.add(new RangeSliceRead(command, range, consistency_level, concurrency == 1));
+            try
+            {
+                for (RangeSliceRead read : reads)
+                {
+                    rows.addAll(read.get());
+                    completed++;
+                    if (rows.size() >= command.max_keys)
+                        break;
+                }
+            }
+            finally
+            {
+                // stop waiting for any ranges we turned out not to need
+                for (RangeSliceRead read : reads)
+                    read.cancel();
+            }
+            // adjust to the rows per range actually seen
+            rowsPerRange = (double) rows.size() / completed;
+        }
+
+        rangeStats.addNano(System.nanoTime() - startTime);
+        return rows.size() > command.max_keys ? rows.subList(0, command.max_keys) : rows;
+    }
+
+    /**
+     * @return the number of ranges to read at once to find the remaining rows, if each range holds about
+     * rowsPerRange of them, within the configured limit
+     */
+    private static int getRangeConcurrency(int remainingRows, double rowsPerRange)
+    {
+        int limit = DatabaseDescriptor.getRangeSliceConcurrency();
+        if (rowsPerRange <= 0)
+            return limit;
+        return (int) Math.max(1, Math.min(limit, Math.ceil(remainingRows / rowsPerRange)));
+    }
+
+    /**
+     * @return the mean number of rows of the column family in each range replicated here, assuming
+     * other nodes hold as many per range as we do, or 0 if unknown
+     */
+    private static double estimateRowsPerRange(String keyspace, String columnFamily)
+    {
+        if (DatabaseDescriptor.getRangeSliceConcurrency() == 1)
+            return 0;
+        Collection<Range> localRanges = StorageService.instance.getLocalRanges(keyspace);
+        if (localRanges.isEmpty())
+            return 0;
+        ColumnFamilyStore cfs = Table.open(keyspace).getColumnFamilyStore(columnFamily);
+        return (double) cfs.getEstimatedRowCount() / localRanges.size();
+    }
+
+    /**
+     * A range slice read from the replicas of one range: started on construction, and either awaited
+     * with get or abandoned with cancel.
+     */
+    static class RangeSliceRead
+    {
+        private FutureTask<List<Row>> localRead;
+        private QuorumResponseHandler<List<Row>> handler;
+        private int messageId;
+
+        /**
+         * @param inline read locally in this thread, rather than on the read stage in parallel with
+         * other ranges
+         */
+        RangeSliceRead(final RangeSliceCommand command, final AbstractBounds range, ConsistencyLevel consistency_level, boolean inline)
+        throws IOException, UnavailableException
         {
             List<InetAddress> liveEndpoints = StorageService.instance.getLiveNaturalEndpoints(command.keyspace, range.right);
 
-            if (consistency_level == ConsistencyLevel.ONE && liveEndpoints.contains(FBUtilities.getLocalAddress())) 
+            if (consistency_level == ConsistencyLevel.ONE && liveEndpoints.contains(FBUtilities.getLocalAddress()))
             {
                 if (logger.isDebugEnabled())
                     logger.debug("local range slice");
-                ColumnFamilyStore cfs = Table.open(command.keyspace).getColumnFamilyStore(command.column_family);
-                try 
-                {
-                    rows.addAll(cfs.getRangeSlice(command.super_column,
-                                                  range,
-                                                  command.max_keys,
-                                                  QueryFilter.getFilter(command.predicate, cfs.getComparator())));
-                } 
-                catch (ExecutionException e) 
-                {
-                    throw new RuntimeException(e.getCause());
-                } 
-                catch (InterruptedException e) 
+                localRead = new FutureTask<List<Row>>(new Callable<List<Row>>()
                 {
-                    throw new AssertionError(e);
-                }           
+                    public List<Row> call() throws ExecutionException, InterruptedException
+                    {
+                        ColumnFamilyStore cfs = Table.open(command.keyspace).getColumnFamilyStore(command.column_family);
+                        return cfs.getRangeSlice(command.super_column,
+                                                 range,
+                                                 command.max_keys,
+                                                 QueryFilter.getFilter(command.predicate, cfs.getComparator()));
+                    }
+                });
+                if (inline)
+                    localRead.run();
+                else
+                    StageManager.getStage(Stage.READ).execute(localRead);
             }
-            else 
+            else
             {
                 DatabaseDescriptor.getEndpointSnitch().sortByProximity(FBUtilities.getLocalAddress(), liveEndpoints);
                 RangeSliceCommand c2 = new RangeSliceCommand(command.keyspace, command.column_family, command.super_column, command.predicate, range, command.max_keys);
                 Message message = c2.getMessage();
+                messageId = message.getMessageId();
 
                 // collect replies and resolve according to consistency level
                 RangeSliceResponseResolver resolver = new RangeSliceResponseResolver(command.keyspace, liveEndpoints);
                 AbstractReplicationStrategy rs = Table.open(command.keyspace).replicationStrategy;
-                QuorumResponseHandler<List<Row>> handler = rs.getQuorumResponseHandler(resolver, consistency_level);
+                handler = rs.getQuorumResponseHandler(resolver, consistency_level);
                 // TODO bail early if live endpoints can't satisfy requested consistency level
-                for (InetAddress endpoint : liveEndpoints) 
+                for (InetAddress endpoint : liveEndpoints)
                 {
                     MessagingService.instance.sendRR(message, endpoint, handler);
                     if (logger.isDebugEnabled())
-                        logger.debug("reading " + c2 + " from " + message.getMessageId() + "@" + endpoint);
+                        logger.debug("reading " + c2 + " from " + messageId + "@" + endpoint);
                 }
                 // TODO read repair on remaining replicas?
+            }
+        }
 
-                // if we're done, great, otherwise, move to the next range
-                try 
+        List<Row> get() throws IOException, TimeoutException
+        {
+            if (localRead != null)
+            {
+                try
+                {
+                    return localRead.get();
+                }
+                catch (ExecutionException e)
                 {
-                    if (logger.isDebugEnabled()) 
+                    throw new RuntimeException(e.getCause());
+                }
+                catch (InterruptedException e)
+                {
+                    throw new AssertionError(e);
+                }
+            }
+
+            try
+            {
+                List<Row> rows = handler.get();
+                if (logger.isDebugEnabled())
+                {
+                    for (Row row : rows)
                     {
-                        for (Row row : handler.get()) 
-                        {
-                            logger.debug("range slices read " + row.key);
-                        }
+                        logger.debug("range slices read " + row.key);
                     }
-                    rows.addAll(handler.get());
-                } 
-                catch (DigestMismatchException e) 
-                {
-                    throw new AssertionError(e); // no digests in range slices yet
                 }
+                return rows;
+            }
+            catch (DigestMismatchException e)
+            {
+                throw new AssertionError(e); // no digests in range slices yet
             }
-          
-            if (rows.size() >= command.max_keys)
-                break;
         }
 
-        rangeStats.addNano(System.nanoTime() - startTime);
-        return rows.size() > command.max_keys ? rows.subList(0, command.max_keys) : rows;
+        /**
+         * Gives up on the read if it has not completed: a local read that has not started is not run, and
+         * replica responses still to come are dropped.
+         */
+        void cancel()
+        {
+            if (localRead != null)
+                localRead.cancel(false);
+            else
+                MessagingService.removeRegisteredCallback(messageId);
+        }
     }
 
     /**
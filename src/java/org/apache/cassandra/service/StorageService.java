@@ -68,6 +68,7 @@ import org.apache.cassandra.db.DefsTable;
 import org.apache.cassandra.db.HintedHandOffManager;
 import org.apache.cassandra.db.ReadCommand;
 import org.apache.cassandra.db.ReadRepairVerbHandler;
+import org.apache.cassandra.db.ReadBatchVerbHandler;
 import org.apache.cassandra.db.ReadVerbHandler;
 import org.apache.cassandra.db.Row;
 import org.apache.cassandra.db.RowMutationVerbHandler;
@@ -165,6 +166,7 @@ public class StorageService implements IEndpointStateChangeSubscriber, StorageSe
         INDEX_SCAN,
         REPLICATION_FINISHED,
         INTERNAL_RESPONSE, // responses to internal calls
+        READ_BATCH,
         ;
         // remember to add new verbs at the end, since we serialize by ordinal
     }
@@ -193,6 +195,7 @@ public class StorageService implements IEndpointStateChangeSubscriber, StorageSe
         put(Verb.INDEX_SCAN, Stage.READ);
         put(Verb.REPLICATION_FINISHED, Stage.MISC);
         put(Verb.INTERNAL_RESPONSE, Stage.INTERNAL_RESPONSE);
+        put(Verb.READ_BATCH, Stage.READ);
     }};
 
 
@@ -279,6 +282,7 @@ public class StorageService implements IEndpointStateChangeSubscriber, StorageSe
         MessagingService.instance.registerVerbHandlers(Verb.MUTATION, new RowMutationVerbHandler());
         MessagingService.instance.registerVerbHandlers(Verb.READ_REPAIR, new ReadRepairVerbHandler());
         MessagingService.instance.registerVerbHandlers(Verb.READ, new ReadVerbHandler());
+        MessagingService.instance.registerVerbHandlers(Verb.READ_BATCH, new ReadBatchVerbHandler());
         MessagingService.instance.registerVerbHandlers(Verb.RANGE_SLICE, new RangeSliceVerbHandler());
         MessagingService.instance.registerVerbHandlers(Verb.INDEX_SCAN, new IndexScanVerbHandler());
         // see BootStrapper for a summary of how the bootstrap verbs interact
@@ -1987,6 +1991,9 @@ public class StorageService implements IEndpointStateChangeSubscriber, StorageSe
                 rcf.read_repair_chance = cfm.readRepairChance;
                 rcf.gc_grace_seconds = cfm.gcGraceSeconds;
                 rcf.rows_cached = cfm.rowCacheSize;
+                rcf.row_cache_provider = cfm.rowCacheProvider.getName();
+                rcf.row_cache_size_in_mb = cfm.rowCacheSizeInMB;
+                rcf.compaction_strategy = cfm.compactionStrategy.getName();
                 rcf.column_metadata = new RawColumnDefinition[cfm.column_metadata.size()];
                 int j = 0;
                 for (ColumnDefinition cd : cfm.column_metadata.values())
@@ -907,6 +907,10 @@ public class CassandraServer implements Cassandra.Iface
                               cf_def.isSetMemtable_flush_after_mins() ? cf_def.memtable_flush_after_mins : CFMetaData.DEFAULT_MEMTABLE_LIFETIME_IN_MINS,
                               cf_def.isSetMemtable_throughput_in_mb() ? cf_def.memtable_throughput_in_mb : CFMetaData.DEFAULT_MEMTABLE_THROUGHPUT_IN_MB,
                               cf_def.isSetMemtable_operations_in_millions() ? cf_def.memtable_operations_in_millions : CFMetaData.DEFAULT_MEMTABLE_OPERATIONS_IN_MILLIONS,
+                              CFMetaData.DEFAULT_MEMTABLE_ALLOCATOR,
+                              CFMetaData.DEFAULT_ROW_CACHE_PROVIDER,
+                              CFMetaData.DEFAULT_ROW_CACHE_SIZE_IN_MB,
+                              CFMetaData.DEFAULT_COMPACTION_STRATEGY,
                               ColumnDefinition.fromColumnDef(cf_def.column_metadata));
     }
 
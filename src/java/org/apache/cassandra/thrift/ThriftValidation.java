@@ -353,6 +353,8 @@ public class ThriftValidation
             {
                 if (p instanceof RandomPartitioner)
                     throw new InvalidRequestException("start key's md5 sorts after end key's md5.  this is not allowed; you probably should not specify end key at all, under RandomPartitioner");
+                else if (!p.preservesOrder())
+                    throw new InvalidRequestException("start key's token sorts after end key's token.  this is not allowed; you probably should not specify end key at all, under " + p.getClass().getSimpleName());
                 else
                     throw new InvalidRequestException("start key must sort before (or equal to) finish key in your partitioner!");
             }
@@ -372,9 +374,9 @@ public class ThriftValidation
         Set<ByteBuffer> indexedColumns = Table.open(keyspace).getColumnFamilyStore(columnFamily).getIndexedColumns();
         for (IndexExpression expression : index_clause.expressions)
         {
-            if (expression.op.equals(IndexOperator.EQ) && indexedColumns.contains(expression.column_name))
+            if (indexedColumns.contains(expression.column_name))
                 return;
         }
-        throw new InvalidRequestException("No indexed columns present in index clause with operator EQ");
+        throw new InvalidRequestException("No indexed columns present in index clause");
     }
 }
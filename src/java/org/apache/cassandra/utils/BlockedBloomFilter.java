@@ -0,0 +1,282 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.utils;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.apache.cassandra.io.ICompactSerializer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A bloom filter that sets and tests all the bits for a key within a single 512-bit block, so a lookup
+ * touches one cache line instead of one per hash.  Blocks are kept off-heap in direct (or, when read
+ * from disk, memory-mapped) pages and addressed by a long, so the filter is not bound by BitSet's
+ * 2^31 bits.  Crowding the bits into blocks raises the false positive rate, which EXTRA_BUCKETS more
+ * bits per element than the standard filter's more than make up for.
+ */
+public class BlockedBloomFilter extends Filter
+{
+    private static final Logger logger = LoggerFactory.getLogger(BlockedBloomFilter.class);
+    private static final ICompactSerializer<BlockedBloomFilter> serializer_ = new BlockedBloomFilterSerializer();
+
+    static final int BLOCK_BYTES = 64;
+    static final int BLOCK_BITS = BLOCK_BYTES * 8;
+    // the serialized header is padded to a whole block, so mapped blocks stay aligned
+    static final int HEADER_BYTES = BLOCK_BYTES;
+
+    // blocks per page; 2^24 blocks makes 1GB pages
+    private static final int PAGE_SHIFT = 24;
+    private static final long PAGE_MASK = (1L << PAGE_SHIFT) - 1;
+    static final long PAGE_BYTES = (1L << PAGE_SHIFT) * BLOCK_BYTES;
+
+    private static final int EXTRA_BUCKETS = 3;
+
+    public static ICompactSerializer<BlockedBloomFilter> serializer()
+    {
+        return serializer_;
+    }
+
+    private final long numBlocks;
+    private final ByteBuffer[] pages;
+
+    BlockedBloomFilter(int hashes, long numBlocks, ByteBuffer[] pages)
+    {
+        assert numBlocks > 0 && pages.length == pageCount(numBlocks);
+        hashCount = hashes;
+        this.numBlocks = numBlocks;
+        this.pages = pages;
+    }
+
+    private static int pageCount(long numBlocks)
+    {
+        return (int) ((numBlocks + PAGE_MASK) >>> PAGE_SHIFT);
+    }
+
+    private static long pageBytes(long numBlocks, int page)
+    {
+        return Math.min(PAGE_BYTES, (numBlocks - ((long) page << PAGE_SHIFT)) * BLOCK_BYTES);
+    }
+
+    static ByteBuffer[] allocatePages(long numBlocks)
+    {
+        ByteBuffer[] pages = new ByteBuffer[pageCount(numBlocks)];
+        for (int i = 0; i < pages.length; i++)
+            pages[i] = ByteBuffer.allocateDirect((int) pageBytes(numBlocks, i));
+        return pages;
+    }
+
+    private static BlockedBloomFilter allocate(int hashes, long numElements, int bucketsPerElement)
+    {
+        long numBits = Math.max(1, numElements) * bucketsPerElement + BLOCK_BITS - 1;
+        long numBlocks = numBits / BLOCK_BITS;
+        return new BlockedBloomFilter(hashes, numBlocks, allocatePages(numBlocks));
+    }
+
+    /**
+     * @return A filter with the lowest practical false positive probability for the given number of
+     * elements, using up to targetBucketsPerElem bits per element (plus EXTRA_BUCKETS).
+     */
+    public static BlockedBloomFilter getFilter(long numElements, int targetBucketsPerElem)
+    {
+        int bucketsPerElement = Math.min(targetBucketsPerElem, BloomCalculations.probs.length - 1);
+        if (bucketsPerElement < targetBucketsPerElem)
+        {
+            logger.warn(String.format("Cannot provide an optimal BloomFilter for %d elements (%d/%d buckets per element).",
+                                      numElements, bucketsPerElement, targetBucketsPerElem));
+        }
+        BloomCalculations.BloomSpecification spec = BloomCalculations.computeBloomSpec(bucketsPerElement);
+        return allocate(spec.K, numElements, spec.bucketsPerElement + EXTRA_BUCKETS);
+    }
+
+    /**
+     * @return The smallest filter that can provide the given false positive probability for the given
+     * number of elements.
+     */
+    public static BlockedBloomFilter getFilter(long numElements, double maxFalsePosProbability)
+    {
+        assert maxFalsePosProbability <= 1.0 : "Invalid probability";
+        BloomCalculations.BloomSpecification spec = BloomCalculations.computeBloomSpec(BloomCalculations.probs.length - 1, maxFalsePosProbability);
+        return allocate(spec.K, numElements, spec.bucketsPerElement + EXTRA_BUCKETS);
+    }
+
+    /**
+     * Maps a filter written by the serializer without copying it onto the heap.
+     */
+    public static BlockedBloomFilter open(String filename) throws IOException
+    {
+        RandomAccessFile file = new RandomAccessFile(filename, "r");
+        try
+        {
+            int hashes = file.readInt();
+            long numBlocks = file.readLong();
+            if (file.length() != HEADER_BYTES + numBlocks * BLOCK_BYTES)
+                throw new IOException(String.format("%s holds %d bytes, not the %d blocks of its header", filename, file.length(), numBlocks));
+
+            FileChannel channel = file.getChannel();
+            ByteBuffer[] pages = new ByteBuffer[pageCount(numBlocks)];
+            for (int i = 0; i < pages.length; i++)
+                pages[i] = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES + i * PAGE_BYTES, pageBytes(numBlocks, i));
+            return new BlockedBloomFilter(hashes, numBlocks, pages);
+        }
+        finally
+        {
+            file.close();
+        }
+    }
+
+    long numBlocks()
+    {
+        return numBlocks;
+    }
+
+    ByteBuffer[] pages()
+    {
+        return pages;
+    }
+
+    long buckets()
+    {
+        return numBlocks * BLOCK_BITS;
+    }
+
+    public void clear()
+    {
+        for (ByteBuffer page : pages)
+        {
+            for (int i = 0; i < page.capacity(); i += 8)
+                page.putLong(i, 0);
+        }
+    }
+
+    // A single 64-bit murmur hash picks the block; the bits within it are then taken BIT_SHIFT bits at a
+    // time from a remix of the hash, remixing the hash plus a counter again whenever those run out.
+
+    private static final int BIT_SHIFT = 9; // log2(BLOCK_BITS)
+    private static final int BITS_PER_MIX = 64 / BIT_SHIFT;
+
+    private static long mix(long h)
+    {
+        // murmur3's fmix64
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    public boolean isPresent(ByteBuffer key)
+    {
+        long hash = MurmurHash.hash64(key, key.position(), key.remaining(), 0L);
+        long block = (hash >>> 1) % numBlocks;
+        ByteBuffer page = pages[(int) (block >>> PAGE_SHIFT)];
+        int base = (int) (block & PAGE_MASK) * BLOCK_BYTES;
+        long bits = 0;
+        for (int i = 0; i < hashCount; i++, bits >>>= BIT_SHIFT)
+        {
+            if (i % BITS_PER_MIX == 0)
+                bits = mix(hash + i / BITS_PER_MIX);
+            int b = (int) bits & (BLOCK_BITS - 1);
+            if ((page.get(base + (b >>> 3)) & (1 << (b & 7))) == 0)
+                return false;
+        }
+        return true;
+    }
+
+    public void add(ByteBuffer key)
+    {
+        long hash = MurmurHash.hash64(key, key.position(), key.remaining(), 0L);
+        long block = (hash >>> 1) % numBlocks;
+        ByteBuffer page = pages[(int) (block >>> PAGE_SHIFT)];
+        int base = (int) (block & PAGE_MASK) * BLOCK_BYTES;
+        long bits = 0;
+        for (int i = 0; i < hashCount; i++, bits >>>= BIT_SHIFT)
+        {
+            if (i % BITS_PER_MIX == 0)
+                bits = mix(hash + i / BITS_PER_MIX);
+            int b = (int) bits & (BLOCK_BITS - 1);
+            int index = base + (b >>> 3);
+            page.put(index, (byte) (page.get(index) | (1 << (b & 7))));
+        }
+    }
+
+    long emptyBuckets()
+    {
+        long n = 0;
+        for (ByteBuffer page : pages)
+        {
+            for (int i = 0; i < page.capacity(); i += 8)
+                n += 64 - Long.bitCount(page.getLong(i));
+        }
+        return n;
+    }
+
+    public String toString()
+    {
+        return String.format("BlockedBloomFilter(hashes=%d, blocks=%d)", hashCount, numBlocks);
+    }
+}
+
+class BlockedBloomFilterSerializer implements ICompactSerializer<BlockedBloomFilter>
+{
+    private static final int PADDING = BlockedBloomFilter.HEADER_BYTES - 12;
+
+    public void serialize(BlockedBloomFilter bf, DataOutputStream dos) throws IOException
+    {
+        dos.writeInt(bf.getHashCount());
+        dos.writeLong(bf.numBlocks());
+        dos.write(new byte[PADDING]);
+
+        byte[] buffer = new byte[64 * 1024];
+        for (ByteBuffer page : bf.pages())
+        {
+            page = page.duplicate();
+            page.clear();
+            while (page.hasRemaining())
+            {
+                int length = Math.min(buffer.length, page.remaining());
+                page.get(buffer, 0, length);
+                dos.write(buffer, 0, length);
+            }
+        }
+    }
+
+    public BlockedBloomFilter deserialize(DataInputStream dis) throws IOException
+    {
+        int hashes = dis.readInt();
+        long numBlocks = dis.readLong();
+        dis.readFully(new byte[PADDING]);
+
+        ByteBuffer[] pages = BlockedBloomFilter.allocatePages(numBlocks);
+        byte[] buffer = new byte[64 * 1024];
+        for (ByteBuffer page : pages)
+        {
+            while (page.hasRemaining())
+            {
+                int length = Math.min(buffer.length, page.remaining());
+                dis.readFully(buffer, 0, length);
+                page.put(buffer, 0, length);
+            }
+            page.clear();
+        }
+        return new BlockedBloomFilter(hashes, numBlocks, pages);
+    }
+}
@@ -106,11 +106,16 @@ public class BloomFilter extends Filter
         filter_.clear();
     }
 
-    int buckets()
+    long buckets()
     {
         return filter_.size();
     }
 
+    public int[] getHashBuckets(ByteBuffer key)
+    {
+        return Filter.getHashBuckets(key, hashCount, filter_.size());
+    }
+
     BitSet filter()
     {
         return filter_;
@@ -151,9 +156,9 @@ public class BloomFilter extends Filter
         return serializer_;
     }
 
-    int emptyBuckets()
+    long emptyBuckets()
     {
-        int n = 0;
+        long n = 0;
         for (int i = 0; i < buckets(); i++)
         {
             if (!filter_.get(i))
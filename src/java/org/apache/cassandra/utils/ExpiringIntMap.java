@@ -0,0 +1,175 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.utils;
+
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.cliffc.high_scale_lib.NonBlockingHashMapLong;
+
+/**
+ * ExpiringMap for int keys, kept unboxed in a NonBlockingHashMapLong, where each entry may have an
+ * expiration of its own.  Rather than scanning the whole map, expiry follows a hashed timer wheel:
+ * every entry is also pushed on the bucket of the tick it expires at, and each tick only visits the
+ * entries of its own bucket, so both put and expiry are O(1).  Entries that live longer than a turn
+ * of the wheel are pushed back on their bucket until their turn comes; removed entries are dropped
+ * from their bucket when it is next visited.
+ */
+public class ExpiringIntMap<V>
+{
+    public interface ExpirationListener<V>
+    {
+        /** called from the timer thread for every entry that expired before it was removed */
+        public void expired(int key, V value);
+    }
+
+    private static final int WHEEL_SIZE = 512;
+    private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+
+    private static class CacheableObject<T>
+    {
+        private final int key;
+        private final T value;
+        private final long age;
+        private final long deadline;
+        // the next entry on the same bucket of the wheel
+        private CacheableObject<T> next;
+
+        CacheableObject(int key, T value, long expiration)
+        {
+            this.key = key;
+            this.value = value;
+            age = System.currentTimeMillis();
+            deadline = age + expiration;
+        }
+    }
+
+    private class CacheMonitor extends TimerTask
+    {
+        @Override
+        public void run()
+        {
+            long now = System.currentTimeMillis();
+            for (long last = now / tickMillis; tick <= last; tick++)
+            {
+                CacheableObject<V> co = wheel.getAndSet((int) (tick & WHEEL_MASK), null);
+                while (co != null)
+                {
+                    CacheableObject<V> next = co.next;
+                    if (co.deadline <= now)
+                    {
+                        if (cache.remove(co.key, co) && listener != null)
+                            listener.expired(co.key, co.value);
+                    }
+                    else if (cache.get(co.key) == co)
+                    {
+                        // not yet: it expires on a later turn of the wheel
+                        schedule(co);
+                    }
+                    co = next;
+                }
+            }
+        }
+    }
+
+    private final NonBlockingHashMapLong<CacheableObject<V>> cache = new NonBlockingHashMapLong<CacheableObject<V>>();
+    private final AtomicReferenceArray<CacheableObject<V>> wheel = new AtomicReferenceArray<CacheableObject<V>>(WHEEL_SIZE);
+    private final long tickMillis;
+    // the next tick the timer will visit; only the timer thread advances it
+    private volatile long tick;
+    private final ExpirationListener<? super V> listener;
+    private final Timer timer;
+    private static int counter = 0;
+
+    /*
+    * Specify how often, in milliseconds, to expire
+    * the objects in the cache, which bounds how late
+    * they may expire.
+    */
+    public ExpiringIntMap(long tickMillis, ExpirationListener<? super V> listener)
+    {
+        if (tickMillis <= 0)
+        {
+            throw new IllegalArgumentException("Argument specified must be a positive number");
+        }
+
+        this.tickMillis = tickMillis;
+        this.listener = listener;
+        tick = System.currentTimeMillis() / tickMillis;
+        timer = new Timer("EXPIRING-INT-MAP-TIMER-" + (++counter), true);
+        timer.schedule(new CacheMonitor(), tickMillis, tickMillis);
+    }
+
+    public void shutdown()
+    {
+        timer.cancel();
+    }
+
+    private void schedule(CacheableObject<V> co)
+    {
+        // an entry put just as the timer passes its tick waits out one more turn of the wheel
+        long expiresAt = Math.max((co.deadline + tickMillis - 1) / tickMillis, tick);
+        int bucket = (int) (expiresAt & WHEEL_MASK);
+        CacheableObject<V> head;
+        do
+        {
+            head = wheel.get(bucket);
+            co.next = head;
+        }
+        while (!wheel.compareAndSet(bucket, head, co));
+    }
+
+    /**
+     * @param expiration milliseconds after which the entry is removed, unless it is removed first
+     */
+    public void put(int key, V value, long expiration)
+    {
+        CacheableObject<V> co = new CacheableObject<V>(key, value, expiration);
+        cache.put(key, co);
+        schedule(co);
+    }
+
+    public V get(int key)
+    {
+        CacheableObject<V> co = cache.get(key);
+        return co == null ? null : co.value;
+    }
+
+    public V remove(int key)
+    {
+        CacheableObject<V> co = cache.remove(key);
+        return co == null ? null : co.value;
+    }
+
+    public long getAge(int key)
+    {
+        CacheableObject<V> co = cache.get(key);
+        return co == null ? 0 : co.age;
+    }
+
+    public int size()
+    {
+        return cache.size();
+    }
+
+    public boolean isEmpty()
+    {
+        return cache.isEmpty();
+    }
+}
@@ -34,19 +34,14 @@ public abstract class Filter
         return hashCount;
     }
 
-    public int[] getHashBuckets(ByteBuffer key)
-    {
-        return Filter.getHashBuckets(key, hashCount, buckets());
-    }
-
-    abstract int buckets();
+    abstract long buckets();
 
     public abstract void add(ByteBuffer key);
 
     public abstract boolean isPresent(ByteBuffer key);
 
     // for testing
-    abstract int emptyBuckets();
+    abstract long emptyBuckets();
 
     ICompactSerializer<Filter> getSerializer()
     {
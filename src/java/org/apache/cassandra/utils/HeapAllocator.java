@@ -0,0 +1,53 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.cassandra.utils;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the buffers a memtable is given as they are, and allocates every other buffer separately on
+ * the heap.  This is the traditional memtable behavior.
+ */
+public final class HeapAllocator extends Allocator
+{
+    private final AtomicLong allocated = new AtomicLong(0);
+
+    /**
+     * Hands back the buffer itself rather than a copy.
+     */
+    @Override
+    public ByteBuffer clone(ByteBuffer buffer)
+    {
+        assert buffer != null;
+        allocated.addAndGet(buffer.remaining());
+        return buffer;
+    }
+
+    public ByteBuffer allocate(int size)
+    {
+        allocated.addAndGet(size);
+        return ByteBuffer.allocate(size);
+    }
+
+    public long getMinimumSize()
+    {
+        return allocated.get();
+    }
+}
@@ -0,0 +1,191 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.utils;
+
+import java.io.IOException;
+
+/**
+ * A pure Java codec for the LZF format of liblzf: a byte-oriented LZ77 that gives up some ratio for
+ * compressing and decompressing at a few hundred MB/s.  Compressed data is a sequence of chunks,
+ * each starting with a control byte:
+ *
+ *  000LLLLL                      a run of L + 1 literal bytes follows
+ *  LLLOOOOO [LLLLLLLL] OOOOOOOO  copy L + 2 bytes from O + 1 bytes back; an L of 7 means
+ *                                the length continues in the optional byte
+ */
+public class LZFCodec
+{
+    private static final int MAX_LITERAL = 1 << 5;
+    private static final int MAX_OFFSET = 1 << 13;
+    private static final int MAX_REF = (1 << 8) + (1 << 3);
+
+    private static final int HASH_LOG = 14;
+
+    // positions of recently seen 3-byte sequences.  Stale entries from earlier inputs are harmless,
+    // since every candidate match is checked against the input, so the table is never cleared.
+    private static final ThreadLocal<int[]> hashTable = new ThreadLocal<int[]>()
+    {
+        protected int[] initialValue()
+        {
+            return new int[1 << HASH_LOG];
+        }
+    };
+
+    /**
+     * @return the most bytes compressing length bytes can produce
+     */
+    public static int maxCompressedLength(int length)
+    {
+        // incompressible input costs a control byte per literal run
+        return length + (length + MAX_LITERAL - 1) / MAX_LITERAL;
+    }
+
+    private static int hash(byte[] in, int i)
+    {
+        int v = (in[i] & 0xff) << 16 | (in[i + 1] & 0xff) << 8 | (in[i + 2] & 0xff);
+        return (v * -1640531535) >>> (32 - HASH_LOG);
+    }
+
+    /**
+     * Compresses in[inOffset, inOffset + inLength) into out, which must have room for
+     * maxCompressedLength(inLength) bytes from outOffset.
+     * @return the number of bytes written to out
+     */
+    public static int compress(byte[] in, int inOffset, int inLength, byte[] out, int outOffset)
+    {
+        int[] table = hashTable.get();
+        int ip = inOffset;
+        int end = inOffset + inLength;
+        int op = outOffset;
+        int literals = 0;
+        // the control byte of the current literal run goes here once the run's length is known
+        int runStart = op++;
+
+        while (ip < end - 2)
+        {
+            int h = hash(in, ip);
+            int ref = table[h];
+            table[h] = ip;
+            int offset = ip - ref - 1;
+            if (ref >= inOffset && offset >= 0 && offset < MAX_OFFSET
+                && in[ref] == in[ip] && in[ref + 1] == in[ip + 1] && in[ref + 2] == in[ip + 2])
+            {
+                int maxLength = Math.min(MAX_REF, end - ip);
+                int length = 3;
+                while (length < maxLength && in[ref + length] == in[ip + length])
+                    length++;
+
+                if (literals > 0)
+                    out[runStart] = (byte) (literals - 1);
+                else
+                    op--;
+
+                int stored = length - 2;
+                if (stored < 7)
+                {
+                    out[op++] = (byte) ((offset >> 8) + (stored << 5));
+                }
+                else
+                {
+                    out[op++] = (byte) ((offset >> 8) + (7 << 5));
+                    out[op++] = (byte) (stored - 7);
+                }
+                out[op++] = (byte) offset;
+
+                ip += length;
+                literals = 0;
+                runStart = op++;
+            }
+            else
+            {
+                out[op++] = in[ip++];
+                if (++literals == MAX_LITERAL)
+                {
+                    out[runStart] = (byte) (MAX_LITERAL - 1);
+                    literals = 0;
+                    runStart = op++;
+                }
+            }
+        }
+
+        while (ip < end)
+        {
+            out[op++] = in[ip++];
+            if (++literals == MAX_LITERAL)
+            {
+                out[runStart] = (byte) (MAX_LITERAL - 1);
+                literals = 0;
+                runStart = op++;
+            }
+        }
+        if (literals > 0)
+            out[runStart] = (byte) (literals - 1);
+        else
+            op--;
+
+        return op - outOffset;
+    }
+
+    /**
+     * Decompresses in[inOffset, inOffset + inLength) into exactly outLength bytes of out from outOffset.
+     * @throws IOException if the input is not valid LZF, or does not decompress to outLength bytes
+     */
+    public static void decompress(byte[] in, int inOffset, int inLength, byte[] out, int outOffset, int outLength) throws IOException
+    {
+        int ip = inOffset;
+        int inEnd = inOffset + inLength;
+        int op = outOffset;
+        int outEnd = outOffset + outLength;
+
+        while (ip < inEnd)
+        {
+            int control = in[ip++] & 0xff;
+            if (control < MAX_LITERAL)
+            {
+                int run = control + 1;
+                if (ip + run > inEnd || op + run > outEnd)
+                    throw new IOException("corrupt LZF data: literal run overruns its buffer");
+                System.arraycopy(in, ip, out, op, run);
+                ip += run;
+                op += run;
+            }
+            else
+            {
+                int length = control >> 5;
+                if (length == 7)
+                {
+                    if (ip >= inEnd)
+                        throw new IOException("corrupt LZF data: truncated back reference");
+                    length += in[ip++] & 0xff;
+                }
+                length += 2;
+                if (ip >= inEnd)
+                    throw new IOException("corrupt LZF data: truncated back reference");
+                int ref = op - ((control & 0x1f) << 8) - (in[ip++] & 0xff) - 1;
+                if (ref < outOffset || op + length > outEnd)
+                    throw new IOException("corrupt LZF data: back reference out of bounds");
+                // the source and destination may overlap, which repeats the bytes; so copy one at a time
+                for (int i = 0; i < length; i++)
+                    out[op++] = out[ref++];
+            }
+        }
+
+        if (op != outEnd)
+            throw new IOException("corrupt LZF data: decompressed to " + (op - outOffset) + " bytes, not " + outLength);
+    }
+}
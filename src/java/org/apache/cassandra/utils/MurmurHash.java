@@ -19,6 +19,7 @@
 package org.apache.cassandra.utils;
 
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 
 /**
  * This is a very fast, non-cryptographic hash suitable for general hash-based
@@ -76,4 +77,47 @@ public class MurmurHash {
 
     return h;
   }
+
+  /**
+   * MurmurHash64A, the 64-bit variant of MurmurHash 2.0, over the bytes of
+   * key from offset to offset + length.  The buffer's position is not used
+   * nor changed.
+   */
+  public static long hash64(ByteBuffer key, int offset, int length, long seed) {
+    long m = 0xc6a4a7935bd1e995L;
+    int r = 47;
+
+    long h = seed ^ (length * m);
+
+    int len_8 = length >> 3;
+    // the blocks are read little-endian, whatever the order of the buffer
+    boolean swap = key.order() == ByteOrder.BIG_ENDIAN;
+
+    for (int i = 0; i < len_8; i++) {
+      long k = key.getLong(offset + (i << 3));
+      if (swap)
+        k = Long.reverseBytes(k);
+      k *= m;
+      k ^= k >>> r;
+      k *= m;
+      h ^= k;
+      h *= m;
+    }
+
+    int tail = offset + (len_8 << 3);
+    int left = length & 7;
+
+    if (left != 0) {
+      for (int i = left - 1; i >= 0; i--) {
+        h ^= ((long) key.get(tail + i) & 0xff) << (i << 3);
+      }
+      h *= m;
+    }
+
+    h ^= h >>> r;
+    h *= m;
+    h ^= h >>> r;
+
+    return h;
+  }
 }
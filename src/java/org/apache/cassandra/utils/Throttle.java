@@ -0,0 +1,80 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.utils;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Paces work to a target throughput by making callers that get ahead of it sleep.  Any number of
+ * threads may share one, and are then paced together.
+ */
+public class Throttle
+{
+    private volatile long bytesPerSecond;
+    // when the work acquired so far will have been paid for; guarded by this
+    private long paidUntilNanos;
+
+    /**
+     * @param bytesPerSecond the target throughput, or 0 not to throttle
+     */
+    public Throttle(long bytesPerSecond)
+    {
+        setThroughput(bytesPerSecond);
+    }
+
+    public long getThroughput()
+    {
+        return bytesPerSecond;
+    }
+
+    public void setThroughput(long bytesPerSecond)
+    {
+        assert bytesPerSecond >= 0;
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    /**
+     * Accounts for work of the given size, sleeping until the work done before it has been paid for.
+     * Time spent idle is not banked, so a burst after a pause is paced like any other.
+     */
+    public void acquire(long bytes)
+    {
+        long rate = bytesPerSecond;
+        if (rate == 0)
+            return;
+
+        long waitNanos;
+        synchronized (this)
+        {
+            long now = System.nanoTime();
+            long start = Math.max(paidUntilNanos, now);
+            paidUntilNanos = start + (long) (bytes * 1e9 / rate);
+            waitNanos = start - now;
+        }
+        if (waitNanos <= 0)
+            return;
+        try
+        {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+        catch (InterruptedException e)
+        {
+            throw new AssertionError(e);
+        }
+    }
+}
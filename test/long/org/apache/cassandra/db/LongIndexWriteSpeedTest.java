@@ -0,0 +1,85 @@
+/*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements.  See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership.  The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License.  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.apache.cassandra.db;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+import org.apache.cassandra.CleanupHelper;
+import org.apache.cassandra.config.Config;
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.db.filter.QueryPath;
+import org.apache.cassandra.utils.ByteBufferUtil;
+import org.apache.cassandra.utils.FBUtilities;
+
+public class LongIndexWriteSpeedTest extends CleanupHelper
+{
+    public static final String TABLE2 = "Keyspace2";
+
+    /**
+     * Overwrite indexed values with the index maintained at write time.
+     */
+    @Test
+    public void testSynchronousIndexWrites() throws Exception
+    {
+        testIndexWrites(Config.IndexMaintenance.synchronous, 20000, 5);
+    }
+
+    /**
+     * Overwrite indexed values leaving stale entries to be cleaned up by reads.
+     */
+    @Test
+    public void testLazyIndexWrites() throws Exception
+    {
+        testIndexWrites(Config.IndexMaintenance.lazy, 20000, 5);
+    }
+
+    protected void testIndexWrites(Config.IndexMaintenance mode, int rows, int updatesPerRow) throws Exception
+    {
+        Config.IndexMaintenance previous = DatabaseDescriptor.getIndexMaintenance();
+        DatabaseDescriptor.setIndexMaintenance(mode);
+        try
+        {
+            ByteBuffer birthdate = ByteBufferUtil.bytes("birthdate");
+            QueryPath path = new QueryPath("Indexed1", null, birthdate);
+
+            long start = System.currentTimeMillis();
+            for (int i = 0; i < updatesPerRow; i++)
+            {
+                for (int j = 0; j < rows; j++)
+                {
+                    RowMutation rm = new RowMutation(TABLE2, ByteBufferUtil.bytes(mode + "-" + j));
+                    rm.add(path, FBUtilities.toByteBuffer((long) i), i);
+                    rm.apply();
+                }
+            }
+            System.out.println(String.format("%s: mode=%s rows=%d updatesper=%d: %d ms",
+                                             this.getClass().getName(),
+                                             mode,
+                                             rows,
+                                             updatesPerRow,
+                                             System.currentTimeMillis() - start));
+        }
+        finally
+        {
+            DatabaseDescriptor.setIndexMaintenance(previous);
+        }
+    }
+}
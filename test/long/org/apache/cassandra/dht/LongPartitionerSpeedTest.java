@@ -0,0 +1,93 @@
+/*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements.  See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership.  The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License.  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.apache.cassandra.dht;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import org.apache.cassandra.db.DecoratedKey;
+
+/**
+ * Compares the cost of decorating keys and of comparing the decorated keys across partitioners.
+ */
+public class LongPartitionerSpeedTest
+{
+    private static final int KEYS = 100000;
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int ROUNDS = 10;
+
+    @Test
+    public void testRandomPartitioner()
+    {
+        testPartitioner(new RandomPartitioner());
+    }
+
+    @Test
+    public void testMurmurPartitioner()
+    {
+        testPartitioner(new MurmurPartitioner());
+    }
+
+    protected void testPartitioner(IPartitioner partitioner)
+    {
+        Random random = new Random(0);
+        ByteBuffer[] keys = new ByteBuffer[KEYS];
+        for (int i = 0; i < KEYS; i++)
+        {
+            // sized like typical row keys
+            byte[] key = new byte[8 + random.nextInt(32)];
+            random.nextBytes(key);
+            keys[i] = ByteBuffer.wrap(key);
+        }
+
+        // let the JIT compile both paths before measuring
+        for (int i = 0; i < WARMUP_ROUNDS; i++)
+            run(partitioner, keys);
+
+        long decorate = 0, sort = 0;
+        for (int i = 0; i < ROUNDS; i++)
+        {
+            long[] times = run(partitioner, keys);
+            decorate += times[0];
+            sort += times[1];
+        }
+        System.out.println(String.format("%s: keys=%d decorate=%d ns/key sort=%d ns/key",
+                                         partitioner.getClass().getSimpleName(),
+                                         KEYS,
+                                         decorate / ROUNDS / KEYS,
+                                         sort / ROUNDS / KEYS));
+    }
+
+    private long[] run(IPartitioner partitioner, ByteBuffer[] keys)
+    {
+        DecoratedKey[] decorated = new DecoratedKey[keys.length];
+        long start = System.nanoTime();
+        for (int i = 0; i < keys.length; i++)
+            decorated[i] = partitioner.decorateKey(keys[i]);
+        long decorate = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        Arrays.sort(decorated);
+        long sort = System.nanoTime() - start;
+        return new long[]{ decorate, sort };
+    }
+}
@@ -0,0 +1,58 @@
+/*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements.  See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership.  The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License.  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.apache.cassandra.utils;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class LongBlockedBloomFilterTest
+{
+    public BlockedBloomFilter bf;
+
+    @Test
+    public void testBigRandom()
+    {
+        int size = 10 * 1000 * 1000;
+        bf = BlockedBloomFilter.getFilter(size, FilterTest.spec.bucketsPerElement);
+        FilterTest.testFalsePositives(bf,
+                                      new KeyGenerator.RandomStringGenerator(new Random().nextInt(), size),
+                                      new KeyGenerator.RandomStringGenerator(new Random().nextInt(), size));
+    }
+
+    /**
+     * NB: allocates ~350MB off-heap, so needs -XX:MaxDirectMemorySize of at least that
+     */
+    @Test
+    public void testBeyondIntegerBits()
+    {
+        long size = 150L * 1000 * 1000;
+        bf = BlockedBloomFilter.getFilter(size, 15);
+        assert bf.buckets() > Integer.MAX_VALUE;
+
+        int added = 1000 * 1000;
+        ResetableIterator<ByteBuffer> keys = new KeyGenerator.RandomStringGenerator(new Random().nextInt(), added);
+        while (keys.hasNext())
+            bf.add(keys.next());
+        keys.reset();
+        while (keys.hasNext())
+            assert bf.isPresent(keys.next());
+    }
+}
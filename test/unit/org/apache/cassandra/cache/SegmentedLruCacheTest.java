@@ -0,0 +1,226 @@
+/*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements.  See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership.  The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License.  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.apache.cassandra.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class SegmentedLruCacheTest
+{
+    private static final IWeigher<String> weigher = new IWeigher<String>()
+    {
+        public long weigh(String value)
+        {
+            return value.length();
+        }
+    };
+
+    private static String value(int length)
+    {
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++)
+            sb.append('x');
+        return sb.toString();
+    }
+
+    @Test
+    public void testWeightedCapacity()
+    {
+        final List<Integer> removed = new ArrayList<Integer>();
+        SegmentedLruCache.RemovalListener<Integer, String> listener = new SegmentedLruCache.RemovalListener<Integer, String>()
+        {
+            public void onRemoval(Integer key, String value)
+            {
+                removed.add(key);
+            }
+        };
+        // 10 units of 100
+        SegmentedLruCache<Integer, String> cache = new SegmentedLruCache<Integer, String>(10, 100, weigher, listener);
+        for (int i = 0; i < 10; i++)
+            cache.put(i, value(100));
+        assertEquals(10, cache.size());
+        assertEquals(1000, cache.weightedSize());
+        assertEquals(0, cache.evictions());
+
+        // a value of half the capacity pushes out the five oldest
+        cache.put(10, value(500));
+        assertEquals(6, cache.size());
+        assertEquals(1000, cache.weightedSize());
+        assertEquals(5, cache.evictions());
+        assertEquals(5, removed.size());
+        for (int i = 0; i < 5; i++)
+            assertNull(cache.get(i));
+
+        // one larger than the capacity cannot stay
+        cache.put(11, value(1001));
+        assertNull(cache.get(11));
+        assert cache.weightedSize() <= 1000;
+
+        // replacing, removing and clearing all let go of the old values
+        removed.clear();
+        cache.put(5, value(50));
+        assertEquals(1, removed.size());
+        cache.remove(6);
+        assertEquals(2, removed.size());
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.weightedSize());
+
+        cache.setCapacity(0);
+        cache.put(1, value(1));
+        assertNull(cache.get(1));
+    }
+
+    @Test
+    public void testScanResistance()
+    {
+        SegmentedLruCache<Integer, String> cache = new SegmentedLruCache<Integer, String>(100);
+        for (int i = 0; i < 100; i++)
+            cache.put(i, "hot");
+        for (int i = 0; i < 50; i++)
+            assertEquals("hot", cache.get(i));
+
+        // a scan puts each key once and never reads it again
+        for (int i = 1000; i < 10000; i++)
+            cache.put(i, "scanned");
+
+        assertEquals(100, cache.size());
+        for (int i = 0; i < 50; i++)
+            assertEquals("hot", cache.get(i));
+        for (int i = 50; i < 100; i++)
+            assertNull(cache.get(i));
+    }
+
+    @Test
+    public void testShrink()
+    {
+        SegmentedLruCache<Integer, String> cache = new SegmentedLruCache<Integer, String>(100);
+        for (int i = 0; i < 100; i++)
+        {
+            cache.put(i, "v");
+            cache.get(i);
+        }
+        // promote everything the protected segment can hold
+        for (int i = 100; i < 200; i++)
+            cache.put(i, "v");
+
+        cache.setCapacity(10);
+        assertEquals(10, cache.size());
+        assertEquals(10, cache.weightedSize());
+        cache.setCapacity(100);
+        for (int i = 200; i < 300; i++)
+            cache.put(i, "v");
+        assertEquals(100, cache.size());
+    }
+
+    @Test
+    public void testReweigh()
+    {
+        SegmentedLruCache<Integer, StringBuilder> cache = new SegmentedLruCache<Integer, StringBuilder>(10, 100, new IWeigher<StringBuilder>()
+        {
+            public long weigh(StringBuilder value)
+            {
+                return value.length();
+            }
+        }, null);
+        StringBuilder row = new StringBuilder(value(100));
+        cache.put(1, row);
+        assertEquals(100, cache.weightedSize());
+
+        row.append(value(400));
+        cache.reweigh(1, row);
+        assertEquals(500, cache.weightedSize());
+        assert cache.get(1) == row;
+
+        // nothing happens for a value that is no longer cached
+        cache.remove(1);
+        cache.reweigh(1, row);
+        assertEquals(0, cache.weightedSize());
+        assertNull(cache.get(1));
+    }
+
+    @Test
+    public void testConcurrentWrites() throws InterruptedException
+    {
+        final AtomicInteger removed = new AtomicInteger();
+        SegmentedLruCache.RemovalListener<Integer, String> listener = new SegmentedLruCache.RemovalListener<Integer, String>()
+        {
+            public void onRemoval(Integer key, String value)
+            {
+                removed.incrementAndGet();
+            }
+        };
+        final SegmentedLruCache<Integer, String> cache = new SegmentedLruCache<Integer, String>(100, 1, new IWeigher<String>()
+        {
+            public long weigh(String value)
+            {
+                return 1;
+            }
+        }, listener);
+        final int threads = 8, writes = 20000;
+        Thread[] writers = new Thread[threads];
+        for (int t = 0; t < threads; t++)
+        {
+            final Random random = new Random(t);
+            writers[t] = new Thread()
+            {
+                public void run()
+                {
+                    for (int i = 0; i < writes; i++)
+                    {
+                        int key = random.nextInt(300);
+                        if (random.nextInt(4) == 0)
+                            cache.remove(key);
+                        else
+                            cache.put(key, "v");
+                        cache.get(random.nextInt(300));
+                    }
+                }
+            };
+            writers[t].start();
+        }
+        for (Thread writer : writers)
+            writer.join();
+
+        // every queued change has been applied by now; each value that left was handed to the listener once
+        cache.setCapacity(100);
+        assert cache.size() <= 100 : cache.size();
+        assertEquals(cache.size(), cache.weightedSize());
+        int puts = 0;
+        for (int t = 0; t < threads; t++)
+        {
+            Random random = new Random(t);
+            for (int i = 0; i < writes; i++)
+            {
+                random.nextInt(300);
+                if (random.nextInt(4) != 0)
+                    puts++;
+                random.nextInt(300);
+            }
+        }
+        assertEquals(puts, removed.get() + cache.size());
+    }
+}
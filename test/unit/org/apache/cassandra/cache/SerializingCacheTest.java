@@ -0,0 +1,109 @@
+/*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements.  See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership.  The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License.  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.apache.cassandra.cache;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import org.apache.cassandra.io.ICompactSerializer2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class SerializingCacheTest
+{
+    private static final ICompactSerializer2<byte[]> serializer = new ICompactSerializer2<byte[]>()
+    {
+        public void serialize(byte[] bytes, DataOutput dos) throws IOException
+        {
+            dos.writeInt(bytes.length);
+            dos.write(bytes);
+        }
+
+        public byte[] deserialize(DataInput dis) throws IOException
+        {
+            byte[] bytes = new byte[dis.readInt()];
+            dis.readFully(bytes);
+            return bytes;
+        }
+    };
+
+    private static byte[] value(int size, int fill)
+    {
+        byte[] bytes = new byte[size];
+        Arrays.fill(bytes, (byte) fill);
+        return bytes;
+    }
+
+    @Test
+    public void testGetPutRemove()
+    {
+        SerializingCache<Integer, byte[]> cache = new SerializingCache<Integer, byte[]>(1, serializer);
+        cache.put(1, value(100, 1));
+        cache.put(2, value(200, 2));
+        assert Arrays.equals(value(100, 1), cache.get(1));
+        assert Arrays.equals(value(200, 2), cache.get(2));
+        assertNull(cache.get(3));
+        assertEquals(2, cache.size());
+        assertEquals(2 * 4 + 300, cache.weightedSize());
+
+        // the value is copied, so changing the original does not change the cached one
+        byte[] bytes = value(100, 3);
+        cache.put(1, bytes);
+        bytes[0] = 4;
+        assert Arrays.equals(value(100, 3), cache.get(1));
+        assertEquals(2 * 4 + 300, cache.weightedSize());
+
+        cache.remove(2);
+        assertNull(cache.get(2));
+        assertEquals(4 + 100, cache.weightedSize());
+
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.weightedSize());
+    }
+
+    @Test
+    public void testCapacity()
+    {
+        // 1MB holds about 100 values of 10KB
+        SerializingCache<Integer, byte[]> cache = new SerializingCache<Integer, byte[]>(1, serializer);
+        for (int i = 0; i < 1000; i++)
+        {
+            cache.put(i, value(10 * 1024, i));
+            assert cache.weightedSize() <= 1024 * 1024 : cache.weightedSize();
+        }
+        assert cache.size() >= 90 && cache.size() <= 102 : cache.size();
+        assert Arrays.equals(value(10 * 1024, 999), cache.get(999));
+
+        // smaller values let more in
+        for (int i = 0; i < 1000; i++)
+            cache.put(1000 + i, value(1024, i));
+        assert cache.size() > 500 : cache.size();
+        assert cache.weightedSize() <= 1024 * 1024 : cache.weightedSize();
+
+        cache.setCapacity(0);
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.weightedSize());
+    }
+}
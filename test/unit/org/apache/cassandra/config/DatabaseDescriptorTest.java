@@ -25,6 +25,7 @@ import org.apache.avro.specific.SpecificRecord;
 import org.apache.cassandra.CleanupHelper;
 import org.apache.cassandra.db.migration.AddKeyspace;
 import org.apache.cassandra.locator.SimpleStrategy;
+import org.apache.cassandra.service.StorageService;
 import org.apache.cassandra.io.SerDeUtils;
 
 import org.junit.Test;
@@ -69,6 +70,25 @@ public class DatabaseDescriptorTest
         }
     }
     
+    @Test
+    public void testCompressedDcPairs()
+    {
+        // only the pair listed in the test configuration, in either order
+        assert DatabaseDescriptor.isCompressedDcPair("DC1", "DC2");
+        assert DatabaseDescriptor.isCompressedDcPair("DC2", "DC1");
+        assert !DatabaseDescriptor.isCompressedDcPair("DC1", "DC3");
+        assert !DatabaseDescriptor.isCompressedDcPair("DC1", "DC1");
+    }
+
+    @Test
+    public void testReplyTimeout()
+    {
+        // a reply is dropped as stale only once no request it could answer is still waiting for it
+        assert DatabaseDescriptor.getTimeout(StorageService.Verb.TRUNCATE) > DatabaseDescriptor.getRpcTimeout();
+        for (StorageService.Verb verb : StorageService.Verb.values())
+            assert DatabaseDescriptor.getTimeout(StorageService.Verb.REQUEST_RESPONSE) >= DatabaseDescriptor.getTimeout(verb) : verb;
+    }
+
     // this came as a result of CASSANDRA-995
     @Test
     public void testTransKsMigration() throws IOException, ConfigurationException
@@ -21,10 +21,19 @@ package org.apache.cassandra.db;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.lang.StringUtils;
@@ -33,21 +42,28 @@ import org.junit.Test;
 import org.apache.cassandra.CleanupHelper;
 import org.apache.cassandra.Util;
 import org.apache.cassandra.config.ColumnDefinition;
+import org.apache.cassandra.config.Config;
 import org.apache.cassandra.config.ConfigurationException;
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.db.columniterator.IColumnIterator;
 import org.apache.cassandra.db.columniterator.IdentityQueryFilter;
 import org.apache.cassandra.db.filter.*;
 import org.apache.cassandra.dht.IPartitioner;
 import org.apache.cassandra.dht.Range;
+import org.apache.cassandra.io.sstable.KeyLocations;
 import org.apache.cassandra.io.sstable.SSTableReader;
+import org.apache.cassandra.io.sstable.SSTableScanner;
 import org.apache.cassandra.service.StorageService;
 import org.apache.cassandra.thrift.IndexClause;
 import org.apache.cassandra.thrift.IndexExpression;
 import org.apache.cassandra.thrift.IndexOperator;
 import org.apache.cassandra.thrift.IndexType;
 import org.apache.cassandra.utils.FBUtilities;
+import org.apache.cassandra.utils.Pair;
 import org.apache.cassandra.utils.WrappedRunnable;
 
 import static junit.framework.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import org.apache.cassandra.utils.ByteBufferUtil;
 
@@ -83,6 +99,165 @@ public class ColumnFamilyStoreTest extends CleanupHelper
         assertNull(cf);
     }
 
+    @Test
+    public void testKeyLocatorCache() throws IOException, ExecutionException, InterruptedException
+    {
+        ColumnFamilyStore store = Table.open("Keyspace1").getColumnFamilyStore("Standard2");
+        DecoratedKey key = Util.dk("locator1");
+        QueryFilter filter = QueryFilter.getIdentityFilter(key, new QueryPath("Standard2"));
+
+        RowMutation rm = new RowMutation("Keyspace1", key.key);
+        rm.add(new QueryPath("Standard2", null, ByteBufferUtil.bytes("c1")), ByteBufferUtil.bytes("a"), 0);
+        rm.apply();
+        store.forceBlockingFlush();
+        assertNull(store.getRawCachedKeyLocations(key));
+        assertEquals(1, store.getColumnFamily(filter).getColumnCount());
+        KeyLocations locations = store.getRawCachedKeyLocations(key);
+        assertEquals(1, locations.size());
+
+        // a flush holding another row adds nothing to the locations once they are looked at again
+        rm = new RowMutation("Keyspace1", ByteBufferUtil.bytes("locator2"));
+        rm.add(new QueryPath("Standard2", null, ByteBufferUtil.bytes("c1")), ByteBufferUtil.bytes("a"), 0);
+        rm.apply();
+        store.forceBlockingFlush();
+        assert store.getRawCachedKeyLocations(key) == locations;
+        assertEquals(1, store.getColumnFamily(filter).getColumnCount());
+        assertEquals(1, store.getRawCachedKeyLocations(key).size());
+
+        // but one holding the row itself does
+        rm = new RowMutation("Keyspace1", key.key);
+        rm.add(new QueryPath("Standard2", null, ByteBufferUtil.bytes("c2")), ByteBufferUtil.bytes("b"), 0);
+        rm.apply();
+        store.forceBlockingFlush();
+        assertEquals(2, store.getColumnFamily(filter).getColumnCount());
+        assertEquals(2, store.getRawCachedKeyLocations(key).size());
+
+        // a compaction of the sstables holding it drops the locations, so they do not keep the sstables alive
+        CompactionManager.instance.performMajor(store);
+        assertNull(store.getRawCachedKeyLocations(key));
+        assertEquals(2, store.getColumnFamily(filter).getColumnCount());
+        locations = store.getRawCachedKeyLocations(key);
+        assertEquals(1, locations.size());
+        assert store.getSSTables().contains(locations.getSSTable(0));
+    }
+
+    @Test
+    public void testSerializedRowCache() throws IOException
+    {
+        ColumnFamilyStore store = Table.open("Keyspace1").getColumnFamilyStore("StandardSerializedCache");
+        DecoratedKey key = Util.dk("serialized1");
+        QueryFilter filter = QueryFilter.getIdentityFilter(key, new QueryPath("StandardSerializedCache"));
+        assertEquals(1, store.getRowCacheCapacity());
+
+        RowMutation rm = new RowMutation("Keyspace1", key.key);
+        rm.add(new QueryPath("StandardSerializedCache", null, ByteBufferUtil.bytes("c1")), ByteBufferUtil.bytes("a"), 0);
+        rm.apply();
+        assertNull(store.getRawCachedRow(key));
+        assertEquals(1, store.getColumnFamily(filter).getColumnCount());
+        assertEquals(1, store.getRawCachedRow(key).getColumnCount());
+
+        // rows are cached as copies, which a write invalidates rather than updates
+        rm = new RowMutation("Keyspace1", key.key);
+        rm.add(new QueryPath("StandardSerializedCache", null, ByteBufferUtil.bytes("c2")), ByteBufferUtil.bytes("b"), 0);
+        rm.apply();
+        assertNull(store.getRawCachedRow(key));
+        assertEquals(2, store.getColumnFamily(filter).getColumnCount());
+        ColumnFamily cached = store.getRawCachedRow(key);
+        assertEquals(ByteBufferUtil.bytes("b"), cached.getColumn(ByteBufferUtil.bytes("c2")).value());
+
+        // and changes to a row read from the cache do not reach it
+        cached.addColumn(new Column(ByteBufferUtil.bytes("c3"), ByteBufferUtil.bytes("c"), 0));
+        assertEquals(2, store.getRawCachedRow(key).getColumnCount());
+    }
+
+    @Test
+    public void testSavedRowCache() throws Exception
+    {
+        ColumnFamilyStore store = Table.open("Keyspace1").getColumnFamilyStore("Standard1");
+        store.invalidateRowCache();
+
+        // rows in one sstable, in two, and only in the memtable
+        for (int i = 0; i < 3; i++)
+            insertColumn("Standard1", "warm" + i, "c1");
+        store.forceBlockingFlush();
+        insertColumn("Standard1", "warm0", "c2");
+        store.forceBlockingFlush();
+        insertColumn("Standard1", "warm3", "c1");
+
+        for (int i = 0; i < 4; i++)
+            store.getColumnFamily(QueryFilter.getIdentityFilter(Util.dk("warm" + i), new QueryPath("Standard1")));
+        store.submitRowCacheWrite().get();
+        store.invalidateRowCache();
+
+        FBUtilities.waitOnFutures(store.warmRowCache());
+        assertEquals(0, RowCacheWarmer.instance.getPendingRows());
+        assertEquals(2, store.getRawCachedRow(Util.dk("warm0")).getColumnCount());
+        for (int i = 1; i < 4; i++)
+            assertEquals(1, store.getRawCachedRow(Util.dk("warm" + i)).getColumnCount());
+    }
+
+    @Test
+    public void testWriteWhileWarming() throws Exception
+    {
+        final ColumnFamilyStore store = Table.open("Keyspace1").getColumnFamilyStore("StandardSerializedCache");
+        final DecoratedKey key = Util.dk("warming");
+        insertColumn("StandardSerializedCache", "warming", "c");
+        for (int i = 0; i < 500; i++)
+        {
+            store.invalidateCachedRow(key);
+            final String column = "c" + i;
+            Thread writer = new Thread()
+            {
+                public void run()
+                {
+                    try
+                    {
+                        insertColumn("StandardSerializedCache", "warming", column);
+                    }
+                    catch (IOException e)
+                    {
+                        throw new RuntimeException(e);
+                    }
+                }
+            };
+            writer.start();
+            store.warmCachedRow(key, new HashMap<Integer, Long>(), new HashSet<Integer>());
+            writer.join();
+
+            // the row is cached with the write, or not at all
+            ColumnFamily cached = store.getRawCachedRow(key);
+            if (cached != null)
+                assertNotNull(cached.getColumn(ByteBufferUtil.bytes(column)));
+        }
+    }
+
+    @Test
+    public void testSavedKeyCache() throws Exception
+    {
+        ColumnFamilyStore store = Table.open("Keyspace1").getColumnFamilyStore("Standard2");
+        for (int i = 0; i < 5; i++)
+            insertColumn("Standard2", "saved" + i, "c1");
+        store.forceBlockingFlush();
+        for (int i = 0; i < 5; i++)
+            store.getColumnFamily(QueryFilter.getIdentityFilter(Util.dk("saved" + i), new QueryPath("Standard2")));
+        store.submitKeyCacheWrite().get();
+
+        Map<Integer, Long> dataLengths = new HashMap<Integer, Long>();
+        for (SSTableReader sstable : store.getSSTables())
+            dataLengths.put(sstable.descriptor.generation, sstable.length());
+        Map<Integer, Map<DecoratedKey, Long>> saved = store.readSavedKeyCache(DatabaseDescriptor.getSerializedKeyCachePath("Keyspace1", "Standard2"), dataLengths);
+        for (SSTableReader sstable : store.getSSTables())
+        {
+            for (int i = 0; i < 5; i++)
+            {
+                DecoratedKey key = Util.dk("saved" + i);
+                long position = sstable.getPosition(key, SSTableReader.Operator.EQ);
+                if (position >= 0)
+                    assertEquals(position, (long) saved.get(sstable.descriptor.generation).get(key));
+            }
+        }
+    }
+
     @Test
     public void testEmptyRow() throws Exception
     {
@@ -299,6 +474,265 @@ public class ColumnFamilyStoreTest extends CleanupHelper
     
     }
 
+    @Test
+    public void testIndexScanJoin() throws IOException
+    {
+        ColumnFamilyStore cfs = Table.open("Keyspace2").getColumnFamilyStore("Indexed2");
+        ByteBuffer birthdate = ByteBufferUtil.bytes("birthdate");
+        ByteBuffer state = ByteBufferUtil.bytes("state");
+        for (int i = 0; i < 100; i++)
+        {
+            RowMutation rm = new RowMutation("Keyspace2", ByteBufferUtil.bytes("k" + i));
+            rm.add(new QueryPath("Indexed2", null, birthdate), FBUtilities.toByteBuffer((long) (i % 5)), 0);
+            rm.add(new QueryPath("Indexed2", null, state), FBUtilities.toByteBuffer((long) (i % 7)), 0);
+            rm.apply();
+        }
+
+        assert cfs.getEstimatedRowCount() == 100 : cfs.getEstimatedRowCount();
+        assert cfs.getIndexedColumnFamilyStore(birthdate).getEstimatedMeanColumns() == 20.0;
+        assert cfs.getIndexedColumnFamilyStore(state).getEstimatedMeanColumns() == 100.0 / 7;
+
+        // only rows 31 and 66 hold both values
+        IndexExpression expr = new IndexExpression(birthdate, IndexOperator.EQ, FBUtilities.toByteBuffer(1L));
+        IndexExpression expr2 = new IndexExpression(state, IndexOperator.EQ, FBUtilities.toByteBuffer(3L));
+        IFilter filter = new IdentityQueryFilter();
+        IPartitioner p = StorageService.getPartitioner();
+        Range range = new Range(p.getMinimumToken(), p.getMinimumToken());
+        List<Row> rows = cfs.scan(new IndexClause(Arrays.asList(expr, expr2), FBUtilities.EMPTY_BYTE_BUFFER, 100), range, filter);
+        Set<ByteBuffer> keys = new HashSet<ByteBuffer>();
+        for (Row row : rows)
+            keys.add(row.key.key);
+        assert keys.equals(new HashSet<ByteBuffer>(Arrays.asList(ByteBufferUtil.bytes("k31"), ByteBufferUtil.bytes("k66")))) : StringUtils.join(rows, ",");
+
+        // page through them; each page starts with the last row of the previous one
+        keys.clear();
+        ByteBuffer startKey = FBUtilities.EMPTY_BYTE_BUFFER;
+        while (true)
+        {
+            rows = cfs.scan(new IndexClause(Arrays.asList(expr2, expr), startKey, 2), range, filter);
+            Row last = rows.isEmpty() ? null : rows.get(rows.size() - 1);
+            if (last == null || last.key.key.equals(startKey))
+                break;
+            for (Row row : rows)
+                keys.add(row.key.key);
+            startKey = last.key.key;
+        }
+        assert keys.size() == 2 : keys;
+
+        // no row holds both values
+        IndexExpression expr3 = new IndexExpression(state, IndexOperator.EQ, FBUtilities.toByteBuffer(7L));
+        rows = cfs.scan(new IndexClause(Arrays.asList(expr, expr3), FBUtilities.EMPTY_BYTE_BUFFER, 100), range, filter);
+        assert rows.isEmpty() : StringUtils.join(rows, ",");
+    }
+
+    @Test
+    public void testIndexRangeScan() throws IOException, ExecutionException, InterruptedException
+    {
+        ColumnFamilyStore cfs = Table.open("Keyspace2").getColumnFamilyStore("Indexed3");
+        ByteBuffer time = ByteBufferUtil.bytes("time");
+        for (int i = 0; i < 50; i++)
+        {
+            RowMutation rm = new RowMutation("Keyspace2", ByteBufferUtil.bytes("e" + i));
+            rm.add(new QueryPath("Indexed3", null, time), FBUtilities.toByteBuffer((i - 25) * 10L), 0);
+            rm.apply();
+            // put some of the index in an sstable
+            if (i == 25)
+                cfs.forceBlockingFlush();
+        }
+
+        IndexExpression from = new IndexExpression(time, IndexOperator.GTE, FBUtilities.toByteBuffer(-50L));
+        IndexExpression to = new IndexExpression(time, IndexOperator.LT, FBUtilities.toByteBuffer(100L));
+        assert scanKeys(cfs, Arrays.asList(from, to), 100).equals(eventKeys(20, 35));
+
+        // open-ended
+        IndexExpression after = new IndexExpression(time, IndexOperator.GT, FBUtilities.toByteBuffer(200L));
+        assert scanKeys(cfs, Arrays.asList(after), 100).equals(eventKeys(46, 50));
+        IndexExpression before = new IndexExpression(time, IndexOperator.LTE, FBUtilities.toByteBuffer(-240L));
+        assert scanKeys(cfs, Arrays.asList(before), 100).equals(eventKeys(0, 2));
+
+        // the narrowest bounds apply
+        IndexExpression to2 = new IndexExpression(time, IndexOperator.LTE, FBUtilities.toByteBuffer(0L));
+        assert scanKeys(cfs, Arrays.asList(from, to, to2), 100).equals(eventKeys(20, 26));
+
+        // page through them; each page starts with the last row of the previous one
+        Set<ByteBuffer> keys = new HashSet<ByteBuffer>();
+        ByteBuffer startKey = FBUtilities.EMPTY_BYTE_BUFFER;
+        IPartitioner p = StorageService.getPartitioner();
+        Range range = new Range(p.getMinimumToken(), p.getMinimumToken());
+        while (true)
+        {
+            IndexClause clause = new IndexClause(Arrays.asList(from, to), startKey, 3);
+            List<Row> rows = cfs.scan(clause, range, new IdentityQueryFilter());
+            Row last = rows.isEmpty() ? null : rows.get(rows.size() - 1);
+            if (last == null || last.key.key.equals(startKey))
+                break;
+            for (Row row : rows)
+                keys.add(row.key.key);
+            startKey = last.key.key;
+        }
+        assert keys.equals(eventKeys(20, 35)) : keys;
+    }
+
+    @Test
+    public void testIndexRangePaging() throws IOException, ExecutionException, InterruptedException
+    {
+        ColumnFamilyStore cfs = Table.open("Keyspace2").getColumnFamilyStore("Indexed1");
+        ByteBuffer birthdate = ByteBufferUtil.bytes("birthdate");
+        int values = 25, keys = 500;
+        for (int i = 0; i < keys; i++)
+        {
+            RowMutation rm = new RowMutation("Keyspace2", ByteBufferUtil.bytes("paged" + i));
+            rm.add(new QueryPath("Indexed1", null, birthdate), FBUtilities.toByteBuffer(10000L + i % values), 0);
+            rm.apply();
+            if (i == keys / 2)
+                cfs.forceBlockingFlush();
+        }
+
+        IndexExpression from = new IndexExpression(birthdate, IndexOperator.GTE, FBUtilities.toByteBuffer(10000L));
+        int pageSize = 10;
+        IndexCursor.ValueRangeCursor cursor = new IndexCursor.ValueRangeCursor(cfs.getIndexedColumnFamilyStore(birthdate), birthdate, Arrays.asList(from), pageSize);
+        Set<ByteBuffer> seen = new HashSet<ByteBuffer>();
+        ByteBuffer start = FBUtilities.EMPTY_BYTE_BUFFER;
+        ByteBuffer last = null;
+        boolean exhausted = false;
+        while (!exhausted)
+        {
+            int read = cursor.getIndexRowsRead();
+            SortedMap<ByteBuffer, List<Pair<DecoratedKey, IColumn>>> entries = new TreeMap<ByteBuffer, List<Pair<DecoratedKey, IColumn>>>(cursor.comparator);
+            exhausted = cursor.fetch(start, entries);
+            // the first page reads every row in range once; after that a page re-reads only rows it used up
+            read = cursor.getIndexRowsRead() - read;
+            assert read <= (last == null ? values : 0) + pageSize : read;
+            assert exhausted || entries.size() == pageSize : entries.size();
+            for (ByteBuffer key : entries.keySet())
+            {
+                assert last == null || cursor.comparator.compare(last, key) < 0;
+                assert seen.add(key);
+                last = key;
+            }
+            start = last;
+        }
+        assertEquals(keys, seen.size());
+        // re-slicing every row for every page would have taken values * keys / pageSize reads
+        assert cursor.getIndexRowsRead() < 2 * values + keys / pageSize : cursor.getIndexRowsRead();
+    }
+
+    private static Set<ByteBuffer> scanKeys(ColumnFamilyStore cfs, List<IndexExpression> expressions, int count)
+    {
+        IPartitioner p = StorageService.getPartitioner();
+        Range range = new Range(p.getMinimumToken(), p.getMinimumToken());
+        Set<ByteBuffer> keys = new HashSet<ByteBuffer>();
+        for (Row row : cfs.scan(new IndexClause(expressions, FBUtilities.EMPTY_BYTE_BUFFER, count), range, new IdentityQueryFilter()))
+            keys.add(row.key.key);
+        return keys;
+    }
+
+    private static Set<ByteBuffer> eventKeys(int from, int to)
+    {
+        Set<ByteBuffer> keys = new HashSet<ByteBuffer>();
+        for (int i = from; i < to; i++)
+            keys.add(ByteBufferUtil.bytes("e" + i));
+        return keys;
+    }
+
+    @Test
+    public void testLazyIndexUpdate() throws IOException
+    {
+        DatabaseDescriptor.setIndexMaintenance(Config.IndexMaintenance.lazy);
+        try
+        {
+            Table table = Table.open("Keyspace2");
+            ColumnFamilyStore cfs = table.getColumnFamilyStore("Indexed1");
+            ByteBuffer birthdate = ByteBufferUtil.bytes("birthdate");
+
+            // update the value without reading it first; this leaves a stale entry for the old one
+            RowMutation rm;
+            rm = new RowMutation("Keyspace2", ByteBufferUtil.bytes("k2"));
+            rm.add(new QueryPath("Indexed1", null, birthdate), FBUtilities.toByteBuffer(10L), 1);
+            rm.apply();
+            rm = new RowMutation("Keyspace2", ByteBufferUtil.bytes("k2"));
+            rm.add(new QueryPath("Indexed1", null, birthdate), FBUtilities.toByteBuffer(11L), 2);
+            rm.apply();
+            // an older write creates an entry too, which must be ignored
+            rm = new RowMutation("Keyspace2", ByteBufferUtil.bytes("k2"));
+            rm.add(new QueryPath("Indexed1", null, birthdate), FBUtilities.toByteBuffer(12L), 0);
+            rm.apply();
+
+            IFilter filter = new IdentityQueryFilter();
+            IPartitioner p = StorageService.getPartitioner();
+            Range range = new Range(p.getMinimumToken(), p.getMinimumToken());
+            for (long value : new long[]{ 10L, 12L })
+            {
+                IndexExpression expr = new IndexExpression(birthdate, IndexOperator.EQ, FBUtilities.toByteBuffer(value));
+                List<Row> rows = cfs.scan(new IndexClause(Arrays.asList(expr), FBUtilities.EMPTY_BYTE_BUFFER, 100), range, filter);
+                assert rows.size() == 0 : StringUtils.join(rows, ",");
+
+                // the scan removed the stale entry
+                ColumnFamilyStore indexCfs = cfs.getIndexedColumnFamilyStore(birthdate);
+                QueryFilter indexFilter = QueryFilter.getIdentityFilter(cfs.getIndexKeyFor(birthdate, FBUtilities.toByteBuffer(value)),
+                                                                        new QueryPath(indexCfs.getColumnFamilyName()));
+                ColumnFamily indexRow = indexCfs.getColumnFamily(indexFilter);
+                if (indexRow != null)
+                {
+                    for (IColumn column : indexRow.getSortedColumns())
+                        assert column.isMarkedForDelete() : column;
+                }
+            }
+
+            IndexExpression expr = new IndexExpression(birthdate, IndexOperator.EQ, FBUtilities.toByteBuffer(11L));
+            List<Row> rows = cfs.scan(new IndexClause(Arrays.asList(expr), FBUtilities.EMPTY_BYTE_BUFFER, 100), range, filter);
+            assert rows.size() == 1 : StringUtils.join(rows, ",");
+            assert rows.get(0).key.key.equals(ByteBufferUtil.bytes("k2"));
+
+            // a deleted row leaves a stale entry as well
+            rm = new RowMutation("Keyspace2", ByteBufferUtil.bytes("k2"));
+            rm.delete(new QueryPath("Indexed1"), 3);
+            rm.apply();
+            rows = cfs.scan(new IndexClause(Arrays.asList(expr), FBUtilities.EMPTY_BYTE_BUFFER, 100), range, filter);
+            assert rows.size() == 0 : StringUtils.join(rows, ",");
+        }
+        finally
+        {
+            DatabaseDescriptor.setIndexMaintenance(Config.IndexMaintenance.synchronous);
+        }
+    }
+
+    @Test
+    public void testLazyIndexStaysChecked() throws IOException
+    {
+        Table table = Table.open("Keyspace2");
+        ColumnFamilyStore cfs = table.getColumnFamilyStore("Indexed1");
+        ByteBuffer birthdate = ByteBufferUtil.bytes("birthdate");
+        ColumnFamilyStore indexInfo = Table.open(Table.SYSTEM_TABLE).getColumnFamilyStore(SystemTable.INDEX_CF);
+        int indexInfoTables = indexInfo.getSSTables().size();
+
+        DatabaseDescriptor.setIndexMaintenance(Config.IndexMaintenance.lazy);
+        try
+        {
+            RowMutation rm;
+            rm = new RowMutation("Keyspace2", ByteBufferUtil.bytes("k5"));
+            rm.add(new QueryPath("Indexed1", null, birthdate), FBUtilities.toByteBuffer(20L), 1);
+            rm.apply();
+            rm = new RowMutation("Keyspace2", ByteBufferUtil.bytes("k5"));
+            rm.add(new QueryPath("Indexed1", null, birthdate), FBUtilities.toByteBuffer(21L), 2);
+            rm.apply();
+        }
+        finally
+        {
+            DatabaseDescriptor.setIndexMaintenance(Config.IndexMaintenance.synchronous);
+        }
+        assert SystemTable.isIndexStale("Keyspace2", cfs.getIndexedColumnFamilyStore(birthdate).columnFamily);
+        // the write path does not wait for the mark to be flushed
+        assertEquals(indexInfoTables, indexInfo.getSSTables().size());
+
+        // back to synchronous maintenance, the entry the lazy write left for the old value is still ignored
+        IPartitioner p = StorageService.getPartitioner();
+        Range range = new Range(p.getMinimumToken(), p.getMinimumToken());
+        IndexExpression expr = new IndexExpression(birthdate, IndexOperator.EQ, FBUtilities.toByteBuffer(20L));
+        List<Row> rows = cfs.scan(new IndexClause(Arrays.asList(expr), FBUtilities.EMPTY_BYTE_BUFFER, 100), range, new IdentityQueryFilter());
+        assert rows.size() == 0 : StringUtils.join(rows, ",");
+    }
+
     @Test
     public void testIndexCreate() throws IOException, ConfigurationException, InterruptedException
     {
@@ -328,6 +762,96 @@ public class ColumnFamilyStoreTest extends CleanupHelper
         assert "k1".equals( key );        
     }
 
+    @Test
+    public void testSwitchDoesNotBlockOtherColumnFamilies() throws Exception
+    {
+        // hold Standard1's memtable switch lock, as a flush in progress would
+        ColumnFamilyStore cfs = Table.open("Keyspace1").getColumnFamilyStore("Standard1");
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        cfs.flusherLock.writeLock().lock();
+        try
+        {
+            Future<?> write = executor.submit(new WrappedRunnable()
+            {
+                public void runMayThrow() throws IOException
+                {
+                    RowMutation rm = new RowMutation("Keyspace1", ByteBufferUtil.bytes("key1"));
+                    rm.add(new QueryPath("Standard2", null, ByteBufferUtil.bytes("Column1")), ByteBufferUtil.bytes("asdf"), 0);
+                    rm.apply();
+                }
+            });
+            write.get(10, TimeUnit.SECONDS);
+        }
+        finally
+        {
+            cfs.flusherLock.writeLock().unlock();
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testStripedFlush() throws IOException, ExecutionException, InterruptedException
+    {
+        ColumnFamilyStore store = Table.open("Keyspace1").getColumnFamilyStore("Standard3");
+        Map<DecoratedKey, ByteBuffer> expected = new TreeMap<DecoratedKey, ByteBuffer>();
+        for (int i = 0; i < 100; i++)
+        {
+            DecoratedKey key = Util.dk("stripe" + i);
+            ByteBuffer value = ByteBufferUtil.bytes("value" + i);
+            RowMutation rm = new RowMutation("Keyspace1", key.key);
+            rm.add(new QueryPath("Standard3", null, ByteBufferUtil.bytes("c1")), value, 0);
+            rm.apply();
+            expected.put(key, value);
+        }
+
+        Set<SSTableReader> before = new HashSet<SSTableReader>(store.getSSTables());
+        int stripes = DatabaseDescriptor.getFlushStripes();
+        DatabaseDescriptor.setFlushStripes(4);
+        Memtable.setMinStripeSize(1);
+        try
+        {
+            store.forceBlockingFlush();
+        }
+        finally
+        {
+            DatabaseDescriptor.setFlushStripes(stripes);
+            Memtable.setMinStripeSize(16 * 1024 * 1024);
+        }
+        SortedMap<DecoratedKey, SSTableReader> flushed = new TreeMap<DecoratedKey, SSTableReader>();
+        for (SSTableReader sstable : store.getSSTables())
+        {
+            if (!before.contains(sstable))
+                flushed.put(sstable.getFirstKey(), sstable);
+        }
+        assertEquals(4, flushed.size());
+
+        // each stripe covers its own range of keys, and between them they hold the whole memtable
+        Map<DecoratedKey, ByteBuffer> actual = new TreeMap<DecoratedKey, ByteBuffer>();
+        DecoratedKey last = null;
+        for (SSTableReader sstable : flushed.values())
+        {
+            assert last == null || last.compareTo(sstable.getFirstKey()) < 0 : sstable;
+            last = sstable.getLastKey();
+            SSTableScanner scanner = sstable.getScanner(64 * 1024);
+            try
+            {
+                while (scanner.hasNext())
+                {
+                    IColumnIterator row = scanner.next();
+                    assert !actual.containsKey(row.getKey()) : row.getKey();
+                    assert row.getKey().compareTo(sstable.getFirstKey()) >= 0 && row.getKey().compareTo(last) <= 0;
+                    actual.put(row.getKey(), row.next().value());
+                    assert !row.hasNext();
+                }
+            }
+            finally
+            {
+                scanner.close();
+            }
+        }
+        assertEquals(expected, actual);
+    }
+
     private ColumnFamilyStore insertKey1Key2() throws IOException, ExecutionException, InterruptedException
     {
         List<RowMutation> rms = new LinkedList<RowMutation>();
@@ -342,4 +866,11 @@ public class ColumnFamilyStoreTest extends CleanupHelper
         rms.add(rm);
         return Util.writeColumnFamily(rms);
     }
+
+    private void insertColumn(String columnFamily, String key, String column) throws IOException
+    {
+        RowMutation rm = new RowMutation("Keyspace1", ByteBufferUtil.bytes(key));
+        rm.add(new QueryPath(columnFamily, null, ByteBufferUtil.bytes(column)), ByteBufferUtil.bytes("a"), 0);
+        rm.apply();
+    }
 }
@@ -20,14 +20,17 @@
 package org.apache.cassandra.db;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.zip.CRC32;
 import java.util.zip.Checksum;
 
 import org.junit.Test;
 
 import org.apache.cassandra.CleanupHelper;
+import org.apache.cassandra.Util;
 import org.apache.cassandra.db.commitlog.CommitLog;
 import org.apache.cassandra.db.commitlog.CommitLogHeader;
+import org.apache.cassandra.db.commitlog.CommitLogSegment;
 import org.apache.cassandra.db.filter.QueryPath;
 import org.apache.cassandra.utils.Pair;
 
@@ -108,6 +111,23 @@ public class CommitLogTest extends CleanupHelper
         testRecoveryWithBadSizeArgument(-10, 10); // negative size, but no EOF
     }
 
+    @Test
+    public void testRecoveryOfSerializedEntries() throws Exception
+    {
+        // entries are framed by the writing threads and appended back to back by the log writer
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 0; i < 2; i++)
+        {
+            RowMutation rm = new RowMutation("Keyspace1", ByteBuffer.wrap("serialized".getBytes()));
+            rm.add(new QueryPath("Standard2", null, ByteBuffer.wrap(("c" + i).getBytes())), ByteBuffer.wrap("v".getBytes()), 0);
+            out.write(CommitLogSegment.serializeEntry(rm.getSerializedBuffer()));
+        }
+        testRecovery(new byte[0], out.toByteArray());
+
+        ColumnFamily cf = Util.getColumnFamily(Table.open("Keyspace1"), Util.dk("serialized"), "Standard2");
+        assert cf.getColumnCount() == 2 : cf;
+    }
+
     protected void testRecoveryWithBadSizeArgument(int size, int dataSize) throws Exception
     {
         Checksum checksum = new CRC32();
@@ -25,6 +25,8 @@ import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Set;
 import java.util.HashSet;
 
@@ -36,6 +38,7 @@ import org.apache.cassandra.config.DatabaseDescriptor;
 import org.apache.cassandra.io.sstable.SSTableReader;
 import org.apache.cassandra.CleanupHelper;
 import org.apache.cassandra.db.filter.QueryPath;
+import org.apache.cassandra.utils.ByteBufferUtil;
 import org.apache.cassandra.utils.FBUtilities;
 import org.apache.cassandra.utils.Pair;
 import static junit.framework.Assert.assertEquals;
@@ -137,4 +140,67 @@ public class CompactionsTest extends CleanupHelper
         assertEquals(1, buckets.size());
     }
 
+    @Test
+    public void testMarkCompacting() throws IOException, ExecutionException, InterruptedException
+    {
+        CompactionManager.instance.disableAutoCompaction();
+
+        Table table = Table.open(TABLE1);
+        ColumnFamilyStore store = table.getColumnFamilyStore("Standard3");
+        for (int j = 0; j < 3; j++)
+        {
+            RowMutation rm = new RowMutation(TABLE1, ByteBufferUtil.bytes(String.valueOf(j)));
+            rm.add(new QueryPath("Standard3", null, ByteBufferUtil.bytes("c")), FBUtilities.EMPTY_BYTE_BUFFER, j);
+            rm.apply();
+            store.forceBlockingFlush();
+        }
+        List<SSTableReader> sstables = new ArrayList<SSTableReader>(store.getSSTables());
+        assertEquals(3, sstables.size());
+
+        // concurrent compactions may not share sstables
+        assert store.markCompacting(sstables.subList(0, 2));
+        assert !store.markCompacting(sstables.subList(1, 3));
+        assertEquals(new HashSet<SSTableReader>(sstables.subList(2, 3)), store.getUncompactingSSTables());
+        store.unmarkCompacting(sstables.subList(0, 2));
+        assertEquals(new HashSet<SSTableReader>(sstables), store.getUncompactingSSTables());
+    }
+
+    @Test
+    public void testParallelMajorCompaction() throws IOException, ExecutionException, InterruptedException
+    {
+        CompactionManager.instance.disableAutoCompaction();
+
+        // more than parallel_compaction_threshold_in_mb, so the major compaction is split into ranges
+        Table table = Table.open(TABLE1);
+        ColumnFamilyStore store = table.getColumnFamilyStore("Standard2");
+        ByteBuffer value = ByteBuffer.wrap(new byte[1024]);
+        Set<DecoratedKey> inserted = new HashSet<DecoratedKey>();
+        for (int j = 0; j < 4; j++)
+        {
+            for (int i = 0; i < 400; i++)
+            {
+                DecoratedKey key = Util.dk(String.format("%04d", (i * 7 + j * 13) % 1000));
+                RowMutation rm = new RowMutation(TABLE1, key.key);
+                rm.add(new QueryPath("Standard2", null, ByteBufferUtil.bytes(String.valueOf(j))), value, j);
+                rm.apply();
+                inserted.add(key);
+            }
+            store.forceBlockingFlush();
+        }
+        CompactionManager.instance.performMajor(store);
+
+        // each range is written to an sstable of its own, and the ranges do not overlap
+        List<SSTableReader> sstables = new ArrayList<SSTableReader>(store.getSSTables());
+        assert sstables.size() > 1 : sstables;
+        Collections.sort(sstables, new Comparator<SSTableReader>()
+        {
+            public int compare(SSTableReader o1, SSTableReader o2)
+            {
+                return o1.getFirstKey().compareTo(o2.getFirstKey());
+            }
+        });
+        for (int i = 1; i < sstables.size(); i++)
+            assert sstables.get(i - 1).getLastKey().compareTo(sstables.get(i).getFirstKey()) < 0;
+        assertEquals(inserted.size(), Util.getRangeSlice(store).size());
+    }
 }
@@ -719,6 +719,10 @@ public class DefsTest extends CleanupHelper
                               CFMetaData.DEFAULT_MEMTABLE_LIFETIME_IN_MINS,
                               CFMetaData.DEFAULT_MEMTABLE_THROUGHPUT_IN_MB,
                               CFMetaData.DEFAULT_MEMTABLE_OPERATIONS_IN_MILLIONS,
+                              CFMetaData.DEFAULT_MEMTABLE_ALLOCATOR,
+                              CFMetaData.DEFAULT_ROW_CACHE_PROVIDER,
+                              CFMetaData.DEFAULT_ROW_CACHE_SIZE_IN_MB,
+                              CFMetaData.DEFAULT_COMPACTION_STRATEGY,
                               Collections.<ByteBuffer, ColumnDefinition>emptyMap());
     }
 
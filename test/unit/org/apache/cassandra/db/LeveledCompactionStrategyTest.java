@@ -0,0 +1,108 @@
+/*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements.  See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership.  The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License.  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.apache.cassandra.db;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+
+import org.junit.Test;
+
+import org.apache.cassandra.CleanupHelper;
+import org.apache.cassandra.Util;
+import org.apache.cassandra.config.CFMetaData;
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.db.filter.QueryPath;
+import org.apache.cassandra.io.sstable.SSTableReader;
+import org.apache.cassandra.utils.ByteBufferUtil;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertTrue;
+
+public class LeveledCompactionStrategyTest extends CleanupHelper
+{
+    public static final String TABLE1 = "Keyspace1";
+    public static final String CF = "StandardLeveled";
+    private static final int MIN_THRESHOLD = CFMetaData.DEFAULT_MIN_COMPACTION_THRESHOLD;
+    private static final int MAX_THRESHOLD = CFMetaData.DEFAULT_MAX_COMPACTION_THRESHOLD;
+
+    @Test
+    public void testLevels() throws IOException, ExecutionException, InterruptedException
+    {
+        // compact synchronously below, so that no other compaction changes the levels meanwhile
+        CompactionManager.instance.disableAutoCompaction();
+
+        Table table = Table.open(TABLE1);
+        ColumnFamilyStore store = table.getColumnFamilyStore(CF);
+        assertTrue(store.getCompactionStrategy() instanceof LeveledCompactionStrategy);
+        LeveledCompactionStrategy strategy = (LeveledCompactionStrategy) store.getCompactionStrategy();
+
+        // enough flushes of about a megabyte, in overlapping key ranges, to push sstables past level 1
+        final int FLUSHES = 12;
+        final int ROWS_PER_FLUSH = 100;
+        ByteBuffer value = ByteBuffer.wrap(new byte[10 * 1024]);
+        Random random = new Random(0);
+        for (int j = 0; j < FLUSHES; j++)
+        {
+            for (int i = 0; i < ROWS_PER_FLUSH; i++)
+            {
+                DecoratedKey key = Util.dk(String.format("%05d", random.nextInt(FLUSHES * ROWS_PER_FLUSH)));
+                RowMutation rm = new RowMutation(TABLE1, key.key);
+                rm.add(new QueryPath(CF, null, ByteBufferUtil.bytes(String.valueOf(j))), value, j);
+                rm.apply();
+            }
+            store.forceBlockingFlush();
+        }
+        int gcBefore = (int) (System.currentTimeMillis() / 1000) - store.metadata.gcGraceSeconds;
+        List<SSTableReader> candidates;
+        while (!(candidates = strategy.getMinorCompactionCandidates(MIN_THRESHOLD, MAX_THRESHOLD)).isEmpty())
+            CompactionManager.instance.doCompaction(store, candidates, gcBefore);
+
+        List<List<SSTableReader>> levels = strategy.getLevels();
+        assertTrue(levels.size() > 2);
+        assertTrue(levels.get(0).size() < MIN_THRESHOLD);
+        long maxBytes = DatabaseDescriptor.getLeveledCompactionSSTableSizeInMB() * 1024L * 1024L;
+        for (int i = 1; i < levels.size(); i++)
+        {
+            SSTableReader previous = null;
+            for (SSTableReader sstable : levels.get(i))
+            {
+                // one row past the limit at most
+                assertTrue(sstable.length() < maxBytes + 2 * value.remaining());
+                if (previous != null)
+                    assertTrue(previous.getLastKey().compareTo(sstable.getFirstKey()) < 0);
+                previous = sstable;
+            }
+        }
+
+        // every row survived
+        random = new Random(0);
+        for (int i = 0; i < FLUSHES * ROWS_PER_FLUSH; i++)
+        {
+            DecoratedKey key = Util.dk(String.format("%05d", random.nextInt(FLUSHES * ROWS_PER_FLUSH)));
+            assertNotNull(Util.getColumnFamily(table, key, CF));
+        }
+
+        // and the levels are read back from the manifest
+        assertEquals(levels, new LeveledCompactionStrategy(store).getLevels());
+    }
+}
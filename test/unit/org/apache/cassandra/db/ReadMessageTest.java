@@ -23,14 +23,22 @@ import static org.junit.Assert.assertEquals;
 import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
 import java.io.IOException;
+import java.net.InetAddress;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.cassandra.SchemaLoader;
 import org.apache.cassandra.Util;
 import org.apache.cassandra.db.filter.QueryPath;
 import org.apache.cassandra.io.util.DataOutputBuffer;
+import org.apache.cassandra.net.Message;
+import org.apache.cassandra.net.sink.IMessageSink;
+import org.apache.cassandra.net.sink.SinkManager;
+import org.apache.cassandra.service.StorageService;
 import org.apache.cassandra.utils.FBUtilities;
 import org.apache.commons.lang.ArrayUtils;
 import org.junit.Test;
@@ -70,6 +78,79 @@ public class ReadMessageTest extends SchemaLoader
         assertEquals(rm2.toString(), rm.toString());
     }
 
+    @Test
+    public void testReadBatch() throws IOException
+    {
+        DecoratedKey dk = Util.dk("row1");
+        ReadBatchCommand batch = new ReadBatchCommand();
+        batch.add(new SliceByNamesReadCommand("Keyspace1", dk.key, new QueryPath("Standard1"), Arrays.asList(ByteBufferUtil.bytes("col1"))), false);
+        batch.add(new SliceFromReadCommand("Keyspace1", dk.key, new QueryPath("Standard1"), ByteBufferUtil.bytes("a"), ByteBufferUtil.bytes("z"), true, 5), true);
+
+        ReadBatchCommand batch2 = ReadBatchCommand.read(batch.getMessage());
+        assertEquals(batch.toString(), batch2.toString());
+        assertEquals(batch.repair, batch2.repair);
+
+        // a null response stands for a read that failed on the replica
+        byte[][] responses = new byte[][]{ new byte[]{ 1, 2, 3 }, null, new byte[0] };
+        byte[][] responses2 = ReadBatchCommand.deserializeResponses(ReadBatchCommand.serializeResponses(responses));
+        assertEquals(responses.length, responses2.length);
+        for (int i = 0; i < responses.length; i++)
+            assert Arrays.equals(responses[i], responses2[i]);
+    }
+
+    @Test
+    public void testReadBatchVerbHandler() throws Exception
+    {
+        int count = 10;
+        ReadBatchCommand batch = new ReadBatchCommand();
+        for (int i = 0; i < count; i++)
+        {
+            DecoratedKey dk = Util.dk("batched" + i);
+            RowMutation rm = new RowMutation("Keyspace1", dk.key);
+            rm.add(new QueryPath("Standard1", null, ByteBufferUtil.bytes("Column1")), ByteBufferUtil.bytes("value" + i), 0);
+            rm.apply();
+            batch.add(new SliceByNamesReadCommand("Keyspace1", dk.key, new QueryPath("Standard1"), Arrays.asList(ByteBufferUtil.bytes("Column1"))), false);
+        }
+
+        // catch the reply on its way back to the coordinator
+        final InetAddress coordinator = InetAddress.getByName("127.0.0.2");
+        final BlockingQueue<Message> replies = new LinkedBlockingQueue<Message>();
+        SinkManager.addMessageSink(new IMessageSink()
+        {
+            public Message handleMessage(Message message, InetAddress to)
+            {
+                if (coordinator.equals(to))
+                {
+                    replies.add(message);
+                    return null;
+                }
+                return message;
+            }
+        });
+        try
+        {
+            Message message = new Message(coordinator, StorageService.Verb.READ_BATCH, batch.getMessage().getMessageBody());
+            new ReadBatchVerbHandler().doVerb(message);
+            Message reply = replies.poll(10, TimeUnit.SECONDS);
+            assert reply != null;
+            assertEquals(message.getMessageId(), reply.getMessageId());
+
+            byte[][] responses = ReadBatchCommand.deserializeResponses(reply.getMessageBody());
+            assertEquals(count, responses.length);
+            for (int i = 0; i < count; i++)
+            {
+                ReadResponse response = ReadResponse.serializer().deserialize(new DataInputStream(new ByteArrayInputStream(responses[i])));
+                assertEquals(Util.dk("batched" + i), response.row().key);
+                assertEquals(ByteBufferUtil.bytes("value" + i), response.row().cf.getColumn(ByteBufferUtil.bytes("Column1")).value());
+            }
+            assert replies.isEmpty();
+        }
+        finally
+        {
+            SinkManager.clearSinks();
+        }
+    }
+
     private ReadCommand serializeAndDeserializeReadMessage(ReadCommand rm) throws IOException
     {
         ReadCommandSerializer rms = ReadCommand.serializer();
@@ -96,6 +177,6 @@ public class ReadMessageTest extends SchemaLoader
         ReadCommand command = new SliceByNamesReadCommand("Keyspace1", dk.key, new QueryPath("Standard1"), Arrays.asList(ByteBufferUtil.bytes("Column1")));
         Row row = command.getRow(table);
         IColumn col = row.cf.getColumn(ByteBufferUtil.bytes("Column1"));
-        assert Arrays.equals(col.value().array(), "abcd".getBytes());  
+        assert col.value().equals(ByteBufferUtil.bytes("abcd"));
     }
 }
@@ -0,0 +1,168 @@
+package org.apache.cassandra.db;
+
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import javax.management.JMX;
+import javax.management.ObjectName;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.apache.cassandra.Util.column;
+import org.apache.cassandra.CleanupHelper;
+import org.apache.cassandra.Util;
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.db.commitlog.CommitLog;
+import org.apache.cassandra.db.commitlog.CommitLogReplayMBean;
+import org.apache.cassandra.db.filter.QueryPath;
+import org.apache.cassandra.db.marshal.MarshalException;
+import org.apache.cassandra.utils.FBUtilities;
+
+/**
+ * Replays a commit log spread over several segments, which are read in parallel.
+ */
+public class RecoveryManagerParallelTest extends CleanupHelper
+{
+    private static final int DEFAULT_SEGMENT_SIZE = 128 * 1024 * 1024;
+
+    @Before
+    public void startLog() throws IOException
+    {
+        // replay whatever earlier tests left, so the log holds only what each test writes
+        CommitLog.recover();
+        CommitLog.instance.resetUnsafe();
+        CommitLog.setSegmentSize(16 * 1024);
+    }
+
+    @After
+    public void restoreSegmentSize()
+    {
+        CommitLog.setSegmentSize(DEFAULT_SEGMENT_SIZE);
+    }
+
+    @Test
+    public void testParallelReplay() throws Exception
+    {
+        CompactionManager.instance.disableAutoCompaction();
+        int rows = 1000;
+        for (int i = 0; i < rows; i++)
+        {
+            RowMutation rm = new RowMutation("Keyspace1", ByteBuffer.wrap(("key" + i).getBytes()));
+            ColumnFamily cf = ColumnFamily.create("Keyspace1", "Standard3");
+            cf.addColumn(column("col1", "a value long enough to fill the small segments quickly " + i, 1L));
+            rm.add(cf);
+            rm.apply();
+        }
+        int segments = segmentFiles().length;
+        assert segments > 2 : segments;
+
+        ColumnFamilyStore cfs = Table.open("Keyspace1").getColumnFamilyStore("Standard3");
+        cfs.clearUnsafe();
+        CommitLog.instance.resetUnsafe();
+        CommitLog.recover();
+
+        assertEquals(rows, Util.getRangeSlice(cfs).size());
+        CommitLogReplayMBean replay = replayMBean();
+        assertEquals(segments, replay.getTotalSegments());
+        assertEquals(replay.getTotalSegments(), replay.getReplayedSegments());
+        assertEquals(rows, replay.getReplayedMutations());
+        assertEquals(replay.getTotalBytes(), replay.getReplayedBytes());
+    }
+
+    @Test
+    public void testReplayFailure() throws Exception
+    {
+        // Super4 compares subcolumns as TimeUUIDs, which a one byte name makes fail: only once the
+        // mutation is in the commit log, since the subcolumns meet in the memtable
+        ByteBuffer key = ByteBuffer.wrap("failing".getBytes());
+        RowMutation rm = new RowMutation("Keyspace2", key);
+        rm.add(new QueryPath("Super4", ByteBuffer.wrap("sc".getBytes()), ByteBuffer.wrap(new byte[16])), FBUtilities.EMPTY_BYTE_BUFFER, 0);
+        rm.apply();
+        rm = new RowMutation("Keyspace2", key);
+        rm.add(new QueryPath("Super4", ByteBuffer.wrap("sc".getBytes()), ByteBuffer.wrap(new byte[1])), FBUtilities.EMPTY_BYTE_BUFFER, 0);
+        try
+        {
+            rm.apply();
+            assert false : "subcolumn name was accepted";
+        }
+        catch (RuntimeException e)
+        {
+            // expected
+        }
+        // surround it with other segments
+        for (int i = 0; i < 500; i++)
+        {
+            rm = new RowMutation("Keyspace1", ByteBuffer.wrap(("other" + i).getBytes()));
+            rm.add(new QueryPath("Standard3", null, ByteBuffer.wrap("col1".getBytes())), ByteBuffer.wrap(new byte[64]), 0);
+            rm.apply();
+        }
+
+        Table.open("Keyspace2").getColumnFamilyStore("Super4").clearUnsafe();
+        CommitLog.instance.resetUnsafe();
+        try
+        {
+            CommitLog.recover();
+            assert false : "replay did not fail";
+        }
+        catch (RuntimeException e)
+        {
+            // the mutation's failure, passed up through its segment's reader; with debug logging on,
+            // printing the mutation fails before applying it can
+            Throwable cause = e;
+            while (cause.getCause() != null)
+                cause = cause.getCause();
+            assert cause instanceof ArrayIndexOutOfBoundsException || cause instanceof MarshalException : cause;
+        }
+        finally
+        {
+            // the failed replay leaves its segments behind
+            for (File file : new File(DatabaseDescriptor.getCommitLogLocation()).listFiles())
+                file.delete();
+            CommitLog.instance.resetUnsafe();
+        }
+    }
+
+    private static File[] segmentFiles()
+    {
+        return new File(DatabaseDescriptor.getCommitLogLocation()).listFiles(new java.io.FilenameFilter()
+        {
+            public boolean accept(File dir, String name)
+            {
+                return name.endsWith(".log");
+            }
+        });
+    }
+
+    private static CommitLogReplayMBean replayMBean() throws Exception
+    {
+        return JMX.newMBeanProxy(ManagementFactory.getPlatformMBeanServer(),
+                                 new ObjectName("org.apache.cassandra.db:type=CommitLogReplay"),
+                                 CommitLogReplayMBean.class);
+    }
+}
@@ -0,0 +1,88 @@
+package org.apache.cassandra.dht;
+/*
+ * 
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * 
+ */
+
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+import org.apache.cassandra.db.DecoratedKey;
+import org.apache.cassandra.utils.MurmurHash;
+
+public class MurmurPartitionerTest extends PartitionerTestCase<LongToken>
+{
+    public void initPartitioner()
+    {
+        partitioner = new MurmurPartitioner();
+    }
+
+    @Override
+    @Test
+    public void testMidpointMinimum()
+    {
+        // tokens only have 64 bits, so halving the ring more often than that reaches adjacent tokens
+        LongToken mintoken = partitioner.getMinimumToken();
+        assert mintoken.compareTo(partitioner.midpoint(mintoken, mintoken)) != 0;
+        assertMidpoint(mintoken, tok("a"), 16);
+        assertMidpoint(mintoken, tok("aaa"), 16);
+        assertMidpoint(mintoken, mintoken, 62);
+        assertMidpoint(tok("a"), mintoken, 16);
+    }
+
+    @Test
+    public void testMidpointWrapping()
+    {
+        assertMidpoint(tok("b"), tok("a"), 16);
+        assertMidpoint(tok("bbb"), tok("a"), 16);
+    }
+
+    @Test
+    public void testHash()
+    {
+        // values from the reference C implementation of MurmurHash64A, covering inputs with and without a tail
+        assert hash("a") == -442825988036752311L;
+        assert hash("abcdefgh") == 6017840126650231081L;
+        assert hash("abcdefghijk") == -6948365496298337491L;
+        // the hash covers only the given bytes, whatever the buffer's position
+        ByteBuffer padded = ByteBuffer.wrap("xxabcdefghijxx".getBytes());
+        padded.position(2);
+        assert MurmurHash.hash64(padded, 2, 10, 0) == MurmurHash.hash64(ByteBuffer.wrap("abcdefghij".getBytes()), 0, 10, 0);
+        assert partitioner.getToken(ByteBuffer.wrap("a".getBytes())).equals(tok("a"));
+        assert !tok("a").equals(tok("b"));
+        assert partitioner.getToken(ByteBuffer.wrap(new byte[0])).equals(partitioner.getMinimumToken());
+    }
+
+    @Test
+    public void testConvertFromDiskFormat()
+    {
+        DecoratedKey<LongToken> dk = partitioner.convertFromDiskFormat(ByteBuffer.wrap("-42:key:1".getBytes()));
+        assert dk.token.equals(new LongToken(-42L));
+        assert dk.key.equals(ByteBuffer.wrap("key:1".getBytes()));
+        assert new LongToken(-42L).hashCode() == new LongToken(-42L).hashCode();
+        assert new LongToken(-42L).toString().equals("-42");
+    }
+
+    private static long hash(String key)
+    {
+        return MurmurHash.hash64(ByteBuffer.wrap(key.getBytes()), 0, key.length(), 42);
+    }
+}
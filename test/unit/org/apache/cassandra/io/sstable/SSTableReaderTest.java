@@ -21,11 +21,14 @@ package org.apache.cassandra.io.sstable;
  */
 
 
+import java.io.File;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.concurrent.ExecutionException;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import org.junit.Test;
 
@@ -132,6 +135,67 @@ public class SSTableReaderTest extends CleanupHelper
         }
     }
 
+    @Test
+    public void testIndexOffsets() throws IOException
+    {
+        long maxSegmentSize = MmappedSegmentedFile.MAX_SEGMENT_SIZE;
+        MmappedSegmentedFile.MAX_SEGMENT_SIZE = Integer.MAX_VALUE;
+        try
+        {
+            // several index intervals worth of keys, with gaps between them
+            Set<String> keys = new HashSet<String>();
+            for (int j = 0; j < 10 * DatabaseDescriptor.getIndexInterval(); j += 2)
+                keys.add(String.valueOf(j));
+            SSTableReader written = SSTableUtils.writeSSTable(keys);
+            assert written.components.contains(Component.INDEX_OFFSETS);
+
+            // binary searching must find the same positions as scanning the index
+            Set<Component> scanned = new HashSet<Component>(written.components);
+            scanned.remove(Component.INDEX_OFFSETS);
+            SSTableReader searching = SSTableReader.open(written.descriptor);
+            SSTableReader scanning = SSTableReader.open(written.descriptor, scanned, written.metadata, written.partitioner);
+            for (int j = 0; j <= 10 * DatabaseDescriptor.getIndexInterval(); j++)
+            {
+                DecoratedKey dk = Util.dk(String.valueOf(j));
+                for (SSTableReader.Operator op : new SSTableReader.Operator[]{ SSTableReader.Operator.EQ, SSTableReader.Operator.GE, SSTableReader.Operator.GT })
+                {
+                    long expected = scanning.getPosition(dk, op);
+                    assertEquals(expected, written.getPosition(dk, op));
+                    assertEquals(expected, searching.getPosition(dk, op));
+                }
+                assert (searching.getPosition(dk, SSTableReader.Operator.EQ) >= 0) == keys.contains(String.valueOf(j));
+            }
+        }
+        finally
+        {
+            MmappedSegmentedFile.MAX_SEGMENT_SIZE = maxSegmentSize;
+        }
+    }
+
+    @Test
+    public void testPersistentSummary() throws IOException
+    {
+        Set<String> keys = new HashSet<String>();
+        for (int j = 0; j < 10 * DatabaseDescriptor.getIndexInterval(); j += 2)
+            keys.add(String.valueOf(j));
+        SSTableReader written = SSTableUtils.writeSSTable(keys);
+        assert new File(written.descriptor.filenameFor(Component.SUMMARY)).exists();
+
+        // a reader loading the saved summary must sample the same keys as one reading the index
+        Set<Component> unsummarized = new HashSet<Component>(written.components);
+        unsummarized.remove(Component.SUMMARY);
+        SSTableReader loaded = SSTableReader.open(written.descriptor);
+        SSTableReader sampled = SSTableReader.open(written.descriptor, unsummarized, written.metadata, written.partitioner);
+        assertEquals(new ArrayList<DecoratedKey>(sampled.getKeySamples()), new ArrayList<DecoratedKey>(loaded.getKeySamples()));
+        assertEquals(new ArrayList<DecoratedKey>(written.getKeySamples()), new ArrayList<DecoratedKey>(loaded.getKeySamples()));
+        for (int j = 0; j <= 10 * DatabaseDescriptor.getIndexInterval(); j++)
+        {
+            DecoratedKey dk = Util.dk(String.valueOf(j));
+            assertEquals(sampled.getPosition(dk, SSTableReader.Operator.GE), loaded.getPosition(dk, SSTableReader.Operator.GE));
+            assertEquals(sampled.getPosition(dk, SSTableReader.Operator.EQ), loaded.getPosition(dk, SSTableReader.Operator.EQ));
+        }
+    }
+
     @Test
     public void testPersistentStatistics() throws IOException, ExecutionException, InterruptedException
     {
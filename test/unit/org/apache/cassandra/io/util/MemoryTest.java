@@ -0,0 +1,61 @@
+package org.apache.cassandra.io.util;
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class MemoryTest
+{
+    @Test
+    public void testCopy()
+    {
+        Memory memory = Memory.allocate(64);
+        try
+        {
+            byte[] bytes = new byte[32];
+            for (int i = 0; i < bytes.length; i++)
+                bytes[i] = (byte) i;
+
+            // from part of the array, to the middle of the block
+            memory.setBytes(10, bytes, 4, 20);
+            for (int i = 0; i < 20; i++)
+                assert memory.getByte(10 + i) == bytes[4 + i];
+
+            // and back, to the middle of another array
+            byte[] copy = new byte[32];
+            memory.getBytes(10, copy, 2, 20);
+            assert Arrays.equals(Arrays.copyOfRange(bytes, 4, 24), Arrays.copyOfRange(copy, 2, 22));
+            assert copy[0] == 0 && copy[1] == 0 && copy[22] == 0;
+
+            // up to the end of the block
+            memory.setBytes(32, bytes, 0, 32);
+            memory.getBytes(32, copy, 0, 32);
+            assert Arrays.equals(bytes, copy);
+        }
+        finally
+        {
+            memory.free();
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements.  See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership.  The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License.  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.apache.cassandra.net;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import org.apache.cassandra.io.util.DataOutputBuffer;
+import org.apache.cassandra.service.StorageService;
+import org.apache.cassandra.utils.GuidGenerator;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+
+public class MessageSerializerTest
+{
+    private static Message roundTrip(Message message, int version) throws IOException
+    {
+        DataOutputBuffer buffer = new DataOutputBuffer();
+        Message.serializer().serialize(message, buffer, version);
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(buffer.getData(), 0, buffer.getLength()));
+        Message result = Message.serializer().deserialize(input, version);
+        assertEquals(0, input.available());
+        return result;
+    }
+
+    private static Message message(byte[] body) throws IOException
+    {
+        return new Message(InetAddress.getByName("127.0.0.2"), StorageService.Verb.MUTATION, body);
+    }
+
+    private static void assertSameMessage(Message expected, Message actual)
+    {
+        assertEquals(expected.getMessageId(), actual.getMessageId());
+        assertEquals(expected.getFrom(), actual.getFrom());
+        assertEquals(expected.getVerb(), actual.getVerb());
+        assertTrue(Arrays.equals(expected.getMessageBody(), actual.getMessageBody()));
+    }
+
+    @Test
+    public void testNoDetails() throws IOException
+    {
+        Message message = message("body".getBytes());
+        for (int version : new int[]{ MessagingService.VERSION_1, MessagingService.VERSION_2 })
+        {
+            Message result = roundTrip(message, version);
+            assertSameMessage(message, result);
+            assertNull(result.getHeader(HeaderTypes.HINT));
+            assertNull(result.getHeader(HeaderTypes.READ_REPAIR));
+        }
+    }
+
+    @Test
+    public void testDetails() throws IOException
+    {
+        Message message = message(new byte[0]);
+        message.setHeader(HeaderTypes.HINT, new byte[]{ 1, 2, 3 });
+        message.setHeader(HeaderTypes.READ_REPAIR, HeaderTypes.READ_REPAIR.getBytes());
+        message.setHeader(HeaderTypes.TASK_ID, new byte[]{ 4 });
+        for (int version : new int[]{ MessagingService.VERSION_1, MessagingService.VERSION_2 })
+        {
+            Message result = roundTrip(message, version);
+            assertSameMessage(message, result);
+            assertTrue(Arrays.equals(new byte[]{ 1, 2, 3 }, result.getHeader(HeaderTypes.HINT)));
+            assertNotNull(result.getHeader(HeaderTypes.READ_REPAIR));
+            assertTrue(Arrays.equals(new byte[]{ 4 }, result.getHeader(HeaderTypes.TASK_ID)));
+        }
+    }
+
+    @Test
+    public void testGuidId() throws IOException
+    {
+        // a VERSION_1 node gives the messages of a sendRR group a GUID for id
+        String guid = GuidGenerator.guid();
+        DataOutputBuffer buffer = new DataOutputBuffer();
+        buffer.writeUTF(guid);
+        CompactEndpointSerializationHelper.serialize(InetAddress.getByName("127.0.0.2"), buffer);
+        buffer.writeInt(StorageService.Verb.READ.ordinal());
+        buffer.writeInt(0);
+        buffer.writeInt(4);
+        buffer.write("body".getBytes());
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(buffer.getData(), 0, buffer.getLength()));
+        Message request = Message.serializer().deserialize(input, MessagingService.VERSION_1);
+        assertEquals(StorageService.Verb.READ, request.getVerb());
+        assertTrue(request.getMessageId() < 0);
+        assertTrue(Arrays.equals("body".getBytes(), request.getMessageBody()));
+
+        // and gets it back in the reply
+        Message reply = request.getReply(InetAddress.getByName("127.0.0.1"), new byte[0]);
+        assertEquals(request.getMessageId(), reply.getMessageId());
+        DataOutputBuffer replyBuffer = new DataOutputBuffer();
+        Message.serializer().serialize(reply, replyBuffer, MessagingService.VERSION_1);
+        input = new DataInputStream(new ByteArrayInputStream(replyBuffer.getData(), 0, replyBuffer.getLength()));
+        assertEquals(guid, input.readUTF());
+    }
+
+    @Test
+    public void testCompactHeader() throws IOException
+    {
+        Message message = message(new byte[0]);
+        message.setHeader(HeaderTypes.READ_REPAIR, HeaderTypes.READ_REPAIR.getBytes());
+        DataOutputBuffer v1 = new DataOutputBuffer();
+        Message.serializer().serialize(message, v1, MessagingService.VERSION_1);
+        DataOutputBuffer v2 = new DataOutputBuffer();
+        Message.serializer().serialize(message, v2, MessagingService.VERSION_2);
+        // id, address, verb and flags, then the body length
+        assertEquals(4 + 5 + 1 + 1 + 4, v2.getLength());
+        assertTrue(v2.getLength() < v1.getLength());
+    }
+}
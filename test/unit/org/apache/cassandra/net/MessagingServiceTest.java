@@ -0,0 +1,96 @@
+/*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements.  See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership.  The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License.  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.apache.cassandra.net;
+
+import java.net.InetAddress;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.net.sink.IMessageSink;
+import org.apache.cassandra.net.sink.SinkManager;
+import org.apache.cassandra.service.StorageService;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+
+public class MessagingServiceTest
+{
+    @BeforeClass
+    public static void initStorageService()
+    {
+        // StorageService registers the verb handlers with MessagingService, so it has to be loaded first
+        assertNotNull(StorageService.instance);
+    }
+
+    @After
+    public void clearSinks()
+    {
+        SinkManager.clearSinks();
+    }
+
+    @Test
+    public void testTimeoutsPerHost() throws Exception
+    {
+        // drop every request on its way out, but let replies in
+        SinkManager.addMessageSink(new IMessageSink()
+        {
+            public Message handleMessage(Message message, InetAddress to)
+            {
+                return to == null ? message : null;
+            }
+        });
+
+        InetAddress silent = InetAddress.getByName("127.0.0.2");
+        InetAddress answering = InetAddress.getByName("127.0.0.3");
+        final CountDownLatch responses = new CountDownLatch(1);
+        IAsyncCallback callback = new IAsyncCallback()
+        {
+            public void response(Message msg)
+            {
+                responses.countDown();
+            }
+        };
+        Message request = new Message(InetAddress.getByName("127.0.0.1"), StorageService.Verb.READ, new byte[0]);
+        MessagingService.instance.sendRR(request, new InetAddress[]{ silent, answering }, callback);
+        MessagingService.receive(request.getReply(answering, new byte[0]));
+        assertTrue(responses.await(10, TimeUnit.SECONDS));
+
+        long totalTimeouts = MessagingService.instance.getTotalTimeouts();
+        Map<String, Long> timeouts = MessagingService.instance.getTimeoutsPerHost();
+        long deadline = System.currentTimeMillis() + 2 * DatabaseDescriptor.getTimeout(StorageService.Verb.READ);
+        while (!timeouts.containsKey(silent.getHostAddress()) && System.currentTimeMillis() < deadline)
+        {
+            Thread.sleep(100);
+            timeouts = MessagingService.instance.getTimeoutsPerHost();
+        }
+        assertEquals(1L, (long) timeouts.get(silent.getHostAddress()));
+        assertFalse(timeouts.containsKey(answering.getHostAddress()));
+        assertEquals(1L, MessagingService.instance.getTotalTimeouts() - totalTimeouts);
+        assertNull(MessagingService.getRegisteredCallback(request.getMessageId()));
+    }
+}
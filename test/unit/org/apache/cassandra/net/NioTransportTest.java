@@ -0,0 +1,219 @@
+/*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements.  See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership.  The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License.  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.apache.cassandra.net;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.io.util.DataOutputBuffer;
+import org.apache.cassandra.net.sink.IMessageSink;
+import org.apache.cassandra.net.sink.SinkManager;
+import org.apache.cassandra.service.StorageService;
+import org.apache.cassandra.utils.FBUtilities;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertTrue;
+
+public class NioTransportTest
+{
+    private final BlockingQueue<Message> received = new LinkedBlockingQueue<Message>();
+    private NioTransport transport;
+    private ServerSocketChannel server;
+
+    @BeforeClass
+    public static void initStorageService()
+    {
+        // StorageService registers the verb handlers with MessagingService, so it has to be loaded first
+        assertNotNull(StorageService.instance);
+    }
+
+    @Before
+    public void setUp() throws IOException
+    {
+        // keep received messages from the stages, which have no verb handlers here
+        SinkManager.addMessageSink(new IMessageSink()
+        {
+            public Message handleMessage(Message message, InetAddress to)
+            {
+                received.add(message);
+                return null;
+            }
+        });
+        transport = new NioTransport(2);
+        server = ServerSocketChannel.open();
+        server.socket().setReuseAddress(true);
+        server.socket().bind(new InetSocketAddress(FBUtilities.getLocalAddress(), DatabaseDescriptor.getStoragePort()));
+        transport.listen(server);
+    }
+
+    @After
+    public void tearDown() throws IOException
+    {
+        transport.stopListening();
+        transport.shutdown();
+        SinkManager.clearSinks();
+    }
+
+    private static Message message(int i, int size)
+    {
+        byte[] body = new byte[size];
+        Arrays.fill(body, (byte) i);
+        return new Message(FBUtilities.getLocalAddress(), StorageService.Verb.MUTATION, body);
+    }
+
+    private static ByteBuffer frame(Message message) throws IOException
+    {
+        return frame(message, false);
+    }
+
+    private static ByteBuffer frame(Message message, boolean compress) throws IOException
+    {
+        DataOutputBuffer buffer = new DataOutputBuffer();
+        Message.serializer().serialize(message, buffer);
+        return MessagingService.packIt(buffer.getData(), buffer.getLength(), compress, MessagingService.current_version);
+    }
+
+    private void assertReceived(Message expected) throws InterruptedException
+    {
+        Message message = received.poll(10, TimeUnit.SECONDS);
+        assertNotNull(message);
+        assertEquals(expected.getMessageId(), message.getMessageId());
+        assertEquals(expected.getVerb(), message.getVerb());
+        assertTrue(Arrays.equals(expected.getMessageBody(), message.getMessageBody()));
+    }
+
+    @Test
+    public void testFramesSplitAcrossReads() throws IOException, InterruptedException
+    {
+        // the second message is larger than a pooled read buffer, the last one is compressed
+        Message[] messages = new Message[] { message(1, 10), message(2, 3 * SelectorLoop.BUFFER_SIZE), message(3, 0), message(4, 1000) };
+        Socket socket = new Socket(FBUtilities.getLocalAddress(), DatabaseDescriptor.getStoragePort());
+        try
+        {
+            OutputStream out = socket.getOutputStream();
+            for (Message message : messages)
+            {
+                ByteBuffer frame = frame(message, message == messages[3]);
+                if (message == messages[0])
+                {
+                    // dribble the first frame out a few bytes at a time, so that it arrives in pieces
+                    while (frame.hasRemaining())
+                    {
+                        int length = Math.min(5, frame.remaining());
+                        out.write(frame.array(), frame.position(), length);
+                        out.flush();
+                        frame.position(frame.position() + length);
+                        Thread.sleep(1);
+                    }
+                }
+                else
+                {
+                    out.write(frame.array(), frame.position(), frame.remaining());
+                }
+            }
+            for (Message message : messages)
+                assertReceived(message);
+        }
+        finally
+        {
+            socket.close();
+        }
+    }
+
+    @Test
+    public void testOutboundConnection() throws IOException, InterruptedException
+    {
+        NioOutboundTcpConnection connection = new NioOutboundTcpConnection(FBUtilities.getLocalAddress(), transport.nextLoop());
+        Message[] messages = new Message[1000];
+        for (int i = 0; i < messages.length; i++)
+        {
+            messages[i] = message(i, i);
+            connection.write(frame(messages[i]));
+        }
+        // in order, over the one connection
+        for (Message message : messages)
+            assertReceived(message);
+        assertEquals(0, connection.getPendingMessages());
+        assertEquals(messages.length, connection.getCompletedMesssages());
+
+        // and it reconnects after a reset
+        connection.closeSocket();
+        Message message = message(1, 100);
+        connection.write(frame(message));
+        assertReceived(message);
+    }
+
+    @Test
+    public void testBlockingOutboundConnection() throws IOException, InterruptedException
+    {
+        OutboundTcpConnection connection = new OutboundTcpConnection(FBUtilities.getLocalAddress());
+        Message[] messages = new Message[100];
+        for (int i = 0; i < messages.length; i++)
+        {
+            messages[i] = message(i, i);
+            connection.write(frame(messages[i]));
+        }
+        // everything was queued before the connection started, so it goes out in a single write
+        connection.start();
+        try
+        {
+            for (Message message : messages)
+                assertReceived(message);
+            assertEquals((double) messages.length, connection.getMessagesPerWrite());
+        }
+        finally
+        {
+            connection.closeSocket();
+            connection.interrupt();
+            connection.join();
+        }
+    }
+
+    @Test
+    public void testStopListeningReleasesPort() throws IOException
+    {
+        transport.stopListening();
+        // without SO_REUSEADDR, the bind fails if the old channel still holds the port
+        ServerSocketChannel rebound = ServerSocketChannel.open();
+        try
+        {
+            rebound.socket().bind(new InetSocketAddress(FBUtilities.getLocalAddress(), DatabaseDescriptor.getStoragePort()));
+        }
+        finally
+        {
+            rebound.close();
+        }
+    }
+}
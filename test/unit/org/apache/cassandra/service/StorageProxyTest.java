@@ -19,7 +19,16 @@
 package org.apache.cassandra.service;
 
 import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.BeforeClass;
 import org.junit.Test;
@@ -30,8 +39,24 @@ import static org.apache.cassandra.Util.range;
 import static org.apache.cassandra.Util.bounds;
 import static org.apache.cassandra.Util.token;
 
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.db.RangeSliceCommand;
+import org.apache.cassandra.db.Row;
+import org.apache.cassandra.db.RowMutation;
+import org.apache.cassandra.db.filter.QueryPath;
 import org.apache.cassandra.dht.AbstractBounds;
+import org.apache.cassandra.dht.IPartitioner;
+import org.apache.cassandra.gms.Gossiper;
 import org.apache.cassandra.locator.TokenMetadata;
+import org.apache.cassandra.net.Message;
+import org.apache.cassandra.net.MessagingService;
+import org.apache.cassandra.net.sink.IMessageSink;
+import org.apache.cassandra.net.sink.SinkManager;
+import org.apache.cassandra.thrift.ConsistencyLevel;
+import org.apache.cassandra.thrift.SlicePredicate;
+import org.apache.cassandra.thrift.SliceRange;
+import org.apache.cassandra.utils.ByteBufferUtil;
+import org.apache.cassandra.utils.FBUtilities;
 
 public class StorageProxyTest extends CleanupHelper
 {
@@ -106,4 +131,99 @@ public class StorageProxyTest extends CleanupHelper
         // equal tokens are special cased as non-wrapping for bounds
         testGRR(bounds("0", "0"), bounds("0", "0"));
     }
+
+    @Test
+    public void testConcurrentRangeSlice() throws Throwable
+    {
+        // both nodes replicate every range of Keyspace5, so each range is read locally, on the read stage
+        final IPartitioner p = StorageService.getPartitioner();
+        List<ByteBuffer> keys = new ArrayList<ByteBuffer>();
+        for (int i = 0; i < 100; i++)
+            keys.add(ByteBufferUtil.bytes(String.format("%02d", i)));
+        // and a key on each boundary between ranges
+        keys.add(ByteBufferUtil.bytes("1"));
+        keys.add(ByteBufferUtil.bytes("6"));
+        for (ByteBuffer key : keys)
+        {
+            RowMutation rm = new RowMutation("Keyspace5", key);
+            rm.add(new QueryPath("Standard1", null, ByteBufferUtil.bytes("c")), ByteBufferUtil.bytes("v"), 0);
+            rm.apply();
+        }
+        Collections.sort(keys, new Comparator<ByteBuffer>()
+        {
+            public int compare(ByteBuffer k1, ByteBuffer k2)
+            {
+                return p.decorateKey(k1).compareTo(p.decorateKey(k2));
+            }
+        });
+
+        DatabaseDescriptor.setRangeSliceConcurrency(3);
+        try
+        {
+            assertEquals(keys, rangeSliceKeys(range("", ""), 1000));
+            // fewer rows than there are: ranges are read two at a time, then the last alone
+            assertEquals(keys.subList(0, 70), rangeSliceKeys(range("", ""), 70));
+            assertEquals(keys.subList(0, 5), rangeSliceKeys(range("", ""), 5));
+        }
+        finally
+        {
+            DatabaseDescriptor.setRangeSliceConcurrency(1);
+        }
+    }
+
+    private static List<ByteBuffer> rangeSliceKeys(AbstractBounds range, int count) throws Throwable
+    {
+        RangeSliceCommand command = new RangeSliceCommand("Keyspace5", "Standard1", null, slicePredicate(), range, count);
+        List<ByteBuffer> keys = new ArrayList<ByteBuffer>();
+        Set<ByteBuffer> seen = new HashSet<ByteBuffer>();
+        for (Row row : StorageProxy.getRangeSlice(command, ConsistencyLevel.ONE))
+        {
+            assert seen.add(row.key.key) : "duplicate row " + row.key;
+            keys.add(row.key.key);
+        }
+        return keys;
+    }
+
+    private static SlicePredicate slicePredicate()
+    {
+        SliceRange sliceRange = new SliceRange(FBUtilities.EMPTY_BYTE_BUFFER, FBUtilities.EMPTY_BYTE_BUFFER, false, 10);
+        return new SlicePredicate().setSlice_range(sliceRange);
+    }
+
+    @Test
+    public void testCancelRangeSliceRead() throws Throwable
+    {
+        // (1, 6] of Keyspace1 is held only by 127.0.0.6, which is up but never answers
+        final InetAddress remote = InetAddress.getByName("127.0.0.6");
+        Gossiper.instance.initializeNodeUnsafe(remote, 1);
+        final BlockingQueue<Message> requests = new LinkedBlockingQueue<Message>();
+        SinkManager.addMessageSink(new IMessageSink()
+        {
+            public Message handleMessage(Message message, InetAddress to)
+            {
+                if (remote.equals(to))
+                {
+                    requests.add(message);
+                    return null;
+                }
+                return message;
+            }
+        });
+        try
+        {
+            RangeSliceCommand command = new RangeSliceCommand("Keyspace1", "Standard1", null, slicePredicate(), range("1", "6"), 10);
+            StorageProxy.RangeSliceRead read = new StorageProxy.RangeSliceRead(command, command.range, ConsistencyLevel.ONE, false);
+            Message request = requests.poll(10, TimeUnit.SECONDS);
+            assert request != null;
+            assert MessagingService.getRegisteredCallback(request.getMessageId()) != null;
+
+            // a read found not to be needed stops waiting for its replicas
+            read.cancel();
+            assert MessagingService.getRegisteredCallback(request.getMessageId()) == null;
+        }
+        finally
+        {
+            SinkManager.clearSinks();
+        }
+    }
 }
@@ -0,0 +1,127 @@
+/*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements.  See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership.  The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License.  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.apache.cassandra.utils;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class BlockedBloomFilterTest
+{
+    public BlockedBloomFilter bf;
+
+    public BlockedBloomFilterTest()
+    {
+        bf = BlockedBloomFilter.getFilter(FilterTest.ELEMENTS, FilterTest.MAX_FAILURE_RATE);
+    }
+
+    @Before
+    public void clear()
+    {
+        bf.clear();
+    }
+
+    @Test
+    public void testOne()
+    {
+        bf.add(ByteBufferUtil.bytes("a"));
+        assert bf.isPresent(ByteBufferUtil.bytes("a"));
+        assert !bf.isPresent(ByteBufferUtil.bytes("b"));
+    }
+
+    @Test
+    public void testFalsePositivesInt()
+    {
+        FilterTest.testFalsePositives(bf, FilterTest.intKeys(), FilterTest.randomKeys2());
+    }
+
+    @Test
+    public void testFalsePositivesRandom()
+    {
+        FilterTest.testFalsePositives(bf, FilterTest.randomKeys(), FilterTest.randomKeys2());
+    }
+
+    @Test
+    public void testFalsePositivesManyHashes()
+    {
+        // past the bits one mix of the hash provides
+        BloomCalculations.BloomSpecification spec = BloomCalculations.computeBloomSpec(15);
+        assert spec.K >= 8 : spec.K;
+        BlockedBloomFilter filter = BlockedBloomFilter.getFilter(FilterTest.ELEMENTS, 15);
+        ResetableIterator<ByteBuffer> keys = FilterTest.randomKeys();
+        while (keys.hasNext())
+            filter.add(keys.next());
+
+        int fp = 0;
+        ResetableIterator<ByteBuffer> otherkeys = new KeyGenerator.RandomStringGenerator(271828, 100 * FilterTest.ELEMENTS);
+        while (otherkeys.hasNext())
+        {
+            if (filter.isPresent(otherkeys.next()))
+                fp++;
+        }
+        // the extra buckets more than make up for crowding the bits into blocks, leaving the rate below
+        // that of a standard filter with one more bucket per element; not so if probes repeat each other
+        double fp_ratio = fp / (otherkeys.size() * BloomCalculations.probs[spec.bucketsPerElement + 1][spec.K]);
+        assert fp_ratio < 1 : fp_ratio;
+    }
+
+    @Test
+    public void testBuckets()
+    {
+        assert bf.buckets() % BlockedBloomFilter.BLOCK_BITS == 0;
+        assert bf.buckets() >= FilterTest.ELEMENTS * FilterTest.spec.bucketsPerElement;
+        assert bf.emptyBuckets() == bf.buckets();
+        bf.add(ByteBufferUtil.bytes("a"));
+        assert bf.emptyBuckets() == bf.buckets() - bf.getHashCount();
+    }
+
+    @Test
+    public void testSerialize() throws IOException
+    {
+        FilterTest.testSerialize(bf);
+    }
+
+    @Test
+    public void testOpen() throws IOException
+    {
+        ResetableIterator<ByteBuffer> keys = FilterTest.randomKeys();
+        while (keys.hasNext())
+            bf.add(keys.next());
+
+        File file = File.createTempFile("Filter", ".db");
+        file.deleteOnExit();
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+        BlockedBloomFilter.serializer().serialize(bf, out);
+        out.close();
+        assert file.length() == BlockedBloomFilter.HEADER_BYTES + bf.buckets() / 8;
+
+        BlockedBloomFilter mapped = BlockedBloomFilter.open(file.getPath());
+        assert mapped.getHashCount() == bf.getHashCount();
+        assert mapped.buckets() == bf.buckets();
+        assert mapped.emptyBuckets() == bf.emptyBuckets();
+        keys.reset();
+        while (keys.hasNext())
+            assert mapped.isPresent(keys.next());
+    }
+}
@@ -0,0 +1,90 @@
+/*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements.  See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership.  The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License.  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.apache.cassandra.utils;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+
+public class ExpiringIntMapTest
+{
+    private final BlockingQueue<Integer> expired = new LinkedBlockingQueue<Integer>();
+    private final ExpiringIntMap<String> map = new ExpiringIntMap<String>(1, new ExpiringIntMap.ExpirationListener<String>()
+    {
+        public void expired(int key, String value)
+        {
+            assertEquals(String.valueOf(key), value);
+            expired.add(key);
+        }
+    });
+
+    @After
+    public void shutdown()
+    {
+        map.shutdown();
+    }
+
+    @Test
+    public void testExpiry() throws InterruptedException
+    {
+        long start = System.currentTimeMillis();
+        map.put(1, "1", 50);
+        map.put(2, "2", 20);
+        map.put(3, "3", 50);
+        assertEquals("1", map.remove(1));
+        assertEquals(2, map.size());
+
+        assertEquals(2, (int) expired.poll(10, TimeUnit.SECONDS));
+        assertEquals(3, (int) expired.poll(10, TimeUnit.SECONDS));
+        assertTrue(System.currentTimeMillis() - start >= 50);
+        assertTrue(map.isEmpty());
+        // the removed entry does not expire
+        assertNull(expired.poll(100, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testExpiryAfterTurnOfWheel() throws InterruptedException
+    {
+        // the wheel turns every 512 ticks
+        long start = System.currentTimeMillis();
+        map.put(1, "1", 700);
+        assertNull(expired.poll(400, TimeUnit.MILLISECONDS));
+        assertEquals("1", map.get(1));
+        assertEquals(1, (int) expired.poll(10, TimeUnit.SECONDS));
+        assertTrue(System.currentTimeMillis() - start >= 700);
+        assertNull(map.get(1));
+    }
+
+    @Test
+    public void testReplace() throws InterruptedException
+    {
+        map.put(1, "1", 20);
+        map.put(1, "1", 200);
+        // only the entry that replaced the first expires, once
+        assertEquals(1, (int) expired.poll(10, TimeUnit.SECONDS));
+        assertNull(expired.poll(100, TimeUnit.MILLISECONDS));
+    }
+}
@@ -0,0 +1,105 @@
+/*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements.  See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership.  The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License.  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.apache.cassandra.utils;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class LZFCodecTest
+{
+    private static byte[] roundTrip(byte[] data) throws IOException
+    {
+        // compress from and into the middle of arrays, to catch offset mistakes
+        byte[] in = new byte[data.length + 7];
+        System.arraycopy(data, 0, in, 3, data.length);
+        byte[] compressed = new byte[LZFCodec.maxCompressedLength(data.length) + 5];
+        int length = LZFCodec.compress(in, 3, data.length, compressed, 5);
+        assertTrue(length <= LZFCodec.maxCompressedLength(data.length));
+
+        byte[] out = new byte[data.length + 2];
+        LZFCodec.decompress(compressed, 5, length, out, 2, data.length);
+        assertArrayEquals(data, Arrays.copyOfRange(out, 2, out.length));
+        return Arrays.copyOfRange(compressed, 5, 5 + length);
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException
+    {
+        Random random = new Random(0);
+        for (int size : new int[] { 0, 1, 2, 3, 31, 32, 33, 1000, 100000 })
+        {
+            byte[] noise = new byte[size];
+            random.nextBytes(noise);
+            roundTrip(noise);
+
+            byte[] text = new byte[size];
+            for (int i = 0; i < size; i++)
+                text[i] = (byte) ("the quick brown fox ".charAt(random.nextInt(20)));
+            roundTrip(text);
+
+            roundTrip(new byte[size]);
+        }
+    }
+
+    @Test
+    public void testCompresses() throws IOException
+    {
+        byte[] data = new byte[10000];
+        for (int i = 0; i < data.length; i++)
+            data[i] = (byte) (i % 100);
+        // long repeats are runs of maximal back references
+        assertTrue(roundTrip(data).length < data.length / 20);
+    }
+
+    @Test
+    public void testCorruptInput() throws IOException
+    {
+        byte[] data = new byte[1000];
+        for (int i = 0; i < data.length; i++)
+            data[i] = (byte) (i % 10);
+        byte[] compressed = roundTrip(data);
+
+        try
+        {
+            LZFCodec.decompress(compressed, 0, compressed.length - 1, new byte[data.length], 0, data.length);
+            fail("truncated input decompressed");
+        }
+        catch (IOException e)
+        {
+            // expected
+        }
+
+        try
+        {
+            LZFCodec.decompress(compressed, 0, compressed.length, new byte[data.length + 1], 0, data.length + 1);
+            fail("decompressed to the wrong length");
+        }
+        catch (IOException e)
+        {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,66 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.cassandra.utils;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SlabAllocatorTest
+{
+    @Test
+    public void testClone()
+    {
+        SlabAllocator allocator = new SlabAllocator();
+        ByteBuffer original = ByteBuffer.wrap("abcdefgh".getBytes());
+        original.position(2);
+
+        ByteBuffer cloned = allocator.clone(original);
+        assertEquals(original, cloned);
+        assertEquals(2, original.position());
+        assertTrue(cloned.array() != original.array());
+    }
+
+    @Test
+    public void testRegions()
+    {
+        SlabAllocator allocator = new SlabAllocator();
+        assertEquals(0, allocator.getMinimumSize());
+        ByteBuffer first = allocator.allocate(1024);
+        ByteBuffer second = allocator.allocate(1024);
+        // small allocations share a region, without overlapping
+        assertTrue(first.array() == second.array());
+        assertEquals(first.position() + 1024, second.position());
+        assertEquals(0, allocator.getMinimumSize());
+
+        // filling the first region moves on to a second
+        for (int i = 0; i < 1024; i++)
+            allocator.allocate(1024);
+        assertEquals(1024 * 1024, allocator.getMinimumSize());
+
+        // large allocations bypass the regions
+        ByteBuffer large = allocator.allocate(512 * 1024);
+        assertEquals(512 * 1024, large.remaining());
+        assertEquals(1024 * 1024 + 512 * 1024, allocator.getMinimumSize());
+    }
+}